@@ -76,5 +76,8 @@ public class ApiConfig {
 
 	public static final String BEST_WORK =                      API_PREFIX +
 			"best-work";
+
+	public static final String RENDITION_REGENERATION =         API_PREFIX +
+			"renditions/regeneration";
 	// @formatter:on
 }
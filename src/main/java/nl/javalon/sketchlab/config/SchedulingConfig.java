@@ -0,0 +1,15 @@
+package nl.javalon.sketchlab.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables the execution of {@link org.springframework.scheduling.annotation.Scheduled} methods,
+ * such as the background jobs of the blob store.
+ *
+ * @author Jelle Stege
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -204,6 +204,11 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
 				// Version
 				.mvcMatchers(GET, BUILD).permitAll()
 
+				// Rendition regeneration
+				.mvcMatchers(GET, RENDITION_REGENERATION).access(TEACHER)
+				.mvcMatchers(POST, RENDITION_REGENERATION).access(TEACHER)
+				.mvcMatchers(DELETE, RENDITION_REGENERATION).access(TEACHER)
+
 				// Best work
 				.mvcMatchers(GET, BEST_WORK + "/submissions").permitAll()
 				.mvcMatchers(GET, BEST_WORK + "/submissions/{submissionId}/file").permitAll()
@@ -261,6 +266,7 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
 				// Task page image
 				.mvcMatchers(GET, TASK_PAGE_IMAGE).access(C_ANONYMOUS)
 				.mvcMatchers(GET, TASK_PAGE_IMAGE + "/{taskPageImageId}").access(C_ANONYMOUS)
+				.mvcMatchers(GET, TASK_PAGE_IMAGE + "/{taskPageImageId}/renditions").access(C_ANONYMOUS)
 				.mvcMatchers(POST, TASK_PAGE_IMAGE).access(TEACHER)
 				.mvcMatchers(DELETE, TASK_PAGE_IMAGE + "/{taskPageImageId}").access(TEACHER)
 
@@ -303,11 +309,16 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
 				.mvcMatchers(GET, SUBMISSION + "/by-task/{taskid}/by-user/{userId}").access(ANONYMOUS)
 				.mvcMatchers(GET, SUBMISSION + "/by-task/{taskid}/me").access(ANONYMOUS)
 				.mvcMatchers(GET, SUBMISSION + "/by-subgroup/{subgroupId}").access(ANONYMOUS)
+				.mvcMatchers(GET, SUBMISSION + "/sprite").access(ANONYMOUS)
+				.mvcMatchers(GET, SUBMISSION + "/sprite/image").access(ANONYMOUS)
 				.mvcMatchers(GET, SUBMISSION + "/{submissionId}").access(ANONYMOUS)
 				.mvcMatchers(PUT, SUBMISSION + "/{submissionId}").access(STUDENT) // more checks in method
 				.mvcMatchers(PUT, SUBMISSION + "/{submissionId}/vote").access(STUDENT)
 				.mvcMatchers(DELETE, SUBMISSION + "/{submissionId}/vote").access(STUDENT)
 				.mvcMatchers(GET, SUBMISSION + "/{submissionId}/file").access(ANONYMOUS)
+				.mvcMatchers(GET, SUBMISSION + "/{submissionId}/file/renditions").access(ANONYMOUS)
+				.mvcMatchers(GET, SUBMISSION + "/{submissionId}/file/tiles").access(ANONYMOUS)
+				.mvcMatchers(GET, SUBMISSION + "/{submissionId}/file/tiles/{level}/{column}/{row}").access(ANONYMOUS)
 				.mvcMatchers(PUT, SUBMISSION + "/{submissionId}/file").access(STUDENT) // more checks in method
 				.mvcMatchers(GET, SUBMISSION + "/{submissionId}/thumbnail").access(ANONYMOUS)
 				.mvcMatchers(POST, SUBMISSION).access(STUDENT)
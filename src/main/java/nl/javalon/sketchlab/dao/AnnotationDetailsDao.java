@@ -43,19 +43,25 @@ public class AnnotationDetailsDao extends AnnotationDao {
 
 	/**
 	 * Inserts a new annotation into the database and returns the generated data. The generated
-	 * data is returned due to jOOQ not retrieving default SQL values.
+	 * data is returned due to jOOQ not retrieving default SQL values. The annotation count of the
+	 * submission is incremented.
 	 *
 	 * @param annotation The annotation to insert.
 	 * @return The inserted annotation, including possible SQL-generated data.
 	 */
 	public AnnotationDetailsDto insertAndGet(Annotation annotation) {
 		sql.newRecord(ANNOTATION, annotation).insert();
+		int annotationId = sql.lastID().intValue();
+		sql.update(SUBMISSION)
+				.set(SUBMISSION.ANNOTATION_COUNT, SUBMISSION.ANNOTATION_COUNT.add(1))
+				.where(SUBMISSION.ID.eq(annotation.getSubmissionId()))
+				.execute();
 		return sql
 				.select(ANNOTATION.fields())
 				.select(USER.fields())
 				.from(ANNOTATION)
 				.join(USER).on(USER.ID.eq(ANNOTATION.USER_ID))
-				.where(ANNOTATION.ID.eq(sql.lastID().intValue()))
+				.where(ANNOTATION.ID.eq(annotationId))
 				.fetchOne(AnnotationDetailsDao::mapAnnotationDetailsDto);
 	}
 
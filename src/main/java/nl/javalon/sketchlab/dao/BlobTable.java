@@ -0,0 +1,92 @@
+package nl.javalon.sketchlab.dao;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.jooq.Field;
+import org.jooq.Table;
+import org.jooq.TableField;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static nl.javalon.sketchlab.entity.Tables.*;
+
+/**
+ * Describes a table of which the image data is stored in the blob store. Rows which have not been
+ * migrated yet have their data stored inline and no blob hash.
+ *
+ * @param <K> The type of the primary key of the table.
+ * @author Jelle Stege
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public final class BlobTable<K> {
+	public static final BlobTable<Integer> SUBMISSION_FILES = new BlobTable<>(
+			SUBMISSION_FILE,
+			SUBMISSION_FILE.SUBMISSION_ID,
+			SUBMISSION_FILE.DATA,
+			SUBMISSION_FILE.BLOB_HASH,
+			SUBMISSION_FILE.BLOB_SIZE);
+	public static final BlobTable<Integer> SUBMISSION_THUMBNAILS = new BlobTable<>(
+			SUBMISSION_THUMBNAIL,
+			SUBMISSION_THUMBNAIL.SUBMISSION_ID,
+			SUBMISSION_THUMBNAIL.DATA,
+			SUBMISSION_THUMBNAIL.BLOB_HASH,
+			SUBMISSION_THUMBNAIL.BLOB_SIZE);
+	public static final BlobTable<Integer> EXAMPLE_SUBMISSION_FILES = new BlobTable<>(
+			EXAMPLE_SUBMISSION_FILE,
+			EXAMPLE_SUBMISSION_FILE.EXAMPLE_SUBMISSION_ID,
+			EXAMPLE_SUBMISSION_FILE.DATA,
+			EXAMPLE_SUBMISSION_FILE.BLOB_HASH,
+			EXAMPLE_SUBMISSION_FILE.BLOB_SIZE);
+	public static final BlobTable<Integer> EXAMPLE_SUBMISSION_THUMBNAILS = new BlobTable<>(
+			EXAMPLE_SUBMISSION_THUMBNAIL,
+			EXAMPLE_SUBMISSION_THUMBNAIL.EXAMPLE_SUBMISSION_ID,
+			EXAMPLE_SUBMISSION_THUMBNAIL.DATA,
+			EXAMPLE_SUBMISSION_THUMBNAIL.BLOB_HASH,
+			EXAMPLE_SUBMISSION_THUMBNAIL.BLOB_SIZE);
+	public static final BlobTable<Integer> TASK_PAGE_IMAGES = new BlobTable<>(
+			TASK_PAGE_IMAGE,
+			TASK_PAGE_IMAGE.ID,
+			TASK_PAGE_IMAGE.DATA,
+			TASK_PAGE_IMAGE.BLOB_HASH,
+			TASK_PAGE_IMAGE.BLOB_SIZE);
+	public static final BlobTable<UUID> USER_AVATARS = new BlobTable<>(
+			USER_AVATAR,
+			USER_AVATAR.USER_ID,
+			USER_AVATAR.IMAGE,
+			USER_AVATAR.BLOB_HASH,
+			USER_AVATAR.BLOB_SIZE);
+
+	/**
+	 * All tables which store their data in the blob store.
+	 */
+	public static final List<BlobTable<?>> ALL = Collections.unmodifiableList(Arrays.asList(
+			SUBMISSION_FILES,
+			SUBMISSION_THUMBNAILS,
+			EXAMPLE_SUBMISSION_FILES,
+			EXAMPLE_SUBMISSION_THUMBNAILS,
+			TASK_PAGE_IMAGES,
+			USER_AVATARS));
+
+	private final Table<?> table;
+	private final TableField<?, K> key;
+	private final TableField<?, byte[]> data;
+	private final TableField<?, String> hash;
+	private final TableField<?, Integer> size;
+
+	/**
+	 * Returns all fields of the table except for the inline data, such that rows which have not
+	 * been migrated yet can be retrieved without loading their data.
+	 *
+	 * @return All fields of the table but the data field.
+	 */
+	public Field<?>[] getMetadataFields() {
+		return Arrays.stream(table.fields())
+				.filter(field -> !field.equals(data))
+				.toArray(Field<?>[]::new);
+	}
+}
@@ -0,0 +1,268 @@
+package nl.javalon.sketchlab.dao;
+
+import nl.javalon.sketchlab.service.BlobStore;
+import nl.javalon.sketchlab.service.ImageService.RotationState;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Record2;
+import org.jooq.TableField;
+import org.jooq.impl.DSL;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * DAO for operations on all tables storing image data, see {@link BlobTable}. Reads the data of
+ * rows which have not been migrated yet and moves it from the database to the {@link BlobStore}.
+ *
+ * @author Jelle Stege
+ */
+@Repository
+public class BlobTableDao {
+	private final DSLContext sql;
+	private final BlobStore blobStore;
+
+	/**
+	 * Instantiates the {@link BlobTableDao} using the used {@link DSLContext} and the
+	 * {@link BlobStore} in which the data is stored.
+	 *
+	 * @param sql       The used DSL context.
+	 * @param blobStore The blob store in which the data is stored.
+	 */
+	@Autowired
+	public BlobTableDao(DSLContext sql, BlobStore blobStore) {
+		this.sql = sql;
+		this.blobStore = blobStore;
+	}
+
+	/**
+	 * Prepares a field containing the version of an image, which is used as its ETag and as
+	 * version parameter in the URL of the image. Matches
+	 * {@link nl.javalon.sketchlab.service.FileService#version(String, RotationState)}.
+	 *
+	 * @param hash     The blob hash column of the image.
+	 * @param rotation The rotation column of the image.
+	 * @return The field containing the version.
+	 */
+	public static Field<String> version(Field<String> hash, Field<String> rotation) {
+		return DSL.decode()
+				.when(rotation.eq(RotationState.ROT0.name()), hash)
+				.otherwise(hash.concat(DSL.val("-"), rotation));
+	}
+
+	/**
+	 * Retrieves the image data of the row with the given key, either from the blob store or, when
+	 * it has not been migrated yet, from the row itself.
+	 *
+	 * @param blobTable The table the row belongs to.
+	 * @param key       The primary key of the row.
+	 * @param hash      The blob hash of the row, or null if the data is stored inline.
+	 * @param <K>       The type of the primary key of the table.
+	 * @return The image data, or null if no such row exists.
+	 * @throws IOException When the data could not be read from the blob store.
+	 */
+	public <K> byte[] fetchData(BlobTable<K> blobTable, K key, String hash) throws IOException {
+		if (hash != null) {
+			return blobStore.get(hash);
+		}
+		return sql
+				.select(blobTable.getData())
+				.from(blobTable.getTable())
+				.where(blobTable.getKey().eq(key))
+				.fetchOne(blobTable.getData());
+	}
+
+	/**
+	 * Retrieves the image data of the given row of the given table, like
+	 * {@link #fetchData(BlobTable, Object, String)}.
+	 *
+	 * @param blobTable The table the row belongs to.
+	 * @param row       The POJO of the row, of which at least the key and blob hash are set.
+	 * @param <K>       The type of the primary key of the table.
+	 * @return The image data, or null if no such row exists.
+	 * @throws IOException When the data could not be read from the blob store.
+	 */
+	public <K> byte[] fetchData(BlobTable<K> blobTable, Object row) throws IOException {
+		Record record = sql.newRecord(blobTable.getTable(), row);
+		return fetchData(
+				blobTable, record.get(blobTable.getKey()), record.get(blobTable.getHash()));
+	}
+
+	/**
+	 * Stores the given data in the blob store and references it from the given row of the given
+	 * table, replacing any data stored inline. Only the POJO of the row is changed, it still has
+	 * to be inserted or updated.
+	 *
+	 * @param blobTable The table the row belongs to.
+	 * @param row       The POJO of the row to reference the data from.
+	 * @param data      The image data.
+	 * @throws IOException When the data could not be stored.
+	 */
+	public void storeData(BlobTable<?> blobTable, Object row, byte[] data) throws IOException {
+		Record record = sql.newRecord(blobTable.getTable(), row);
+		record.set(blobTable.getHash(), blobStore.put(data));
+		record.set(blobTable.getSize(), data.length);
+		record.set(blobTable.getData(), null);
+		record.into(row);
+	}
+
+	/**
+	 * Retrieves the length of the data stored inline in the row with the given key, without
+	 * retrieving the data itself. When the row has been migrated to the blob store meanwhile, the
+	 * size of its blob is returned instead, which is the size of the same data.
+	 *
+	 * @param blobTable The table the row belongs to.
+	 * @param key       The primary key of the row.
+	 * @param <K>       The type of the primary key of the table.
+	 * @return The length of the data in bytes, or 0 if the row has no data.
+	 */
+	public <K> int fetchInlineSize(BlobTable<K> blobTable, K key) {
+		Integer size = sql
+				.select(DSL.coalesce(
+						DSL.field("octet_length({0})", Integer.class, blobTable.getData()),
+						blobTable.getSize()))
+				.from(blobTable.getTable())
+				.where(blobTable.getKey().eq(key))
+				.fetchOne(0, Integer.class);
+		return size != null ? size : 0;
+	}
+
+	/**
+	 * Retrieves a range of the data stored inline in the row with the given key. Only the
+	 * requested range is read and transferred by the database. When the row has been migrated to
+	 * the blob store meanwhile, the range is read from its blob instead, such that a response
+	 * which started before the migration can still be completed.
+	 *
+	 * @param blobTable The table the row belongs to.
+	 * @param key       The primary key of the row.
+	 * @param offset    The zero based offset of the first byte to retrieve.
+	 * @param length    The amount of bytes to retrieve.
+	 * @param <K>       The type of the primary key of the table.
+	 * @return The requested range of the data, or null if the row has no data.
+	 * @throws IOException When the range could not be read from the blob store.
+	 */
+	public <K> byte[] fetchInlineRange(BlobTable<K> blobTable, K key, int offset, int length)
+			throws IOException {
+		Field<byte[]> range = DSL.field(
+				"substring({0} from {1} for {2})",
+				byte[].class,
+				blobTable.getData(), DSL.val(offset + 1), DSL.val(length));
+		Record2<byte[], String> row = sql
+				.select(range, blobTable.getHash())
+				.from(blobTable.getTable())
+				.where(blobTable.getKey().eq(key))
+				.fetchOne();
+		if (row == null) {
+			return null;
+		} else if (row.value1() != null || row.value2() == null) {
+			return row.value1();
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		try (FileChannel channel =
+				FileChannel.open(blobStore.getPath(row.value2()), StandardOpenOption.READ)) {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, offset + buffer.position()) < 0) {
+					throw new EOFException("The blob of the image is shorter than its range");
+				}
+			}
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Moves the inline data of at most batchSize rows of the given table to the blob store. Rows
+	 * are only updated when they have not been migrated in the meantime, so running this
+	 * concurrently is harmless.
+	 *
+	 * @param blobTable The table to migrate.
+	 * @param batchSize The maximum amount of rows to migrate.
+	 * @param <K>       The type of the primary key of the table.
+	 * @return The amount of rows which were migrated.
+	 * @throws IOException When the data could not be written to the blob store.
+	 */
+	@Transactional
+	public <K> int migrateBatch(BlobTable<K> blobTable, int batchSize) throws IOException {
+		List<Record2<K, byte[]>> rows = sql
+				.select(blobTable.getKey(), blobTable.getData())
+				.from(blobTable.getTable())
+				.where(blobTable.getHash().isNull())
+				.and(blobTable.getData().isNotNull())
+				.limit(batchSize)
+				.fetch();
+
+		int migrated = 0;
+		for (Record2<K, byte[]> row : rows) {
+			byte[] data = row.value2();
+			String hash = blobStore.put(data);
+			migrated += sql.update(blobTable.getTable())
+					.set(blobTable.getHash(), hash)
+					.set(blobTable.getSize(), data.length)
+					.set(blobTable.getData(), (byte[]) null)
+					.where(blobTable.getKey().eq(row.value1()))
+					.and(blobTable.getHash().isNull())
+					.execute();
+		}
+		return migrated;
+	}
+
+	/**
+	 * Retrieves the keys of the rows of the given table following the given key, in key order.
+	 * Uses keyset paging, so retrieving a page takes equally long wherever it is in the table,
+	 * and rows which are inserted or deleted meanwhile do not shift the pages.
+	 *
+	 * @param blobTable The table to retrieve the keys of.
+	 * @param after     The key of the last row of the previous page, or null for the first page.
+	 * @param limit     The maximum amount of keys to retrieve.
+	 * @param <K>       The type of the primary key of the table.
+	 * @return The keys of the next page, in ascending order.
+	 */
+	public <K> List<K> fetchKeysAfter(BlobTable<K> blobTable, K after, int limit) {
+		TableField<?, K> key = blobTable.getKey();
+		return sql
+				.select(key)
+				.from(blobTable.getTable())
+				.where(after != null ? key.gt(after) : DSL.trueCondition())
+				.orderBy(key)
+				.limit(limit)
+				.fetch(key);
+	}
+
+	/**
+	 * Counts the rows of the given table.
+	 *
+	 * @param blobTable The table to count the rows of.
+	 * @return The amount of rows.
+	 */
+	public int count(BlobTable<?> blobTable) {
+		return sql.fetchCount(blobTable.getTable());
+	}
+
+	/**
+	 * Retrieves the hashes of all blobs which are referenced by any of the image tables.
+	 *
+	 * @return A set of all referenced blob hashes.
+	 */
+	@Transactional(readOnly = true)
+	public Set<String> fetchReferencedHashes() {
+		Set<String> hashes = new HashSet<>();
+		for (BlobTable<?> blobTable : BlobTable.ALL) {
+			hashes.addAll(sql
+					.selectDistinct(blobTable.getHash())
+					.from(blobTable.getTable())
+					.where(blobTable.getHash().isNotNull())
+					.fetch(blobTable.getHash()));
+		}
+		return hashes;
+	}
+}
@@ -29,6 +29,7 @@ import java.util.Map;
 @Repository
 public class ChapterDetailsDao extends ChapterDao {
 	private DSLContext sql;
+	private final SubmissionDetailsDao submissionDao;
 
 	/**
 	 * Instantiates the {@link ChapterDetailsDao} using a jOOQ {@link Configuration} and the used
@@ -36,11 +37,25 @@ public class ChapterDetailsDao extends ChapterDao {
 	 *
 	 * @param configuration The used jOOQ configuration.
 	 * @param sql           The used DSL context.
+	 * @param submissionDao The DAO of which the cached totals are discarded on deletes.
 	 */
 	@Autowired
-	public ChapterDetailsDao(Configuration configuration, DSLContext sql) {
+	public ChapterDetailsDao(
+			Configuration configuration, DSLContext sql, SubmissionDetailsDao submissionDao) {
 		super(configuration);
 		this.sql = sql;
+		this.submissionDao = submissionDao;
+	}
+
+	/**
+	 * Deletes the chapter with the given ID, along with its tasks, chapter groups and submissions
+	 * through cascades.
+	 *
+	 * @param chapterId The ID of the chapter.
+	 */
+	public void deleteById(int chapterId) {
+		sql.deleteFrom(CHAPTER).where(CHAPTER.ID.eq(chapterId)).execute();
+		submissionDao.invalidateCounts();
 	}
 
 	/**
@@ -34,6 +34,7 @@ import static nl.javalon.sketchlab.entity.tables.Task.TASK;
 public class ChapterGroupDetailsDao extends ChapterGroupDao {
 
 	private final DSLContext sql;
+	private final SubmissionDetailsDao submissionDao;
 
 	/**
 	 * Instantiates the {@link ChapterGroupDetailsDao} using a jOOQ {@link Configuration} and the
@@ -41,11 +42,24 @@ public class ChapterGroupDetailsDao extends ChapterGroupDao {
 	 *
 	 * @param configuration The used jOOQ configuration.
 	 * @param sql           The used DSL context.
+	 * @param submissionDao The DAO of which the cached totals are discarded on deletes.
 	 */
 	@Autowired
-	public ChapterGroupDetailsDao(Configuration configuration, DSLContext sql) {
+	public ChapterGroupDetailsDao(
+			Configuration configuration, DSLContext sql, SubmissionDetailsDao submissionDao) {
 		super(configuration);
 		this.sql = sql;
+		this.submissionDao = submissionDao;
+	}
+
+	/**
+	 * Deletes the chapter group with the given ID, along with its submissions through cascades.
+	 *
+	 * @param chapterGroupId The ID of the chapter group.
+	 */
+	public void deleteById(int chapterGroupId) {
+		sql.deleteFrom(CHAPTER_GROUP).where(CHAPTER_GROUP.ID.eq(chapterGroupId)).execute();
+		submissionDao.invalidateCounts();
 	}
 
 	/**
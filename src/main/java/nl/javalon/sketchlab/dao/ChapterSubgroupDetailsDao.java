@@ -26,6 +26,7 @@ import java.util.UUID;
 public class ChapterSubgroupDetailsDao extends ChapterSubgroupDao {
 
 	private final DSLContext sql;
+	private final SubmissionDetailsDao submissionDao;
 
 	/**
 	 * Instantiates the {@link ChapterSubgroupDetailsDao} using a jOOQ {@link Configuration} and the
@@ -33,11 +34,24 @@ public class ChapterSubgroupDetailsDao extends ChapterSubgroupDao {
 	 *
 	 * @param configuration The used jOOQ configuration.
 	 * @param sql           The used DSL context.
+	 * @param submissionDao The DAO of which the cached totals are discarded on deletes.
 	 */
 	@Autowired
-	public ChapterSubgroupDetailsDao(Configuration configuration, DSLContext sql) {
+	public ChapterSubgroupDetailsDao(
+			Configuration configuration, DSLContext sql, SubmissionDetailsDao submissionDao) {
 		super(configuration);
 		this.sql = sql;
+		this.submissionDao = submissionDao;
+	}
+
+	/**
+	 * Deletes the subgroup with the given ID, along with its enrollments through cascades.
+	 *
+	 * @param subgroupId The ID of the subgroup.
+	 */
+	public void deleteById(int subgroupId) {
+		sql.deleteFrom(CHAPTER_SUBGROUP).where(CHAPTER_SUBGROUP.ID.eq(subgroupId)).execute();
+		submissionDao.invalidateCounts();
 	}
 
 	/**
@@ -0,0 +1,207 @@
+package nl.javalon.sketchlab.dao;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import nl.javalon.sketchlab.service.SketchlabPropertiesMapper;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.SQLDialect;
+import org.jooq.Select;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the totals of paginated lists, such that paging through a list does not count all of its
+ * items for every page. Totals are cached by their count query, including its parameters, for a
+ * short time, and grouped in regions which can be discarded when the counted rows change. On
+ * PostgreSQL, large totals can be estimated by the query planner instead of counted.
+ *
+ * @author Jelle Stege
+ */
+@Slf4j
+@Component
+public class CountCache implements PublicMetrics {
+	private static final String METRIC_PREFIX = "count.cache.";
+
+	private final DSLContext sql;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	@Getter
+	private final long ttl;
+	@Getter
+	private final int estimateThreshold;
+	private final Map<String, Region> regions = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong estimates = new AtomicLong();
+
+	/**
+	 * Instantiates the {@link CountCache} using the sketchlab.pagination properties.
+	 *
+	 * @param sql        The used DSL context.
+	 * @param properties The application properties.
+	 */
+	@Autowired
+	public CountCache(DSLContext sql, SketchlabPropertiesMapper properties) {
+		this(sql,
+				properties.getPagination().getCountCacheTtl(),
+				properties.getPagination().getEstimateThreshold());
+	}
+
+	/**
+	 * Instantiates the {@link CountCache}.
+	 *
+	 * @param sql               The used DSL context.
+	 * @param ttl               The amount of milliseconds a total is cached.
+	 * @param estimateThreshold The total above which a planner estimate is used instead of a
+	 *                          count, or 0 to always count.
+	 */
+	public CountCache(DSLContext sql, long ttl, int estimateThreshold) {
+		this.sql = sql;
+		this.ttl = ttl;
+		this.estimateThreshold = estimateThreshold;
+	}
+
+	/**
+	 * Returns the result of the given count query, from the cache if it has been counted recently.
+	 *
+	 * @param region     The region to cache the total in, usually the table which is counted.
+	 * @param countQuery The query counting the items of the list, selecting a single number.
+	 * @return The total amount of items of the list.
+	 */
+	public Count count(String region, Select<? extends Record> countQuery) {
+		String key = sql.renderInlined(countQuery);
+		Region cached = regions.computeIfAbsent(region, r -> new Region());
+		long now = System.currentTimeMillis();
+		Entry entry = cached.entries.get(key);
+		if (entry != null && entry.expiresAt > now) {
+			hits.incrementAndGet();
+			return entry.count;
+		}
+
+		misses.incrementAndGet();
+		long generation = cached.generation.get();
+		Count count = estimate(key);
+		if (count == null) {
+			count = new Count(sql.fetchOne(countQuery).get(0, Integer.class), true);
+		}
+
+		cached.entries.values().removeIf(e -> e.expiresAt <= now);
+		// Do not cache a total which was counted while the region was invalidated.
+		if (cached.generation.get() == generation) {
+			cached.entries.put(key, new Entry(count, now + ttl));
+		}
+		return count;
+	}
+
+	/**
+	 * Discards all totals cached in the given region, e.g. because rows have been inserted into
+	 * the counted table. When called in a transaction, the totals are discarded again after it has
+	 * been committed, as totals counted in the meantime do not include its changes.
+	 *
+	 * @param region The region to discard.
+	 */
+	public void invalidate(String region) {
+		clear(region);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(
+					new TransactionSynchronizationAdapter() {
+						@Override
+						public void afterCommit() {
+							clear(region);
+						}
+					});
+		}
+	}
+
+	private void clear(String region) {
+		Region cached = regions.get(region);
+		if (cached != null) {
+			cached.generation.incrementAndGet();
+			cached.entries.clear();
+		}
+	}
+
+	/**
+	 * Estimates the result of the given count query using the query planner of PostgreSQL, which
+	 * estimates the amount of rows counted from the table statistics rather than reading them.
+	 *
+	 * @param countQuery The count query, with inlined parameters.
+	 * @return The estimated total, or null if it should be counted instead: when estimates are
+	 * disabled or not supported by the database, or if the estimate is below the threshold.
+	 */
+	private Count estimate(String countQuery) {
+		if (estimateThreshold <= 0 || sql.dialect().family() != SQLDialect.POSTGRES) {
+			return null;
+		}
+		try {
+			String plan = sql.fetchOne("EXPLAIN (FORMAT JSON) " + countQuery).get(0, String.class);
+			// The count is an aggregate of a single row, its input node holds the counted rows.
+			JsonNode counted = objectMapper.readTree(plan)
+					.path(0).path("Plan").path("Plans").path(0).path("Plan Rows");
+			if (!counted.isNumber() || counted.asLong() <= estimateThreshold) {
+				return null;
+			}
+			estimates.incrementAndGet();
+			return new Count((int) Math.min(counted.asLong(), Integer.MAX_VALUE), false);
+		} catch (IOException e) {
+			log.warn("Could not read the query plan of " + countQuery, e);
+			return null;
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		return Arrays.asList(
+				new Metric<>(METRIC_PREFIX + "entries", regions.values().stream()
+						.mapToInt(region -> region.entries.size()).sum()),
+				new Metric<>(METRIC_PREFIX + "hits", hits.get()),
+				new Metric<>(METRIC_PREFIX + "misses", misses.get()),
+				new Metric<>(METRIC_PREFIX + "estimates", estimates.get()));
+	}
+
+	/**
+	 * The total amount of items of a list.
+	 */
+	@Getter
+	@AllArgsConstructor
+	public static class Count {
+		/**
+		 * The amount of items.
+		 */
+		private final int value;
+
+		/**
+		 * Whether the items have been counted, or the amount is an estimate.
+		 */
+		private final boolean exact;
+	}
+
+	/**
+	 * The cached totals of a region, by their count query.
+	 */
+	private static class Region {
+		private final AtomicLong generation = new AtomicLong();
+		private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	}
+
+	@AllArgsConstructor
+	private static class Entry {
+		private final Count count;
+		private final long expiresAt;
+	}
+}
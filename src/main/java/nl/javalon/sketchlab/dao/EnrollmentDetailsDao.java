@@ -32,7 +32,6 @@ import java.util.UUID;
 @Repository
 public class EnrollmentDetailsDao extends EnrollmentDao {
 	private final DSLContext sql;
-	private final UserDetailsDao userDao;
 
 	/**
 	 * Instantiates the {@link EnrollmentDetailsDao} using a jOOQ {@link Configuration} and the used
@@ -43,30 +42,37 @@ public class EnrollmentDetailsDao extends EnrollmentDao {
 	 */
 
 	@Autowired
-	public EnrollmentDetailsDao(Configuration configuration, DSLContext sql, UserDetailsDao userDao) {
+	public EnrollmentDetailsDao(Configuration configuration, DSLContext sql) {
 		super(configuration);
 		this.sql = sql;
-		this.userDao = userDao;
 	}
 
 	/**
-	 * Mapper function to map the result of a query to a {@link EnrollmentDetailsDto}.
+	 * Mapper function to map the result of a query to a {@link EnrollmentDetailsDto} of an
+	 * assistant, including its user.
 	 *
 	 * @param record    The result of the query
 	 * @param isTeacher Whether the requesting user is a teacher. This parameter is used to
 	 *                  fill the friendly ID field of the user object.
 	 * @return An {@link EnrollmentDetailsDto}, containing the result of the query.
 	 */
-	private EnrollmentDetailsDto mapEnrollmentAndFetchUser(Record record, boolean isTeacher) {
+	private EnrollmentDetailsDto mapAssistantEnrollment(Record record, boolean isTeacher) {
 		EnrollmentDetailsDto enrollment = record
 				.into(ENROLLMENT.fields())
 				.into(EnrollmentDetailsDto.class);
 		ChapterGroup chapterGroup = record
 				.into(CHAPTER_GROUP.fields())
 				.into(ChapterGroup.class);
+		UserDetailsDto user = record
+				.into(USER.fields())
+				.into(UserDetailsDto.class);
+		if (isTeacher) {
+			user.setFriendlyId(record.get("friendly_id", String.class));
+		}
+		// The user is an assistant of this enrollment, so there is no need to look it up.
+		user.setTa(true);
 
 		enrollment.setChapterGroup(chapterGroup);
-		UserDetailsDto user = userDao.findById(enrollment.getUserId(), isTeacher);
 		enrollment.setUser(user);
 		return enrollment;
 	}
@@ -172,10 +178,16 @@ public class EnrollmentDetailsDao extends EnrollmentDao {
 	 * @return All enrollments for the assistants.
 	 */
 	public List<EnrollmentDetailsDto> fetchAssistantsById(int chapterGroupId, boolean isTeacher) {
-		return prepareQuery()
+		return UserDetailsDao.buildFriendlyIdField(sql.select(ENROLLMENT.fields()), isTeacher)
+				.select(CHAPTER_GROUP.fields())
+				.select(USER.fields())
+				.from(ENROLLMENT)
+				.join(CHAPTER_GROUP).on(CHAPTER_GROUP.ID.eq(ENROLLMENT.CHAPTER_GROUP_ID))
+				.join(USER).on(USER.ID.eq(ENROLLMENT.USER_ID))
+				.leftJoin(UTWENTE_USER).on(UTWENTE_USER.USER_ID.eq(USER.ID))
 				.where(ENROLLMENT.ASSISTANT.eq(true))
 				.and(ENROLLMENT.CHAPTER_GROUP_ID.eq(chapterGroupId))
-				.fetch(record -> mapEnrollmentAndFetchUser(record, isTeacher));
+				.fetch(record -> mapAssistantEnrollment(record, isTeacher));
 	}
 
 	/**
@@ -25,6 +25,26 @@ import java.util.List;
  */
 @Repository
 public class ExampleSubmissionDetailsDao extends ExampleSubmissionDao {
+	/**
+	 * Prepares a field containing the version (blob hash) of the file of the selected example
+	 * submission.
+	 */
+	public static Field<String> FILE_VERSION = DSL.field(DSL
+			.select(EXAMPLE_SUBMISSION_FILE.BLOB_HASH)
+			.from(EXAMPLE_SUBMISSION_FILE)
+			.where(EXAMPLE_SUBMISSION_FILE.EXAMPLE_SUBMISSION_ID.eq(EXAMPLE_SUBMISSION.ID))
+	).as("file_version");
+
+	/**
+	 * Prepares a field containing the version (blob hash) of the thumbnail of the selected example
+	 * submission.
+	 */
+	public static Field<String> THUMBNAIL_VERSION = DSL.field(DSL
+			.select(EXAMPLE_SUBMISSION_THUMBNAIL.BLOB_HASH)
+			.from(EXAMPLE_SUBMISSION_THUMBNAIL)
+			.where(EXAMPLE_SUBMISSION_THUMBNAIL.EXAMPLE_SUBMISSION_ID.eq(EXAMPLE_SUBMISSION.ID))
+	).as("thumbnail_version");
+
 	private final DSLContext sql;
 
 	/**
@@ -62,6 +82,7 @@ public class ExampleSubmissionDetailsDao extends ExampleSubmissionDao {
 	public List<ExampleSubmissionDetailsDto> fetchDetailedByTask(int taskId, int chapterId) {
 		return sql
 				.select(EXAMPLE_SUBMISSION.fields())
+				.select(FILE_VERSION, THUMBNAIL_VERSION)
 				.select(USER.fields())
 				.from(EXAMPLE_SUBMISSION)
 				.join(TASK).on(TASK.ID.eq(EXAMPLE_SUBMISSION.TASK_ID))
@@ -85,6 +106,7 @@ public class ExampleSubmissionDetailsDao extends ExampleSubmissionDao {
 			int exampleSubmissionId, int taskId, int chapterId) {
 		return sql
 				.select(EXAMPLE_SUBMISSION.fields())
+				.select(FILE_VERSION, THUMBNAIL_VERSION)
 				.select(USER.fields())
 				.from(EXAMPLE_SUBMISSION)
 				.join(USER).on(EXAMPLE_SUBMISSION.USER_ID.eq(USER.ID))
@@ -121,33 +143,45 @@ public class ExampleSubmissionDetailsDao extends ExampleSubmissionDao {
 	 */
 	public void copyExampleSubmissions(int sourceTaskId, int targetTaskId) {
 		for (ExampleSubmission exampleSubmission : this.fetchByTaskId(sourceTaskId)) {
+			int sourceSubmissionId = exampleSubmission.getId();
 			exampleSubmission.setId(null);
 			exampleSubmission.setTaskId(targetTaskId);
 			sql.newRecord(EXAMPLE_SUBMISSION, exampleSubmission).insert();
 			int targetSubmissionId = sql.lastID().intValue();
 
-			// submission file
+			// submission file, which shares its blob with the source file
 			Select selectSubmissionFile = sql
 					.select(DSL.value(targetSubmissionId).as(EXAMPLE_SUBMISSION_FILE.EXAMPLE_SUBMISSION_ID))
 					.select(EXAMPLE_SUBMISSION_FILE.MIME_TYPE)
 					.select(EXAMPLE_SUBMISSION_FILE.DATA)
+					.select(EXAMPLE_SUBMISSION_FILE.BLOB_HASH)
+					.select(EXAMPLE_SUBMISSION_FILE.BLOB_SIZE)
 					.from(EXAMPLE_SUBMISSION_FILE)
-					.where(EXAMPLE_SUBMISSION_FILE
-							.EXAMPLE_SUBMISSION_ID.eq(exampleSubmission.getId()));
-
-			sql.insertInto(EXAMPLE_SUBMISSION_FILE)
+					.where(EXAMPLE_SUBMISSION_FILE.EXAMPLE_SUBMISSION_ID.eq(sourceSubmissionId));
+
+			sql.insertInto(EXAMPLE_SUBMISSION_FILE,
+					EXAMPLE_SUBMISSION_FILE.EXAMPLE_SUBMISSION_ID,
+					EXAMPLE_SUBMISSION_FILE.MIME_TYPE,
+					EXAMPLE_SUBMISSION_FILE.DATA,
+					EXAMPLE_SUBMISSION_FILE.BLOB_HASH,
+					EXAMPLE_SUBMISSION_FILE.BLOB_SIZE)
 					.select(selectSubmissionFile)
 					.execute();
 
-			// submission thumbnail
+			// submission thumbnail, which shares its blob with the source thumbnail
 			Select selectSubmissionThumbnail = sql
 					.select(DSL.value(targetSubmissionId).as(EXAMPLE_SUBMISSION_THUMBNAIL.EXAMPLE_SUBMISSION_ID))
 					.select(EXAMPLE_SUBMISSION_THUMBNAIL.DATA)
+					.select(EXAMPLE_SUBMISSION_THUMBNAIL.BLOB_HASH)
+					.select(EXAMPLE_SUBMISSION_THUMBNAIL.BLOB_SIZE)
 					.from(EXAMPLE_SUBMISSION_THUMBNAIL)
-					.where(EXAMPLE_SUBMISSION_THUMBNAIL
-							.EXAMPLE_SUBMISSION_ID.eq(exampleSubmission.getId()));
+					.where(EXAMPLE_SUBMISSION_THUMBNAIL.EXAMPLE_SUBMISSION_ID.eq(sourceSubmissionId));
 
-			sql.insertInto(EXAMPLE_SUBMISSION_THUMBNAIL)
+			sql.insertInto(EXAMPLE_SUBMISSION_THUMBNAIL,
+					EXAMPLE_SUBMISSION_THUMBNAIL.EXAMPLE_SUBMISSION_ID,
+					EXAMPLE_SUBMISSION_THUMBNAIL.DATA,
+					EXAMPLE_SUBMISSION_THUMBNAIL.BLOB_HASH,
+					EXAMPLE_SUBMISSION_THUMBNAIL.BLOB_SIZE)
 					.select(selectSubmissionThumbnail)
 					.execute();
 		}
@@ -166,6 +200,8 @@ public class ExampleSubmissionDetailsDao extends ExampleSubmissionDao {
 				.into(ExampleSubmissionDetailsDto.class);
 
 		submission.setUser(user);
+		submission.setFileVersion(record.get(FILE_VERSION));
+		submission.setThumbnailVersion(record.get(THUMBNAIL_VERSION));
 		return submission;
 	}
 }
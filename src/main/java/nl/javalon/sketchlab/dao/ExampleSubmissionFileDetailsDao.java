@@ -9,6 +9,8 @@ import org.jooq.DSLContext;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import java.io.IOException;
+
 /**
  * DAO for example submission files related operations.
  *
@@ -17,6 +19,7 @@ import org.springframework.stereotype.Repository;
 @Repository
 public class ExampleSubmissionFileDetailsDao extends ExampleSubmissionFileDao {
 	private final DSLContext sql;
+	private final BlobTableDao blobTableDao;
 
 	/**
 	 * Instantiates the {@link ExampleSubmissionFileDetailsDao} using a jOOQ {@link Configuration}
@@ -24,16 +27,21 @@ public class ExampleSubmissionFileDetailsDao extends ExampleSubmissionFileDao {
 	 *
 	 * @param configuration The used jOOQ configuration.
 	 * @param sql           The used DSL context.
+	 * @param blobTableDao  The DAO used to store and read the image data.
 	 */
 	@Autowired
-	public ExampleSubmissionFileDetailsDao(Configuration configuration, DSLContext sql) {
+	public ExampleSubmissionFileDetailsDao(
+			Configuration configuration, DSLContext sql, BlobTableDao blobTableDao) {
 		super(configuration);
 		this.sql = sql;
+		this.blobTableDao = blobTableDao;
 	}
 
 	/**
 	 * Returns an {@link ExampleSubmissionFile} for the given example submission ID and
 	 * corresponding parent IDs.
+	 * The image data itself is not retrieved, use {@link #fetchData(ExampleSubmissionFile)}
+	 * for that.
 	 *
 	 * @param exampleSubmissionId The ID of the example submission to retrieve.
 	 * @param chapterId           The chapter ID to which the given example submission belongs.
@@ -43,7 +51,7 @@ public class ExampleSubmissionFileDetailsDao extends ExampleSubmissionFileDao {
 	public ExampleSubmissionFile findByTaskAndExampleSubmissionId(
 			int exampleSubmissionId, int chapterId, int taskId) {
 		return sql
-				.select(EXAMPLE_SUBMISSION_FILE.fields())
+				.select(BlobTable.EXAMPLE_SUBMISSION_FILES.getMetadataFields())
 				.from(EXAMPLE_SUBMISSION_FILE)
 				.join(EXAMPLE_SUBMISSION).on(
 						EXAMPLE_SUBMISSION.ID.eq(EXAMPLE_SUBMISSION_FILE.EXAMPLE_SUBMISSION_ID))
@@ -54,4 +62,75 @@ public class ExampleSubmissionFileDetailsDao extends ExampleSubmissionFileDao {
 				.and(TASK.CHAPTER_ID.eq(chapterId))
 				.fetchOneInto(ExampleSubmissionFile.class);
 	}
+
+	/**
+	 * Finds the file of the given example submission without retrieving the image data itself.
+	 * Use {@link #fetchData(ExampleSubmissionFile)} to retrieve the data.
+	 *
+	 * @param exampleSubmissionId The ID of the example submission.
+	 * @return The example submission file, or null if no such example submission exists.
+	 */
+	public ExampleSubmissionFile findMetadataByExampleSubmissionId(int exampleSubmissionId) {
+		return sql
+				.select(BlobTable.EXAMPLE_SUBMISSION_FILES.getMetadataFields())
+				.from(EXAMPLE_SUBMISSION_FILE)
+				.where(EXAMPLE_SUBMISSION_FILE.EXAMPLE_SUBMISSION_ID.eq(exampleSubmissionId))
+				.fetchOneInto(ExampleSubmissionFile.class);
+	}
+
+	/**
+	 * Finds the file of the given example submission like
+	 * {@link #findMetadataByExampleSubmissionId(int)}, and locks it until the end of the current
+	 * transaction, such that it is not changed in the meantime.
+	 *
+	 * @param exampleSubmissionId The ID of the example submission.
+	 * @return The example submission file, or null if no such example submission exists.
+	 */
+	public ExampleSubmissionFile findMetadataByExampleSubmissionIdForUpdate(
+			int exampleSubmissionId) {
+		return sql
+				.select(BlobTable.EXAMPLE_SUBMISSION_FILES.getMetadataFields())
+				.from(EXAMPLE_SUBMISSION_FILE)
+				.where(EXAMPLE_SUBMISSION_FILE.EXAMPLE_SUBMISSION_ID.eq(exampleSubmissionId))
+				.forUpdate()
+				.fetchOneInto(ExampleSubmissionFile.class);
+	}
+
+	/**
+	 * Inserts the example submission file, after storing the given data in the blob store, see
+	 * {@link BlobTableDao#storeData(BlobTable, Object, byte[])}.
+	 *
+	 * @param file The example submission file to insert.
+	 * @param data The image data of the example submission file.
+	 * @throws IOException When the data could not be stored.
+	 */
+	public void insert(ExampleSubmissionFile file, byte[] data) throws IOException {
+		blobTableDao.storeData(BlobTable.EXAMPLE_SUBMISSION_FILES, file, data);
+		insert(file);
+	}
+
+	/**
+	 * Updates the example submission file to reference the given data, which is stored in the blob
+	 * store first, see {@link BlobTableDao#storeData(BlobTable, Object, byte[])}.
+	 *
+	 * @param file The example submission file to update.
+	 * @param data The new image data of the example submission file.
+	 * @throws IOException When the data could not be stored.
+	 */
+	public void update(ExampleSubmissionFile file, byte[] data) throws IOException {
+		blobTableDao.storeData(BlobTable.EXAMPLE_SUBMISSION_FILES, file, data);
+		update(file);
+	}
+
+	/**
+	 * Retrieves the image data of the given example submission file, see {@link
+	 * BlobTableDao#fetchData(BlobTable, Object)}.
+	 *
+	 * @param file The example submission file to retrieve the data for.
+	 * @return The image data.
+	 * @throws IOException When the data could not be read from the blob store.
+	 */
+	public byte[] fetchData(ExampleSubmissionFile file) throws IOException {
+		return blobTableDao.fetchData(BlobTable.EXAMPLE_SUBMISSION_FILES, file);
+	}
 }
@@ -9,6 +9,8 @@ import org.jooq.DSLContext;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import java.io.IOException;
+
 /**
  * DAO for example submission thumbnails related operations.
  *
@@ -17,6 +19,7 @@ import org.springframework.stereotype.Repository;
 @Repository
 public class ExampleSubmissionThumbnailDetailsDao extends ExampleSubmissionThumbnailDao {
 	private final DSLContext sql;
+	private final BlobTableDao blobTableDao;
 
 	/**
 	 * Instantiates the {@link ExampleSubmissionThumbnailDetailsDao} using a jOOQ
@@ -24,15 +27,20 @@ public class ExampleSubmissionThumbnailDetailsDao extends ExampleSubmissionThumb
 	 *
 	 * @param configuration The used jOOQ configuration.
 	 * @param sql           The used DSL context.
+	 * @param blobTableDao  The DAO used to store and read the image data.
 	 */
 	@Autowired
-	public ExampleSubmissionThumbnailDetailsDao(Configuration configuration, DSLContext sql) {
+	public ExampleSubmissionThumbnailDetailsDao(
+			Configuration configuration, DSLContext sql, BlobTableDao blobTableDao) {
 		super(configuration);
 		this.sql = sql;
+		this.blobTableDao = blobTableDao;
 	}
 
 	/**
 	 * Returns an {@link ExampleSubmissionThumbnail} object for the given IDs.
+	 * The image data itself is not retrieved, use {@link #fetchData(ExampleSubmissionThumbnail)}
+	 * for that.
 	 *
 	 * @param exampleSubmissionId The ID of the example submission.
 	 * @param chapterId           The ID of the chapter this example submission belongs to.
@@ -44,7 +52,7 @@ public class ExampleSubmissionThumbnailDetailsDao extends ExampleSubmissionThumb
 			int exampleSubmissionId, int chapterId, int taskId) {
 
 		return sql
-				.select(EXAMPLE_SUBMISSION_THUMBNAIL.fields())
+				.select(BlobTable.EXAMPLE_SUBMISSION_THUMBNAILS.getMetadataFields())
 				.from(EXAMPLE_SUBMISSION_THUMBNAIL)
 				.join(EXAMPLE_SUBMISSION).on(EXAMPLE_SUBMISSION.ID.eq(EXAMPLE_SUBMISSION_THUMBNAIL.EXAMPLE_SUBMISSION_ID))
 				.join(TASK).on(EXAMPLE_SUBMISSION.TASK_ID.eq(TASK.ID))
@@ -53,4 +61,57 @@ public class ExampleSubmissionThumbnailDetailsDao extends ExampleSubmissionThumb
 				.and(TASK.CHAPTER_ID.eq(chapterId))
 				.fetchOneInto(ExampleSubmissionThumbnail.class);
 	}
+
+	/**
+	 * Finds the thumbnail of the given example submission without retrieving the image data
+	 * itself. Use {@link #fetchData(ExampleSubmissionThumbnail)} to retrieve the data.
+	 *
+	 * @param exampleSubmissionId The ID of the example submission.
+	 * @return The example submission thumbnail, or null if no such example submission exists.
+	 */
+	public ExampleSubmissionThumbnail findMetadataByExampleSubmissionId(int exampleSubmissionId) {
+		return sql
+				.select(BlobTable.EXAMPLE_SUBMISSION_THUMBNAILS.getMetadataFields())
+				.from(EXAMPLE_SUBMISSION_THUMBNAIL)
+				.where(EXAMPLE_SUBMISSION_THUMBNAIL.EXAMPLE_SUBMISSION_ID.eq(exampleSubmissionId))
+				.fetchOneInto(ExampleSubmissionThumbnail.class);
+	}
+
+	/**
+	 * Inserts the example submission thumbnail, after storing the given data in the blob store, see
+	 * {@link BlobTableDao#storeData(BlobTable, Object, byte[])}.
+	 *
+	 * @param thumbnail The example submission thumbnail to insert.
+	 * @param data      The image data of the example submission thumbnail.
+	 * @throws IOException When the data could not be stored.
+	 */
+	public void insert(ExampleSubmissionThumbnail thumbnail, byte[] data) throws IOException {
+		blobTableDao.storeData(BlobTable.EXAMPLE_SUBMISSION_THUMBNAILS, thumbnail, data);
+		insert(thumbnail);
+	}
+
+	/**
+	 * Updates the example submission thumbnail to reference the given data, which is stored in the
+	 * blob store first, see {@link BlobTableDao#storeData(BlobTable, Object, byte[])}.
+	 *
+	 * @param thumbnail The example submission thumbnail to update.
+	 * @param data      The new image data of the example submission thumbnail.
+	 * @throws IOException When the data could not be stored.
+	 */
+	public void update(ExampleSubmissionThumbnail thumbnail, byte[] data) throws IOException {
+		blobTableDao.storeData(BlobTable.EXAMPLE_SUBMISSION_THUMBNAILS, thumbnail, data);
+		update(thumbnail);
+	}
+
+	/**
+	 * Retrieves the image data of the given example submission thumbnail, see {@link
+	 * BlobTableDao#fetchData(BlobTable, Object)}.
+	 *
+	 * @param thumbnail The example submission thumbnail to retrieve the data for.
+	 * @return The image data.
+	 * @throws IOException When the data could not be read from the blob store.
+	 */
+	public byte[] fetchData(ExampleSubmissionThumbnail thumbnail) throws IOException {
+		return blobTableDao.fetchData(BlobTable.EXAMPLE_SUBMISSION_THUMBNAILS, thumbnail);
+	}
 }
@@ -29,6 +29,7 @@ public class InternalUserDetailsDao extends InternalUserDao {
 	
 	private final DSLContext sql;
 	private final UserDetailsDao userDao;
+	private final SubmissionDetailsDao submissionDao;
 
 	/**
 	 * Instantiates the {@link InternalUserDetailsDao}.
@@ -36,12 +37,16 @@ public class InternalUserDetailsDao extends InternalUserDao {
 	 * @param configuration The configuration used by the system.
 	 * @param sql           A DSLContext used by the system.
 	 * @param userDao       An instantiation of {@link UserDetailsDao}.
+	 * @param submissionDao An instantiation of {@link SubmissionDetailsDao}.
 	 */
 	@Autowired
-	public InternalUserDetailsDao(Configuration configuration, DSLContext sql, UserDetailsDao userDao) {
+	public InternalUserDetailsDao(
+			Configuration configuration, DSLContext sql, UserDetailsDao userDao,
+			SubmissionDetailsDao submissionDao) {
 		super(configuration);
 		this.sql = sql;
 		this.userDao = userDao;
+		this.submissionDao = submissionDao;
 	}
 
 	/**
@@ -122,7 +127,9 @@ public class InternalUserDetailsDao extends InternalUserDao {
 		if (!this.existsById(userId)) {
 			throw new NoSuchEntityException("Internal user does not exist");
 		}
-		// When deleting from USER table, internal user will be removed as well through cascades
+		// When deleting from USER table, internal user will be removed as well through cascades,
+		// as will its votes and annotations, which are counted per submission.
+		submissionDao.subtractCountsOfUser(userId);
 		userDao.deleteById(userId);
 	}
 
@@ -0,0 +1,134 @@
+package nl.javalon.sketchlab.dao;
+
+import lombok.AllArgsConstructor;
+import nl.javalon.sketchlab.exception.MalformedRequestException;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.SortField;
+import org.jooq.SortOrder;
+import org.jooq.exception.DataTypeException;
+import org.jooq.impl.DSL;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The ordering of a query which can be paginated by keyset, see
+ * {@link PaginationDao#seek}. Consists of selected fields to order by, of which the last one has to
+ * be unique, such that the position of every row is defined by the values of these fields.
+ *
+ * @author Jelle Stege
+ */
+public class KeysetOrdering {
+	private final List<Key<?>> keys = new ArrayList<>();
+
+	/**
+	 * Orders ascending by the given field.
+	 *
+	 * @param field The field to order by, which has to be selected by the query.
+	 * @param <T>   The type of the field.
+	 * @return This ordering.
+	 */
+	public <T> KeysetOrdering asc(Field<T> field) {
+		keys.add(new Key<>(field, f -> f, SortOrder.ASC));
+		return this;
+	}
+
+	/**
+	 * Orders ascending by an expression of the given field.
+	 *
+	 * @param field      The field to order by, which has to be selected by the query.
+	 * @param expression The expression of the field to order by, e.g. to order by a custom
+	 *                   order of the values of the field.
+	 * @param <T>        The type of the field.
+	 * @return This ordering.
+	 */
+	public <T> KeysetOrdering asc(Field<T> field, Function<Field<T>, Field<?>> expression) {
+		keys.add(new Key<>(field, expression, SortOrder.ASC));
+		return this;
+	}
+
+	/**
+	 * Orders descending by the given field.
+	 *
+	 * @param field The field to order by, which has to be selected by the query.
+	 * @param <T>   The type of the field.
+	 * @return This ordering.
+	 */
+	public <T> KeysetOrdering desc(Field<T> field) {
+		keys.add(new Key<>(field, f -> f, SortOrder.DESC));
+		return this;
+	}
+
+	/**
+	 * Returns the fields to pass to the ORDER BY clause of the query.
+	 *
+	 * @return The sort fields of this ordering.
+	 */
+	public SortField<?>[] getSortFields() {
+		return keys.stream().map(Key::getSortField).toArray(SortField[]::new);
+	}
+
+	/**
+	 * Returns the values of the fields of this ordering of the given row, to be stored in a
+	 * {@link nl.javalon.sketchlab.dto.page.PageCursor}.
+	 *
+	 * @param record The row to return the values of.
+	 * @return The values as strings.
+	 */
+	public List<String> getKeys(Record record) {
+		List<String> values = new ArrayList<>(keys.size());
+		for (Key<?> key : keys) {
+			values.add(String.valueOf(record.get(key.field)));
+		}
+		return values;
+	}
+
+	/**
+	 * Converts the values of a {@link nl.javalon.sketchlab.dto.page.PageCursor} back into the
+	 * values to pass to the SEEK clause of the query.
+	 *
+	 * @param values The values as returned by {@link #getKeys(Record)}.
+	 * @return The values to seek after.
+	 * @throws MalformedRequestException If the values do not belong to this ordering.
+	 */
+	public Field<?>[] getSeekValues(List<String> values) {
+		if (values.size() != keys.size()) {
+			throw new MalformedRequestException("Invalid cursor");
+		}
+		Field<?>[] seekValues = new Field<?>[keys.size()];
+		for (int i = 0; i < keys.size(); i++) {
+			seekValues[i] = keys.get(i).getSeekValue(values.get(i));
+		}
+		return seekValues;
+	}
+
+	/**
+	 * A single field of the ordering.
+	 *
+	 * @param <T> The type of the field.
+	 */
+	@AllArgsConstructor
+	private static class Key<T> {
+		private final Field<T> field;
+		private final Function<Field<T>, Field<?>> expression;
+		private final SortOrder order;
+
+		private SortField<?> getSortField() {
+			return expression.apply(field).sort(order);
+		}
+
+		private Field<?> getSeekValue(String value) {
+			try {
+				T converted = field.getDataType().convert(value);
+				if (converted == null) {
+					throw new MalformedRequestException("Invalid cursor");
+				}
+				return expression.apply(DSL.val(converted, field));
+			} catch (DataTypeException | IllegalArgumentException e) {
+				throw new MalformedRequestException("Invalid cursor");
+			}
+		}
+	}
+}
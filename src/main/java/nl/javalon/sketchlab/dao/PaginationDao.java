@@ -1,10 +1,12 @@
 package nl.javalon.sketchlab.dao;
 
 import nl.javalon.sketchlab.dto.page.Page;
+import nl.javalon.sketchlab.dto.page.PageCursor;
 import nl.javalon.sketchlab.dto.page.PageParameters;
 import org.jooq.*;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * @author Jelle Stege
@@ -44,15 +46,106 @@ public interface PaginationDao<T> {
 			PageParameters pageParameters,
 			RecordMapper<Record, T> mapper
 	) {
-		final List<T> content = limit(query, pageParameters).fetch(mapper);
-		final int totalRowCount = rowCountQuery.fetchOne(0, Integer.class);
+		// Fetch a single additional row to determine whether there is a next page, as the total
+		// may be an estimate.
+		final List<? extends Record> records = query
+				.limit(pageParameters.getOffset(), pageParameters.getPageSize() + 1)
+				.fetch();
+		final boolean hasNext = records.size() > pageParameters.getPageSize();
+		final CountCache.Count totalRowCount = count(rowCountQuery);
 
 		final Page<T> page = new Page<>();
-		page.setContent(content);
-		page.setTotalSize(totalRowCount);
+		page.setContent(map(hasNext ? records.subList(0, pageParameters.getPageSize()) : records,
+				mapper));
+		page.setTotalSize(totalRowCount.getValue());
+		page.setTotalSizeExact(totalRowCount.isExact());
 		page.setOffset(pageParameters.getOffset());
 		page.setPageSize(pageParameters.getPageSize());
+		page.setHasNext(hasNext);
 
 		return page;
 	}
+
+	/**
+	 * Paginates the resultset represented by the given query into a subset of items by keyset:
+	 * instead of skipping the rows before the page, the query seeks to the position of the last
+	 * row of the previous page, as stored in the cursor of the page parameters. Unlike
+	 * {@link #paginate(SelectLimitStep, SelectConditionStep, PageParameters, RecordMapper)}, this
+	 * does not slow down for later pages, and rows inserted or deleted before the page do not
+	 * shift its content.
+	 *
+	 * @param query          The query to paginate, without an ORDER BY clause.
+	 * @param rowCountQuery  A query to determine the total amount of elements in the collection,
+	 *                       which is only executed if requested by the page parameters.
+	 * @param ordering       The ordering of the resultset.
+	 * @param pageParameters The page parameters, containing the cursor and the pagesize to
+	 *                       paginate the resultset with.
+	 * @param mapper         The mapper function to map a resultset into a list of actual objects.
+	 * @return The page, as represented by the given parameters, containing the cursor of the next
+	 * page.
+	 */
+	default Page<T> seek(
+			SelectConditionStep<? extends Record> query,
+			SelectConditionStep<? extends Record> rowCountQuery,
+			KeysetOrdering ordering,
+			PageParameters pageParameters,
+			RecordMapper<Record, T> mapper
+	) {
+		final PageCursor cursor = PageCursor.decode(pageParameters.getCursor());
+		final SelectLimitStep<? extends Record> orderedQuery = cursor.getKeys().isEmpty()
+				? query.orderBy(ordering.getSortFields())
+				: query.orderBy(ordering.getSortFields())
+						.seek(ordering.getSeekValues(cursor.getKeys()));
+
+		// Fetch a single additional row to determine whether there is a next page.
+		final List<? extends Record> records = orderedQuery
+				.limit(pageParameters.getPageSize() + 1)
+				.fetch();
+		final boolean hasNext = records.size() > pageParameters.getPageSize();
+		final List<? extends Record> pageRecords = hasNext
+				? records.subList(0, pageParameters.getPageSize())
+				: records;
+
+		final Page<T> page = new Page<>();
+		page.setContent(map(pageRecords, mapper));
+		if (pageParameters.isCountTotal()) {
+			final CountCache.Count totalRowCount = count(rowCountQuery);
+			page.setTotalSize(totalRowCount.getValue());
+			page.setTotalSizeExact(totalRowCount.isExact());
+		}
+		page.setOffset(cursor.getOffset());
+		page.setPageSize(pageParameters.getPageSize());
+		page.setHasNext(hasNext);
+		page.setCursor(pageParameters.getCursor());
+		if (hasNext && !pageRecords.isEmpty()) {
+			page.setNextCursor(new PageCursor(
+					cursor.getOffset() + pageRecords.size(),
+					ordering.getKeys(pageRecords.get(pageRecords.size() - 1))
+			).encode());
+		}
+
+		return page;
+	}
+
+	/**
+	 * Determines the total amount of elements in a paginated collection. Counts the elements every
+	 * time by default, DAOs of large collections can use a {@link CountCache} instead.
+	 *
+	 * @param rowCountQuery A query to determine the total amount of elements in the collection.
+	 * @return The total amount of elements.
+	 */
+	default CountCache.Count count(SelectConditionStep<? extends Record> rowCountQuery) {
+		return new CountCache.Count(rowCountQuery.fetchOne(0, Integer.class), true);
+	}
+
+	/**
+	 * Maps the given rows into a list of actual objects.
+	 *
+	 * @param records The rows to map.
+	 * @param mapper  The mapper function to map a single row.
+	 * @return The mapped objects.
+	 */
+	default List<T> map(List<? extends Record> records, RecordMapper<Record, T> mapper) {
+		return records.stream().map(mapper::map).collect(Collectors.toList());
+	}
 }
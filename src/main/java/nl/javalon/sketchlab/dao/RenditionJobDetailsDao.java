@@ -0,0 +1,134 @@
+package nl.javalon.sketchlab.dao;
+
+import nl.javalon.sketchlab.entity.tables.daos.RenditionJobDao;
+import nl.javalon.sketchlab.entity.tables.pojos.RenditionJob;
+import org.jooq.Configuration;
+import org.jooq.DSLContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import static nl.javalon.sketchlab.entity.Tables.RENDITION_JOB;
+
+/**
+ * DAO for the jobs of renditions which still have to be generated.
+ *
+ * @author Jelle Stege
+ */
+@Repository
+public class RenditionJobDetailsDao extends RenditionJobDao {
+	/**
+	 * The maximum length of the stored error of a failed job.
+	 */
+	private static final int MAX_ERROR_LENGTH = 1000;
+
+	private final DSLContext sql;
+
+	/**
+	 * Instantiates the {@link RenditionJobDetailsDao} using a jOOQ {@link Configuration} and the
+	 * used {@link DSLContext}.
+	 *
+	 * @param configuration The used jOOQ configuration.
+	 * @param sql           The used DSL context.
+	 */
+	@Autowired
+	public RenditionJobDetailsDao(Configuration configuration, DSLContext sql) {
+		super(configuration);
+		this.sql = sql;
+	}
+
+	/**
+	 * Adds a job for the given rendition of the given submission. If such a job already exists,
+	 * it is restarted instead: its generation is incremented, such that a worker currently
+	 * processing it does not remove it, and its failed attempts are reset.
+	 *
+	 * @param submissionId The ID of the submission.
+	 * @param rendition    The rendition to generate.
+	 */
+	public void enqueue(int submissionId, String rendition) {
+		int restarted = sql.update(RENDITION_JOB)
+				.set(RENDITION_JOB.GENERATION, RENDITION_JOB.GENERATION.add(1))
+				.set(RENDITION_JOB.ATTEMPTS, 0)
+				.setNull(RENDITION_JOB.LAST_ERROR)
+				.where(RENDITION_JOB.SUBMISSION_ID.eq(submissionId))
+				.and(RENDITION_JOB.RENDITION.eq(rendition))
+				.execute();
+		if (restarted == 0) {
+			// A job inserted concurrently is new as well, so it can be left as it is.
+			sql.insertInto(RENDITION_JOB)
+					.columns(
+							RENDITION_JOB.SUBMISSION_ID,
+							RENDITION_JOB.RENDITION,
+							RENDITION_JOB.CREATED)
+					.values(submissionId, rendition, new Timestamp(System.currentTimeMillis()))
+					.onConflictDoNothing()
+					.execute();
+		}
+	}
+
+	/**
+	 * Retrieves the oldest jobs which have not failed too often yet.
+	 *
+	 * @param maxAttempts Jobs which failed this many times are skipped.
+	 * @param limit       The maximum amount of jobs to retrieve.
+	 * @return A list of pending jobs, oldest first.
+	 */
+	public List<RenditionJob> fetchPending(int maxAttempts, int limit) {
+		return sql
+				.selectFrom(RENDITION_JOB)
+				.where(RENDITION_JOB.ATTEMPTS.lt(maxAttempts))
+				.orderBy(RENDITION_JOB.ID)
+				.limit(limit)
+				.fetchInto(RenditionJob.class);
+	}
+
+	/**
+	 * Checks whether the given rendition of the given submission is still being generated.
+	 *
+	 * @param submissionId The ID of the submission.
+	 * @param rendition    The rendition.
+	 * @param maxAttempts  Jobs which failed this many times have been given up.
+	 * @return True if a job for the rendition exists which has not been given up, false if not.
+	 */
+	public boolean isPending(int submissionId, String rendition, int maxAttempts) {
+		return sql.fetchExists(sql
+				.selectOne()
+				.from(RENDITION_JOB)
+				.where(RENDITION_JOB.SUBMISSION_ID.eq(submissionId))
+				.and(RENDITION_JOB.RENDITION.eq(rendition))
+				.and(RENDITION_JOB.ATTEMPTS.lt(maxAttempts)));
+	}
+
+	/**
+	 * Removes the given job, unless it has been restarted since it was retrieved.
+	 *
+	 * @param job The job as it was retrieved.
+	 * @return True if the job has been removed, false if it has been restarted or removed already.
+	 */
+	public boolean deleteIfUnchanged(RenditionJob job) {
+		return sql.deleteFrom(RENDITION_JOB)
+				.where(RENDITION_JOB.ID.eq(job.getId()))
+				.and(RENDITION_JOB.GENERATION.eq(job.getGeneration()))
+				.execute() > 0;
+	}
+
+	/**
+	 * Registers a failed attempt of the given job, unless it has been restarted since it was
+	 * retrieved.
+	 *
+	 * @param job   The job as it was retrieved.
+	 * @param error A description of the error the job failed with.
+	 */
+	public void markFailed(RenditionJob job, String error) {
+		sql.update(RENDITION_JOB)
+				.set(RENDITION_JOB.ATTEMPTS, RENDITION_JOB.ATTEMPTS.add(1))
+				.set(RENDITION_JOB.LAST_ERROR, error.length() > MAX_ERROR_LENGTH
+						? error.substring(0, MAX_ERROR_LENGTH)
+						: error)
+				.where(RENDITION_JOB.ID.eq(job.getId()))
+				.and(RENDITION_JOB.GENERATION.eq(job.getGeneration()))
+				.execute();
+	}
+}
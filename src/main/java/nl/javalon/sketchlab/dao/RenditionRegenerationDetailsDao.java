@@ -0,0 +1,125 @@
+package nl.javalon.sketchlab.dao;
+
+import nl.javalon.sketchlab.entity.tables.daos.RenditionRegenerationDao;
+import nl.javalon.sketchlab.entity.tables.pojos.RenditionRegeneration;
+import org.jooq.Configuration;
+import org.jooq.DSLContext;
+import org.jooq.impl.DSL;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import static nl.javalon.sketchlab.entity.Tables.RENDITION_REGENERATION;
+
+/**
+ * DAO for the progress of regenerating the renditions of all stored images, of which every row is
+ * the checkpoint of a single table.
+ *
+ * @author Jelle Stege
+ */
+@Repository
+public class RenditionRegenerationDetailsDao extends RenditionRegenerationDao {
+	/**
+	 * The maximum length of the stored error of a failed image.
+	 */
+	private static final int MAX_ERROR_LENGTH = 1000;
+
+	private final DSLContext sql;
+
+	/**
+	 * Instantiates the {@link RenditionRegenerationDetailsDao} using a jOOQ {@link Configuration}
+	 * and the used {@link DSLContext}.
+	 *
+	 * @param configuration The used jOOQ configuration.
+	 * @param sql           The used DSL context.
+	 */
+	@Autowired
+	public RenditionRegenerationDetailsDao(Configuration configuration, DSLContext sql) {
+		super(configuration);
+		this.sql = sql;
+	}
+
+	/**
+	 * Starts regenerating the given table from its first row, replacing the progress of an
+	 * earlier regeneration.
+	 *
+	 * @param target The table to regenerate.
+	 * @param total  The amount of rows in the table.
+	 */
+	public void start(String target, int total) {
+		deleteById(target);
+		RenditionRegeneration regeneration = new RenditionRegeneration();
+		regeneration.setTarget(target);
+		regeneration.setTotal(total);
+		regeneration.setProcessed(0);
+		regeneration.setFailed(0);
+		regeneration.setStarted(new Timestamp(System.currentTimeMillis()));
+		insert(regeneration);
+	}
+
+	/**
+	 * Retrieves the tables which are still being regenerated.
+	 *
+	 * @return A list of unfinished regenerations.
+	 */
+	public List<RenditionRegeneration> fetchUnfinished() {
+		return sql
+				.selectFrom(RENDITION_REGENERATION)
+				.where(RENDITION_REGENERATION.FINISHED.isNull())
+				.fetchInto(RenditionRegeneration.class);
+	}
+
+	/**
+	 * Registers a regenerated batch of rows, such that the regeneration resumes after the last of
+	 * them.
+	 *
+	 * @param target    The table the rows belong to.
+	 * @param lastKey   The key of the last row of the batch.
+	 * @param processed The amount of rows in the batch.
+	 * @param failed    The amount of rows of which the renditions could not be regenerated.
+	 * @param lastError A description of the last error in the batch, or null to keep the error
+	 *                  of an earlier batch.
+	 */
+	public void saveCheckpoint(
+			String target, String lastKey, int processed, int failed, String lastError) {
+		sql.update(RENDITION_REGENERATION)
+				.set(RENDITION_REGENERATION.LAST_KEY, lastKey)
+				.set(RENDITION_REGENERATION.PROCESSED,
+						RENDITION_REGENERATION.PROCESSED.add(processed))
+				.set(RENDITION_REGENERATION.FAILED, RENDITION_REGENERATION.FAILED.add(failed))
+				.set(RENDITION_REGENERATION.LAST_ERROR, lastError == null
+						? RENDITION_REGENERATION.LAST_ERROR
+						: DSL.val(lastError.length() > MAX_ERROR_LENGTH
+								? lastError.substring(0, MAX_ERROR_LENGTH)
+								: lastError))
+				.where(RENDITION_REGENERATION.TARGET.eq(target))
+				.execute();
+	}
+
+	/**
+	 * Marks the regeneration of the given table as finished.
+	 *
+	 * @param target The table which has been regenerated.
+	 */
+	public void markFinished(String target) {
+		sql.update(RENDITION_REGENERATION)
+				.set(RENDITION_REGENERATION.FINISHED, new Timestamp(System.currentTimeMillis()))
+				.where(RENDITION_REGENERATION.TARGET.eq(target))
+				.execute();
+	}
+
+	/**
+	 * Removes the progress of all tables which are still being regenerated, such that their
+	 * regeneration is not resumed.
+	 *
+	 * @return The amount of regenerations which were removed.
+	 */
+	public int deleteUnfinished() {
+		return sql
+				.deleteFrom(RENDITION_REGENERATION)
+				.where(RENDITION_REGENERATION.FINISHED.isNull())
+				.execute();
+	}
+}
@@ -11,6 +11,7 @@ import org.jooq.impl.DSL;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
@@ -22,6 +23,7 @@ import java.util.UUID;
 @Repository
 public class SubgroupEnrollmentDetailsDao extends SubgroupEnrollmentDao {
 	private final DSLContext sql;
+	private final SubmissionDetailsDao submissionDao;
 
 	/**
 	 * Instantiates the {@link SubgroupEnrollmentDetailsDao} using a jOOQ {@link Configuration} and
@@ -29,11 +31,37 @@ public class SubgroupEnrollmentDetailsDao extends SubgroupEnrollmentDao {
 	 *
 	 * @param configuration The used jOOQ configuration.
 	 * @param sql           The used DSL context.
+	 * @param submissionDao The DAO of which the cached totals are discarded when enrollments
+	 *                      change, as the submission lists of a subgroup depend on them.
 	 */
 	@Autowired
-	public SubgroupEnrollmentDetailsDao(Configuration configuration, DSLContext sql) {
+	public SubgroupEnrollmentDetailsDao(
+			Configuration configuration, DSLContext sql, SubmissionDetailsDao submissionDao) {
 		super(configuration);
 		this.sql = sql;
+		this.submissionDao = submissionDao;
+	}
+
+	/**
+	 * Inserts a subgroup enrollment.
+	 *
+	 * @param subgroupEnrollment The enrollment to insert.
+	 */
+	@Override
+	public void insert(SubgroupEnrollment subgroupEnrollment) {
+		super.insert(subgroupEnrollment);
+		submissionDao.invalidateCounts();
+	}
+
+	/**
+	 * Deletes the given subgroup enrollments.
+	 *
+	 * @param subgroupEnrollments The enrollments to delete.
+	 */
+	@Override
+	public void delete(Collection<SubgroupEnrollment> subgroupEnrollments) {
+		super.delete(subgroupEnrollments);
+		submissionDao.invalidateCounts();
 	}
 
 	/**
@@ -117,6 +145,7 @@ public class SubgroupEnrollmentDetailsDao extends SubgroupEnrollmentDao {
 				.where(SUBGROUP_ENROLLMENT.CHAPTER_SUBGROUP_ID.eq(chapterSubgroupId))
 				.and(SUBGROUP_ENROLLMENT.USER_ID.eq(userId))
 				.execute();
+		submissionDao.invalidateCounts();
 	}
 
 	/**
@@ -158,6 +187,9 @@ public class SubgroupEnrollmentDetailsDao extends SubgroupEnrollmentDao {
 	 * @param userId The user for which to delete the subgroup enrollments.
 	 */
 	public void deleteAllForUser(UUID userId) {
-		this.sql.deleteFrom(SUBGROUP_ENROLLMENT).where(SUBGROUP_ENROLLMENT.USER_ID.eq(userId));
+		this.sql.deleteFrom(SUBGROUP_ENROLLMENT)
+				.where(SUBGROUP_ENROLLMENT.USER_ID.eq(userId))
+				.execute();
+		submissionDao.invalidateCounts();
 	}
 }
@@ -12,6 +12,7 @@ import nl.javalon.sketchlab.entity.tables.daos.SubmissionDao;
 import nl.javalon.sketchlab.entity.tables.pojos.Submission;
 import nl.javalon.sketchlab.entity.tables.pojos.Task;
 import nl.javalon.sketchlab.entity.tables.pojos.User;
+import nl.javalon.sketchlab.security.UserRole;
 import org.jooq.*;
 import org.jooq.impl.DSL;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -33,32 +34,69 @@ public class SubmissionDetailsDao
 		extends SubmissionDao
 		implements PaginationDao<SubmissionDetailsDto> {
 	/**
-	 * Prepares a field containing the amount of votes the selected submission has
+	 * Prepares a field containing the amount of votes the selected submission has. The amount is
+	 * kept up to date by the {@link VoteDetailsDao}.
 	 */
-	public static Field<Integer> VOTE_COUNT = DSL.field(DSL
-			.selectCount()
-			.from(VOTE)
-			.where(VOTE.SUBMISSION_ID.eq(SUBMISSION.ID))
-	).as("votes");
+	public static Field<Integer> VOTE_COUNT = SUBMISSION.VOTE_COUNT.as("votes");
 
 	/**
-	 * Prepares a field containing the amount of annotations the selected submission has.
+	 * Prepares a field containing the amount of annotations the selected submission has. The
+	 * amount is kept up to date by the {@link AnnotationDetailsDao}.
 	 */
-	public static Field<Integer> ANNOTATION_COUNT = DSL.field(DSL
-			.selectCount()
-			.from(ANNOTATION)
-			.where(ANNOTATION.SUBMISSION_ID.eq(SUBMISSION.ID))
-	).as("annotations");
+	public static Field<Integer> ANNOTATION_COUNT = SUBMISSION.ANNOTATION_COUNT.as("annotations");
+
+	/**
+	 * Prepares a field containing the version (blob hash and rotation) of the file of the selected
+	 * submission. Requires the submission file to be joined.
+	 */
+	public static Field<String> FILE_VERSION = BlobTableDao
+			.version(SUBMISSION_FILE.BLOB_HASH, SUBMISSION_FILE.ROTATION)
+			.as("file_version");
+
+	/**
+	 * Prepares a field containing the version (blob hash) of the thumbnail of the selected
+	 * submission.
+	 */
+	public static Field<String> THUMBNAIL_VERSION = DSL.field(DSL
+			.select(SUBMISSION_THUMBNAIL.BLOB_HASH)
+			.from(SUBMISSION_THUMBNAIL)
+			.where(SUBMISSION_THUMBNAIL.SUBMISSION_ID.eq(SUBMISSION.ID))
+	).as("thumbnail_version");
+
+	/**
+	 * The field containing the ID of the submission the selected submission is possibly a
+	 * duplicate of, see {@link #duplicateOf(UUID)}.
+	 */
+	public static Field<Integer> DUPLICATE_OF = DSL.field("duplicate_of", Integer.class);
 
 	/**
 	 * Prepares all fields required to fill a {@link SubmissionDetailsDto} object.
 	 */
 	public static Field[] SUBMISSION_DETAILS_FIELDS = Stream.concat(
 			Arrays.stream(SUBMISSION.fields()),
-			Stream.of(VOTE_COUNT, ANNOTATION_COUNT, DSL.field("user_has_voted"))
+			Stream.of(
+					VOTE_COUNT,
+					ANNOTATION_COUNT,
+					DSL.field("user_has_voted"),
+					FILE_VERSION,
+					THUMBNAIL_VERSION,
+					DUPLICATE_OF)
 	).toArray(Field[]::new);
 
+	/**
+	 * The user retrieving the submissions, used to check whether duplicates may be shown.
+	 */
+	private static final nl.javalon.sketchlab.entity.tables.User PRINCIPAL = USER.as("principal");
+
+	/**
+	 * The enrollment of the user retrieving the submissions in the chapter group of the selected
+	 * submission, if any.
+	 */
+	private static final nl.javalon.sketchlab.entity.tables.Enrollment PRINCIPAL_ENROLLMENT =
+			ENROLLMENT.as("principal_enrollment");
+
 	private final DSLContext sql;
+	private final CountCache countCache;
 
 	/**
 	 * Instantiates the {@link QuestionDetailsDao} using a jOOQ {@link Configuration} and the
@@ -66,11 +104,14 @@ public class SubmissionDetailsDao
 	 *
 	 * @param configuration The used jOOQ configuration.
 	 * @param sql           The used DSL context.
+	 * @param countCache    The cache for the totals of paginated submission lists.
 	 */
 	@Autowired
-	public SubmissionDetailsDao(Configuration configuration, DSLContext sql) {
+	public SubmissionDetailsDao(
+			Configuration configuration, DSLContext sql, CountCache countCache) {
 		super(configuration);
 		this.sql = sql;
+		this.countCache = countCache;
 	}
 
 
@@ -101,12 +142,7 @@ public class SubmissionDetailsDao
 						.or(DSL.condition(includeSoftDeleted)))
 				.and(SUBMISSION.USER_ID.eq(userId));
 
-		return paginate(
-				orderBy(whereClause.apply(prepareQuery(principalId)), ordering),
-				whereClause.apply(prepareCountQuery()),
-				pageParameters,
-				SubmissionDetailsDao::mapSubmissionDetailsDto
-		);
+		return fetchPage(whereClause, principalId, ordering, pageParameters);
 	}
 
 	/**
@@ -133,12 +169,7 @@ public class SubmissionDetailsDao
 				.and(SUBMISSION.SOFT_DELETED.isFalse())
 				.and(SUBMISSION.TASK_ID.eq(taskId));
 
-		return paginate(
-				orderBy(whereClause.apply(prepareQuery(principalId)), ordering),
-				whereClause.apply(prepareCountQuery()),
-				pageParameters,
-				SubmissionDetailsDao::mapSubmissionDetailsDto
-		);
+		return fetchPage(whereClause, principalId, ordering, pageParameters);
 	}
 
 	/**
@@ -162,12 +193,7 @@ public class SubmissionDetailsDao
 				.where(SUBMISSION.CHAPTER_GROUP_ID.eq(chapterGroupId))
 				.and(SUBMISSION.SOFT_DELETED.isFalse());
 
-		return paginate(
-				orderBy(whereClause.apply(prepareQuery(principalId)), ordering),
-				whereClause.apply(prepareCountQuery()),
-				pageParameters,
-				SubmissionDetailsDao::mapSubmissionDetailsDto
-		);
+		return fetchPage(whereClause, principalId, ordering, pageParameters);
 	}
 
 	/**
@@ -195,12 +221,7 @@ public class SubmissionDetailsDao
 				.and(SUBMISSION.SOFT_DELETED.isFalse())
 				.and(SUBMISSION.CHAPTER_GROUP_ID.eq(chapterGroupId));
 
-		return paginate(
-				orderBy(whereClause.apply(prepareQuery(principalId)), ordering),
-				whereClause.apply(prepareCountQuery()),
-				pageParameters,
-				SubmissionDetailsDao::mapSubmissionDetailsDto
-		);
+		return fetchPage(whereClause, principalId, ordering, pageParameters);
 	}
 
 	/**
@@ -228,12 +249,7 @@ public class SubmissionDetailsDao
 				.and(SUBMISSION.USER_ID.eq(userId))
 				.and(SUBMISSION.SOFT_DELETED.isFalse());
 
-		return paginate(
-				orderBy(whereClause.apply(prepareQuery(principalId)), ordering),
-				whereClause.apply(prepareCountQuery()),
-				pageParameters,
-				SubmissionDetailsDao::mapSubmissionDetailsDto
-		);
+		return fetchPage(whereClause, principalId, ordering, pageParameters);
 	}
 
 	/**
@@ -268,7 +284,7 @@ public class SubmissionDetailsDao
 		return prepareQuery(principalId)
 				.where(SUBMISSION.BEST_WORK)
 				.and(SUBMISSION.SOFT_DELETED.isFalse())
-				.orderBy(VOTE_COUNT.desc())
+				.orderBy(SUBMISSION.VOTE_COUNT.desc())
 				.limit(limit)
 				.fetch(SubmissionDetailsDao::mapSubmissionDetailsDto);
 	}
@@ -287,7 +303,7 @@ public class SubmissionDetailsDao
 				.from(SUBMISSION)
 				.where(SUBMISSION.BEST_WORK)
 				.and(SUBMISSION.SOFT_DELETED.isFalse())
-				.orderBy(VOTE_COUNT.desc())
+				.orderBy(SUBMISSION.VOTE_COUNT.desc())
 				.limit(limit);
 
 		return sql.select(
@@ -306,7 +322,9 @@ public class SubmissionDetailsDao
 	 */
 	public int insertAndGetId(Submission submission) {
 		sql.newRecord(SUBMISSION, submission).insert();
-		return sql.lastID().intValue();
+		int id = sql.lastID().intValue();
+		invalidateCounts();
+		return id;
 	}
 
 	/**
@@ -321,6 +339,48 @@ public class SubmissionDetailsDao
 				.set(SUBMISSION.BEST_WORK, submissionUpdate.getBestWork())
 				.where(SUBMISSION.ID.eq(submissionId))
 				.execute();
+		invalidateCounts();
+	}
+
+	/**
+	 * Discards the cached totals of submission lists, see {@link #count(SelectConditionStep)}.
+	 * Has to be called whenever submissions are inserted or deleted, also when they are deleted
+	 * through cascades, and when subgroup enrollments change, as the lists of a subgroup contain
+	 * the submissions of its members.
+	 */
+	public void invalidateCounts() {
+		countCache.invalidate(SUBMISSION.getName());
+	}
+
+	/**
+	 * Subtracts the votes and annotations of the given user from the counters of the submissions
+	 * they belong to. Has to be called before the user is deleted, which deletes its votes and
+	 * annotations through cascades, as well as its submissions.
+	 *
+	 * @param userId The ID of the user.
+	 */
+	public void subtractCountsOfUser(UUID userId) {
+		sql.update(SUBMISSION)
+				.set(SUBMISSION.VOTE_COUNT, SUBMISSION.VOTE_COUNT.sub(DSL.field(DSL
+						.selectCount()
+						.from(VOTE)
+						.where(VOTE.SUBMISSION_ID.eq(SUBMISSION.ID))
+						.and(VOTE.USER_ID.eq(userId)))))
+				.set(SUBMISSION.ANNOTATION_COUNT, SUBMISSION.ANNOTATION_COUNT.sub(DSL.field(DSL
+						.selectCount()
+						.from(ANNOTATION)
+						.where(ANNOTATION.SUBMISSION_ID.eq(SUBMISSION.ID))
+						.and(ANNOTATION.USER_ID.eq(userId)))))
+				.where(SUBMISSION.ID.in(DSL
+						.select(VOTE.SUBMISSION_ID)
+						.from(VOTE)
+						.where(VOTE.USER_ID.eq(userId))
+						.union(DSL
+								.select(ANNOTATION.SUBMISSION_ID)
+								.from(ANNOTATION)
+								.where(ANNOTATION.USER_ID.eq(userId)))))
+				.execute();
+		invalidateCounts();
 	}
 
 	/**
@@ -366,26 +426,41 @@ public class SubmissionDetailsDao
 				.select(SUBMISSION.fields())
 				.select(VOTE_COUNT, userHasVoted(principalId))
 				.select(ANNOTATION_COUNT)
+				.select(FILE_VERSION, THUMBNAIL_VERSION, duplicateOf(principalId))
 				.select(TASK.fields())
 				.select(USER.fields())
 				.from(SUBMISSION)
 				.join(TASK).on(SUBMISSION.TASK_ID.eq(TASK.ID))
 				.join(USER).on(SUBMISSION.USER_ID.eq(USER.ID))
-				.join(CHAPTER_GROUP).on(CHAPTER_GROUP.ID.eq(SUBMISSION.CHAPTER_GROUP_ID));
+				.join(CHAPTER_GROUP).on(CHAPTER_GROUP.ID.eq(SUBMISSION.CHAPTER_GROUP_ID))
+				.leftJoin(SUBMISSION_FILE).on(SUBMISSION_FILE.SUBMISSION_ID.eq(SUBMISSION.ID))
+				.leftJoin(PRINCIPAL_ENROLLMENT)
+				.on(PRINCIPAL_ENROLLMENT.CHAPTER_GROUP_ID.eq(SUBMISSION.CHAPTER_GROUP_ID))
+				.and(PRINCIPAL_ENROLLMENT.USER_ID.eq(principalId));
 	}
 
 	/**
-	 * Create a query ready to return a row count.
+	 * Create a query ready to return a row count. Unlike {@link #prepareQuery(UUID)}, this does not
+	 * join the task, user and chapter group, as every submission has exactly one of each.
 	 *
 	 * @return A jOOQ COUNT(*) query.
 	 */
-	private SelectOnConditionStep<Record1<Integer>> prepareCountQuery() {
+	private SelectJoinStep<Record1<Integer>> prepareCountQuery() {
 		return sql
 				.selectCount()
-				.from(SUBMISSION)
-				.join(TASK).on(SUBMISSION.TASK_ID.eq(TASK.ID))
-				.join(USER).on(SUBMISSION.USER_ID.eq(USER.ID))
-				.join(CHAPTER_GROUP).on(CHAPTER_GROUP.ID.eq(SUBMISSION.CHAPTER_GROUP_ID));
+				.from(SUBMISSION);
+	}
+
+	/**
+	 * Counts the submissions in a list using the {@link CountCache}, such that the total is not
+	 * counted again for every page. Inserting or updating a submission discards the cached totals.
+	 *
+	 * @param rowCountQuery A query to determine the total amount of submissions in the list.
+	 * @return The total amount of submissions.
+	 */
+	@Override
+	public CountCache.Count count(SelectConditionStep<? extends Record> rowCountQuery) {
+		return countCache.count(SUBMISSION.getName(), rowCountQuery);
 	}
 
 	/**
@@ -405,37 +480,114 @@ public class SubmissionDetailsDao
 	}
 
 	/**
-	 * Prepares an order by statement for a jOOQ query. Uses a {@link SubmissionOrdering} to sort
-	 * the result by.
+	 * Prepares a field containing the ID of the submission the selected submission is possibly a
+	 * duplicate of. The field is only filled for teachers and for the TAs of the chapter group of
+	 * the submission, as the duplicate may belong to another student. Requires the submission file
+	 * and the enrollment of the principal ({@link #PRINCIPAL_ENROLLMENT}) to be joined.
+	 *
+	 * @param principalId The ID of the user retrieving the submission.
+	 * @return The field.
+	 */
+	private static Field<Integer> duplicateOf(UUID principalId) {
+		Condition isTeacher = DSL.exists(DSL
+				.selectOne()
+				.from(PRINCIPAL)
+				.where(PRINCIPAL.ID.eq(principalId))
+				.and(PRINCIPAL.ROLE.eq(UserRole.TEACHER.toString())));
+		return DSL.decode()
+				.when(isTeacher.or(PRINCIPAL_ENROLLMENT.ASSISTANT.isTrue()),
+						SUBMISSION_FILE.DUPLICATE_OF)
+				.as("duplicate_of");
+	}
+
+	/**
+	 * Fetches a page of the submissions matching the given where clause, which is paginated by
+	 * keyset if the page parameters contain a cursor and by offset otherwise.
+	 *
+	 * @param whereClause    The where clause to apply to both the query and the count query.
+	 * @param principalId    The ID to check for whether the user has voted for this work.
+	 * @param ordering       The ordering to use.
+	 * @param pageParameters The page information.
+	 * @return The requested page of submissions.
+	 */
+	private Page<SubmissionDetailsDto> fetchPage(
+			ApplicableWhereClause whereClause,
+			UUID principalId,
+			SubmissionOrdering ordering,
+			PageParameters pageParameters
+	) {
+		KeysetOrdering keysetOrdering = getKeysetOrdering(ordering);
+		if (pageParameters.getCursor() != null) {
+			return seek(
+					whereClause.apply(prepareQuery(principalId)),
+					whereClause.apply(prepareCountQuery()),
+					keysetOrdering,
+					pageParameters,
+					SubmissionDetailsDao::mapSubmissionDetailsDto
+			);
+		}
+		return paginate(
+				whereClause.apply(prepareQuery(principalId))
+						.orderBy(keysetOrdering.getSortFields()),
+				whereClause.apply(prepareCountQuery()),
+				pageParameters,
+				SubmissionDetailsDao::mapSubmissionDetailsDto
+		);
+	}
+
+	/**
+	 * Returns the ordering of the rows of a submission query for a {@link SubmissionOrdering}. The
+	 * ID of the submission is appended to every ordering, such that pages are stable and can be
+	 * paginated by keyset.
 	 *
-	 * @param query    The query to sort.
 	 * @param ordering The ordering to use.
-	 * @return A jOOQ query.
+	 * @return The ordering of the rows.
 	 */
-	private SelectLimitStep<? extends Record> orderBy(
-			SelectConditionStep<? extends Record> query, SubmissionOrdering ordering) {
+	private static KeysetOrdering getKeysetOrdering(SubmissionOrdering ordering) {
 		switch (ordering) {
 			case BEST:
-				return query.orderBy(SUBMISSION.BEST_WORK.desc(), VOTE_COUNT.desc());
+				return new KeysetOrdering()
+						.desc(SUBMISSION.BEST_WORK)
+						.desc(SUBMISSION.VOTE_COUNT)
+						.desc(SUBMISSION.ID);
 			case NEW:
-				return query.orderBy(SUBMISSION.CREATED_AT.desc());
+				return new KeysetOrdering()
+						.desc(SUBMISSION.CREATED_AT)
+						.desc(SUBMISSION.ID);
 			case TASK:
-				return query.orderBy(
-						TASK.SLOT.desc(),
-						TASK.TRACK.sortAsc(TaskTrack.stringValues()),
-						SUBMISSION.CREATED_AT.desc()
-				);
+				return new KeysetOrdering()
+						.desc(TASK.SLOT)
+						.asc(TASK.TRACK, SubmissionDetailsDao::trackOrder)
+						.desc(SUBMISSION.CREATED_AT)
+						.desc(SUBMISSION.ID);
 			default:
 				throw new IllegalArgumentException("Unknown ordering: " + ordering);
 		}
 	}
 
+	/**
+	 * Creates a SQL field containing the position of the given track in {@link TaskTrack}, used to
+	 * order by track.
+	 *
+	 * @param track The field containing the name of a track.
+	 * @return The SQL field, specified as a jOOQ statement.
+	 */
+	private static Field<?> trackOrder(Field<String> track) {
+		List<String> tracks = TaskTrack.stringValues();
+		CaseWhenStep<String, Integer> order = DSL.decode().value(track)
+				.when(DSL.inline(tracks.get(0)), DSL.inline(0));
+		for (int i = 1; i < tracks.size(); i++) {
+			order = order.when(DSL.inline(tracks.get(i)), DSL.inline(i));
+		}
+		return order.otherwise(DSL.inline(tracks.size()));
+	}
+
 	/**
 	 * "Type alias" for FunctionalInterface, due to long class names and wildcard generics the
 	 * original type would span multiple lines. This is also more descriptive.
 	 */
 	private interface ApplicableWhereClause extends Function<
-			SelectOnConditionStep<? extends Record>,
+			SelectJoinStep<? extends Record>,
 			SelectConditionStep<? extends Record>> {
 	}
 }
@@ -2,12 +2,19 @@ package nl.javalon.sketchlab.dao;
 
 import nl.javalon.sketchlab.entity.tables.daos.SubmissionFileDao;
 import nl.javalon.sketchlab.entity.tables.pojos.SubmissionFile;
+import nl.javalon.sketchlab.service.ImageService;
+import nl.javalon.sketchlab.service.ImageService.RotationState;
+import org.jooq.Condition;
 import org.jooq.Configuration;
 import org.jooq.DSLContext;
+import org.jooq.Record3;
 import org.jooq.impl.DSL;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import java.io.IOException;
+import java.util.UUID;
+
 import static nl.javalon.sketchlab.entity.Tables.SUBMISSION;
 import static nl.javalon.sketchlab.entity.Tables.SUBMISSION_FILE;
 
@@ -18,7 +25,13 @@ import static nl.javalon.sketchlab.entity.Tables.SUBMISSION_FILE;
  */
 @Repository
 public class SubmissionFileDetailsDao extends SubmissionFileDao {
+	/**
+	 * The maximum amount of earlier submissions an upload is compared with to find a duplicate.
+	 */
+	private static final int MAX_DUPLICATE_CANDIDATES = 1000;
+
 	private final DSLContext sql;
+	private final BlobTableDao blobTableDao;
 
 	/**
 	 * Instantiates the {@link SubmissionFileDetailsDao} using a jOOQ {@link Configuration} and the
@@ -26,15 +39,19 @@ public class SubmissionFileDetailsDao extends SubmissionFileDao {
 	 *
 	 * @param configuration The used jOOQ configuration.
 	 * @param sql           The used DSL context.
+	 * @param blobTableDao  The DAO used to store and read the image data.
 	 */
 	@Autowired
-	public SubmissionFileDetailsDao(Configuration configuration, DSLContext sql) {
+	public SubmissionFileDetailsDao(
+			Configuration configuration, DSLContext sql, BlobTableDao blobTableDao) {
 		super(configuration);
 		this.sql = sql;
+		this.blobTableDao = blobTableDao;
 	}
 
 	/**
 	 * Finds a submission file by it's ID and the corresponding chapter group ID
+	 * The image data itself is not retrieved, use {@link #fetchData(SubmissionFile)} for that.
 	 *
 	 * @param submissionId       The ID of the submission.
 	 * @param chapterGroupId     The ID of the chapter group the submission belongs to.
@@ -45,7 +62,7 @@ public class SubmissionFileDetailsDao extends SubmissionFileDao {
 	public SubmissionFile findBySubmissionIdAndChapterGroupId(
 			int submissionId, int chapterGroupId, boolean includeSoftDeleted) {
 		return sql
-				.select(SUBMISSION_FILE.fields())
+				.select(BlobTable.SUBMISSION_FILES.getMetadataFields())
 				.from(SUBMISSION_FILE)
 				.join(SUBMISSION).on(SUBMISSION.ID.eq(SUBMISSION_FILE.SUBMISSION_ID))
 				.where(SUBMISSION_FILE.SUBMISSION_ID.eq(submissionId))
@@ -53,4 +70,178 @@ public class SubmissionFileDetailsDao extends SubmissionFileDao {
 				.and(SUBMISSION.SOFT_DELETED.isFalse().or(DSL.condition(includeSoftDeleted)))
 				.fetchOneInto(SubmissionFile.class);
 	}
+
+	/**
+	 * Finds the submission file of the given submission without retrieving the image itself. Use
+	 * {@link #fetchData(SubmissionFile)} to retrieve the image.
+	 *
+	 * @param submissionId The ID of the submission.
+	 * @return The submission file, or null if no such submission exists.
+	 */
+	public SubmissionFile findMetadataBySubmissionId(int submissionId) {
+		return sql
+				.select(BlobTable.SUBMISSION_FILES.getMetadataFields())
+				.from(SUBMISSION_FILE)
+				.where(SUBMISSION_FILE.SUBMISSION_ID.eq(submissionId))
+				.fetchOneInto(SubmissionFile.class);
+	}
+
+	/**
+	 * Finds the submission file of the given submission like
+	 * {@link #findMetadataBySubmissionId(int)}, and locks it until the end of the current
+	 * transaction, such that it is not changed in the meantime.
+	 *
+	 * @param submissionId The ID of the submission.
+	 * @return The submission file, or null if no such submission exists.
+	 */
+	public SubmissionFile findMetadataBySubmissionIdForUpdate(int submissionId) {
+		return sql
+				.select(BlobTable.SUBMISSION_FILES.getMetadataFields())
+				.from(SUBMISSION_FILE)
+				.where(SUBMISSION_FILE.SUBMISSION_ID.eq(submissionId))
+				.forUpdate()
+				.fetchOneInto(SubmissionFile.class);
+	}
+
+	/**
+	 * Finds the earliest submission file for the given task in the given chapter group which was
+	 * stored for an upload with the given hash, without retrieving the image itself. Submission
+	 * files which still carry their image inline are ignored, as their image can not be shared.
+	 *
+	 * @param sourceHash     The SHA-256 hash of the uploaded file.
+	 * @param taskId         The ID of the task.
+	 * @param chapterGroupId The ID of the chapter group.
+	 * @return The submission file, or null if no such file was uploaded before.
+	 */
+	public SubmissionFile findMetadataBySourceHash(
+			String sourceHash, int taskId, int chapterGroupId) {
+		return sql
+				.select(BlobTable.SUBMISSION_FILES.getMetadataFields())
+				.from(SUBMISSION_FILE)
+				.join(SUBMISSION).on(SUBMISSION.ID.eq(SUBMISSION_FILE.SUBMISSION_ID))
+				.where(SUBMISSION_FILE.SOURCE_HASH.eq(sourceHash))
+				.and(SUBMISSION.TASK_ID.eq(taskId))
+				.and(SUBMISSION.CHAPTER_GROUP_ID.eq(chapterGroupId))
+				.and(SUBMISSION_FILE.BLOB_HASH.isNotNull())
+				.orderBy(SUBMISSION_FILE.SUBMISSION_ID)
+				.limit(1)
+				.fetchOneInto(SubmissionFile.class);
+	}
+
+	/**
+	 * Finds the earliest submission of another user for the given task in the given chapter group
+	 * of which the upload is the same, or of which the image looks the same, see
+	 * {@link ImageService#MAX_PERCEPTUAL_DISTANCE}. Uploads of the same file are preferred over
+	 * similar looking images. Soft-deleted submissions are ignored. Only the earliest
+	 * {@link #MAX_DUPLICATE_CANDIDATES} submissions are compared, such that an upload does not
+	 * have to read all submissions of a large group.
+	 *
+	 * @param taskId         The ID of the task.
+	 * @param chapterGroupId The ID of the chapter group.
+	 * @param userId         The ID of the user who uploaded the image.
+	 * @param sourceHash     The SHA-256 hash of the uploaded file.
+	 * @param perceptualHash The perceptual hash of the image.
+	 * @return The ID of the submission, or null if no such submission exists.
+	 */
+	public Integer findDuplicateSubmissionId(
+			int taskId, int chapterGroupId, UUID userId, String sourceHash, long perceptualHash) {
+		Condition sameUpload = SUBMISSION_FILE.SOURCE_HASH.eq(sourceHash);
+		return sql
+				.select(
+						SUBMISSION_FILE.SUBMISSION_ID,
+						SUBMISSION_FILE.SOURCE_HASH,
+						SUBMISSION_FILE.PERCEPTUAL_HASH)
+				.from(SUBMISSION_FILE)
+				.join(SUBMISSION).on(SUBMISSION.ID.eq(SUBMISSION_FILE.SUBMISSION_ID))
+				.where(SUBMISSION.TASK_ID.eq(taskId))
+				.and(SUBMISSION.CHAPTER_GROUP_ID.eq(chapterGroupId))
+				.and(SUBMISSION.USER_ID.ne(userId))
+				.and(SUBMISSION.SOFT_DELETED.isFalse())
+				.and(sameUpload.or(SUBMISSION_FILE.PERCEPTUAL_HASH.isNotNull()))
+				.orderBy(
+						DSL.decode().when(sameUpload, 0).otherwise(1),
+						SUBMISSION_FILE.SUBMISSION_ID)
+				.limit(MAX_DUPLICATE_CANDIDATES)
+				.fetch()
+				.stream()
+				.filter(record -> sourceHash.equals(record.value2())
+						|| ImageService.getPerceptualDistance(perceptualHash, record.value3())
+						<= ImageService.MAX_PERCEPTUAL_DISTANCE)
+				.map(Record3::value1)
+				.findFirst()
+				.orElse(null);
+	}
+
+	/**
+	 * Inserts the submission file, after storing the given data in the blob store, see {@link
+	 * BlobTableDao#storeData(BlobTable, Object, byte[])}. The data is displayed as is, so the
+	 * rotation is reset.
+	 *
+	 * @param file The submission file to insert.
+	 * @param data The image data of the submission file.
+	 * @throws IOException When the data could not be stored.
+	 */
+	public void insert(SubmissionFile file, byte[] data) throws IOException {
+		blobTableDao.storeData(BlobTable.SUBMISSION_FILES, file, data);
+		file.setRotation(RotationState.ROT0.name());
+		insert(file);
+	}
+
+	/**
+	 * Inserts the submission file referencing the image of another submission file, instead of
+	 * storing the same image again. The image is displayed as is, so the rotation of the other
+	 * submission file is not copied.
+	 *
+	 * @param file     The submission file to insert.
+	 * @param original The submission file of which the image is shared, stored in the blob store.
+	 */
+	public void insertDuplicate(SubmissionFile file, SubmissionFile original) {
+		file.setBlobHash(original.getBlobHash());
+		file.setBlobSize(original.getBlobSize());
+		file.setData(null);
+		file.setRotation(RotationState.ROT0.name());
+		insert(file);
+	}
+
+	/**
+	 * Updates the submission file to reference the given data, which is stored in the blob store
+	 * first, see {@link BlobTableDao#storeData(BlobTable, Object, byte[])}. The data is displayed
+	 * as is, so the rotation is reset.
+	 *
+	 * @param file The submission file to update.
+	 * @param data The new image data of the submission file.
+	 * @throws IOException When the data could not be stored.
+	 */
+	public void update(SubmissionFile file, byte[] data) throws IOException {
+		blobTableDao.storeData(BlobTable.SUBMISSION_FILES, file, data);
+		file.setRotation(RotationState.ROT0.name());
+		update(file);
+	}
+
+	/**
+	 * Changes the rotation with which the submission file is displayed, without touching the image
+	 * itself.
+	 *
+	 * @param file     The submission file to rotate.
+	 * @param rotation The new rotation of the submission file.
+	 */
+	public void updateRotation(SubmissionFile file, RotationState rotation) {
+		sql.update(SUBMISSION_FILE)
+				.set(SUBMISSION_FILE.ROTATION, rotation.name())
+				.where(SUBMISSION_FILE.SUBMISSION_ID.eq(file.getSubmissionId()))
+				.execute();
+		file.setRotation(rotation.name());
+	}
+
+	/**
+	 * Retrieves the image data of the given submission file, see {@link
+	 * BlobTableDao#fetchData(BlobTable, Object)}.
+	 *
+	 * @param file The submission file to retrieve the data for.
+	 * @return The image data.
+	 * @throws IOException When the data could not be read from the blob store.
+	 */
+	public byte[] fetchData(SubmissionFile file) throws IOException {
+		return blobTableDao.fetchData(BlobTable.SUBMISSION_FILES, file);
+	}
 }
@@ -8,6 +8,10 @@ import org.jooq.impl.DSL;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
 import static nl.javalon.sketchlab.entity.Tables.SUBMISSION;
 import static nl.javalon.sketchlab.entity.Tables.SUBMISSION_THUMBNAIL;
 
@@ -17,6 +21,7 @@ import static nl.javalon.sketchlab.entity.Tables.SUBMISSION_THUMBNAIL;
 @Repository
 public class SubmissionThumbnailDetailsDao extends SubmissionThumbnailDao {
 	private final DSLContext sql;
+	private final BlobTableDao blobTableDao;
 
 	/**
 	 * Instantiates the {@link SubmissionThumbnailDetailsDao} using a jOOQ {@link Configuration}
@@ -24,15 +29,19 @@ public class SubmissionThumbnailDetailsDao extends SubmissionThumbnailDao {
 	 *
 	 * @param configuration The used jOOQ configuration.
 	 * @param sql           The used DSL context.
+	 * @param blobTableDao  The DAO used to store and read the image data.
 	 */
 	@Autowired
-	public SubmissionThumbnailDetailsDao(Configuration configuration, DSLContext sql) {
+	public SubmissionThumbnailDetailsDao(
+			Configuration configuration, DSLContext sql, BlobTableDao blobTableDao) {
 		super(configuration);
 		this.sql = sql;
+		this.blobTableDao = blobTableDao;
 	}
 
 	/**
 	 * Returns a submission thumbnail by it's submission ID and the chapter group it belongs to.
+	 * The image data itself is not retrieved, use {@link #fetchData(SubmissionThumbnail)} for that.
 	 * @param submissionId The ID of the submission.
 	 * @param chapterGroupId The ID of the chapter group the submission belongs to.
 	 * @param includeSoftDeleted True if the submission might be soft-deleted, false if not.
@@ -43,7 +52,7 @@ public class SubmissionThumbnailDetailsDao extends SubmissionThumbnailDao {
 	public SubmissionThumbnail findBySubmissionIdAndChapterGroupId(
 			int submissionId, int chapterGroupId, boolean includeSoftDeleted) {
 		return sql
-				.select(SUBMISSION_THUMBNAIL.fields())
+				.select(BlobTable.SUBMISSION_THUMBNAILS.getMetadataFields())
 				.from(SUBMISSION_THUMBNAIL)
 				.join(SUBMISSION).on(SUBMISSION.ID.eq(SUBMISSION_THUMBNAIL.SUBMISSION_ID))
 				.where(SUBMISSION_THUMBNAIL.SUBMISSION_ID.eq(submissionId))
@@ -51,4 +60,96 @@ public class SubmissionThumbnailDetailsDao extends SubmissionThumbnailDao {
 				.and(SUBMISSION.SOFT_DELETED.isFalse().or(DSL.condition(includeSoftDeleted)))
 				.fetchOneInto(SubmissionThumbnail.class);
 	}
+
+	/**
+	 * Finds the hashes of the thumbnails of the given submissions in a chapter group, without
+	 * retrieving the images themselves.
+	 *
+	 * @param submissionIds      The IDs of the submissions.
+	 * @param chapterGroupId     The ID of the chapter group the submissions belong to.
+	 * @param includeSoftDeleted True if the submissions might be soft-deleted, false if not.
+	 * @return The hashes of the blobs of the thumbnails, by the ID of their submission. The hash
+	 * is null for thumbnails which are still stored inline, see
+	 * {@link BlobTableDao#fetchData(BlobTable, Object, String)}.
+	 */
+	public Map<Integer, String> findBlobHashesBySubmissionIdsAndChapterGroupId(
+			Collection<Integer> submissionIds, int chapterGroupId, boolean includeSoftDeleted) {
+		return sql
+				.select(SUBMISSION_THUMBNAIL.SUBMISSION_ID, SUBMISSION_THUMBNAIL.BLOB_HASH)
+				.from(SUBMISSION_THUMBNAIL)
+				.join(SUBMISSION).on(SUBMISSION.ID.eq(SUBMISSION_THUMBNAIL.SUBMISSION_ID))
+				.where(SUBMISSION_THUMBNAIL.SUBMISSION_ID.in(submissionIds))
+				.and(SUBMISSION.CHAPTER_GROUP_ID.eq(chapterGroupId))
+				.and(SUBMISSION.SOFT_DELETED.isFalse().or(DSL.condition(includeSoftDeleted)))
+				.fetchMap(SUBMISSION_THUMBNAIL.SUBMISSION_ID, SUBMISSION_THUMBNAIL.BLOB_HASH);
+	}
+
+	/**
+	 * Finds the submission thumbnail of the given submission without retrieving the image
+	 * itself. Use {@link #fetchData(SubmissionThumbnail)} to retrieve the image.
+	 *
+	 * @param submissionId The ID of the submission.
+	 * @return The submission thumbnail, or null if no such submission exists.
+	 */
+	public SubmissionThumbnail findMetadataBySubmissionId(int submissionId) {
+		return sql
+				.select(BlobTable.SUBMISSION_THUMBNAILS.getMetadataFields())
+				.from(SUBMISSION_THUMBNAIL)
+				.where(SUBMISSION_THUMBNAIL.SUBMISSION_ID.eq(submissionId))
+				.fetchOneInto(SubmissionThumbnail.class);
+	}
+
+	/**
+	 * Inserts the submission thumbnail, after storing the given data in the blob store, see {@link
+	 * BlobTableDao#storeData(BlobTable, Object, byte[])}.
+	 *
+	 * @param thumbnail The submission thumbnail to insert.
+	 * @param data      The image data of the submission thumbnail.
+	 * @throws IOException When the data could not be stored.
+	 */
+	public void insert(SubmissionThumbnail thumbnail, byte[] data) throws IOException {
+		blobTableDao.storeData(BlobTable.SUBMISSION_THUMBNAILS, thumbnail, data);
+		insert(thumbnail);
+	}
+
+	/**
+	 * Inserts a thumbnail for the given submission which references the image of another
+	 * submission thumbnail, instead of storing the same thumbnail again.
+	 *
+	 * @param submissionId The ID of the submission to insert the thumbnail for.
+	 * @param original     The submission thumbnail of which the image is shared, stored in the
+	 *                     blob store.
+	 */
+	public void insertDuplicate(int submissionId, SubmissionThumbnail original) {
+		SubmissionThumbnail thumbnail = new SubmissionThumbnail();
+		thumbnail.setSubmissionId(submissionId);
+		thumbnail.setBlobHash(original.getBlobHash());
+		thumbnail.setBlobSize(original.getBlobSize());
+		insert(thumbnail);
+	}
+
+	/**
+	 * Updates the submission thumbnail to reference the given data, which is stored in the blob
+	 * store first, see {@link BlobTableDao#storeData(BlobTable, Object, byte[])}.
+	 *
+	 * @param thumbnail The submission thumbnail to update.
+	 * @param data      The new image data of the submission thumbnail.
+	 * @throws IOException When the data could not be stored.
+	 */
+	public void update(SubmissionThumbnail thumbnail, byte[] data) throws IOException {
+		blobTableDao.storeData(BlobTable.SUBMISSION_THUMBNAILS, thumbnail, data);
+		update(thumbnail);
+	}
+
+	/**
+	 * Retrieves the image data of the given submission thumbnail, see {@link
+	 * BlobTableDao#fetchData(BlobTable, Object)}.
+	 *
+	 * @param thumbnail The submission thumbnail to retrieve the data for.
+	 * @return The image data.
+	 * @throws IOException When the data could not be read from the blob store.
+	 */
+	public byte[] fetchData(SubmissionThumbnail thumbnail) throws IOException {
+		return blobTableDao.fetchData(BlobTable.SUBMISSION_THUMBNAILS, thumbnail);
+	}
 }
@@ -23,6 +23,7 @@ public class TaskDetailsDao extends TaskDao {
 	private final DSLContext sql;
 	private final TaskPageDetailsDao taskPageDao;
 	private final ExampleSubmissionDetailsDao exampleSubmissionDao;
+	private final SubmissionDetailsDao submissionDao;
 
 	/**
 	 * Instantiates the {@link TaskDetailsDao} using a jOOQ {@link Configuration} and the used
@@ -32,18 +33,31 @@ public class TaskDetailsDao extends TaskDao {
 	 * @param sql                  The used DSL context.
 	 * @param taskPageDao          The DAO used to retrieve task pages.
 	 * @param exampleSubmissionDao The DAO used to retrieve example submissions.
+	 * @param submissionDao        The DAO of which the cached totals are discarded on deletes.
 	 */
 	@Autowired
 	public TaskDetailsDao(
 			Configuration configuration,
 			DSLContext sql,
 			TaskPageDetailsDao taskPageDao,
-			ExampleSubmissionDetailsDao exampleSubmissionDao
+			ExampleSubmissionDetailsDao exampleSubmissionDao,
+			SubmissionDetailsDao submissionDao
 	) {
 		super(configuration);
 		this.sql = sql;
 		this.taskPageDao = taskPageDao;
 		this.exampleSubmissionDao = exampleSubmissionDao;
+		this.submissionDao = submissionDao;
+	}
+
+	/**
+	 * Deletes the task with the given ID, along with its submissions through cascades.
+	 *
+	 * @param taskId The ID of the task.
+	 */
+	public void deleteById(int taskId) {
+		sql.deleteFrom(TASK).where(TASK.ID.eq(taskId)).execute();
+		submissionDao.invalidateCounts();
 	}
 
 	/**
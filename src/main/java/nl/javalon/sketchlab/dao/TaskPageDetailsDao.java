@@ -93,21 +93,28 @@ public class TaskPageDetailsDao extends TaskPageDao {
 	 */
 	public void copyPages(int sourceTaskId, int targetTaskId) {
 		for (TaskPage taskPage : this.fetchByTaskId(sourceTaskId)) {
+			int sourceTaskPageId = taskPage.getId();
 			taskPage.setId(null);
 			taskPage.setTaskId(targetTaskId);
 			sql.newRecord(TASK_PAGE, taskPage).insert();
 			int targetTaskPageId = sql.lastID().intValue();
 
-			// The images
+			// The images, which share their blobs with the source images.
 			Select selectImages = sql
-					.select(DSL.value((Integer) null).as(TASK_PAGE_IMAGE.ID))
 					.select(DSL.value(targetTaskPageId).as(TASK_PAGE_IMAGE.TASK_PAGE_ID))
 					.select(TASK_PAGE_IMAGE.MIME_TYPE)
 					.select(TASK_PAGE_IMAGE.DATA)
+					.select(TASK_PAGE_IMAGE.BLOB_HASH)
+					.select(TASK_PAGE_IMAGE.BLOB_SIZE)
 					.from(TASK_PAGE_IMAGE)
-					.where(TASK_PAGE_IMAGE.TASK_PAGE_ID.eq(taskPage.getId()));
+					.where(TASK_PAGE_IMAGE.TASK_PAGE_ID.eq(sourceTaskPageId));
 
-			sql.insertInto(TASK_PAGE_IMAGE)
+			sql.insertInto(TASK_PAGE_IMAGE,
+					TASK_PAGE_IMAGE.TASK_PAGE_ID,
+					TASK_PAGE_IMAGE.MIME_TYPE,
+					TASK_PAGE_IMAGE.DATA,
+					TASK_PAGE_IMAGE.BLOB_HASH,
+					TASK_PAGE_IMAGE.BLOB_SIZE)
 					.select(selectImages)
 					.execute();
 		}
@@ -3,12 +3,14 @@ package nl.javalon.sketchlab.dao;
 import nl.javalon.sketchlab.dto.task.TaskPageImageDetailsDto;
 import nl.javalon.sketchlab.entity.tables.pojos.TaskPageImage;
 import nl.javalon.sketchlab.entity.tables.daos.TaskPageImageDao;
+import nl.javalon.sketchlab.service.ImageService.RotationState;
 import org.jooq.Configuration;
 import org.jooq.DSLContext;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
 import java.util.List;
 
 import static nl.javalon.sketchlab.entity.Tables.*;
@@ -22,6 +24,7 @@ import static nl.javalon.sketchlab.entity.Tables.*;
 @Transactional
 public class TaskPageImageDetailsDao extends TaskPageImageDao {
 	private final DSLContext sql;
+	private final BlobTableDao blobTableDao;
 
 	/**
 	 * Instantiates the {@link TaskPageImageDetailsDao} using a jOOQ {@link Configuration}
@@ -29,15 +32,19 @@ public class TaskPageImageDetailsDao extends TaskPageImageDao {
 	 *
 	 * @param configuration The used jOOQ configuration.
 	 * @param sql           The used DSL context.
+	 * @param blobTableDao  The DAO used to store and read the image data.
 	 */
 	@Autowired
-	public TaskPageImageDetailsDao(Configuration configuration, DSLContext sql) {
+	public TaskPageImageDetailsDao(
+			Configuration configuration, DSLContext sql, BlobTableDao blobTableDao) {
 		super(configuration);
 		this.sql = sql;
+		this.blobTableDao = blobTableDao;
 	}
 
 	/**
 	 * Fetch one by super key. This ensures all the other attributes are set correctly for security.
+	 * The image data itself is not retrieved, use {@link #fetchData(TaskPageImage)} for that.
 	 *
 	 * @param chapterId       The ID of the chapter the task belongs to.
 	 * @param taskId          The ID of the task the task page belongs to.
@@ -47,7 +54,7 @@ public class TaskPageImageDetailsDao extends TaskPageImageDao {
 	 */
 	public TaskPageImage findBySuperKey(
 			int chapterId, int taskId, int taskPageId, int taskPageImageId) {
-		return this.sql.select(TASK_PAGE_IMAGE.fields())
+		return this.sql.select(BlobTable.TASK_PAGE_IMAGES.getMetadataFields())
 				.from(TASK_PAGE_IMAGE)
 				.join(TASK_PAGE).on(TASK_PAGE.ID.eq(TASK_PAGE_IMAGE.TASK_PAGE_ID))
 				.join(TASK).on(TASK.ID.eq(TASK_PAGE.TASK_ID))
@@ -67,7 +74,10 @@ public class TaskPageImageDetailsDao extends TaskPageImageDao {
 	 * @return A List of all task page images.
 	 */
 	public List<TaskPageImageDetailsDto> fetchBySuperKey(int chapterId, int taskId, int taskPageId) {
-		return this.sql.select(TASK_PAGE_IMAGE.ID, TASK_PAGE_IMAGE.MIME_TYPE)
+		return this.sql
+				.select(TASK_PAGE_IMAGE.ID, TASK_PAGE_IMAGE.MIME_TYPE)
+				.select(BlobTableDao.version(TASK_PAGE_IMAGE.BLOB_HASH, TASK_PAGE_IMAGE.ROTATION)
+						.as("version"))
 				.from(TASK_PAGE_IMAGE)
 				.join(TASK_PAGE).on(TASK_PAGE.ID.eq(TASK_PAGE_IMAGE.TASK_PAGE_ID))
 				.join(TASK).on(TASK.ID.eq(TASK_PAGE.TASK_ID))
@@ -78,14 +88,61 @@ public class TaskPageImageDetailsDao extends TaskPageImageDao {
 	}
 
 	/**
-	 * Inserts a new task page image and returns the generated ID.
+	 * Stores the given data in the blob store, inserts a new task page image referencing it and
+	 * returns the generated ID, see {@link BlobTableDao#storeData(BlobTable, Object, byte[])}.
+	 * The data is displayed as is, so the rotation is reset.
 	 *
 	 * @param image The task page image, without an ID.
+	 * @param data  The image data of the task page image.
 	 * @return The generated ID.
+	 * @throws IOException When the data could not be stored.
 	 */
-	public int insertAndGetId(TaskPageImage image) {
+	public int insertAndGetId(TaskPageImage image, byte[] data) throws IOException {
+		blobTableDao.storeData(BlobTable.TASK_PAGE_IMAGES, image, data);
+		image.setRotation(RotationState.ROT0.name());
 		sql.newRecord(TASK_PAGE_IMAGE, image).insert();
 		return sql.lastID().intValue();
 	}
-}
 
+	/**
+	 * Updates the task page image to reference the given data, which is stored in the blob store
+	 * first, see {@link BlobTableDao#storeData(BlobTable, Object, byte[])}. The data is displayed
+	 * as is, so the rotation is reset.
+	 *
+	 * @param image The task page image to update.
+	 * @param data  The new image data of the task page image.
+	 * @throws IOException When the data could not be stored.
+	 */
+	public void update(TaskPageImage image, byte[] data) throws IOException {
+		blobTableDao.storeData(BlobTable.TASK_PAGE_IMAGES, image, data);
+		image.setRotation(RotationState.ROT0.name());
+		update(image);
+	}
+
+	/**
+	 * Changes the rotation with which the task page image is displayed, without touching the image
+	 * itself.
+	 *
+	 * @param image    The task page image to rotate.
+	 * @param rotation The new rotation of the task page image.
+	 */
+	public void updateRotation(TaskPageImage image, RotationState rotation) {
+		sql.update(TASK_PAGE_IMAGE)
+				.set(TASK_PAGE_IMAGE.ROTATION, rotation.name())
+				.where(TASK_PAGE_IMAGE.ID.eq(image.getId()))
+				.execute();
+		image.setRotation(rotation.name());
+	}
+
+	/**
+	 * Retrieves the image data of the given task page image, see {@link
+	 * BlobTableDao#fetchData(BlobTable, Object)}.
+	 *
+	 * @param image The task page image to retrieve the data for.
+	 * @return The image data.
+	 * @throws IOException When the data could not be read from the blob store.
+	 */
+	public byte[] fetchData(TaskPageImage image) throws IOException {
+		return blobTableDao.fetchData(BlobTable.TASK_PAGE_IMAGES, image);
+	}
+}
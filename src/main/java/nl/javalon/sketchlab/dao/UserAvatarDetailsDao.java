@@ -0,0 +1,114 @@
+package nl.javalon.sketchlab.dao;
+
+import nl.javalon.sketchlab.entity.tables.daos.UserAvatarDao;
+import nl.javalon.sketchlab.entity.tables.pojos.UserAvatar;
+import nl.javalon.sketchlab.service.ImageService.RotationState;
+import org.jooq.Configuration;
+import org.jooq.DSLContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import static nl.javalon.sketchlab.entity.Tables.USER_AVATAR;
+
+/**
+ * DAO for user avatar related operations.
+ *
+ * @author Jelle Stege
+ */
+@Repository
+public class UserAvatarDetailsDao extends UserAvatarDao {
+	private final DSLContext sql;
+	private final BlobTableDao blobTableDao;
+
+	/**
+	 * Instantiates the {@link UserAvatarDetailsDao} using a jOOQ {@link Configuration}, the used
+	 * {@link DSLContext} and the {@link BlobTableDao} with which the avatars are stored.
+	 *
+	 * @param configuration The used jOOQ configuration.
+	 * @param sql           The used DSL context.
+	 * @param blobTableDao  The DAO used to store and read the image data.
+	 */
+	@Autowired
+	public UserAvatarDetailsDao(
+			Configuration configuration, DSLContext sql, BlobTableDao blobTableDao) {
+		super(configuration);
+		this.sql = sql;
+		this.blobTableDao = blobTableDao;
+	}
+
+	/**
+	 * Finds the avatar of the given user without retrieving the image itself. Use
+	 * {@link #fetchImage(UserAvatar)} to retrieve the image.
+	 *
+	 * @param userId The ID of the user.
+	 * @return The avatar of the user, or null if the user has no avatar.
+	 */
+	public UserAvatar findMetadataByUserId(UUID userId) {
+		return sql
+				.select(BlobTable.USER_AVATARS.getMetadataFields())
+				.from(USER_AVATAR)
+				.where(USER_AVATAR.USER_ID.eq(userId))
+				.fetchOneInto(UserAvatar.class);
+	}
+
+	/**
+	 * Stores the given image in the blob store and inserts or updates the avatar referencing it.
+	 *
+	 * @param avatar The avatar to insert or update.
+	 * @param image  The image of the avatar.
+	 * @throws IOException When the image could not be stored.
+	 */
+	public void insertOrUpdate(UserAvatar avatar, byte[] image) throws IOException {
+		blobTableDao.storeData(BlobTable.USER_AVATARS, avatar, image);
+		avatar.setRotation(RotationState.ROT0.name());
+		if (existsById(avatar.getUserId())) {
+			update(avatar);
+		} else {
+			insert(avatar);
+		}
+	}
+
+	/**
+	 * Stores the given image in the blob store and updates the existing avatar to reference it.
+	 * Unlike {@link #insertOrUpdate(UserAvatar, byte[])}, the rotation of the avatar is kept, so
+	 * the image has to be in the same orientation as the one it replaces.
+	 *
+	 * @param avatar The avatar to update.
+	 * @param image  The new image of the avatar.
+	 * @throws IOException When the image could not be stored.
+	 */
+	public void updateImage(UserAvatar avatar, byte[] image) throws IOException {
+		blobTableDao.storeData(BlobTable.USER_AVATARS, avatar, image);
+		update(avatar);
+	}
+
+	/**
+	 * Changes the rotation with which the avatar is displayed, without touching the image
+	 * itself.
+	 *
+	 * @param avatar   The avatar to rotate.
+	 * @param rotation The new rotation of the avatar.
+	 */
+	public void updateRotation(UserAvatar avatar, RotationState rotation) {
+		sql.update(USER_AVATAR)
+				.set(USER_AVATAR.ROTATION, rotation.name())
+				.where(USER_AVATAR.USER_ID.eq(avatar.getUserId()))
+				.execute();
+		avatar.setRotation(rotation.name());
+	}
+
+	/**
+	 * Retrieves the image of the given avatar, either from the blob store or, when it has not been
+	 * migrated yet, from the row itself.
+	 *
+	 * @param avatar The avatar to retrieve the image for.
+	 * @return The image data.
+	 * @throws IOException When the image could not be read from the blob store.
+	 */
+	public byte[] fetchImage(UserAvatar avatar) throws IOException {
+		return blobTableDao.fetchData(BlobTable.USER_AVATARS, avatar);
+	}
+}
@@ -1,5 +1,6 @@
 package nl.javalon.sketchlab.dao;
 
+import static nl.javalon.sketchlab.entity.Tables.SUBMISSION;
 import static nl.javalon.sketchlab.entity.Tables.VOTE;
 
 import nl.javalon.sketchlab.entity.tables.daos.VoteDao;
@@ -10,6 +11,8 @@ import org.jooq.impl.DSL;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import java.util.UUID;
+
 /**
  * DAO for all Vote related operations.
  *
@@ -32,29 +35,55 @@ public class VoteDetailsDao extends VoteDao {
 		this.sql = sql;
 	}
 
-	/**
-	 * Counts all votes for a submission by the given submission ID.
-	 *
-	 * @param submissionId The ID of the submission for which to count votes.
-	 * @return The amount of votes for a certain submission.
-	 */
-	public int countBySubmissionId(int submissionId) {
-		return sql.fetchCount(sql
-				.selectFrom(VOTE)
-				.where(VOTE.SUBMISSION_ID.eq(submissionId))
-		);
-	}
-
 	/**
 	 * Inserts a vote into the database by the given ID. Does nothing if such a vote already exists.
+	 * The vote count of the submission is incremented when the vote is inserted.
 	 *
 	 * @param vote The vote to insert.
+	 * @return True if the vote was inserted, false if it already existed.
 	 */
-	public void insertOrDoNothing(Vote vote) {
-		DSL.using(super.configuration())
+	public boolean insertOrDoNothing(Vote vote) {
+		int inserted = DSL.using(super.configuration())
 				.insertInto(VOTE)
 				.columns(VOTE.SUBMISSION_ID, VOTE.USER_ID)
 				.values(vote.getSubmissionId(), vote.getUserId())
 				.onConflictDoNothing().execute();
+		if (inserted > 0) {
+			updateVoteCount(vote.getSubmissionId(), inserted);
+		}
+		return inserted > 0;
+	}
+
+	/**
+	 * Deletes the vote of the given user for the given submission, if any. The vote count of the
+	 * submission is decremented when the vote is deleted.
+	 *
+	 * @param submissionId The ID of the submission.
+	 * @param userId       The ID of the user.
+	 * @return True if the vote was deleted, false if the user did not vote for the submission.
+	 */
+	public boolean delete(int submissionId, UUID userId) {
+		int deleted = sql
+				.deleteFrom(VOTE)
+				.where(VOTE.SUBMISSION_ID.eq(submissionId))
+				.and(VOTE.USER_ID.eq(userId))
+				.execute();
+		if (deleted > 0) {
+			updateVoteCount(submissionId, -deleted);
+		}
+		return deleted > 0;
+	}
+
+	/**
+	 * Adds the given amount to the vote count of the given submission.
+	 *
+	 * @param submissionId The ID of the submission.
+	 * @param delta        The amount of votes which were added, or removed when negative.
+	 */
+	private void updateVoteCount(int submissionId, int delta) {
+		sql.update(SUBMISSION)
+				.set(SUBMISSION.VOTE_COUNT, SUBMISSION.VOTE_COUNT.add(delta))
+				.where(SUBMISSION.ID.eq(submissionId))
+				.execute();
 	}
 }
@@ -0,0 +1,19 @@
+package nl.javalon.sketchlab.dto;
+
+import lombok.Data;
+
+/**
+ * A size in which an image can be retrieved, e.g. to build the srcset of an image.
+ *
+ * @author Jelle Stege
+ */
+@Data
+public class RenditionDto {
+	/**
+	 * The value of the w parameter with which this rendition is retrieved, null for the image in
+	 * its original size.
+	 */
+	private final Integer widthParameter;
+	private final int width;
+	private final int height;
+}
@@ -0,0 +1,45 @@
+package nl.javalon.sketchlab.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * A sprite: a single image containing the thumbnails of several images, e.g. a page of a
+ * gallery, together with the location of every thumbnail in it.
+ *
+ * @author Jelle Stege
+ */
+@Data
+public class SpriteDto {
+	/**
+	 * The version of the sprite, which can be used as version parameter when retrieving the
+	 * sprite image.
+	 */
+	private final String version;
+	private final int width;
+	private final int height;
+
+	/**
+	 * The thumbnails in the sprite. Images of which the thumbnail is not available yet are
+	 * left out, their thumbnail has to be retrieved separately.
+	 */
+	private final List<Tile> tiles;
+
+	/**
+	 * The location of a thumbnail in the sprite. The thumbnail is centered in this area.
+	 *
+	 * @author Jelle Stege
+	 */
+	@Data
+	public static class Tile {
+		/**
+		 * The ID of the image the thumbnail belongs to.
+		 */
+		private final int id;
+		private final int x;
+		private final int y;
+		private final int width;
+		private final int height;
+	}
+}
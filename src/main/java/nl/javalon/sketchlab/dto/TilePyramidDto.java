@@ -0,0 +1,25 @@
+package nl.javalon.sketchlab.dto;
+
+import lombok.Data;
+
+/**
+ * Describes the tile pyramid of an image, which allows a zoomable viewer to retrieve only the
+ * part of the image it shows, at the resolution it is shown at. Like Deep Zoom, every level is
+ * half as large as the next one, rounded up, from a single pixel at level 0 up to the image in
+ * its original size at the highest level. Every level is divided into tiles of
+ * {@link #tileSize} pixels, counted from the top left, which do not overlap.
+ *
+ * @author Jelle Stege
+ */
+@Data
+public class TilePyramidDto {
+	/**
+	 * The version of the image, which can be used as version parameter when retrieving tiles.
+	 */
+	private final String version;
+	private final int width;
+	private final int height;
+	private final int tileSize;
+	private final int maxLevel;
+	private final String mimeType;
+}
@@ -1,6 +1,7 @@
 package nl.javalon.sketchlab.dto.page;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -32,9 +33,33 @@ public class Page<T> {
 	private int pageSize;
 
 	/**
-	 * The total amount of elements in the content.
+	 * The total amount of elements in the content, or null if it has not been counted.
 	 */
-	private int totalSize;
+	private Integer totalSize;
+
+	/**
+	 * Whether the total size has been counted, or is an estimate of the database for a large
+	 * collection.
+	 */
+	private boolean totalSizeExact = true;
+
+	/**
+	 * Whether there is a next page.
+	 */
+	@Getter(AccessLevel.NONE)
+	private boolean hasNext;
+
+	/**
+	 * The continuation token this page was requested with when paginating by keyset, or null when
+	 * paginating by offset.
+	 */
+	private String cursor;
+
+	/**
+	 * The continuation token of the next page when paginating by keyset, or null if there is no
+	 * next page.
+	 */
+	private String nextCursor;
 
 	/**
 	 * Returns the current page we're representing, starting at 0.
@@ -49,7 +74,7 @@ public class Page<T> {
 	 */
 	@JsonProperty
 	public boolean hasNext() {
-		return offset + pageSize < totalSize;
+		return hasNext;
 	}
 
 	/**
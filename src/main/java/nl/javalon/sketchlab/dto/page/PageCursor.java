@@ -0,0 +1,79 @@
+package nl.javalon.sketchlab.dto.page;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import nl.javalon.sketchlab.exception.MalformedRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The position in a collection from which a page continues when paginating by keyset, which is
+ * handed to clients as an opaque continuation token. Contains the values of the ordering of the
+ * last element of the previous page, rather than an offset, such that elements inserted before
+ * that position do not shift the following pages.
+ *
+ * @author Jelle Stege
+ */
+@Getter
+@AllArgsConstructor
+public class PageCursor {
+	/**
+	 * The separator of the values in an encoded cursor, which does not occur in any of them.
+	 */
+	private static final String SEPARATOR = "\n";
+
+	/**
+	 * The cursor of the first page.
+	 */
+	public static final PageCursor FIRST = new PageCursor(0, Collections.emptyList());
+
+	/**
+	 * The index of the first element of the page, only used to report the position of the page.
+	 */
+	private final int offset;
+
+	/**
+	 * The values of the ordering of the last element of the previous page, or an empty list for
+	 * the first page.
+	 */
+	private final List<String> keys;
+
+	/**
+	 * Encodes this cursor into a continuation token.
+	 *
+	 * @return The URL safe continuation token.
+	 */
+	public String encode() {
+		String cursor = offset + (keys.isEmpty() ? "" : SEPARATOR + String.join(SEPARATOR, keys));
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Decodes a continuation token as created by {@link #encode()}.
+	 *
+	 * @param token The continuation token, or an empty string for the first page.
+	 * @return The cursor represented by the token.
+	 * @throws MalformedRequestException If the token is not a valid continuation token.
+	 */
+	public static PageCursor decode(String token) {
+		if (token.isEmpty()) {
+			return FIRST;
+		}
+		try {
+			String[] cursor = new String(Base64.getUrlDecoder().decode(token),
+					StandardCharsets.UTF_8).split(SEPARATOR, -1);
+			int offset = Integer.parseInt(cursor[0]);
+			if (offset < 0) {
+				throw new MalformedRequestException("Invalid cursor");
+			}
+			return new PageCursor(offset, Arrays.asList(cursor).subList(1, cursor.length));
+		} catch (IllegalArgumentException e) {
+			throw new MalformedRequestException("Invalid cursor");
+		}
+	}
+}
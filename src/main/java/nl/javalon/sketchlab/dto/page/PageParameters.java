@@ -28,6 +28,18 @@ public class PageParameters {
 	@Min(0)
 	private int pageSize;
 
+	/**
+	 * The continuation token of the page when paginating by keyset instead of by offset, or null
+	 * to paginate by offset. An empty token denotes the first page.
+	 */
+	private String cursor;
+
+	/**
+	 * Whether to count the total amount of items when paginating by keyset. Always counted when
+	 * paginating by offset.
+	 */
+	private boolean countTotal;
+
 	/**
 	 * Builds a PageParameters object of the given parameters.
 	 *
@@ -41,4 +53,22 @@ public class PageParameters {
 		pageParameters.setPageSize(pageSize);
 		return pageParameters;
 	}
+
+	/**
+	 * Builds a PageParameters object of the given parameters, which paginates by keyset if a
+	 * cursor is given.
+	 *
+	 * @param offset     The offset at which to start the page, which is ignored if a cursor is
+	 *                   given.
+	 * @param pageSize   The maximum amount of items to return.
+	 * @param cursor     The continuation token of the page, or null to paginate by offset.
+	 * @param countTotal Whether to count the total amount of items when paginating by keyset.
+	 * @return The PageParameters object for the given parameters.
+	 */
+	public static PageParameters of(int offset, int pageSize, String cursor, boolean countTotal) {
+		final PageParameters pageParameters = of(offset, pageSize);
+		pageParameters.setCursor(cursor);
+		pageParameters.setCountTotal(countTotal);
+		return pageParameters;
+	}
 }
@@ -5,6 +5,8 @@ import lombok.Setter;
 import nl.javalon.sketchlab.entity.tables.pojos.ExampleSubmission;
 import nl.javalon.sketchlab.entity.tables.pojos.User;
 
+import javax.persistence.Column;
+
 /**
  * ExampleSubmission with the user who authored it.
  * @author Lukas Miedema
@@ -13,4 +15,17 @@ import nl.javalon.sketchlab.entity.tables.pojos.User;
 @Setter
 public class ExampleSubmissionDetailsDto extends ExampleSubmission {
 	private User user;
+
+	/**
+	 * The hash of the file, which can be used as version parameter when retrieving the file.
+	 */
+	@Column(name = "file_version")
+	private String fileVersion;
+
+	/**
+	 * The hash of the thumbnail, which can be used as version parameter when retrieving the
+	 * thumbnail.
+	 */
+	@Column(name = "thumbnail_version")
+	private String thumbnailVersion;
 }
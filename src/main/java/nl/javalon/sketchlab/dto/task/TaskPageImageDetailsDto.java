@@ -15,4 +15,11 @@ public class TaskPageImageDetailsDto {
 
 	@Column(name = "mime_type")
 	private String mimeType;
+
+	/**
+	 * The hash and rotation of the image, which can be used as version parameter when retrieving
+	 * the image.
+	 */
+	@Column(name = "version")
+	private String version;
 }
@@ -34,6 +34,27 @@ public class SubmissionDetailsDto extends Submission {
 	@Column(name = "soft_deleted")
 	private Boolean softDeleted;
 
+	/**
+	 * The hash and rotation of the file, which can be used as version parameter when retrieving
+	 * the file.
+	 */
+	@Column(name = "file_version")
+	private String fileVersion;
+
+	/**
+	 * The hash of the thumbnail, which can be used as version parameter when retrieving the
+	 * thumbnail.
+	 */
+	@Column(name = "thumbnail_version")
+	private String thumbnailVersion;
+
+	/**
+	 * The ID of an earlier submission with the same or a similar looking image, if any, which
+	 * indicates that this submission is possibly a duplicate.
+	 */
+	@Column(name = "duplicate_of")
+	private Integer duplicateOf;
+
 	private User user;
 
 	private Task task;
@@ -0,0 +1,23 @@
+package nl.javalon.sketchlab.exception;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a request can not be handled at the moment because the server is too busy. The
+ * client may retry the request after the given amount of seconds, see
+ * {@link ServiceUnavailableExceptionHandler}.
+ *
+ * @author Jelle Stege
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ServiceUnavailableException extends RuntimeException {
+	@Getter
+	private final int retryAfter;
+
+	public ServiceUnavailableException(String message, int retryAfter) {
+		super(message);
+		this.retryAfter = retryAfter;
+	}
+}
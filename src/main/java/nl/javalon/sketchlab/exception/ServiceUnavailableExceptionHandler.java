@@ -0,0 +1,32 @@
+package nl.javalon.sketchlab.exception;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Adds a Retry-After header to responses of requests which failed with a
+ * {@link ServiceUnavailableException}, such that clients know when to try again.
+ *
+ * @author Jelle Stege
+ */
+@ControllerAdvice
+public class ServiceUnavailableExceptionHandler {
+	/**
+	 * Responds with 503 Service Unavailable and the Retry-After header of the exception. The
+	 * response body is rendered by the regular error handling.
+	 *
+	 * @param exception The exception which was thrown.
+	 * @param response  The HTTP response to use.
+	 * @throws IOException When the error could not be sent.
+	 */
+	@ExceptionHandler(ServiceUnavailableException.class)
+	public void handle(ServiceUnavailableException exception, HttpServletResponse response)
+			throws IOException {
+		response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(exception.getRetryAfter()));
+		response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, exception.getMessage());
+	}
+}
@@ -4,6 +4,7 @@ import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import lombok.AllArgsConstructor;
 import nl.javalon.sketchlab.config.ApiConfig;
+import nl.javalon.sketchlab.dao.BlobTable;
 import nl.javalon.sketchlab.dao.SubmissionDetailsDao;
 import nl.javalon.sketchlab.dao.SubmissionFileDetailsDao;
 import nl.javalon.sketchlab.dao.SubmissionThumbnailDetailsDao;
@@ -14,6 +15,7 @@ import nl.javalon.sketchlab.entity.tables.pojos.User;
 import nl.javalon.sketchlab.exception.NoSuchEntityException;
 import nl.javalon.sketchlab.service.FileService;
 import nl.javalon.sketchlab.service.ImageService;
+import nl.javalon.sketchlab.service.ImageService.RotationState;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -21,6 +23,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.List;
@@ -63,6 +66,8 @@ public class BestWorkResource {
 	/**
 	 * Retrieves a specific submission, but only when it is considered best work.
 	 *
+	 * @param version      The version of the image known to the client, used for caching.
+	 * @param request      The HTTP request which is being responded to.
 	 * @param response     The HTTP response to use.
 	 * @param submissionId The ID of the submission to retrieve.
 	 * @param limit        The limit of top submissions. If the current submission is below this
@@ -73,6 +78,8 @@ public class BestWorkResource {
 			notes = "By default, best work is limited to 4 works, with a maximum of 20.")
 	@GetMapping("submissions/{submissionId}/file")
 	public void getSubmissionFile(
+			@RequestParam(name = "v", required = false) String version,
+			HttpServletRequest request,
 			HttpServletResponse response,
 			@PathVariable int submissionId,
 			@RequestParam(name = "limit", defaultValue = "4") int limit) throws IOException {
@@ -80,14 +87,24 @@ public class BestWorkResource {
 			throw new NoSuchEntityException("No such best work image");
 		}
 		SubmissionFile file = NoSuchEntityException.checkNull(
-				submissionFileDao.findById(submissionId),
+				submissionFileDao.findMetadataBySubmissionId(submissionId),
 				"No such best work image");
-		fileService.write(file.getData(), file.getMimeType(), response);
+		fileService.write(
+				BlobTable.SUBMISSION_FILES,
+				file.getSubmissionId(),
+				file.getBlobHash(),
+				RotationState.valueOf(file.getRotation()),
+				file.getMimeType(),
+				version,
+				request,
+				response);
 	}
 
 	/**
 	 * Retrieves a thumbnail for a specific submission, but only when it is considered best work.
 	 *
+	 * @param version      The version of the image known to the client, used for caching.
+	 * @param request      The HTTP request which is being responded to.
 	 * @param response     The HTTP response to use.
 	 * @param submissionId The ID of the submission to retrieve a thumbnail for.
 	 * @param limit        The limit of top submissions. If the current submission is below this
@@ -98,6 +115,8 @@ public class BestWorkResource {
 			notes = "By default, best work is limited to 4 works, with a maximum of 20.")
 	@GetMapping("submissions/{submissionId}/thumbnail")
 	public void getSubmissionThumbnail(
+			@RequestParam(name = "v", required = false) String version,
+			HttpServletRequest request,
 			HttpServletResponse response,
 			@PathVariable int submissionId,
 			@RequestParam(name = "limit", defaultValue = "4") int limit) throws IOException {
@@ -105,8 +124,15 @@ public class BestWorkResource {
 			throw new NoSuchEntityException("No such best work image");
 		}
 		SubmissionThumbnail file = NoSuchEntityException.checkNull(
-				submissionThumbnailDao.findById(submissionId),
+				submissionThumbnailDao.findMetadataBySubmissionId(submissionId),
 				"No such best work image");
-		fileService.write(file.getData(), ImageService.THUMBNAIL_TYPE.getMimeType(), response);
+		fileService.write(
+				BlobTable.SUBMISSION_THUMBNAILS,
+				file.getSubmissionId(),
+				file.getBlobHash(),
+				ImageService.THUMBNAIL_TYPE.getMimeType(),
+				version,
+				request,
+				response);
 	}
 }
@@ -0,0 +1,70 @@
+package nl.javalon.sketchlab.resource;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import lombok.AllArgsConstructor;
+import nl.javalon.sketchlab.config.ApiConfig;
+import nl.javalon.sketchlab.entity.tables.pojos.RenditionRegeneration;
+import nl.javalon.sketchlab.exception.EntityExistsException;
+import nl.javalon.sketchlab.exception.NoSuchEntityException;
+import nl.javalon.sketchlab.service.RenditionRegenerationService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * Handles regenerating the renditions of all stored images, e.g. after the size of thumbnails
+ * changed. This is teacher-only, as it concerns the whole system.
+ *
+ * @author Jelle Stege
+ */
+@SketchlabResource
+@RequestMapping(ApiConfig.RENDITION_REGENERATION)
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+@Api(description = "Regenerates the thumbnails of all stored images in the background")
+public class RenditionRegenerationResource {
+	private final RenditionRegenerationService renditionRegenerationService;
+
+	/**
+	 * Retrieves the progress of the running regeneration, or of the last one if none is running.
+	 *
+	 * @return The progress per target, in the order in which they are regenerated.
+	 */
+	@ApiOperation("Get the progress of the running regeneration, or of the last one")
+	@GetMapping
+	public List<RenditionRegeneration> getProgress() {
+		return renditionRegenerationService.getProgress();
+	}
+
+	/**
+	 * Starts regenerating the renditions of all stored images in the background.
+	 *
+	 * @return The progress of the started regeneration.
+	 * @throws EntityExistsException When a regeneration is running already.
+	 */
+	@ApiOperation(value = "Start regenerating the renditions of all stored images",
+			notes = "E.g. after the size or encoder settings of thumbnails changed. Fails with "
+					+ "409 Conflict when a regeneration is running already.")
+	@PostMapping
+	@ResponseStatus(HttpStatus.ACCEPTED)
+	public List<RenditionRegeneration> start() {
+		return renditionRegenerationService.start();
+	}
+
+	/**
+	 * Cancels the running regeneration. Renditions which have been regenerated already are kept.
+	 *
+	 * @throws NoSuchEntityException When no regeneration is running.
+	 */
+	@ApiOperation(value = "Cancel the running regeneration",
+			notes = "Renditions which have been regenerated already are kept.")
+	@DeleteMapping
+	@ResponseStatus(HttpStatus.NO_CONTENT)
+	public void cancel() {
+		if (!renditionRegenerationService.cancel()) {
+			throw new NoSuchEntityException("No regeneration is running");
+		}
+	}
+}
@@ -6,6 +6,9 @@ import io.swagger.annotations.ApiParam;
 import lombok.AllArgsConstructor;
 import nl.javalon.sketchlab.config.ApiConfig;
 import nl.javalon.sketchlab.dao.*;
+import nl.javalon.sketchlab.dto.RenditionDto;
+import nl.javalon.sketchlab.dto.SpriteDto;
+import nl.javalon.sketchlab.dto.TilePyramidDto;
 import nl.javalon.sketchlab.dto.page.Page;
 import nl.javalon.sketchlab.dto.page.PageParameters;
 import nl.javalon.sketchlab.dto.task.submission.SubmissionDetailsDto;
@@ -18,22 +21,37 @@ import nl.javalon.sketchlab.exception.NoSuchEntityException;
 import nl.javalon.sketchlab.security.SecurityService;
 import nl.javalon.sketchlab.security.UserRole;
 import nl.javalon.sketchlab.service.FileService;
+import nl.javalon.sketchlab.service.FileSystemBlobStore;
+import nl.javalon.sketchlab.service.ImageProcessingService;
 import nl.javalon.sketchlab.service.ImageService;
 import nl.javalon.sketchlab.service.ImageService.ImageFormat;
+import nl.javalon.sketchlab.service.ImageService.RenditionSpec;
 import nl.javalon.sketchlab.service.ImageService.RotationState;
+import nl.javalon.sketchlab.service.ImageService.SourceImage;
+import nl.javalon.sketchlab.service.RenditionService;
+import nl.javalon.sketchlab.service.RenditionService.Rendition;
+import nl.javalon.sketchlab.utils.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.QueryParam;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * REST endpoint for submissions.
@@ -46,6 +64,9 @@ import java.util.UUID;
 @Api(description = "Submission resource (including files)")
 public class SubmissionResource {
 	public static final String DEFAULT_PAGE_SIZE = "15";
+	public static final String CURSOR_DESCRIPTION = "The nextCursor of the previous page, or an "
+			+ "empty string for the first page, to paginate by keyset instead of by pageOffset";
+	public static final int MAX_SPRITE_SIZE = 50;
 	
 	private final TaskDetailsDao taskDao;
 	private final ChapterGroupDetailsDao chapterGroupDao;
@@ -55,9 +76,12 @@ public class SubmissionResource {
 	private final VoteDetailsDao voteDao;
 	private final AnnotationDetailsDao annotationDetailsDao;
 	private final ImageService imageService;
+	private final ImageProcessingService imageProcessingService;
+	private final RenditionService renditionService;
 	private final SecurityService securityService;
 	private final NotificationDetailsDao notificationDetailsDao;
 	private final FileService fileService;
+	private final PlatformTransactionManager transactionManager;
 
 	/**
 	 * Returns all submissions for a certain chapter group.
@@ -68,6 +92,10 @@ public class SubmissionResource {
 	 * @param ordering       The ordering that should be used.
 	 * @param offset         The offset at which to start returning elements.
 	 * @param pageSize       The maximum amount of returned elements.
+	 * @param cursor         The continuation token of the page, to paginate by keyset instead of
+	 *                       by offset.
+	 * @param count          Whether to count the total amount of elements when paginating by
+	 *                       keyset.
 	 * @return A page containing a List of all submissions for the given chapter group.
 	 */
 	@ApiOperation("Get all submissions")
@@ -77,8 +105,12 @@ public class SubmissionResource {
 			@PathVariable int chapterId,
 			@PathVariable int chapterGroupId,
 			@RequestParam(value = "ordering", defaultValue = "BEST") SubmissionOrdering ordering,
-			@RequestParam(value = "pageOffset") int offset,
-			@RequestParam(value = "pageSize", defaultValue = DEFAULT_PAGE_SIZE) int pageSize
+			@RequestParam(value = "pageOffset", defaultValue = "0") int offset,
+			@RequestParam(value = "pageSize", defaultValue = DEFAULT_PAGE_SIZE) int pageSize,
+			@ApiParam(CURSOR_DESCRIPTION)
+			@RequestParam(value = "cursor", required = false) String cursor,
+			@ApiParam("Count the total amount of submissions when paginating by cursor")
+			@RequestParam(value = "count", defaultValue = "false") boolean count
 	) {
 		NoSuchEntityException.checkNull(
 				chapterGroupDao.findByChapterGroupIdAndChapterId(chapterGroupId, chapterId),
@@ -88,7 +120,7 @@ public class SubmissionResource {
 				chapterGroupId,
 				user.getId(),
 				ordering,
-				PageParameters.of(offset, pageSize)
+				PageParameters.of(offset, pageSize, cursor, count)
 		);
 	}
 
@@ -104,6 +136,10 @@ public class SubmissionResource {
 	 *                       parameter is ignored if the logged in user is a student.
 	 * @param offset         The offset at which to start returning elements.
 	 * @param pageSize       The maximum amount of returned elements.
+	 * @param cursor         The continuation token of the page, to paginate by keyset instead of
+	 *                       by offset.
+	 * @param count          Whether to count the total amount of elements when paginating by
+	 *                       keyset.
 	 * @return A page containing a List of all submissions for the given user ID and chapter
 	 * group ID.
 	 */
@@ -118,8 +154,12 @@ public class SubmissionResource {
 			@RequestParam(value = "ordering", defaultValue = "BEST") SubmissionOrdering ordering,
 			@ApiParam("Include soft deleted submissions in the reply")
 			@RequestParam(value = "include-deleted", defaultValue = "false") boolean includeDeleted,
-			@RequestParam(value = "pageOffset") int offset,
-			@RequestParam(value = "pageSize", defaultValue = DEFAULT_PAGE_SIZE) int pageSize
+			@RequestParam(value = "pageOffset", defaultValue = "0") int offset,
+			@RequestParam(value = "pageSize", defaultValue = DEFAULT_PAGE_SIZE) int pageSize,
+			@ApiParam(CURSOR_DESCRIPTION)
+			@RequestParam(value = "cursor", required = false) String cursor,
+			@ApiParam("Count the total amount of submissions when paginating by cursor")
+			@RequestParam(value = "count", defaultValue = "false") boolean count
 	) {
 		NoSuchEntityException.checkNull(
 				chapterGroupDao.findByChapterGroupIdAndChapterId(chapterGroupId, chapterId),
@@ -135,7 +175,7 @@ public class SubmissionResource {
 				user.getId(),
 				ordering,
 				includeDeleted,
-				PageParameters.of(offset, pageSize)
+				PageParameters.of(offset, pageSize, cursor, count)
 		);
 	}
 
@@ -149,6 +189,10 @@ public class SubmissionResource {
 	 * @param ordering       The ordering that should be used.
 	 * @param offset         The offset at which to start returning elements.
 	 * @param pageSize       The maximum amount of returned elements.
+	 * @param cursor         The continuation token of the page, to paginate by keyset instead of
+	 *                       by offset.
+	 * @param count          Whether to count the total amount of elements when paginating by
+	 *                       keyset.
 	 * @return A page containing a List of all submissions for the given task ID and chapter
 	 * group ID.
 	 */
@@ -160,8 +204,12 @@ public class SubmissionResource {
 			@PathVariable int chapterGroupId,
 			@PathVariable int taskId,
 			@RequestParam(value = "ordering", defaultValue = "BEST") SubmissionOrdering ordering,
-			@RequestParam(value = "pageOffset") int offset,
-			@RequestParam(value = "pageSize", defaultValue = DEFAULT_PAGE_SIZE) int pageSize
+			@RequestParam(value = "pageOffset", defaultValue = "0") int offset,
+			@RequestParam(value = "pageSize", defaultValue = DEFAULT_PAGE_SIZE) int pageSize,
+			@ApiParam(CURSOR_DESCRIPTION)
+			@RequestParam(value = "cursor", required = false) String cursor,
+			@ApiParam("Count the total amount of submissions when paginating by cursor")
+			@RequestParam(value = "count", defaultValue = "false") boolean count
 	) {
 		NoSuchEntityException.checkNull(
 				chapterGroupDao.findByChapterGroupIdAndChapterId(chapterGroupId, chapterId),
@@ -172,7 +220,7 @@ public class SubmissionResource {
 				taskId,
 				user.getId(),
 				ordering,
-				PageParameters.of(offset, pageSize)
+				PageParameters.of(offset, pageSize, cursor, count)
 		);
 	}
 
@@ -187,6 +235,10 @@ public class SubmissionResource {
 	 * @param ordering       The ordering that should be used.
 	 * @param offset         The offset at which to start returning elements.
 	 * @param pageSize       The maximum amount of returned elements.
+	 * @param cursor         The continuation token of the page, to paginate by keyset instead of
+	 *                       by offset.
+	 * @param count          Whether to count the total amount of elements when paginating by
+	 *                       keyset.
 	 * @return A page containing a List of all submissions for the given task ID, user ID and
 	 * chapter group ID.
 	 */
@@ -199,8 +251,12 @@ public class SubmissionResource {
 			@PathVariable int taskId,
 			@PathVariable UUID userId,
 			@RequestParam(value = "ordering", defaultValue = "NEW") SubmissionOrdering ordering,
-			@RequestParam(value = "pageOffset") int offset,
-			@RequestParam(value = "pageSize", defaultValue = DEFAULT_PAGE_SIZE) int pageSize
+			@RequestParam(value = "pageOffset", defaultValue = "0") int offset,
+			@RequestParam(value = "pageSize", defaultValue = DEFAULT_PAGE_SIZE) int pageSize,
+			@ApiParam(CURSOR_DESCRIPTION)
+			@RequestParam(value = "cursor", required = false) String cursor,
+			@ApiParam("Count the total amount of submissions when paginating by cursor")
+			@RequestParam(value = "count", defaultValue = "false") boolean count
 	) {
 		NoSuchEntityException.checkNull(
 				chapterGroupDao.findByChapterGroupIdAndChapterId(chapterGroupId, chapterId),
@@ -212,7 +268,7 @@ public class SubmissionResource {
 				userId,
 				user.getId(),
 				ordering,
-				PageParameters.of(offset, pageSize)
+				PageParameters.of(offset, pageSize, cursor, count)
 		);
 	}
 
@@ -227,6 +283,10 @@ public class SubmissionResource {
 	 * @param ordering       The ordering that should be used.
 	 * @param offset         The offset at which to start returning elements.
 	 * @param pageSize       The maximum amount of returned elements.
+	 * @param cursor         The continuation token of the page, to paginate by keyset instead of
+	 *                       by offset.
+	 * @param count          Whether to count the total amount of elements when paginating by
+	 *                       keyset.
 	 * @return A page containing a List of all submissions for the given task ID and chapter group
 	 * ID made by the currently logged in user.
 	 */
@@ -238,8 +298,12 @@ public class SubmissionResource {
 			@PathVariable int chapterGroupId,
 			@PathVariable int taskId,
 			@RequestParam(value = "ordering", defaultValue = "NEW") SubmissionOrdering ordering,
-			@RequestParam(value = "pageOffset") int offset,
-			@RequestParam(value = "pageSize", defaultValue = DEFAULT_PAGE_SIZE) int pageSize
+			@RequestParam(value = "pageOffset", defaultValue = "0") int offset,
+			@RequestParam(value = "pageSize", defaultValue = DEFAULT_PAGE_SIZE) int pageSize,
+			@ApiParam(CURSOR_DESCRIPTION)
+			@RequestParam(value = "cursor", required = false) String cursor,
+			@ApiParam("Count the total amount of submissions when paginating by cursor")
+			@RequestParam(value = "count", defaultValue = "false") boolean count
 	) {
 		NoSuchEntityException.checkNull(
 				chapterGroupDao.findByChapterGroupIdAndChapterId(chapterGroupId, chapterId),
@@ -251,7 +315,7 @@ public class SubmissionResource {
 				user.getId(),
 				user.getId(),
 				ordering,
-				PageParameters.of(offset, pageSize)
+				PageParameters.of(offset, pageSize, cursor, count)
 		);
 	}
 
@@ -265,6 +329,10 @@ public class SubmissionResource {
 	 * @param ordering       The ordering that should be used.
 	 * @param offset         The offset at which to start returning elements.
 	 * @param pageSize       The maximum amount of returned elements.
+	 * @param cursor         The continuation token of the page, to paginate by keyset instead of
+	 *                       by offset.
+	 * @param count          Whether to count the total amount of elements when paginating by
+	 *                       keyset.
 	 * @return A page containing a List of all submissions for the given subgroup ID and chapter 
 	 * group ID.
 	 */
@@ -276,8 +344,12 @@ public class SubmissionResource {
 			@PathVariable int chapterGroupId,
 			@PathVariable int subgroupId,
 			@RequestParam(value = "ordering", defaultValue = "BEST") SubmissionOrdering ordering,
-			@RequestParam(value = "pageOffset") int offset,
-			@RequestParam(value = "pageSize", defaultValue = DEFAULT_PAGE_SIZE) int pageSize) {
+			@RequestParam(value = "pageOffset", defaultValue = "0") int offset,
+			@RequestParam(value = "pageSize", defaultValue = DEFAULT_PAGE_SIZE) int pageSize,
+			@ApiParam(CURSOR_DESCRIPTION)
+			@RequestParam(value = "cursor", required = false) String cursor,
+			@ApiParam("Count the total amount of submissions when paginating by cursor")
+			@RequestParam(value = "count", defaultValue = "false") boolean count) {
 		NoSuchEntityException.checkNull(
 				chapterGroupDao.findByChapterGroupIdAndChapterId(chapterGroupId, chapterId),
 				"No such chapter group."
@@ -287,7 +359,7 @@ public class SubmissionResource {
 				subgroupId,
 				user.getId(),
 				ordering,
-				PageParameters.of(offset, pageSize)
+				PageParameters.of(offset, pageSize, cursor, count)
 		);
 	}
 
@@ -407,8 +479,9 @@ public class SubmissionResource {
 				"No such submission");
 
 		if (!submission.getUserHasVoted()) {
-			voteDao.insertOrDoNothing(new Vote(submissionId, user.getId()));
-			submission.setVotes(voteDao.countBySubmissionId(submissionId));
+			if (voteDao.insertOrDoNothing(new Vote(submissionId, user.getId()))) {
+				submission.setVotes(submission.getVotes() + 1);
+			}
 			submission.setUserHasVoted(true);
 		}
 		return submission;
@@ -439,8 +512,9 @@ public class SubmissionResource {
 				"No such submission");
 
 		if (!submission.getUser().getId().equals(user.getId()) && submission.getUserHasVoted()) {
-			voteDao.delete(new Vote(submissionId, user.getId()));
-			submission.setVotes(submission.getVotes() - 1);
+			if (voteDao.delete(submissionId, user.getId())) {
+				submission.setVotes(submission.getVotes() - 1);
+			}
 			submission.setUserHasVoted(false);
 		}
 		return submission;
@@ -454,6 +528,11 @@ public class SubmissionResource {
 	 * @param chapterId      The ID of the chapter to which the submissions belongs.
 	 * @param chapterGroupId The ID of the chapter group the submission belongs to.
 	 * @param submissionId   The ID of the submission for which to retrieve the file.
+	 * @param width          The width the file is displayed with, see
+	 *                       {@link #getFileRenditions(User, int, int, int)}. Null for the file in
+	 *                       its original size.
+	 * @param version        The version of the image known to the client, used for caching.
+	 * @param request        The HTTP request which is being responded to.
 	 * @param response       The HTTP response where the file should be written to.
 	 * @throws IOException           When the file could not be parsed.
 	 * @throws NoSuchEntityException When the submission does not exist.
@@ -465,7 +544,153 @@ public class SubmissionResource {
 			@AuthenticationPrincipal User user,
 			@PathVariable int chapterId,
 			@PathVariable int chapterGroupId,
-			@PathVariable int submissionId, HttpServletResponse response) throws IOException {
+			@PathVariable int submissionId,
+			@RequestParam(name = "w", required = false) Integer width,
+			@RequestParam(name = "v", required = false) String version,
+			HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		SubmissionFile file = findFile(user, chapterId, chapterGroupId, submissionId);
+		this.fileService.write(
+				BlobTable.SUBMISSION_FILES,
+				file.getSubmissionId(),
+				file.getBlobHash(),
+				RotationState.valueOf(file.getRotation()),
+				width,
+				file.getMimeType(),
+				version,
+				request,
+				response);
+	}
+
+	/**
+	 * Lists the sizes in which the file of a submission can be retrieved, such that clients can
+	 * pick the one fitting their screen, e.g. using srcset. Will throw an exception if the
+	 * submission is soft-deleted and the user is not a TA in this chapter group or a teacher.
+	 *
+	 * @param user           The logged in user.
+	 * @param chapterId      The ID of the chapter to which the submissions belongs.
+	 * @param chapterGroupId The ID of the chapter group the submission belongs to.
+	 * @param submissionId   The ID of the submission.
+	 * @return The sizes, from small to large.
+	 * @throws IOException           When the file could not be read.
+	 * @throws NoSuchEntityException When the submission does not exist.
+	 */
+	@ApiOperation(value = "List the sizes in which the file of a submission can be retrieved",
+			notes = "Retrieve a size by passing its widthParameter as w parameter.")
+	@GetMapping("/{submissionId}/file/renditions")
+	public List<RenditionDto> getFileRenditions(
+			@AuthenticationPrincipal User user,
+			@PathVariable int chapterId,
+			@PathVariable int chapterGroupId,
+			@PathVariable int submissionId) throws IOException {
+		SubmissionFile file = findFile(user, chapterId, chapterGroupId, submissionId);
+		return this.fileService.getRenditions(
+				BlobTable.SUBMISSION_FILES,
+				file.getSubmissionId(),
+				file.getBlobHash(),
+				RotationState.valueOf(file.getRotation()));
+	}
+
+	/**
+	 * Describes the tile pyramid of the file of a submission, such that a zoomable viewer can
+	 * retrieve only the tiles it shows. Will throw an exception if the submission is soft-deleted
+	 * and the user is not a TA in this chapter group or a teacher.
+	 *
+	 * @param user           The logged in user.
+	 * @param chapterId      The ID of the chapter to which the submissions belongs.
+	 * @param chapterGroupId The ID of the chapter group the submission belongs to.
+	 * @param submissionId   The ID of the submission.
+	 * @return The description of the tile pyramid.
+	 * @throws IOException           When the file could not be read.
+	 * @throws NoSuchEntityException When the submission does not exist, or its file is not stored
+	 *                               in the blob store yet.
+	 */
+	@ApiOperation(value = "Describe the tile pyramid of the file of a submission",
+			notes = "Retrieve a tile using /tiles/{level}/{column}/{row}, with the version as v "
+					+ "parameter.")
+	@GetMapping("/{submissionId}/file/tiles")
+	public TilePyramidDto getFileTiles(
+			@AuthenticationPrincipal User user,
+			@PathVariable int chapterId,
+			@PathVariable int chapterGroupId,
+			@PathVariable int submissionId) throws IOException {
+		SubmissionFile file = findTiledFile(user, chapterId, chapterGroupId, submissionId);
+		return this.fileService.getTilePyramid(
+				file.getBlobHash(), RotationState.valueOf(file.getRotation()), file.getMimeType());
+	}
+
+	/**
+	 * Retrieves a tile of the tile pyramid of the file of a submission, see
+	 * {@link #getFileTiles(User, int, int, int)}. Will throw an exception if the submission is
+	 * soft-deleted and the user is not a TA in this chapter group or a teacher.
+	 *
+	 * @param user           The logged in user.
+	 * @param chapterId      The ID of the chapter to which the submissions belongs.
+	 * @param chapterGroupId The ID of the chapter group the submission belongs to.
+	 * @param submissionId   The ID of the submission.
+	 * @param level          The level of the tile.
+	 * @param column         The column of the tile.
+	 * @param row            The row of the tile.
+	 * @param version        The version of the image known to the client, used for caching.
+	 * @param request        The HTTP request which is being responded to.
+	 * @param response       The HTTP response where the tile should be written to.
+	 * @throws IOException           When the tile could not be created.
+	 * @throws NoSuchEntityException When the submission or tile does not exist, or the file of
+	 *                               the submission is not stored in the blob store yet.
+	 */
+	@ApiOperation("Get a tile of the tile pyramid of the file of a submission")
+	@GetMapping("/{submissionId}/file/tiles/{level}/{column}/{row}")
+	public void getFileTile(
+			@AuthenticationPrincipal User user,
+			@PathVariable int chapterId,
+			@PathVariable int chapterGroupId,
+			@PathVariable int submissionId,
+			@PathVariable int level,
+			@PathVariable int column,
+			@PathVariable int row,
+			@RequestParam(name = "v", required = false) String version,
+			HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		SubmissionFile file = findTiledFile(user, chapterId, chapterGroupId, submissionId);
+		this.fileService.writeTile(
+				file.getBlobHash(), RotationState.valueOf(file.getRotation()), level, column, row,
+				file.getMimeType(), version, request, response);
+	}
+
+	/**
+	 * Finds the file of a submission like {@link #findFile(User, int, int, int)}, which has to be
+	 * stored in the blob store to be tiled.
+	 *
+	 * @param user           The logged in user.
+	 * @param chapterId      The ID of the chapter to which the submissions belongs.
+	 * @param chapterGroupId The ID of the chapter group the submission belongs to.
+	 * @param submissionId   The ID of the submission.
+	 * @return The submission file.
+	 * @throws NoSuchEntityException When the submission does not exist, or its file is not stored
+	 *                               in the blob store yet.
+	 */
+	private SubmissionFile findTiledFile(
+			User user, int chapterId, int chapterGroupId, int submissionId) {
+		SubmissionFile file = findFile(user, chapterId, chapterGroupId, submissionId);
+		if (file.getBlobHash() == null) {
+			throw new NoSuchEntityException("The file of this submission can not be tiled yet");
+		}
+		return file;
+	}
+
+	/**
+	 * Finds the file of a submission, without its data. Soft-deleted submissions are only found
+	 * when the user is a TA in the chapter group or a teacher.
+	 *
+	 * @param user           The logged in user.
+	 * @param chapterId      The ID of the chapter to which the submissions belongs.
+	 * @param chapterGroupId The ID of the chapter group the submission belongs to.
+	 * @param submissionId   The ID of the submission.
+	 * @return The submission file.
+	 * @throws NoSuchEntityException When the submission does not exist.
+	 */
+	private SubmissionFile findFile(
+			User user, int chapterId, int chapterGroupId, int submissionId) {
 		NoSuchEntityException.checkNull(
 				chapterGroupDao.findByChapterGroupIdAndChapterId(chapterGroupId, chapterId),
 				"No such chapter group."
@@ -473,12 +698,10 @@ public class SubmissionResource {
 		boolean canSeeSoftDeleted = this.securityService
 				.hasPermission(user, chapterGroupId, "TA", "TEACHER");
 
-		SubmissionFile file = NoSuchEntityException.checkNull(
+		return NoSuchEntityException.checkNull(
 				submissionFileDao.findBySubmissionIdAndChapterGroupId(
 						submissionId, chapterGroupId, canSeeSoftDeleted),
 				"No such submission");
-
-		this.fileService.write(file.getData(), file.getMimeType(), response);
 	}
 
 	/**
@@ -488,7 +711,6 @@ public class SubmissionResource {
 	 * @param chapterGroupId The ID of the chaptergroup the submission belongs to.
 	 * @param submissionId   The ID of the submission.
 	 * @param transformation The transformation to apply.
-	 * @throws IOException When the transformation can not be applied due to an error.
 	 */
 	@ApiOperation(value = "Alter the rotation of the submission",
 			notes = "Also updates thumbnail and annotations")
@@ -500,7 +722,7 @@ public class SubmissionResource {
 			@PathVariable int submissionId,
 			@RequestParam ImageService.Transformation transformation,
 			@AuthenticationPrincipal User user
-	) throws IOException {
+	) {
 		NoSuchEntityException.checkNull(
 				chapterGroupDao.findByChapterGroupIdAndChapterId(chapterGroupId, chapterId),
 				"No such chapter group."
@@ -525,26 +747,14 @@ public class SubmissionResource {
 						submissionId, chapterGroupId, false),
 				"No such submission."
 		);
-		// Retrieve corresponding thumbnail
-		final SubmissionThumbnail thumbnail = NoSuchEntityException.checkNull(
-				submissionThumbnailDao.findBySubmissionIdAndChapterGroupId(
-						submissionId, chapterGroupId, false),
-				"No such thumbnail"
-		);
 		// Retrieve all annotations for the submission
 		final List<Annotation> annotations = annotationDetailsDao.fetchBySubmissionId(submissionId);
 
-		// Transform the image.
-		final ImageFormat format = ImageFormat.ofMimeType(file.getMimeType());
-		final byte[] transformedImage = imageService.transformImage(
-				file.getData(),
-				transformation,
-				format.getFormat()
-		);
+		// The image itself is not touched, it is transformed when it is served.
+		final RotationState rotation =
+				RotationState.valueOf(file.getRotation()).transform(transformation);
 
 		// Update our DTOs.
-		file.setData(transformedImage);
-		thumbnail.setData(imageService.createThumbnail(transformedImage));
 		annotations.forEach(annotation -> {
 			RotationState state = RotationState.ofState(
 					annotation.getInvertX(),
@@ -557,19 +767,22 @@ public class SubmissionResource {
 		});
 
 		// Update the database.
-		submissionFileDao.update(file);
-		submissionThumbnailDao.update(thumbnail);
+		submissionFileDao.updateRotation(file, rotation);
 		annotationDetailsDao.update(annotations);
+		renditionService.enqueue(submissionId, Rendition.THUMBNAIL);
 	}
 
 	/**
 	 * Retrives the thumbnail file for a specific submission. Will throw an exception if the
 	 * submission is soft-deleted and the user is not a TA in this chapter group or a teacher.
+	 * While the thumbnail is still being generated, a placeholder is returned with status 202.
 	 *
 	 * @param user           The logged in user, used to check vote status.
 	 * @param chapterId      The ID of the chapter to which the submissions belongs.
 	 * @param chapterGroupId The ID of the chapter group the submission belongs to.
 	 * @param submissionId   The ID of the submission for which to retrieve the thumbnail file.
+	 * @param version        The version of the image known to the client, used for caching.
+	 * @param request        The HTTP request which is being responded to.
 	 * @param response       The HTTP response where the thumbnail file should be written to.
 	 * @throws IOException           When the file could not be parsed.
 	 * @throws NoSuchEntityException When the submission does not exist.
@@ -580,7 +793,10 @@ public class SubmissionResource {
 			@AuthenticationPrincipal User user,
 			@PathVariable int chapterId,
 			@PathVariable int chapterGroupId,
-			@PathVariable int submissionId, HttpServletResponse response) throws IOException {
+			@PathVariable int submissionId,
+			@RequestParam(name = "v", required = false) String version,
+			HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
 		NoSuchEntityException.checkNull(
 				chapterGroupDao.findByChapterGroupIdAndChapterId(chapterGroupId, chapterId),
 				"No such chapter group."
@@ -588,23 +804,143 @@ public class SubmissionResource {
 		boolean canSeeSoftDeleted = this.securityService
 				.hasPermission(user, chapterGroupId, "TA", "TEACHER");
 
-		SubmissionThumbnail file = NoSuchEntityException.checkNull(
-				submissionThumbnailDao.findBySubmissionIdAndChapterGroupId(
-						submissionId, chapterGroupId, canSeeSoftDeleted),
-				"No such submission");
+		SubmissionThumbnail file = submissionThumbnailDao.findBySubmissionIdAndChapterGroupId(
+				submissionId, chapterGroupId, canSeeSoftDeleted);
+		if (file == null) {
+			NoSuchEntityException.checkNull(
+					submissionFileDao.findBySubmissionIdAndChapterGroupId(
+							submissionId, chapterGroupId, canSeeSoftDeleted),
+					"No such submission");
+			if (!renditionService.isPending(submissionId, Rendition.THUMBNAIL)) {
+				throw new NoSuchEntityException("No such thumbnail");
+			}
+			this.fileService.writePlaceholder(
+					imageService.getThumbnailPlaceholder(),
+					ImageService.THUMBNAIL_TYPE.getMimeType(),
+					RenditionService.RETRY_AFTER,
+					response);
+			return;
+		}
 
-		this.fileService.write(file.getData(), ImageService.THUMBNAIL_TYPE.getMimeType(), response);
+		this.fileService.write(
+				BlobTable.SUBMISSION_THUMBNAILS,
+				file.getSubmissionId(),
+				file.getBlobHash(),
+				ImageService.THUMBNAIL_TYPE.getMimeType(),
+				version,
+				request,
+				response);
+	}
+
+	/**
+	 * Returns the layout of the sprite of the thumbnails of the given submissions, such that a
+	 * page of thumbnails can be retrieved using a single request. Submissions which do not exist,
+	 * or of which the thumbnail is not available yet, are left out.
+	 *
+	 * @param user           The logged in user.
+	 * @param chapterId      The ID of the chapter the submissions belong to.
+	 * @param chapterGroupId The ID of the chapter group the submissions belong to.
+	 * @param submissionIds  The IDs of the submissions, in the order of the sprite.
+	 * @return The layout of the sprite, with the version to retrieve its image with.
+	 * @throws NoSuchEntityException     When the chapter group could not be found.
+	 * @throws MalformedRequestException When no or too many submissions were given.
+	 */
+	@ApiOperation("Get the layout of a sprite containing the thumbnails of the given submissions")
+	@GetMapping("/sprite")
+	public SpriteDto getSprite(
+			@AuthenticationPrincipal User user,
+			@PathVariable int chapterId,
+			@PathVariable int chapterGroupId,
+			@RequestParam("ids") List<Integer> submissionIds) {
+		return this.fileService.getSprite(BlobTable.SUBMISSION_THUMBNAILS,
+				findSpriteThumbnails(user, chapterId, chapterGroupId, submissionIds));
 	}
 
 	/**
-	 * Creates a submission
+	 * Returns the sprite of the thumbnails of the given submissions, as laid out by
+	 * {@link #getSprite(User, int, int, List)}.
+	 *
+	 * @param user           The logged in user.
+	 * @param chapterId      The ID of the chapter the submissions belong to.
+	 * @param chapterGroupId The ID of the chapter group the submissions belong to.
+	 * @param submissionIds  The IDs of the submissions, in the order of the sprite.
+	 * @param version        The version of the sprite, as returned with its layout.
+	 * @param request        The HTTP request.
+	 * @param response       The HTTP response, the sprite will be written to this response.
+	 * @throws IOException               When the sprite could not be created or written.
+	 * @throws NoSuchEntityException     When the chapter group could not be found.
+	 * @throws MalformedRequestException When no or too many submissions were given.
+	 */
+	@ApiOperation("Get a sprite containing the thumbnails of the given submissions")
+	@GetMapping("/sprite/image")
+	public void getSpriteImage(
+			@AuthenticationPrincipal User user,
+			@PathVariable int chapterId,
+			@PathVariable int chapterGroupId,
+			@RequestParam("ids") List<Integer> submissionIds,
+			@RequestParam(name = "v", required = false) String version,
+			HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		Map<Integer, String> thumbnails =
+				findSpriteThumbnails(user, chapterId, chapterGroupId, submissionIds);
+		this.fileService.writeSprite(
+				BlobTable.SUBMISSION_THUMBNAILS, thumbnails, version, request, response);
+	}
+
+	/**
+	 * Finds the thumbnails of the given submissions for a sprite, checking the chapter group and
+	 * the submissions only once for all of them.
+	 *
+	 * @param user           The logged in user.
+	 * @param chapterId      The ID of the chapter the submissions belong to.
+	 * @param chapterGroupId The ID of the chapter group the submissions belong to.
+	 * @param submissionIds  The IDs of the submissions.
+	 * @return The hashes of the blobs of the available thumbnails by the ID of their submission,
+	 * in the order in which the submissions were given.
+	 * @throws NoSuchEntityException     When the chapter group could not be found.
+	 * @throws MalformedRequestException When no or too many submissions were given.
+	 */
+	private Map<Integer, String> findSpriteThumbnails(
+			User user, int chapterId, int chapterGroupId, List<Integer> submissionIds) {
+		if (submissionIds.isEmpty() || submissionIds.size() > MAX_SPRITE_SIZE) {
+			throw new MalformedRequestException(
+					"A sprite contains between 1 and " + MAX_SPRITE_SIZE + " submissions.");
+		}
+		NoSuchEntityException.checkNull(
+				chapterGroupDao.findByChapterGroupIdAndChapterId(chapterGroupId, chapterId),
+				"No such chapter group."
+		);
+		boolean canSeeSoftDeleted = this.securityService
+				.hasPermission(user, chapterGroupId, "TA", "TEACHER");
+
+		Map<Integer, String> blobHashes =
+				submissionThumbnailDao.findBlobHashesBySubmissionIdsAndChapterGroupId(
+						submissionIds, chapterGroupId, canSeeSoftDeleted);
+		Map<Integer, String> thumbnails = new LinkedHashMap<>();
+		for (int submissionId : submissionIds) {
+			if (blobHashes.containsKey(submissionId)) {
+				thumbnails.put(submissionId, blobHashes.get(submissionId));
+			}
+		}
+		return thumbnails;
+	}
+
+	/**
+	 * Creates a submission. A file which has been uploaded for the same task before is not
+	 * processed again, the new submission shares the stored image. Submissions of which the image
+	 * was uploaded by another student of the chapter group, or looks the same, are marked as a
+	 * possible duplicate.
+	 * <p>
+	 * The request is completed asynchronously once the image has been processed, such that the
+	 * request thread does not wait for a worker. The submission is then stored in a transaction of
+	 * its own.
 	 *
 	 * @param user           The logged in user, submission will be created for this user.
 	 * @param chapterId      The ID of the chapter this submission is for.
 	 * @param chapterGroupId The ID of the chapter group this submission is for.
 	 * @param taskId         the ID of the task this submission is for.
 	 * @param file           The file to submit.
-	 * @return The created submission metadata.
+	 * @return The created submission metadata, once it has been stored.
 	 * @throws IOException               When the file could not be parsed properly.
 	 * @throws NoSuchEntityException     When the task or chapter group could not be found for the
 	 *                                   given parameters.
@@ -612,7 +948,7 @@ public class SubmissionResource {
 	 */
 	@ApiOperation("A 'normal' HTTP Multipart Form POST with the submission")
 	@PostMapping
-	public SubmissionDetailsDto post(
+	public CompletableFuture<SubmissionDetailsDto> post(
 			@AuthenticationPrincipal User user,
 			@PathVariable int chapterId,
 			@PathVariable int chapterGroupId,
@@ -628,13 +964,67 @@ public class SubmissionResource {
 				"No such chapter group");
 
 		String mimeType = this.imageService.detectImageMime(file);
-		byte[] resizedImage = this.imageService.resizeImage(
-				file.getBytes(),
-				ImageFormat.ofMimeType(mimeType),
-				ImageService.MAX_SUBMISSION_WIDTH,
-				ImageService.MAX_SUBMISSION_HEIGHT,
-				false);
+		this.imageService.checkDimensions(file);
+
+		// A file which has been uploaded for the same task before shares the image stored for it,
+		// instead of being resized and stored again.
+		String sourceHash;
+		try (InputStream inputStream = file.getInputStream()) {
+			sourceHash = FileSystemBlobStore.hash(inputStream);
+		}
+		SubmissionFile original = this.submissionFileDao.findMetadataBySourceHash(
+				sourceHash, taskId, chapterGroupId);
+		CompletableFuture<Pair<byte[], Long>> processed;
+		if (original == null) {
+			RenditionSpec resized = RenditionSpec.submission(ImageFormat.ofMimeType(mimeType));
+			processed = this.imageProcessingService.executeAsync(() -> {
+				SourceImage image;
+				try (InputStream inputStream = file.getInputStream()) {
+					image = this.imageService.decodeImage(inputStream, resized);
+				}
+				return new Pair<>(
+						this.imageService.createRendition(image, resized),
+						this.imageService.createPerceptualHash(image));
+			});
+		} else {
+			processed = CompletableFuture.completedFuture(
+					new Pair<>(null, original.getPerceptualHash()));
+		}
+
+		SubmissionFile submissionFile = new SubmissionFile();
+		submissionFile.setMimeType(mimeType);
+		submissionFile.setSourceHash(sourceHash);
+		return processed.thenApply(result -> new TransactionTemplate(transactionManager)
+				.execute(status -> createSubmission(
+						user, chapterId, chapterGroupId, taskId, submissionFile, original,
+						result.getFirst(), result.getSecond())));
+	}
 
+	/**
+	 * Stores a submission of which the image has been processed, see
+	 * {@link #post(User, int, int, Integer, MultipartFile)}.
+	 *
+	 * @param user           The logged in user, submission will be created for this user.
+	 * @param chapterId      The ID of the chapter this submission is for.
+	 * @param chapterGroupId The ID of the chapter group this submission is for.
+	 * @param taskId         the ID of the task this submission is for.
+	 * @param submissionFile The file of the submission, with its mime type and source hash set.
+	 * @param original       The file of which the stored image is shared, null if the image is
+	 *                       new.
+	 * @param resizedImage   The resized image to store, null if the image is shared.
+	 * @param perceptualHash The perceptual hash of the image.
+	 * @return The created submission metadata.
+	 * @throws UncheckedIOException When the image could not be stored.
+	 */
+	private SubmissionDetailsDto createSubmission(
+			User user,
+			int chapterId,
+			int chapterGroupId,
+			int taskId,
+			SubmissionFile submissionFile,
+			SubmissionFile original,
+			byte[] resizedImage,
+			Long perceptualHash) {
 		// Create submission
 		Submission submission = new Submission();
 		submission.setBestWork(false);
@@ -649,19 +1039,34 @@ public class SubmissionResource {
 		vote.setUserId(user.getId());
 		this.voteDao.insertOrDoNothing(vote);
 
-		// Insert file
-		SubmissionFile submissionFile = new SubmissionFile();
-		submissionFile.setMimeType(mimeType);
-		submissionFile.setData(resizedImage);
+		// Insert file, marking it as possible duplicate of the same file uploaded by another
+		// student before, or of a similar looking submission of another student.
 		submissionFile.setSubmissionId(submissionId);
-		this.submissionFileDao.insert(submissionFile);
-
-		// Create and insert thumbnail
-		byte[] thumb = imageService.createThumbnail(resizedImage);
-		SubmissionThumbnail submissionThumbnail = new SubmissionThumbnail();
-		submissionThumbnail.setData(thumb);
-		submissionThumbnail.setSubmissionId(submissionId);
-		this.submissionThumbnailDao.insert(submissionThumbnail);
+		submissionFile.setPerceptualHash(perceptualHash);
+		submissionFile.setDuplicateOf(this.submissionFileDao.findDuplicateSubmissionId(
+				taskId, chapterGroupId, user.getId(), submissionFile.getSourceHash(),
+				perceptualHash));
+		if (original != null) {
+			this.submissionFileDao.insertDuplicate(submissionFile, original);
+		} else {
+			try {
+				this.submissionFileDao.insert(submissionFile, resizedImage);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		// The thumbnail is shared as well when it shows the image as is, otherwise it is
+		// generated in the background
+		SubmissionThumbnail originalThumbnail = original == null ? null
+				: this.submissionThumbnailDao.findMetadataBySubmissionId(
+						original.getSubmissionId());
+		if (originalThumbnail != null && originalThumbnail.getBlobHash() != null
+				&& RotationState.valueOf(original.getRotation()) == RotationState.ROT0) {
+			this.submissionThumbnailDao.insertDuplicate(submissionId, originalThumbnail);
+		} else {
+			this.renditionService.enqueue(submissionId, Rendition.THUMBNAIL);
+		}
 
 		return this.submissionDao.findByChapterGroupAndSubmissionId(
 				chapterId, chapterGroupId, submissionId, user.getId(), false);
@@ -4,6 +4,7 @@ import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import lombok.AllArgsConstructor;
 import nl.javalon.sketchlab.config.ApiConfig;
+import nl.javalon.sketchlab.dao.BlobTable;
 import nl.javalon.sketchlab.dao.ExampleSubmissionDetailsDao;
 import nl.javalon.sketchlab.dao.ExampleSubmissionFileDetailsDao;
 import nl.javalon.sketchlab.dao.ExampleSubmissionThumbnailDetailsDao;
@@ -16,19 +17,28 @@ import nl.javalon.sketchlab.entity.tables.pojos.ExampleSubmissionThumbnail;
 import nl.javalon.sketchlab.entity.tables.pojos.User;
 import nl.javalon.sketchlab.exception.NoSuchEntityException;
 import nl.javalon.sketchlab.service.FileService;
+import nl.javalon.sketchlab.service.ImageProcessingService;
 import nl.javalon.sketchlab.service.ImageService;
 import nl.javalon.sketchlab.service.ImageService.ImageFormat;
+import nl.javalon.sketchlab.service.ImageService.RenditionSpec;
+import nl.javalon.sketchlab.service.ImageService.SourceImage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 import javax.ws.rs.QueryParam;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * REST endpoint for work examples on tasks.
@@ -46,7 +56,9 @@ public class TaskExampleResource {
 	private final ExampleSubmissionThumbnailDetailsDao exampleSubmissionThumbnailDao;
 	private final TaskDetailsDao taskDao;
 	private final ImageService imageService;
+	private final ImageProcessingService imageProcessingService;
 	private final FileService fileService;
+	private final PlatformTransactionManager transactionManager;
 
 	/**
 	 * Retrieves a list of all work examples for a specific task.
@@ -112,6 +124,8 @@ public class TaskExampleResource {
 	 * @param chapterId           The ID of the chapter the example submission belongs to.
 	 * @param taskId              The ID of the task the example submission belongs to.
 	 * @param exampleSubmissionId The ID of the example submission.
+	 * @param version             The version of the image known to the client, used for caching.
+	 * @param request             The HTTP request which is being responded to.
 	 * @param response            The HTTP response to write to.
 	 * @throws IOException When the HTTP response can not be written to.
 	 */
@@ -121,22 +135,34 @@ public class TaskExampleResource {
 			@PathVariable int chapterId,
 			@PathVariable int taskId,
 			@PathVariable int exampleSubmissionId,
+			@RequestParam(name = "v", required = false) String version,
+			HttpServletRequest request,
 			HttpServletResponse response) throws IOException {
 		ExampleSubmissionFile file = NoSuchEntityException.checkNull(
 				exampleSubmissionFileDao.findByTaskAndExampleSubmissionId(
 						exampleSubmissionId, chapterId, taskId),
 				"No such file"
 		);
-		fileService.write(file.getData(), file.getMimeType(), response);
+		fileService.write(
+				BlobTable.EXAMPLE_SUBMISSION_FILES,
+				file.getExampleSubmissionId(),
+				file.getBlobHash(),
+				file.getMimeType(),
+				version,
+				request,
+				response);
 	}
 
 	/**
-	 * Alters a submission by applying a certain transformation to it.
+	 * Alters a submission by applying a certain transformation to it. The request is completed
+	 * asynchronously once the image has been transformed, the image is then stored in a
+	 * transaction of its own.
 	 *
 	 * @param chapterId           The ID of the chapter the example submission belongs to.
 	 * @param taskId              The ID of the task the example submission belongs to.
 	 * @param exampleSubmissionId The ID of the example submission.
 	 * @param transformation      The transformation to apply.
+	 * @return A future which completes once the transformed image has been stored.
 	 * @throws IOException When the transformation can not be applied for whatever reason.
 	 */
 	@ApiOperation(value = "Alter the image by rotating or flipping it. Also updates thumbnail",
@@ -144,7 +170,7 @@ public class TaskExampleResource {
 					"orientation.")
 	@PutMapping("/{exampleSubmissionId}/file")
 	@ResponseStatus(HttpStatus.NO_CONTENT)
-	public void rotate(
+	public CompletableFuture<Void> rotate(
 			@PathVariable int chapterId,
 			@PathVariable int taskId,
 			@PathVariable int exampleSubmissionId,
@@ -161,16 +187,22 @@ public class TaskExampleResource {
 		);
 
 		final ImageFormat format = ImageFormat.ofMimeType(file.getMimeType());
-		final byte[] transformedImage = imageService.transformImage(
-				file.getData(),
-				transformation,
-				format.getFormat()
-		);
-
-		file.setData(transformedImage);
-		thumbnail.setData(imageService.createThumbnail(transformedImage));
-		exampleSubmissionFileDao.update(file);
-		exampleSubmissionThumbnailDao.update(thumbnail);
+		final byte[] data = exampleSubmissionFileDao.fetchData(file);
+		final RenditionSpec original = RenditionSpec.original(format);
+		return imageProcessingService.executeAsync(() -> {
+			SourceImage image = imageService.transformImage(
+					imageService.decodeImage(data, original, ImageService.THUMBNAIL),
+					transformation);
+			return imageService.createRenditions(image, original, ImageService.THUMBNAIL);
+		}).thenAccept(transformed -> new TransactionTemplate(transactionManager).execute(status -> {
+			try {
+				exampleSubmissionFileDao.update(file, transformed.get(0));
+				exampleSubmissionThumbnailDao.update(thumbnail, transformed.get(1));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return null;
+		}));
 	}
 
 	/**
@@ -179,6 +211,8 @@ public class TaskExampleResource {
 	 * @param chapterId           The ID of the chapter the example submission belongs to.
 	 * @param taskId              The ID of the task the example submission belongs to.
 	 * @param exampleSubmissionId The ID of the example submission.
+	 * @param version             The version of the image known to the client, used for caching.
+	 * @param request             The HTTP request which is being responded to.
 	 * @param response            The HTTP response to write to.
 	 * @throws IOException When the HTTP response can not be written to.
 	 */
@@ -188,29 +222,39 @@ public class TaskExampleResource {
 			@PathVariable int chapterId,
 			@PathVariable int taskId,
 			@PathVariable int exampleSubmissionId,
+			@RequestParam(name = "v", required = false) String version,
+			HttpServletRequest request,
 			HttpServletResponse response) throws IOException {
 		ExampleSubmissionThumbnail file = NoSuchEntityException.checkNull(
 				exampleSubmissionThumbnailDao.findByTaskAndExampleSubmissionId(
 						exampleSubmissionId, chapterId, taskId),
 				"No such thumbnail"
 		);
-		fileService.write(file.getData(), ImageService.THUMBNAIL_TYPE.getMimeType(), response);
+		fileService.write(
+				BlobTable.EXAMPLE_SUBMISSION_THUMBNAILS,
+				file.getExampleSubmissionId(),
+				file.getBlobHash(),
+				ImageService.THUMBNAIL_TYPE.getMimeType(),
+				version,
+				request,
+				response);
 	}
 
 	/**
-	 * Creates a new examplesubmission.
+	 * Creates a new examplesubmission. The request is completed asynchronously once the image has
+	 * been processed, the example submission is then stored in a transaction of its own.
 	 *
 	 * @param user      The user ID that submits this work example
 	 * @param chapterId The ID of the chapter this work example belongs to.
 	 * @param taskId    The ID of the task this chapter belongs to.
 	 * @param comment   The comment along with the work example.
 	 * @param file      The file for the example submission.
-	 * @return The created example submission.
+	 * @return The created example submission, once it has been stored.
 	 * @throws IOException When either the image can not be processed correctly.
 	 */
 	@ApiOperation("A 'normal' HTTP Multipart Form POST with the example submission")
 	@PostMapping
-	public ExampleSubmissionDetailsDto post(
+	public CompletableFuture<ExampleSubmissionDetailsDto> post(
 			@AuthenticationPrincipal User user,
 			@PathVariable int chapterId,
 			@PathVariable int taskId,
@@ -223,38 +267,41 @@ public class TaskExampleResource {
 		);
 
 		String mimeType = this.imageService.detectImageMime(file);
+		this.imageService.checkDimensions(file);
 
-		byte[] resizedImage = imageService.resizeImage(
-				file.getBytes(),
-				ImageFormat.ofMimeType(mimeType),
-				ImageService.MAX_SUBMISSION_WIDTH,
-				ImageService.MAX_SUBMISSION_HEIGHT,
-				false);
-
+		RenditionSpec resized = RenditionSpec.submission(ImageFormat.ofMimeType(mimeType));
 		// Create example submission
 		ExampleSubmission submission = new ExampleSubmission();
-
-		comment = comment != null ? comment : "";
-		submission.setComment(comment);
+		submission.setComment(comment != null ? comment : "");
 		submission.setTaskId(taskId);
 		submission.setUserId(user.getId());
-		int submissionId = this.exampleSubmissionDao.insertAndGetId(submission);
 
-		// Insert file
-		ExampleSubmissionFile submissionFile = new ExampleSubmissionFile();
-		submissionFile.setMimeType(mimeType);
-		submissionFile.setData(resizedImage);
-		submissionFile.setExampleSubmissionId(submissionId);
-		this.exampleSubmissionFileDao.insert(submissionFile);
+		return imageProcessingService.executeAsync(() -> {
+			try (InputStream inputStream = file.getInputStream()) {
+				return imageService.createRenditions(
+						imageService.decodeImage(inputStream, resized, ImageService.THUMBNAIL),
+						resized, ImageService.THUMBNAIL);
+			}
+		}).thenApply(images -> new TransactionTemplate(transactionManager).execute(status -> {
+			int submissionId = this.exampleSubmissionDao.insertAndGetId(submission);
+
+			try {
+				// Insert file
+				ExampleSubmissionFile submissionFile = new ExampleSubmissionFile();
+				submissionFile.setMimeType(mimeType);
+				submissionFile.setExampleSubmissionId(submissionId);
+				this.exampleSubmissionFileDao.insert(submissionFile, images.get(0));
 
-		// Create and insert thumbnail
-		byte[] thumb = imageService.createThumbnail(resizedImage);
-		ExampleSubmissionThumbnail submissionThumbnail = new ExampleSubmissionThumbnail();
-		submissionThumbnail.setData(thumb);
-		submissionThumbnail.setExampleSubmissionId(submissionId);
-		this.exampleSubmissionThumbnailDao.insert(submissionThumbnail);
+				// Insert thumbnail
+				ExampleSubmissionThumbnail submissionThumbnail = new ExampleSubmissionThumbnail();
+				submissionThumbnail.setExampleSubmissionId(submissionId);
+				this.exampleSubmissionThumbnailDao.insert(submissionThumbnail, images.get(1));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
 
-		return this.exampleSubmissionDao
-				.findByIdAndTaskIdAndChapterId(submissionId, chapterId, taskId);
+			return this.exampleSubmissionDao
+					.findByIdAndTaskIdAndChapterId(submissionId, chapterId, taskId);
+		}));
 	}
 }
@@ -4,21 +4,33 @@ import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import lombok.AllArgsConstructor;
 import nl.javalon.sketchlab.config.ApiConfig;
+import nl.javalon.sketchlab.dao.BlobTable;
 import nl.javalon.sketchlab.dao.TaskPageDetailsDao;
 import nl.javalon.sketchlab.dao.TaskPageImageDetailsDao;
+import nl.javalon.sketchlab.dto.RenditionDto;
 import nl.javalon.sketchlab.dto.task.TaskPageImageDetailsDto;
 import nl.javalon.sketchlab.entity.tables.pojos.TaskPageImage;
 import nl.javalon.sketchlab.exception.NoSuchEntityException;
+import nl.javalon.sketchlab.service.FileService;
+import nl.javalon.sketchlab.service.ImageProcessingService;
 import nl.javalon.sketchlab.service.ImageService;
 import nl.javalon.sketchlab.service.ImageService.ImageFormat;
+import nl.javalon.sketchlab.service.ImageService.RenditionSpec;
+import nl.javalon.sketchlab.service.ImageService.RotationState;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * REST End point for Task Page Images.
@@ -33,6 +45,9 @@ public class TaskPageImageResource {
 	private final TaskPageDetailsDao taskPageDao;
 	private final TaskPageImageDetailsDao taskPageImageDao;
 	private final ImageService imageService;
+	private final ImageProcessingService imageProcessingService;
+	private final FileService fileService;
+	private final PlatformTransactionManager transactionManager;
 
 	/**
 	 * Retrieves a list of all images for the given task page.
@@ -58,6 +73,11 @@ public class TaskPageImageResource {
 	 * @param taskId          The ID of the task the image belongs to.
 	 * @param taskPageId      The ID of the task page the image belongs to.
 	 * @param taskPageImageId The ID of the image.
+	 * @param width           The width the image is displayed with, see
+	 *                        {@link #getRenditions(int, int, int, int)}. Null for the image in
+	 *                        its original size.
+	 * @param version         The version of the image known to the client, used for caching.
+	 * @param request         The HTTP request which is being responded to.
 	 * @param response        The HTTP response to write to.
 	 * @throws IOException When the HTTP response can not be written to.
 	 */
@@ -69,28 +89,70 @@ public class TaskPageImageResource {
 			@PathVariable int taskId,
 			@PathVariable int taskPageId,
 			@PathVariable int taskPageImageId,
+			@RequestParam(name = "w", required = false) Integer width,
+			@RequestParam(name = "v", required = false) String version,
+			HttpServletRequest request,
 			HttpServletResponse response) throws IOException {
 
 		TaskPageImage image = NoSuchEntityException.checkNull(
 				taskPageImageDao.findBySuperKey(chapterId, taskId, taskPageId, taskPageImageId),
 				"No such image");
-		response.setContentType(image.getMimeType());
-		response.getOutputStream().write(image.getData());
+		fileService.write(
+				BlobTable.TASK_PAGE_IMAGES,
+				image.getId(),
+				image.getBlobHash(),
+				RotationState.valueOf(image.getRotation()),
+				width,
+				image.getMimeType(),
+				version,
+				request,
+				response);
 	}
 
 	/**
-	 * Stores a new image for a task page. Only processes JPG and PNG images.
+	 * Lists the sizes in which an image can be retrieved, such that clients can pick the one
+	 * fitting their screen, e.g. using srcset.
+	 *
+	 * @param chapterId       The ID of the chapter the image belongs to.
+	 * @param taskId          The ID of the task the image belongs to.
+	 * @param taskPageId      The ID of the task page the image belongs to.
+	 * @param taskPageImageId The ID of the image.
+	 * @return The sizes, from small to large.
+	 * @throws IOException When the image can not be read.
+	 */
+	@ApiOperation(value = "List the sizes in which the image can be retrieved",
+			notes = "Retrieve a size by passing its widthParameter as w parameter.")
+	@GetMapping("/{taskPageImageId}/renditions")
+	public List<RenditionDto> getRenditions(
+			@PathVariable int chapterId,
+			@PathVariable int taskId,
+			@PathVariable int taskPageId,
+			@PathVariable int taskPageImageId) throws IOException {
+		TaskPageImage image = NoSuchEntityException.checkNull(
+				taskPageImageDao.findBySuperKey(chapterId, taskId, taskPageId, taskPageImageId),
+				"No such image");
+		return fileService.getRenditions(
+				BlobTable.TASK_PAGE_IMAGES,
+				image.getId(),
+				image.getBlobHash(),
+				RotationState.valueOf(image.getRotation()));
+	}
+
+	/**
+	 * Stores a new image for a task page. Only processes JPG and PNG images. The request is
+	 * completed asynchronously once the image has been processed, the image is then stored in a
+	 * transaction of its own.
 	 *
 	 * @param chapterId  The ID of the chapter the image belongs to.
 	 * @param taskId     The ID of the task the chapter belongs to.
 	 * @param taskPageId The ID of the task page the image belongs to.
 	 * @param file       The image to store.
-	 * @return The created metadata for this image.
+	 * @return The created metadata for this image, once it has been stored.
 	 * @throws IOException When the image can not be processed.
 	 */
 	@ApiOperation(value = "Upload a new image", notes = "image/jp(e)g and image/png are supported")
 	@PostMapping
-	public TaskPageImageDetailsDto post(
+	public CompletableFuture<TaskPageImageDetailsDto> post(
 			@PathVariable int chapterId,
 			@PathVariable int taskId,
 			@PathVariable int taskPageId,
@@ -102,21 +164,30 @@ public class TaskPageImageResource {
 				"No such task page");
 
 		String mimeType = this.imageService.detectImageMime(file);
+		this.imageService.checkDimensions(file);
 
-		byte[] resizedImage = imageService.resizeImage(
-				file.getBytes(),
-				ImageFormat.ofMimeType(mimeType),
-				ImageService.MAX_SUBMISSION_WIDTH,
-				ImageService.MAX_SUBMISSION_HEIGHT,
-				false);
-		TaskPageImage image = new TaskPageImage(null, taskPageId, mimeType, resizedImage);
-		int id = this.taskPageImageDao.insertAndGetId(image);
+		RenditionSpec resized = RenditionSpec.submission(ImageFormat.ofMimeType(mimeType));
+		return imageProcessingService.executeAsync(() -> {
+			try (InputStream inputStream = file.getInputStream()) {
+				return imageService.resizeImage(inputStream, resized);
+			}
+		}).thenApply(resizedImage -> new TransactionTemplate(transactionManager).execute(status -> {
+			TaskPageImage image = new TaskPageImage();
+			image.setTaskPageId(taskPageId);
+			image.setMimeType(mimeType);
+			int id;
+			try {
+				id = this.taskPageImageDao.insertAndGetId(image, resizedImage);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
 
-		// Create dto
-		TaskPageImageDetailsDto dto = new TaskPageImageDetailsDto();
-		dto.setId(id);
-		dto.setMimeType(mimeType);
-		return dto;
+			// Create dto
+			TaskPageImageDetailsDto dto = new TaskPageImageDetailsDto();
+			dto.setId(id);
+			dto.setMimeType(mimeType);
+			return dto;
+		}));
 	}
 
 	/**
@@ -127,7 +198,6 @@ public class TaskPageImageResource {
 	 * @param taskPageId      The ID of the task page the image belongs to.
 	 * @param taskPageImageId The ID of the task page image.
 	 * @param transformation  The transformation to apply.
-	 * @throws IOException When the transformation can not be applied.
 	 */
 	@ApiOperation(value = "Alter the image by rotating or flipping it.",
 			notes = "this allows images to be displayed correctly.")
@@ -138,17 +208,13 @@ public class TaskPageImageResource {
 			@PathVariable int taskId,
 			@PathVariable int taskPageId,
 			@PathVariable int taskPageImageId,
-			@RequestParam ImageService.Transformation transformation) throws IOException {
+			@RequestParam ImageService.Transformation transformation) {
 		TaskPageImage image = NoSuchEntityException.checkNull(
 				taskPageImageDao.findBySuperKey(chapterId, taskId, taskPageId, taskPageImageId),
 				"No such image");
 
-		ImageFormat format = ImageFormat.ofMimeType(image.getMimeType());
-
-		byte[] transformedImage = imageService
-				.transformImage(image.getData(), transformation, format.getFormat());
-		image.setData(transformedImage);
-		taskPageImageDao.update(image);
+		taskPageImageDao.updateRotation(
+				image, RotationState.valueOf(image.getRotation()).transform(transformation));
 	}
 
 	/**
@@ -3,21 +3,30 @@ package nl.javalon.sketchlab.resource;
 import io.swagger.annotations.ApiOperation;
 import lombok.AllArgsConstructor;
 import nl.javalon.sketchlab.config.ApiConfig;
-import nl.javalon.sketchlab.entity.tables.daos.UserAvatarDao;
+import nl.javalon.sketchlab.dao.BlobTable;
+import nl.javalon.sketchlab.dao.UserAvatarDetailsDao;
 import nl.javalon.sketchlab.entity.tables.pojos.UserAvatar;
 import nl.javalon.sketchlab.exception.MethodNotAllowedException;
 import nl.javalon.sketchlab.exception.NoSuchEntityException;
 import nl.javalon.sketchlab.security.SecurityService;
 import nl.javalon.sketchlab.service.FileService;
+import nl.javalon.sketchlab.service.ImageProcessingService;
 import nl.javalon.sketchlab.service.ImageService;
+import nl.javalon.sketchlab.service.ImageService.RotationState;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Resource dealing with user's avatars.
@@ -29,49 +38,75 @@ import java.util.UUID;
 @AllArgsConstructor(onConstructor = @__(@Autowired))
 public class UserAvatarResource {
 
-	private final UserAvatarDao userAvatarDao;
+	private final UserAvatarDetailsDao userAvatarDao;
 	private final ImageService imageService;
+	private final ImageProcessingService imageProcessingService;
 	private final FileService fileService;
+	private final PlatformTransactionManager transactionManager;
 
 	/**
 	 * Retrieves an avatar for the given user ID.
 	 *
 	 * @param userId   The ID of the user.
+	 * @param version  The version of the image known to the client, used for caching.
+	 * @param request  The HTTP request which is being responded to.
 	 * @param response The HTTP response to use.
 	 * @throws IOException When the given HTTP response can not be written to.
 	 */
 	@ApiOperation("Retrieves a user's avatar.")
 	@GetMapping
-	public void get(@PathVariable UUID userId, HttpServletResponse response) throws IOException {
+	public void get(
+			@PathVariable UUID userId,
+			@RequestParam(name = "v", required = false) String version,
+			HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
 		UserAvatar avatar = NoSuchEntityException.checkNull(
-				userAvatarDao.findById(userId),
+				userAvatarDao.findMetadataByUserId(userId),
 				"No such user or avatar");
-		fileService.write(avatar.getImage(), ImageService.AVATAR_TYPE.getMimeType(), response);
+		fileService.write(
+				BlobTable.USER_AVATARS,
+				avatar.getUserId(),
+				avatar.getBlobHash(),
+				RotationState.valueOf(avatar.getRotation()),
+				ImageService.AVATAR_TYPE.getMimeType(),
+				version,
+				request,
+				response);
 	}
 
 	/**
-	 * Sets a new avatar for the given user.
+	 * Sets a new avatar for the given user. The request is completed asynchronously once the
+	 * image has been processed, the avatar is then stored in a transaction of its own.
 	 *
 	 * @param userId The ID of the user.
 	 * @param file   The avatar to set.
+	 * @return A future which completes once the avatar has been stored.
 	 * @throws IOException When the given HTTP response can not be written to.
 	 */
 	@ApiOperation("Sets a new avatar for the given user.")
 	@PostMapping
-	public void post(@PathVariable UUID userId, @RequestBody MultipartFile file)
+	public CompletableFuture<Void> post(@PathVariable UUID userId, @RequestBody MultipartFile file)
 			throws IOException {
 		if (userId.equals(SecurityService.ANONYMOUS_USER_ID)) {
 			throw new MethodNotAllowedException("Cannot set user avatar for the anonymous user");
 		}
 
 		imageService.detectImageMime(file);
-		byte[] image = imageService.createAvatar(file.getBytes());
-		UserAvatar avatar = new UserAvatar(userId, image);
-		if (userAvatarDao.existsById(userId)) {
-			userAvatarDao.update(avatar);
-		} else {
-			userAvatarDao.insert(avatar);
-		}
+		imageService.checkDimensions(file);
+		return imageProcessingService.executeAsync(() -> {
+			try (InputStream inputStream = file.getInputStream()) {
+				return imageService.createAvatar(inputStream);
+			}
+		}).thenAccept(image -> new TransactionTemplate(transactionManager).execute(status -> {
+			UserAvatar avatar = new UserAvatar();
+			avatar.setUserId(userId);
+			try {
+				userAvatarDao.insertOrUpdate(avatar, image);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return null;
+		}));
 	}
 
 	/**
@@ -79,26 +114,19 @@ public class UserAvatarResource {
 	 *
 	 * @param userId         The ID of the user
 	 * @param transformation The transformation to apply on the avatar.
-	 * @throws IOException When the transformation could not be applied.
 	 */
 	@ApiOperation(value = "Alter the user's avatar by rotating or flipping it.",
 			notes = "This allows images to be displayed correctly.")
 	@PutMapping
 	@ResponseStatus(HttpStatus.NO_CONTENT)
 	public void rotate(
-			@PathVariable UUID userId, @RequestParam ImageService.Transformation transformation)
-			throws IOException {
+			@PathVariable UUID userId, @RequestParam ImageService.Transformation transformation) {
 		UserAvatar avatar = NoSuchEntityException.checkNull(
-				userAvatarDao.fetchOneByUserId(userId),
+				userAvatarDao.findMetadataByUserId(userId),
 				"User has no avatar");
 
-		byte[] transformedImage = imageService.transformImage(
-				avatar.getImage(),
-				transformation,
-				ImageService.AVATAR_TYPE.getFormat()
-		);
-		avatar.setImage(transformedImage);
-		userAvatarDao.update(avatar);
+		userAvatarDao.updateRotation(
+				avatar, RotationState.valueOf(avatar.getRotation()).transform(transformation));
 	}
 
 	/**
@@ -112,7 +140,7 @@ public class UserAvatarResource {
 	@ResponseStatus(HttpStatus.NO_CONTENT)
 	public void delete(@PathVariable UUID userId) {
 		UserAvatar avatar = NoSuchEntityException.checkNull(
-				userAvatarDao.fetchOneByUserId(userId),
+				userAvatarDao.findMetadataByUserId(userId),
 				"User has no avatar"
 		);
 		this.userAvatarDao.delete(avatar);
@@ -0,0 +1,83 @@
+package nl.javalon.sketchlab.service;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.java.Log;
+import nl.javalon.sketchlab.dao.BlobTableDao;
+import nl.javalon.sketchlab.dao.BlobTable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * Background jobs of the {@link BlobStore}. Moves image data which is still stored in the database
+ * to the blob store in small batches while the application is running, and periodically removes
+ * blobs which are no longer referenced, e.g. because a submission was deleted or rotated.
+ *
+ * @author Jelle Stege
+ */
+@Log
+@Service
+@AllArgsConstructor(onConstructor = @__(@Autowired))
+public class BlobMigrationService {
+	/**
+	 * Blobs younger than this are never removed, as they might belong to a transaction which has
+	 * not been committed yet.
+	 */
+	private static final Duration SWEEP_GRACE_PERIOD = Duration.ofDays(1);
+
+	private final BlobTableDao blobTableDao;
+	private final BlobStore blobStore;
+	private final SketchlabPropertiesMapper properties;
+
+	/**
+	 * Moves all image data still stored inline in the database to the blob store. Every batch is
+	 * migrated in its own transaction, such that the tables are never locked for long.
+	 */
+	@Scheduled(initialDelay = 60_000, fixedDelay = 15 * 60_000)
+	public void migrate() {
+		SketchlabPropertiesMapper.Storage.Migration migration =
+				properties.getStorage().getMigration();
+		if (!migration.isEnabled()) {
+			return;
+		}
+
+		for (BlobTable<?> blobTable : BlobTable.ALL) {
+			try {
+				int total = 0;
+				int migrated;
+				do {
+					migrated = blobTableDao.migrateBatch(blobTable, migration.getBatchSize());
+					total += migrated;
+				} while (migrated > 0);
+
+				if (total > 0) {
+					log.info("Moved " + total + " rows of " + blobTable.getTable().getName()
+							+ " to the blob store");
+				}
+			} catch (IOException e) {
+				log.log(Level.SEVERE, "Could not move " + blobTable.getTable().getName()
+						+ " to the blob store", e);
+			}
+		}
+	}
+
+	/**
+	 * Removes all blobs which are no longer referenced from the database.
+	 */
+	@Scheduled(cron = "0 0 4 * * *")
+	public void sweep() {
+		try {
+			Set<String> referenced = blobTableDao.fetchReferencedHashes();
+			int deleted = blobStore.retain(referenced, Instant.now().minus(SWEEP_GRACE_PERIOD));
+			log.info("Removed " + deleted + " unreferenced blobs");
+		} catch (IOException e) {
+			log.log(Level.SEVERE, "Could not remove unreferenced blobs", e);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package nl.javalon.sketchlab.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Set;
+
+/**
+ * Content-addressed storage for binary data such as submission images, thumbnails and avatars.
+ * Blobs are identified by the hex encoded SHA-256 hash of their contents, which means storing the
+ * same data twice results in a single blob.
+ *
+ * @author Jelle Stege
+ */
+public interface BlobStore {
+	/**
+	 * Stores the given data, unless a blob with the same contents already exists.
+	 *
+	 * @param data The data to store.
+	 * @return The hash by which the blob can be retrieved.
+	 * @throws IOException When the data could not be stored.
+	 */
+	String put(byte[] data) throws IOException;
+
+	/**
+	 * Reads the blob with the given hash into memory.
+	 *
+	 * @param hash The hash of the blob.
+	 * @return The contents of the blob.
+	 * @throws IOException When the blob does not exist or could not be read.
+	 */
+	byte[] get(String hash) throws IOException;
+
+	/**
+	 * Returns the location of the blob with the given hash on the local file system. The blob does
+	 * not necessarily exist.
+	 *
+	 * @param hash The hash of the blob.
+	 * @return The path of the blob.
+	 */
+	Path getPath(String hash);
+
+	/**
+	 * Checks whether a blob with the given hash exists.
+	 *
+	 * @param hash The hash of the blob.
+	 * @return True if the blob exists, false if not.
+	 */
+	boolean contains(String hash);
+
+	/**
+	 * Deletes every blob which is not in the given set of referenced hashes and which was last
+	 * modified before the given instant. The latter prevents blobs which are being stored right
+	 * now, but are not yet referenced by the database, from being removed.
+	 *
+	 * @param referenced  The hashes of all blobs which are still in use.
+	 * @param olderThan   Only blobs last modified before this instant are deleted.
+	 * @return The amount of deleted blobs.
+	 * @throws IOException When the store could not be traversed.
+	 */
+	int retain(Set<String> referenced, Instant olderThan) throws IOException;
+}
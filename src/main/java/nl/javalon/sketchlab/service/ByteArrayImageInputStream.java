@@ -0,0 +1,61 @@
+package nl.javalon.sketchlab.service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * An {@link javax.imageio.stream.ImageInputStream} reading directly from a byte array. Wrapping a
+ * {@link ByteArrayInputStream} using {@link ImageIO#createImageInputStream(Object)} instead copies
+ * the whole image to a cache, which is a temporary file unless caching is disabled, as the
+ * wrapped stream can not seek.
+ *
+ * @author Jelle Stege
+ */
+final class ByteArrayImageInputStream extends ImageInputStreamImpl {
+	private final byte[] data;
+
+	/**
+	 * Creates a stream reading the given data, which is not copied.
+	 *
+	 * @param data The data to read.
+	 */
+	ByteArrayImageInputStream(byte[] data) {
+		this.data = data;
+	}
+
+	@Override
+	public int read() throws IOException {
+		checkClosed();
+		bitOffset = 0;
+		if (streamPos >= data.length) {
+			return -1;
+		}
+		return data[(int) streamPos++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		checkClosed();
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		bitOffset = 0;
+		if (len == 0) {
+			return 0;
+		}
+		if (streamPos >= data.length) {
+			return -1;
+		}
+		int read = (int) Math.min(len, data.length - streamPos);
+		System.arraycopy(data, (int) streamPos, b, off, read);
+		streamPos += read;
+		return read;
+	}
+
+	@Override
+	public long length() {
+		return data.length;
+	}
+}
@@ -1,16 +1,328 @@
 package nl.javalon.sketchlab.service;
 
+import lombok.AllArgsConstructor;
 import lombok.NonNull;
+import nl.javalon.sketchlab.dao.BlobTable;
+import nl.javalon.sketchlab.dao.BlobTableDao;
+import nl.javalon.sketchlab.dto.RenditionDto;
+import nl.javalon.sketchlab.dto.SpriteDto;
+import nl.javalon.sketchlab.dto.TilePyramidDto;
+import nl.javalon.sketchlab.exception.NoSuchEntityException;
+import nl.javalon.sketchlab.service.ImageService.ImageFormat;
+import nl.javalon.sketchlab.service.ImageService.RenditionSpec;
+import nl.javalon.sketchlab.service.ImageService.RotationState;
+import nl.javalon.sketchlab.service.RenditionCache.RenditionGenerator;
+import nl.javalon.sketchlab.service.RenditionCache.RenditionReader;
+import nl.javalon.sketchlab.utils.Pair;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.ServletWebRequest;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
 
 /**
  * @author Jelle Stege
  */
 @Service
+@AllArgsConstructor(onConstructor = @__(@Autowired))
 public class FileService {
+	/**
+	 * Request attributes used by Tomcat to let the connector send a file using the sendfile system
+	 * call, bypassing the servlet output stream entirely. See Tomcat's DefaultServlet.
+	 */
+	private static final String SENDFILE_SUPPORTED_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+	/**
+	 * Files smaller than this are written through the output stream, as writing them directly is
+	 * cheaper than setting up sendfile. This is the same default as Tomcat's DefaultServlet uses.
+	 */
+	private static final long SENDFILE_THRESHOLD = 48 * 1024;
+
+	/**
+	 * Cache control for images requested by a URL containing their version. The contents behind
+	 * such URL never change, so the image can be cached for as long as possible. Images are only
+	 * accessible for authorized users, so shared caches may not store them.
+	 */
+	private static final String IMMUTABLE_CACHE_CONTROL = "private, max-age=31536000, immutable";
+
+	/**
+	 * Cache control for images requested without version. These may be cached, but have to be
+	 * revalidated using their ETag on every use.
+	 */
+	private static final String REVALIDATE_CACHE_CONTROL = "private, no-cache";
+
+	/**
+	 * The maximum amount of ranges a client may request at once. Requests for more ranges are
+	 * answered with the whole content, as many small ranges cost more to send than the content.
+	 */
+	private static final int MAX_RANGES = 16;
+
+	private static final String MULTIPART_BYTERANGES = "multipart/byteranges";
+
+	/**
+	 * The maximum amount of thumbnails per row of a sprite.
+	 */
+	private static final int SPRITE_COLUMNS = 5;
+
+	/**
+	 * The maximum amount of images of which the dimensions are kept, see
+	 * {@link #getDimensions(String)}.
+	 */
+	private static final int MAX_CACHED_DIMENSIONS = 4096;
+
+	private final BlobStore blobStore;
+	private final BlobTableDao blobTableDao;
+	private final RenditionCache renditionCache;
+	private final ImageService imageService;
+	private final ImageProcessingService imageProcessingService;
+	private final SketchlabPropertiesMapper properties;
+
+	/**
+	 * The dimensions of images stored in the blob store by the hash of their blob, least recently
+	 * used first. Blobs never change, so their dimensions never have to be invalidated.
+	 */
+	private final Map<String, Pair<Integer, Integer>> dimensions = Collections.synchronizedMap(
+			new LinkedHashMap<String, Pair<Integer, Integer>>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<String, Pair<Integer, Integer>> eldest) {
+					return size() > MAX_CACHED_DIMENSIONS;
+				}
+			});
+
+	/**
+	 * Returns the version of an image, which is used as its ETag and as version parameter in the
+	 * URL of the image. Images without rotation are identified by the hash of their blob alone,
+	 * rotated images by the hash combined with their rotation. See also
+	 * {@link BlobTableDao#version(org.jooq.Field, org.jooq.Field)}, which determines the same
+	 * version in a query.
+	 *
+	 * @param blobHash The hash of the blob, or null if the data is stored inline.
+	 * @param rotation The rotation with which the image is served.
+	 * @return The version, or null if the image has no version.
+	 */
+	public static String version(String blobHash, RotationState rotation) {
+		if (blobHash == null || rotation == RotationState.ROT0) {
+			return blobHash;
+		}
+		return blobHash + "-" + rotation.name();
+	}
+
+	/**
+	 * Returns the version of an image resized to the given width, like
+	 * {@link #version(String, RotationState)}.
+	 *
+	 * @param blobHash The hash of the blob, or null if the data is stored inline.
+	 * @param rotation The rotation with which the image is served.
+	 * @param width    The width of the rendition, see {@link #getRenditionWidth(int)}.
+	 * @return The version, or null if the image has no version.
+	 */
+	public static String version(String blobHash, RotationState rotation, int width) {
+		String version = version(blobHash, rotation);
+		return version == null ? null : version + "-w" + width;
+	}
+
+	/**
+	 * Returns the width of the rendition with which a request for the given width is served:
+	 * the smallest width configured in sketchlab.renditions.widths which is at least the
+	 * requested width, or the largest configured width.
+	 *
+	 * @param width The requested width.
+	 * @return The width of the rendition, or null if no widths are configured.
+	 */
+	Integer getRenditionWidth(int width) {
+		List<Integer> widths = getRenditionWidths();
+		if (widths.isEmpty()) {
+			return null;
+		}
+		return widths.stream()
+				.filter(renditionWidth -> renditionWidth >= width)
+				.findFirst()
+				.orElse(widths.get(widths.size() - 1));
+	}
+
+	/**
+	 * Lists the sizes in which an image can be retrieved: every configured rendition width which
+	 * is smaller than the image, and the image itself.
+	 *
+	 * @param blobTable The table the image is stored in.
+	 * @param key       The primary key of the row of the image.
+	 * @param blobHash  The hash of the blob, or null if the data is stored inline.
+	 * @param rotation  The rotation with which the image is served.
+	 * @param <K>       The type of the primary key of the table.
+	 * @return The sizes, from small to large.
+	 * @throws IOException When the image can not be read.
+	 */
+	public <K> List<RenditionDto> getRenditions(
+			@NonNull BlobTable<K> blobTable, @NonNull K key, String blobHash,
+			@NonNull RotationState rotation) throws IOException {
+		Pair<Integer, Integer> dimensions;
+		try (InputStream inputStream = blobHash == null
+				? new ByteArrayInputStream(blobTableDao.fetchData(blobTable, key, null))
+				: Files.newInputStream(blobStore.getPath(blobHash))) {
+			dimensions = imageService.readDimensions(inputStream);
+		}
+		int width = rotation.isFlipXY() ? dimensions.getSecond() : dimensions.getFirst();
+		int height = rotation.isFlipXY() ? dimensions.getFirst() : dimensions.getSecond();
+
+		List<RenditionDto> renditions = new ArrayList<>();
+		if (blobHash != null) {
+			// Images which have not been migrated to the blob store are never resized.
+			for (int renditionWidth : getRenditionWidths()) {
+				if (renditionWidth < width) {
+					Pair<Integer, Integer> renditionDimensions = ImageService.calculateDimensions(
+							width, height, renditionWidth, Integer.MAX_VALUE, false);
+					renditions.add(new RenditionDto(renditionWidth,
+							renditionDimensions.getFirst(), renditionDimensions.getSecond()));
+				}
+			}
+		}
+		renditions.add(new RenditionDto(null, width, height));
+		return renditions;
+	}
+
+	/**
+	 * Returns the configured rendition widths in ascending order.
+	 *
+	 * @return The widths.
+	 */
+	private List<Integer> getRenditionWidths() {
+		return properties.getRenditions().getWidths().stream()
+				.sorted()
+				.distinct()
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Lays out the given thumbnails in a sprite, see {@link ImageService#createSprite(List, int)}.
+	 * The version of the sprite consists of the hashes of the thumbnails in it, such that it
+	 * changes whenever one of the thumbnails does.
+	 *
+	 * @param blobTable  The table the thumbnails are stored in.
+	 * @param thumbnails The hashes of the blobs of the thumbnails by the ID of their image, in the
+	 *                   order in which they appear in the sprite. The hash is null for thumbnails
+	 *                   stored inline.
+	 * @return The layout of the sprite.
+	 */
+	public SpriteDto getSprite(
+			@NonNull BlobTable<Integer> blobTable, @NonNull Map<Integer, String> thumbnails) {
+		int columns = getSpriteColumns(thumbnails.size());
+		int rows = Math.max((thumbnails.size() + columns - 1) / columns, 1);
+		List<SpriteDto.Tile> tiles = new ArrayList<>(thumbnails.size());
+		for (int id : thumbnails.keySet()) {
+			int index = tiles.size();
+			tiles.add(new SpriteDto.Tile(id,
+					(index % columns) * ImageService.THUMBNAIL_WIDTH,
+					(index / columns) * ImageService.THUMBNAIL_HEIGHT,
+					ImageService.THUMBNAIL_WIDTH,
+					ImageService.THUMBNAIL_HEIGHT));
+		}
+		return new SpriteDto(
+				spriteVersion(blobTable, thumbnails),
+				columns * ImageService.THUMBNAIL_WIDTH,
+				rows * ImageService.THUMBNAIL_HEIGHT,
+				tiles);
+	}
+
+	/**
+	 * Write the sprite of the given thumbnails to the client, as laid out by
+	 * {@link #getSprite(BlobTable, Map)}. The sprite is created on first request and kept in the
+	 * {@link RenditionCache}. When the client requested the sprite using its version, it may be
+	 * cached indefinitely.
+	 *
+	 * @param blobTable  The table the thumbnails are stored in.
+	 * @param thumbnails The hashes of the blobs of the thumbnails by the ID of their image, in the
+	 *                   order in which they appear in the sprite. The hash is null for thumbnails
+	 *                   stored inline.
+	 * @param version    The version requested by the client, or null if none was requested.
+	 * @param request    the http servlet request which is being responded to.
+	 * @param response   the http servlet response to write via.
+	 * @throws IOException When an error occured in the input or output of generating the servlet
+	 *                     response.
+	 */
+	public void writeSprite(
+			@NonNull BlobTable<Integer> blobTable,
+			@NonNull Map<Integer, String> thumbnails,
+			String version,
+			@NonNull HttpServletRequest request,
+			@NonNull HttpServletResponse response) throws IOException {
+		String spriteVersion = spriteVersion(blobTable, thumbnails);
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+		response.setHeader(HttpHeaders.CACHE_CONTROL, spriteVersion.equals(version)
+				? IMMUTABLE_CACHE_CONTROL
+				: REVALIDATE_CACHE_CONTROL);
+		if (new ServletWebRequest(request, response).checkNotModified(spriteVersion)) {
+			return;
+		}
+
+		writeRendition(spriteVersion, () -> imageProcessingService.execute(() -> {
+			List<byte[]> images = new ArrayList<>(thumbnails.size());
+			for (Map.Entry<Integer, String> thumbnail : thumbnails.entrySet()) {
+				images.add(thumbnail.getValue() != null
+						? blobStore.get(thumbnail.getValue())
+						: blobTableDao.fetchData(blobTable, thumbnail.getKey(), null));
+			}
+			return imageService.createSprite(images, getSpriteColumns(thumbnails.size()));
+		}), ImageService.THUMBNAIL_TYPE.getMimeType(), request, response);
+	}
+
+	/**
+	 * Returns the amount of thumbnails per row of a sprite of the given amount of thumbnails.
+	 *
+	 * @param size The amount of thumbnails in the sprite.
+	 * @return The amount of columns, at least 1.
+	 */
+	private static int getSpriteColumns(int size) {
+		return Math.max(Math.min(size, SPRITE_COLUMNS), 1);
+	}
+
+	/**
+	 * Returns the version of the sprite of the given thumbnails, which is the hash of their
+	 * hashes and the layout of the sprite. Thumbnails stored inline are identified by their table
+	 * and ID instead, as their data is only ever replaced by moving it to the blob store.
+	 *
+	 * @param blobTable  The table the thumbnails are stored in.
+	 * @param thumbnails The hashes of the blobs of the thumbnails by the ID of their image, in the
+	 *                   order in which they appear in the sprite.
+	 * @return The version, which is also the key of the sprite in the {@link RenditionCache}.
+	 */
+	private static String spriteVersion(
+			BlobTable<Integer> blobTable, Map<Integer, String> thumbnails) {
+		String blobHashes = thumbnails.entrySet().stream()
+				.map(thumbnail -> thumbnail.getValue() != null
+						? thumbnail.getValue()
+						: blobTable.getTable().getName() + "/" + thumbnail.getKey())
+				.collect(Collectors.joining(","));
+		String layout = getSpriteColumns(thumbnails.size()) + ":" + blobHashes;
+		return FileSystemBlobStore.hash(layout.getBytes(StandardCharsets.UTF_8)) + "-sprite";
+	}
+
 	/**
 	 * Write the given data to the client.
 	 *
@@ -24,6 +336,581 @@ public class FileService {
 			@NonNull byte[] data, @NonNull String mimeType,
 			@NonNull HttpServletResponse response) throws IOException {
 		response.setContentType(mimeType);
+		response.setContentLength(data.length);
 		response.getOutputStream().write(data);
 	}
+
+	/**
+	 * Write a placeholder for an image which is still being generated. The response has status
+	 * 202 Accepted and may not be cached, such that the client requests the image again later.
+	 *
+	 * @param placeholder The placeholder image.
+	 * @param mimeType    the mime type of the placeholder.
+	 * @param retryAfter  The amount of seconds after which the client should try again.
+	 * @param response    the http servlet response to write via.
+	 * @throws IOException When an error occured in the input or output of generating the servlet
+	 *                     response.
+	 */
+	public void writePlaceholder(
+			@NonNull byte[] placeholder, @NonNull String mimeType, int retryAfter,
+			@NonNull HttpServletResponse response) throws IOException {
+		response.setStatus(HttpServletResponse.SC_ACCEPTED);
+		response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+		response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+		write(placeholder, mimeType, response);
+	}
+
+	/**
+	 * Write an image to the client which is either stored in the {@link BlobStore} or, when it has
+	 * not been migrated yet, inline in the database.
+	 * <p>
+	 * Images in the blob store are sent with their hash as ETag, such that clients can revalidate
+	 * them using If-None-Match without the image being read at all. When the client requested the
+	 * image using a versioned URL, i.e. a URL with the hash of the current image as version
+	 * parameter, the image may be cached indefinitely: a transformation of the image results in a
+	 * new hash and therefore in a new URL.
+	 * <p>
+	 * Both kinds of images support byte ranges, such that interrupted downloads can be resumed.
+	 * Ranges of images stored inline are read from the database directly, without retrieving the
+	 * whole image.
+	 *
+	 * @param blobTable The table the image is stored in.
+	 * @param key       The primary key of the row of the image.
+	 * @param blobHash  The hash of the blob, or null if the data is stored inline.
+	 * @param mimeType  the mime type to include.
+	 * @param version   The version requested by the client, or null if none was requested.
+	 * @param request   the http servlet request which is being responded to.
+	 * @param response  the http servlet response to write via.
+	 * @param <K>       The type of the primary key of the table.
+	 * @throws IOException When an error occured in the input or output of generating the servlet
+	 *                     response.
+	 */
+	public <K> void write(
+			@NonNull BlobTable<K> blobTable, @NonNull K key, String blobHash,
+			@NonNull String mimeType, String version,
+			@NonNull HttpServletRequest request,
+			@NonNull HttpServletResponse response) throws IOException {
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+		if (blobHash == null) {
+			response.setHeader(HttpHeaders.CACHE_CONTROL, REVALIDATE_CACHE_CONTROL);
+			int size = blobTableDao.fetchInlineSize(blobTable, key);
+			writeRanges(size, null, null, mimeType, request, response, (start, count, out) -> {
+				byte[] range = blobTableDao.fetchInlineRange(
+						blobTable, key, (int) start, (int) count);
+				if (range == null) {
+					throw new FileNotFoundException("The image has been removed");
+				}
+				out.write(range);
+			});
+			return;
+		}
+
+		response.setHeader(HttpHeaders.CACHE_CONTROL, blobHash.equals(version)
+				? IMMUTABLE_CACHE_CONTROL
+				: REVALIDATE_CACHE_CONTROL);
+		if (new ServletWebRequest(request, response).checkNotModified(blobHash)) {
+			return;
+		}
+
+		writeFile(blobStore.getPath(blobHash), blobHash, mimeType, request, response);
+	}
+
+	/**
+	 * Write an image to the client like {@link #write(BlobTable, Object, String, String, String,
+	 * HttpServletRequest, HttpServletResponse)}, rotating and flipping it into the given
+	 * {@link RotationState} first. Rotated images are cached in the {@link RenditionCache}, such
+	 * that only the first request for a rotation has to transform the image. Images which have
+	 * not been migrated to the blob store yet are transformed on every request instead.
+	 *
+	 * @param blobTable The table the image is stored in.
+	 * @param key       The primary key of the row of the image.
+	 * @param blobHash  The hash of the blob, or null if the data is stored inline.
+	 * @param rotation  The rotation to apply on the image.
+	 * @param mimeType  the mime type to include.
+	 * @param version   The version requested by the client, or null if none was requested.
+	 * @param request   the http servlet request which is being responded to.
+	 * @param response  the http servlet response to write via.
+	 * @param <K>       The type of the primary key of the table.
+	 * @throws IOException When an error occured in the input or output of generating the servlet
+	 *                     response.
+	 */
+	public <K> void write(
+			@NonNull BlobTable<K> blobTable, @NonNull K key, String blobHash,
+			@NonNull RotationState rotation, @NonNull String mimeType, String version,
+			@NonNull HttpServletRequest request,
+			@NonNull HttpServletResponse response) throws IOException {
+		if (rotation == RotationState.ROT0) {
+			write(blobTable, key, blobHash, mimeType, version, request, response);
+			return;
+		}
+
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+		ImageFormat format = ImageFormat.ofMimeType(mimeType);
+		if (blobHash == null) {
+			response.setHeader(HttpHeaders.CACHE_CONTROL, REVALIDATE_CACHE_CONTROL);
+			byte[] data = blobTableDao.fetchData(blobTable, key, null);
+			byte[] rotated = imageProcessingService.execute(() ->
+					imageService.transformImage(data, rotation, format));
+			writeRanges(rotated.length, null, null, mimeType, request, response,
+					(start, count, out) -> out.write(rotated, (int) start, (int) count));
+			return;
+		}
+
+		String renditionVersion = version(blobHash, rotation);
+		response.setHeader(HttpHeaders.CACHE_CONTROL, renditionVersion.equals(version)
+				? IMMUTABLE_CACHE_CONTROL
+				: REVALIDATE_CACHE_CONTROL);
+		if (new ServletWebRequest(request, response).checkNotModified(renditionVersion)) {
+			return;
+		}
+
+		writeRendition(renditionVersion, rotate(blobHash, rotation, format), mimeType, request,
+				response);
+	}
+
+	/**
+	 * Write an image to the client like {@link #write(BlobTable, Object, String, RotationState,
+	 * String, String, HttpServletRequest, HttpServletResponse)}, resized to the given width. The
+	 * width is rounded up to one of the configured widths, see {@link #getRenditionWidth(int)},
+	 * and the resized image is kept in the {@link RenditionCache}. Images which have not been
+	 * migrated to the blob store yet are not resized.
+	 * <p>
+	 * The rendition may be cached indefinitely when the requested version is the version of the
+	 * image itself, as the rendition of a width only changes when the image does.
+	 *
+	 * @param blobTable The table the image is stored in.
+	 * @param key       The primary key of the row of the image.
+	 * @param blobHash  The hash of the blob, or null if the data is stored inline.
+	 * @param rotation  The rotation to apply on the image.
+	 * @param width     The requested width, or null to send the image in its original size.
+	 * @param mimeType  the mime type to include.
+	 * @param version   The version requested by the client, or null if none was requested.
+	 * @param request   the http servlet request which is being responded to.
+	 * @param response  the http servlet response to write via.
+	 * @param <K>       The type of the primary key of the table.
+	 * @throws IOException When an error occured in the input or output of generating the servlet
+	 *                     response.
+	 */
+	public <K> void write(
+			@NonNull BlobTable<K> blobTable, @NonNull K key, String blobHash,
+			@NonNull RotationState rotation, Integer width, @NonNull String mimeType,
+			String version,
+			@NonNull HttpServletRequest request,
+			@NonNull HttpServletResponse response) throws IOException {
+		Integer renditionWidth = width == null ? null : getRenditionWidth(width);
+		if (renditionWidth == null || blobHash == null) {
+			write(blobTable, key, blobHash, rotation, mimeType, version, request, response);
+			return;
+		}
+
+		String renditionVersion = version(blobHash, rotation, renditionWidth);
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+		response.setHeader(HttpHeaders.CACHE_CONTROL, version(blobHash, rotation).equals(version)
+				? IMMUTABLE_CACHE_CONTROL
+				: REVALIDATE_CACHE_CONTROL);
+		if (new ServletWebRequest(request, response).checkNotModified(renditionVersion)) {
+			return;
+		}
+
+		RenditionSpec rendition =
+				RenditionSpec.width(renditionWidth, ImageFormat.ofMimeType(mimeType));
+		writeRendition(renditionVersion, () -> imageProcessingService.execute(() ->
+				imageService.createRendition(blobStore.get(blobHash), rotation, rendition)),
+				mimeType, request, response);
+	}
+
+	/**
+	 * Describes the tile pyramid of an image stored in the blob store, rotated into the given
+	 * {@link RotationState}. See {@link ImageService#createTile(Path, int, int, int,
+	 * ImageFormat)}.
+	 *
+	 * @param blobHash The hash of the blob of the image.
+	 * @param rotation The rotation with which the image is served.
+	 * @param mimeType the mime type of the image, in which its tiles are served as well.
+	 * @return The description of the tile pyramid.
+	 * @throws IOException When the image can not be read.
+	 */
+	public TilePyramidDto getTilePyramid(
+			@NonNull String blobHash, @NonNull RotationState rotation,
+			@NonNull String mimeType) throws IOException {
+		Pair<Integer, Integer> dimensions = getDimensions(blobHash);
+		int width = rotation.isFlipXY() ? dimensions.getSecond() : dimensions.getFirst();
+		int height = rotation.isFlipXY() ? dimensions.getFirst() : dimensions.getSecond();
+		return new TilePyramidDto(version(blobHash, rotation), width, height,
+				ImageService.TILE_SIZE, ImageService.getMaxTileLevel(width, height), mimeType);
+	}
+
+	/**
+	 * Returns the dimensions of an image stored in the blob store. Only the first request for an
+	 * image reads the header of its blob, the dimensions are kept afterwards.
+	 *
+	 * @param blobHash The hash of the blob of the image.
+	 * @return A pair of integers, representing width and height.
+	 * @throws IOException When the image can not be read.
+	 */
+	private Pair<Integer, Integer> getDimensions(String blobHash) throws IOException {
+		Pair<Integer, Integer> cached = dimensions.get(blobHash);
+		if (cached != null) {
+			return cached;
+		}
+		Pair<Integer, Integer> read;
+		try (InputStream inputStream = Files.newInputStream(blobStore.getPath(blobHash))) {
+			read = imageService.readDimensions(inputStream);
+		}
+		dimensions.put(blobHash, read);
+		return read;
+	}
+
+	/**
+	 * Checks whether the given tile pyramid has the given tile.
+	 *
+	 * @param pyramid The tile pyramid, as returned by {@link #getTilePyramid(String,
+	 *                RotationState, String)}.
+	 * @param level   The level of the tile.
+	 * @param column  The column of the tile.
+	 * @param row     The row of the tile.
+	 * @return True if the tile exists, false if not.
+	 */
+	public static boolean containsTile(TilePyramidDto pyramid, int level, int column, int row) {
+		if (level < 0 || level > pyramid.getMaxLevel() || column < 0 || row < 0) {
+			return false;
+		}
+		Pair<Integer, Integer> dimensions = ImageService.getTileLevelDimensions(
+				pyramid.getWidth(), pyramid.getHeight(), level);
+		return (long) column * pyramid.getTileSize() < dimensions.getFirst()
+				&& (long) row * pyramid.getTileSize() < dimensions.getSecond();
+	}
+
+	/**
+	 * Write a tile of the tile pyramid of an image to the client, see
+	 * {@link #getTilePyramid(String, RotationState, String)}. Tiles are created on first request
+	 * from the rotated image and kept in the {@link RenditionCache}. Like the renditions of a
+	 * width, a tile may be cached indefinitely when the requested version is the version of the
+	 * image itself.
+	 * <p>
+	 * The ETag of a tile consists of the version of the image and the position of the tile, so a
+	 * revalidation is answered without reading the image at all. Only the region of the rotated
+	 * image covered by the tile is decoded.
+	 *
+	 * @param blobHash The hash of the blob of the image.
+	 * @param rotation The rotation with which the image is served.
+	 * @param level    The level of the tile.
+	 * @param column   The column of the tile.
+	 * @param row      The row of the tile.
+	 * @param mimeType the mime type of the image.
+	 * @param version  The version requested by the client, or null if none was requested.
+	 * @param request  the http servlet request which is being responded to.
+	 * @param response the http servlet response to write via.
+	 * @throws IOException           When an error occured in the input or output of generating
+	 *                               the servlet response.
+	 * @throws NoSuchEntityException When the image has no such tile.
+	 */
+	public void writeTile(
+			@NonNull String blobHash, @NonNull RotationState rotation, int level, int column,
+			int row, @NonNull String mimeType, String version,
+			@NonNull HttpServletRequest request,
+			@NonNull HttpServletResponse response) throws IOException {
+		String imageVersion = version(blobHash, rotation);
+		String tileVersion = imageVersion + "-t" + level + "-" + column + "-" + row;
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+		response.setHeader(HttpHeaders.CACHE_CONTROL, imageVersion.equals(version)
+				? IMMUTABLE_CACHE_CONTROL
+				: REVALIDATE_CACHE_CONTROL);
+		if (new ServletWebRequest(request, response).checkNotModified(tileVersion)) {
+			return;
+		}
+		if (!containsTile(getTilePyramid(blobHash, rotation, mimeType), level, column, row)) {
+			throw new NoSuchEntityException("No such tile");
+		}
+
+		ImageFormat format = ImageFormat.ofMimeType(mimeType);
+		// The rotated image is retrieved before the tile is created, as it may have to be created
+		// by the image processing service as well.
+		writeRendition(tileVersion, () -> readRotated(blobHash, rotation, format, image ->
+				imageProcessingService.execute(() ->
+						imageService.createTile(image, level, column, row, format))),
+				mimeType, request, response);
+	}
+
+	/**
+	 * Reads the file containing an image stored in the blob store, rotated into the given
+	 * {@link RotationState}. Rotated images are created on first request and kept in the
+	 * {@link RenditionCache}, where they are pinned while being read.
+	 *
+	 * @param blobHash The hash of the blob of the image.
+	 * @param rotation The rotation to apply on the image.
+	 * @param format   The format of the image.
+	 * @param reader   Reads the file of the rotated image.
+	 * @param <T>      The type of the result of the reader.
+	 * @return The result of the reader.
+	 * @throws IOException When the image could not be read or rotated.
+	 */
+	private <T> T readRotated(
+			String blobHash, RotationState rotation, ImageFormat format,
+			RenditionReader<T> reader) throws IOException {
+		if (rotation == RotationState.ROT0) {
+			return reader.read(blobStore.getPath(blobHash));
+		}
+		return renditionCache.read(
+				version(blobHash, rotation), rotate(blobHash, rotation, format), reader);
+	}
+
+	/**
+	 * Returns the generator of an image stored in the blob store, rotated into the given
+	 * {@link RotationState}.
+	 *
+	 * @param blobHash The hash of the blob of the image.
+	 * @param rotation The rotation to apply on the image.
+	 * @param format   The format of the image.
+	 * @return The generator of the rotated image.
+	 */
+	private RenditionGenerator rotate(String blobHash, RotationState rotation, ImageFormat format) {
+		return () -> imageProcessingService.execute(() ->
+				imageService.transformImage(blobStore.get(blobHash), rotation, format));
+	}
+
+	/**
+	 * Writes a rendition kept in the {@link RenditionCache}, or the ranges of it requested by the
+	 * client, to the client. The rendition is created first when it is not cached. Renditions are
+	 * never sent using sendfile, as Tomcat only sends the file after the request has been handled,
+	 * when the rendition may have been evicted already. The file is opened while the rendition is
+	 * pinned instead, which keeps it readable when it is evicted while being written.
+	 *
+	 * @param key       The key of the rendition, which is used as its ETag as well.
+	 * @param generator Creates the rendition when it is not cached.
+	 * @param mimeType  the mime type of the rendition.
+	 * @param request   the http servlet request which is being responded to.
+	 * @param response  the http servlet response to write via.
+	 * @throws IOException When an error occured in the input or output of generating the servlet
+	 *                     response.
+	 */
+	private void writeRendition(
+			String key, RenditionGenerator generator, String mimeType,
+			HttpServletRequest request, HttpServletResponse response) throws IOException {
+		try (FileChannel channel = renditionCache.read(key, generator, file ->
+				FileChannel.open(file, StandardOpenOption.READ))) {
+			writeRanges(channel.size(), null, '"' + key + '"', mimeType, request, response,
+					(start, count, out) -> transfer(channel, start, count, out));
+		}
+	}
+
+	/**
+	 * Writes the given file, or the ranges of it requested by the client, to the client. The file
+	 * may be sent using sendfile, so it must exist until the response has been sent, like the
+	 * files in the blob store do.
+	 *
+	 * @param file     The file to write.
+	 * @param etag     The ETag of the file, without quotes.
+	 * @param mimeType the mime type of the file.
+	 * @param request  the http servlet request which is being responded to.
+	 * @param response the http servlet response to write via.
+	 * @throws IOException When an error occured in the input or output of generating the servlet
+	 *                     response.
+	 */
+	private static void writeFile(
+			Path file, String etag, String mimeType,
+			HttpServletRequest request, HttpServletResponse response) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			writeRanges(channel.size(), file, '"' + etag + '"', mimeType, request, response,
+					(start, count, out) -> transfer(channel, start, count, out));
+		}
+	}
+
+	/**
+	 * Writes the content, or the ranges of it requested by the client, to the client. When only a
+	 * single range is written and the content is a large file, the file is handed to Tomcat to be
+	 * sent using sendfile.
+	 *
+	 * @param size     The size of the content in bytes.
+	 * @param file     The file containing the content, or null if the content is no file.
+	 * @param etag     The strong ETag of the content, or null if it has none.
+	 * @param mimeType the mime type of the content.
+	 * @param request  the http servlet request which is being responded to.
+	 * @param response the http servlet response to write via.
+	 * @param writer   Writes a part of the content to the response.
+	 * @throws IOException When an error occured in the input or output of generating the servlet
+	 *                     response.
+	 */
+	private static void writeRanges(
+			long size, Path file, String etag, String mimeType,
+			HttpServletRequest request, HttpServletResponse response,
+			ContentWriter writer) throws IOException {
+		List<HttpRange> ranges;
+		try {
+			ranges = getRequestedRanges(request, etag, size);
+		} catch (IllegalArgumentException e) {
+			response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+			return;
+		}
+
+		if (ranges.size() > 1) {
+			writeMultipart(size, mimeType, ranges, response, writer);
+			return;
+		}
+
+		long start = 0;
+		long count = size;
+		if (ranges.size() == 1) {
+			start = ranges.get(0).getRangeStart(size);
+			count = ranges.get(0).getRangeEnd(size) - start + 1;
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(start, count, size));
+		}
+		response.setContentType(mimeType);
+		response.setContentLengthLong(count);
+
+		if (file != null && count >= SENDFILE_THRESHOLD && supportsSendfile(request)) {
+			request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.toAbsolutePath().toString());
+			request.setAttribute(SENDFILE_START_ATTRIBUTE, start);
+			request.setAttribute(SENDFILE_END_ATTRIBUTE, start + count);
+			return;
+		}
+		if (count > 0) {
+			writer.write(start, count, response.getOutputStream());
+		}
+	}
+
+	/**
+	 * Writes multiple ranges of the content as a multipart/byteranges response.
+	 *
+	 * @param size     The size of the content in bytes.
+	 * @param mimeType the mime type of the content.
+	 * @param ranges   The ranges to write, all of which are satisfiable.
+	 * @param response the http servlet response to write via.
+	 * @param writer   Writes a part of the content to the response.
+	 * @throws IOException When an error occured in the input or output of generating the servlet
+	 *                     response.
+	 */
+	private static void writeMultipart(
+			long size, String mimeType, List<HttpRange> ranges,
+			HttpServletResponse response, ContentWriter writer) throws IOException {
+		String boundary = UUID.randomUUID().toString();
+		List<byte[]> headers = new ArrayList<>(ranges.size());
+		byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+		long length = end.length;
+		for (HttpRange range : ranges) {
+			long start = range.getRangeStart(size);
+			long count = range.getRangeEnd(size) - start + 1;
+			byte[] header = ("\r\n--" + boundary + "\r\n"
+					+ HttpHeaders.CONTENT_TYPE + ": " + mimeType + "\r\n"
+					+ HttpHeaders.CONTENT_RANGE + ": " + contentRange(start, count, size) + "\r\n"
+					+ "\r\n").getBytes(StandardCharsets.US_ASCII);
+			headers.add(header);
+			length += header.length + count;
+		}
+
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		response.setContentType(MULTIPART_BYTERANGES + "; boundary=" + boundary);
+		response.setContentLengthLong(length);
+
+		OutputStream out = response.getOutputStream();
+		for (int i = 0; i < ranges.size(); i++) {
+			long start = ranges.get(i).getRangeStart(size);
+			out.write(headers.get(i));
+			writer.write(start, ranges.get(i).getRangeEnd(size) - start + 1, out);
+		}
+		out.write(end);
+	}
+
+	/**
+	 * Determines the ranges of the content requested by the client. Ranges which lie beyond the
+	 * end of the content are dropped. The Range header is ignored when its If-Range precondition
+	 * does not match the given ETag, or when too many ranges are requested.
+	 *
+	 * @param request The request to retrieve the requested ranges from.
+	 * @param etag    The strong ETag of the content, or null if it has none.
+	 * @param size    The size of the content in bytes.
+	 * @return The satisfiable requested ranges, or an empty list if the whole content should be
+	 * sent.
+	 * @throws IllegalArgumentException When the Range header is malformed or none of the requested
+	 *                                  ranges can be satisfied.
+	 */
+	static List<HttpRange> getRequestedRanges(HttpServletRequest request, String etag, long size) {
+		String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+		String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+		if (rangeHeader == null || (ifRange != null && !ifRange.equals(etag))) {
+			return Collections.emptyList();
+		}
+
+		List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+		if (ranges.size() > MAX_RANGES) {
+			return Collections.emptyList();
+		}
+		List<HttpRange> satisfiable = ranges.stream()
+				.filter(range -> range.getRangeStart(size) < size)
+				.collect(Collectors.toList());
+		if (satisfiable.isEmpty()) {
+			throw new IllegalArgumentException("None of the requested ranges can be satisfied");
+		}
+		return satisfiable;
+	}
+
+	/**
+	 * Formats the value of a Content-Range header.
+	 *
+	 * @param start The position of the first byte in the range.
+	 * @param count The amount of bytes in the range.
+	 * @param size  The size of the whole content.
+	 * @return The formatted Content-Range.
+	 */
+	private static String contentRange(long start, long count, long size) {
+		return "bytes " + start + "-" + (start + count - 1) + "/" + size;
+	}
+
+	/**
+	 * Writes a part of some content to an output stream.
+	 */
+	@FunctionalInterface
+	private interface ContentWriter {
+		/**
+		 * Writes a part of the content to the given output stream.
+		 *
+		 * @param start The position of the first byte to write.
+		 * @param count The amount of bytes to write.
+		 * @param out   The stream to write to.
+		 * @throws IOException When the content can not be read or the stream can not be written to.
+		 */
+		void write(long start, long count, OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Checks whether the connector which received the given request is able to use sendfile.
+	 * This is not the case for e.g. the AJP connector.
+	 *
+	 * @param request The request to check.
+	 * @return True if sendfile can be used, false if not.
+	 */
+	private static boolean supportsSendfile(HttpServletRequest request) {
+		return Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTRIBUTE));
+	}
+
+	/**
+	 * Transfers a part of the given file channel to the given output stream. When the channel
+	 * refuses to transfer any more data, the remainder is mapped into memory and written from
+	 * there instead.
+	 *
+	 * @param channel  The channel to read from.
+	 * @param position The position of the first byte to transfer.
+	 * @param count    The amount of bytes to transfer.
+	 * @param out      The stream to write to.
+	 * @throws IOException When the channel can not be read or the stream can not be written to.
+	 */
+	private static void transfer(FileChannel channel, long position, long count, OutputStream out)
+			throws IOException {
+		WritableByteChannel target = Channels.newChannel(out);
+		long end = position + count;
+		while (position < end) {
+			long transferred = channel.transferTo(position, end - position, target);
+			if (transferred <= 0) {
+				MappedByteBuffer buffer =
+						channel.map(FileChannel.MapMode.READ_ONLY, position, end - position);
+				while (buffer.hasRemaining()) {
+					target.write(buffer);
+				}
+				return;
+			}
+			position += transferred;
+		}
+	}
 }
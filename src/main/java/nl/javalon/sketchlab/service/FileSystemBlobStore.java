@@ -0,0 +1,196 @@
+package nl.javalon.sketchlab.service;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * {@link BlobStore} which stores blobs on the local file system. Blobs are sharded over two levels
+ * of directories using the first four characters of their hash, i.e. a blob with hash
+ * {@code abcdef...} is stored as {@code ab/cd/abcdef...}. Blobs are first written to a temporary
+ * file and then atomically moved into place, so readers never observe partially written blobs.
+ *
+ * @author Jelle Stege
+ */
+@Log
+@Service
+public class FileSystemBlobStore implements BlobStore {
+	private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final String TEMP_DIRECTORY = "tmp";
+
+	@Getter
+	private final Path root;
+	private final Path temp;
+
+	/**
+	 * Instantiates the {@link FileSystemBlobStore} using the directory configured in the
+	 * sketchlab.storage.directory property.
+	 *
+	 * @param properties The application properties.
+	 * @throws IOException When the storage directory could not be created.
+	 */
+	@Autowired
+	public FileSystemBlobStore(SketchlabPropertiesMapper properties) throws IOException {
+		this(Paths.get(properties.getStorage().getDirectory()));
+	}
+
+	/**
+	 * Instantiates the {@link FileSystemBlobStore} using the given directory.
+	 *
+	 * @param root The directory to store blobs in. Created when it does not exist.
+	 * @throws IOException When the storage directory could not be created.
+	 */
+	public FileSystemBlobStore(@NonNull Path root) throws IOException {
+		this.root = root.toAbsolutePath();
+		this.temp = this.root.resolve(TEMP_DIRECTORY);
+		Files.createDirectories(this.temp);
+		log.info("Storing blobs in " + this.root);
+	}
+
+	@Override
+	public String put(@NonNull byte[] data) throws IOException {
+		String hash = hash(data);
+		Path target = getPath(hash);
+		if (Files.exists(target)) {
+			// Mark the blob as recently used, such that it survives the next retain() call.
+			Files.setLastModifiedTime(target, FileTime.from(Instant.now()));
+			return hash;
+		}
+
+		Files.createDirectories(target.getParent());
+		Path tempFile = Files.createTempFile(temp, hash, ".tmp");
+		try {
+			Files.write(tempFile, data);
+			Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (FileAlreadyExistsException e) {
+			// Stored concurrently with the same contents, nothing left to do.
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+		return hash;
+	}
+
+	@Override
+	public byte[] get(String hash) throws IOException {
+		return Files.readAllBytes(getPath(hash));
+	}
+
+	@Override
+	public Path getPath(@NonNull String hash) {
+		if (!HASH_PATTERN.matcher(hash).matches()) {
+			throw new IllegalArgumentException("Not a valid blob hash: " + hash);
+		}
+		return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+	}
+
+	@Override
+	public boolean contains(String hash) {
+		return Files.exists(getPath(hash));
+	}
+
+	@Override
+	public int retain(@NonNull Set<String> referenced, @NonNull Instant olderThan)
+			throws IOException {
+		int deleted = 0;
+		try (Stream<Path> files = Files.find(root, 3, (path, attributes) ->
+				isUnreferenced(path, attributes, referenced, olderThan))) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				if (Files.deleteIfExists(file)) {
+					deleted++;
+				}
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * Checks whether the given file is a blob which is no longer referenced.
+	 *
+	 * @param path       The path of the file.
+	 * @param attributes The attributes of the file.
+	 * @param referenced The hashes of all blobs which are still in use.
+	 * @param olderThan  Only files last modified before this instant are considered.
+	 * @return True if the file is an unreferenced blob, false if not.
+	 */
+	private boolean isUnreferenced(
+			Path path, BasicFileAttributes attributes, Set<String> referenced, Instant olderThan) {
+		String name = path.getFileName().toString();
+		return attributes.isRegularFile()
+				&& !path.startsWith(temp)
+				&& HASH_PATTERN.matcher(name).matches()
+				&& !referenced.contains(name)
+				&& attributes.lastModifiedTime().toInstant().isBefore(olderThan);
+	}
+
+	/**
+	 * Calculates the hex encoded SHA-256 hash of the given data.
+	 *
+	 * @param data The data to hash.
+	 * @return The lowercase hex encoded hash.
+	 */
+	public static String hash(byte[] data) {
+		return toHex(createDigest().digest(data));
+	}
+
+	/**
+	 * Calculates the hex encoded SHA-256 hash of the data read from the given stream, without
+	 * keeping the data in memory. The stream is read until its end, but not closed.
+	 *
+	 * @param inputStream The stream to read the data to hash from.
+	 * @return The lowercase hex encoded hash.
+	 * @throws IOException When the stream could not be read.
+	 */
+	public static String hash(InputStream inputStream) throws IOException {
+		MessageDigest digest = createDigest();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = inputStream.read(buffer)) != -1) {
+			digest.update(buffer, 0, read);
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Creates the message digest used to hash blobs.
+	 *
+	 * @return A SHA-256 message digest.
+	 */
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Encodes the given digest as lowercase hex.
+	 *
+	 * @param digest The digest to encode.
+	 * @return The hex encoded digest.
+	 */
+	private static String toHex(byte[] digest) {
+		char[] hex = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+			hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xF];
+		}
+		return new String(hex);
+	}
+}
@@ -0,0 +1,329 @@
+package nl.javalon.sketchlab.service;
+
+import lombok.NonNull;
+import lombok.extern.java.Log;
+import nl.javalon.sketchlab.entity.tables.pojos.User;
+import nl.javalon.sketchlab.exception.ServiceUnavailableException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs CPU intensive image operations, like those of the {@link ImageService}, on a dedicated
+ * pool of workers instead of on the request threads. The pool has a bounded queue and every user
+ * may only have a limited amount of images waiting or being processed. Tasks which are not run for
+ * a request, like those of scheduled jobs, share a separate limit. When either limit is reached,
+ * the request is rejected immediately with a {@link ServiceUnavailableException}, such that a
+ * burst of uploads can not occupy all request threads and starve other requests.
+ * <p>
+ * The state of the pool is exposed as metrics through the actuator.
+ *
+ * @author Jelle Stege
+ */
+@Log
+@Service
+public class ImageProcessingService implements PublicMetrics {
+	private static final String METRIC_PREFIX = "image.processing.";
+
+	/**
+	 * The key under which tasks which are not run for a logged in user are accounted. It is not
+	 * the ID of any user, as users are identified by random UUIDs.
+	 */
+	private static final UUID SYSTEM_ID = new UUID(-1L, -1L);
+
+	private final ThreadPoolExecutor executor;
+	private final int queueCapacity;
+	private final int perUserLimit;
+	private final int systemLimit;
+	private final int retryAfter;
+
+	/**
+	 * The amount of images waiting or being processed per user.
+	 */
+	private final ConcurrentMap<UUID, Integer> inFlight = new ConcurrentHashMap<>();
+
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong totalWaitingTime = new AtomicLong();
+	private final AtomicLong totalProcessingTime = new AtomicLong();
+	private final AtomicLong maxProcessingTime = new AtomicLong();
+
+	/**
+	 * Instantiates the {@link ImageProcessingService} using the sketchlab.image-processing
+	 * properties.
+	 *
+	 * @param properties The application properties.
+	 */
+	@Autowired
+	public ImageProcessingService(SketchlabPropertiesMapper properties) {
+		SketchlabPropertiesMapper.ImageProcessing config = properties.getImageProcessing();
+		this.queueCapacity = config.getQueueCapacity();
+		this.perUserLimit = config.getPerUserLimit();
+		this.systemLimit = config.getSystemLimit();
+		this.retryAfter = config.getRetryAfter();
+
+		CustomizableThreadFactory threadFactory =
+				new CustomizableThreadFactory("image-processing-");
+		threadFactory.setDaemon(true);
+		this.executor = new ThreadPoolExecutor(
+				config.getPoolSize(), config.getPoolSize(),
+				0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity),
+				threadFactory,
+				new ThreadPoolExecutor.AbortPolicy());
+		log.info("Processing images using " + config);
+	}
+
+	/**
+	 * Runs the given task on the image processing pool and waits for its result. The task is
+	 * accounted to the currently logged in user. Requests should prefer
+	 * {@link #executeAsync(ImageTask)}, which does not occupy the request thread while waiting.
+	 *
+	 * @param task The task to run.
+	 * @param <T>  The type of the result of the task.
+	 * @return The result of the task.
+	 * @throws IOException                 When the task failed with an IOException, or when the
+	 *                                     request was interrupted while waiting.
+	 * @throws ServiceUnavailableException When the pool or the user has too many images waiting.
+	 */
+	public <T> T execute(@NonNull ImageTask<T> task) throws IOException {
+		return await(executeAsync(task));
+	}
+
+	/**
+	 * Runs the given task on the image processing pool without waiting for its result. The task
+	 * is accounted to the currently logged in user until it completes. A resource can return the
+	 * future, or a stage depending on it, such that the request is completed asynchronously and
+	 * the request thread is free to serve other requests in the meantime. Note that stages
+	 * depending on the future do not run in the transaction of the request, nor with its security
+	 * context.
+	 *
+	 * @param task The task to run.
+	 * @param <T>  The type of the result of the task.
+	 * @return The future result of the task, which fails with the exception of the task.
+	 * @throws ServiceUnavailableException When the pool or the user has too many images waiting.
+	 */
+	public <T> CompletableFuture<T> executeAsync(@NonNull ImageTask<T> task) {
+		UUID userId = getCurrentUserId();
+		if (!acquire(userId)) {
+			rejected.incrementAndGet();
+			throw new ServiceUnavailableException(
+					"Too many images are being processed for this user", retryAfter);
+		}
+
+		// The slot is released by the worker before the result is completed, such that the user
+		// can submit the next image once it has the result, or once the task is cancelled.
+		AtomicBoolean released = new AtomicBoolean();
+		Runnable releaseOnce = () -> {
+			if (released.compareAndSet(false, true)) {
+				release(userId);
+			}
+		};
+		CompletableFuture<T> result;
+		try {
+			result = submit(() -> {
+				try {
+					return task.process();
+				} finally {
+					releaseOnce.run();
+				}
+			});
+		} catch (RuntimeException e) {
+			releaseOnce.run();
+			throw e;
+		}
+		result.whenComplete((value, e) -> releaseOnce.run());
+		return result;
+	}
+
+	/**
+	 * Submits the given task to the image processing pool without waiting for its result, for
+	 * background jobs which are not accounted to a user. Such jobs have to limit the amount of
+	 * tasks they submit themselves, see {@link #getQueueSize()}.
+	 *
+	 * @param task The task to run.
+	 * @param <T>  The type of the result of the task.
+	 * @return The future result of the task, see {@link #await(Future)}. A task which is
+	 * cancelled before a worker picked it up is not run.
+	 * @throws ServiceUnavailableException When the queue of the pool is full.
+	 */
+	public <T> CompletableFuture<T> submit(@NonNull ImageTask<T> task) {
+		long submitted = System.nanoTime();
+		CompletableFuture<T> result = new CompletableFuture<>();
+		try {
+			executor.execute(() -> {
+				if (result.isDone()) {
+					return;
+				}
+				long started = System.nanoTime();
+				try {
+					result.complete(task.process());
+				} catch (Throwable e) {
+					result.completeExceptionally(e);
+				} finally {
+					record(started - submitted, System.nanoTime() - started);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			throw new ServiceUnavailableException(
+					"The server is too busy to process images", retryAfter);
+		}
+		return result;
+	}
+
+	/**
+	 * Waits for the given future to complete, unwrapping the exception it failed with.
+	 *
+	 * @param future The future to wait for.
+	 * @param <T>    The type of the result of the future.
+	 * @return The result of the future.
+	 * @throws IOException When the task failed with an IOException, or when the current thread was
+	 *                     interrupted while waiting.
+	 */
+	static <T> T await(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for an image to process");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Admits another image of the given user, unless the user reached the per user limit, or the
+	 * system limit for tasks which are not run for a user.
+	 *
+	 * @param userId The ID of the user.
+	 * @return True if the image is admitted, false if the user has to wait.
+	 */
+	private boolean acquire(UUID userId) {
+		int limit = userId.equals(SYSTEM_ID) ? systemLimit : perUserLimit;
+		boolean[] admitted = {false};
+		inFlight.compute(userId, (id, count) -> {
+			int current = count != null ? count : 0;
+			if (current >= limit) {
+				return count;
+			}
+			admitted[0] = true;
+			return current + 1;
+		});
+		return admitted[0];
+	}
+
+	/**
+	 * Releases an image admitted using {@link #acquire(UUID)}.
+	 *
+	 * @param userId The ID of the user.
+	 */
+	private void release(UUID userId) {
+		inFlight.computeIfPresent(userId, (id, count) -> count > 1 ? count - 1 : null);
+	}
+
+	/**
+	 * Records the timings of a processed image.
+	 *
+	 * @param waitingTime    The time the image waited in the queue, in nanoseconds.
+	 * @param processingTime The time it took to process the image, in nanoseconds.
+	 */
+	private void record(long waitingTime, long processingTime) {
+		processed.incrementAndGet();
+		totalWaitingTime.addAndGet(waitingTime);
+		totalProcessingTime.addAndGet(processingTime);
+		maxProcessingTime.accumulateAndGet(processingTime, Math::max);
+	}
+
+	/**
+	 * Retrieves the ID of the currently logged in user, which is the anonymous user for requests
+	 * of visitors who did not log in. Threads which do not serve a request, like those of
+	 * scheduled jobs, have no authentication at all and are accounted as {@link #SYSTEM_ID}.
+	 *
+	 * @return The ID of the current user.
+	 */
+	private static UUID getCurrentUserId() {
+		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+		if (authentication != null && authentication.getPrincipal() instanceof User) {
+			return ((User) authentication.getPrincipal()).getId();
+		}
+		return SYSTEM_ID;
+	}
+
+	/**
+	 * Returns the amount of images waiting for a worker.
+	 *
+	 * @return The amount of queued images.
+	 */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		long count = processed.get();
+		return Arrays.asList(
+				new Metric<>(METRIC_PREFIX + "pool.size", executor.getPoolSize()),
+				new Metric<>(METRIC_PREFIX + "pool.active", executor.getActiveCount()),
+				new Metric<>(METRIC_PREFIX + "queue.size", getQueueSize()),
+				new Metric<>(METRIC_PREFIX + "queue.capacity", queueCapacity),
+				new Metric<>(METRIC_PREFIX + "processed", count),
+				new Metric<>(METRIC_PREFIX + "rejected", rejected.get()),
+				new Metric<>(METRIC_PREFIX + "waiting.time.mean",
+						count > 0 ? toMillis(totalWaitingTime.get() / count) : 0),
+				new Metric<>(METRIC_PREFIX + "time.mean",
+						count > 0 ? toMillis(totalProcessingTime.get() / count) : 0),
+				new Metric<>(METRIC_PREFIX + "time.max", toMillis(maxProcessingTime.get())));
+	}
+
+	/**
+	 * Stops the workers once the application shuts down.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private static long toMillis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	/**
+	 * An operation on an image which is run on the image processing pool.
+	 *
+	 * @param <T> The type of the result of the operation.
+	 */
+	@FunctionalInterface
+	public interface ImageTask<T> {
+		/**
+		 * Processes the image.
+		 *
+		 * @return The result of the operation.
+		 * @throws IOException When the image could not be processed.
+		 */
+		T process() throws IOException;
+	}
+}
@@ -11,21 +11,37 @@ import net.coobird.thumbnailator.util.exif.ExifFilterUtils;
 import net.coobird.thumbnailator.util.exif.ExifUtils;
 import net.coobird.thumbnailator.util.exif.Orientation;
 import nl.javalon.sketchlab.exception.MalformedRequestException;
+import nl.javalon.sketchlab.exception.UnprocessableEntityException;
+import nl.javalon.sketchlab.service.SketchlabPropertiesMapper.Encoder.Profile;
 import nl.javalon.sketchlab.utils.Pair;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.*;
-import java.util.Collections;
-import java.util.Iterator;
+import java.nio.file.Path;
+import java.util.*;
 import java.util.stream.StreamSupport;
 
 /**
@@ -47,6 +63,65 @@ public class ImageService {
 	public final static int MAX_SUBMISSION_WIDTH = 2048;
 	public final static int MAX_SUBMISSION_HEIGHT = 2048;
 
+	/**
+	 * The width and height of the tiles of the tile pyramid of an image, see
+	 * {@link #createTile(byte[], int, int, int, ImageFormat)}.
+	 */
+	public final static int TILE_SIZE = 256;
+
+	public final static RenditionSpec THUMBNAIL = new RenditionSpec(
+			THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, true, THUMBNAIL_TYPE, Purpose.THUMBNAIL);
+	public final static RenditionSpec AVATAR = new RenditionSpec(
+			AVATAR_WIDTH, AVATAR_HEIGHT, true, AVATAR_TYPE, Purpose.AVATAR);
+
+	/**
+	 * Images are decoded at no less than this multiple of the size they are resized to, such that
+	 * subsampling during decoding does not affect the quality of the resized image.
+	 */
+	final static int MIN_OVERSAMPLING = 2;
+
+	/**
+	 * Color of the placeholder shown while a thumbnail is being generated.
+	 */
+	private final static Color PLACEHOLDER_COLOR = new Color(0xEE, 0xEE, 0xEE);
+	private final static int PLACEHOLDER_SCALE = 25;
+
+	/**
+	 * Name of the metadata format of the JPEG writer of the JDK, which holds the sampling factors.
+	 */
+	private final static String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+	/**
+	 * Perceptual hashes are calculated from the lowest 8 by 8 frequencies of the image, scaled
+	 * down to 32 by 32 pixels.
+	 */
+	private final static int PERCEPTUAL_HASH_SIZE = 32;
+	private final static int PERCEPTUAL_HASH_FREQUENCIES = 8;
+	private final static double[][] PERCEPTUAL_HASH_COSINES = createCosines();
+
+	/**
+	 * The maximum amount of bits in which the perceptual hashes of two images may differ for them
+	 * to be considered the same image. Resizing and recompressing an image changes up to 8 bits of
+	 * the hash of the demo images, while different images differ in at least 18 bits.
+	 */
+	public final static int MAX_PERCEPTUAL_DISTANCE = 10;
+
+	private final SketchlabPropertiesMapper.Encoder encoder;
+	private final long maxPixels;
+
+	private byte[] thumbnailPlaceholder;
+
+	/**
+	 * Instantiates the {@link ImageService} using the sketchlab.encoder and
+	 * sketchlab.image-processing properties.
+	 *
+	 * @param properties The application properties.
+	 */
+	@Autowired
+	public ImageService(SketchlabPropertiesMapper properties) {
+		this.encoder = properties.getEncoder();
+		this.maxPixels = properties.getImageProcessing().getMaxPixels();
+	}
 
 	/**
 	 * Detects the mime type. When the mime type is missing or not either PNG or JPEG, an exception
@@ -74,6 +149,29 @@ public class ImageService {
 		}
 	}
 
+	/**
+	 * Checks the dimensions of an uploaded image, by reading only its header from the uploaded
+	 * file. Images with more pixels than sketchlab.image-processing.max-pixels are rejected before
+	 * the upload is read into memory, as decoding them could exhaust the heap.
+	 *
+	 * @param file The uploaded image.
+	 * @return A pair of integers, representing width and height.
+	 * @throws MalformedRequestException    When the header of the image can not be read.
+	 * @throws UnprocessableEntityException When the image has too many pixels.
+	 */
+	public Pair<Integer, Integer> checkDimensions(MultipartFile file) {
+		Pair<Integer, Integer> dimensions;
+		try (InputStream inputStream = file.getInputStream()) {
+			dimensions = readDimensions(inputStream);
+		} catch (IOException | IllegalArgumentException e) {
+			throw new MalformedRequestException("Unreadable image: " + e.getMessage());
+		}
+		if (exceedsPixelBudget(dimensions.getFirst(), dimensions.getSecond())) {
+			throw pixelBudgetExceeded(dimensions.getFirst(), dimensions.getSecond());
+		}
+		return dimensions;
+	}
+
 	/**
 	 * Create a thumbnail image. The image must be of the given mime type. This method performs no
 	 * mime type detection.
@@ -83,69 +181,635 @@ public class ImageService {
 	 * @throws IOException When an error occurs during resizing.
 	 */
 	public byte[] createThumbnail(byte[] unsafeImageBytes) throws IOException {
-		return this.resizeImage(
-				unsafeImageBytes,
-				ImageFormat.JPG,
-				THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, true);
+		return this.resizeImage(unsafeImageBytes, THUMBNAIL);
 	}
 
 	/**
-	 * Create a JPEG image with a max width and height from the provided byte array.
+	 * Create a thumbnail image of an image which is displayed with the given rotation.
 	 *
-	 * @param unsafeImageBytes bytes of the image, unsanitized.
+	 * @param image    bytes of the image.
+	 * @param rotation The rotation with which the image is displayed.
+	 * @return a byte array of JPEG image data.
+	 * @throws IOException When an error occurs during resizing.
+	 */
+	public byte[] createThumbnail(byte[] image, RotationState rotation) throws IOException {
+		return createRendition(image, rotation, THUMBNAIL);
+	}
+
+	/**
+	 * Returns a tiny image with the aspect ratio of a thumbnail, to be shown while the actual
+	 * thumbnail is being generated.
+	 *
+	 * @return a byte array of JPEG image data.
+	 * @throws IOException When the placeholder could not be encoded.
+	 */
+	public synchronized byte[] getThumbnailPlaceholder() throws IOException {
+		if (thumbnailPlaceholder == null) {
+			BufferedImage image = new BufferedImage(
+					THUMBNAIL_WIDTH / PLACEHOLDER_SCALE,
+					THUMBNAIL_HEIGHT / PLACEHOLDER_SCALE,
+					BufferedImage.TYPE_INT_RGB);
+			Graphics2D graphics = image.createGraphics();
+			graphics.setColor(PLACEHOLDER_COLOR);
+			graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+			graphics.dispose();
+
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			ImageIO.write(image, THUMBNAIL_TYPE.getFormat(), outputStream);
+			thumbnailPlaceholder = outputStream.toByteArray();
+		}
+		return thumbnailPlaceholder;
+	}
+
+	/**
+	 * Create a JPEG image with a max width and height from the provided stream, see
+	 * {@link #decodeImage(InputStream, RenditionSpec...)}.
+	 *
+	 * @param unsafeImage the image, unsanitized.
 	 * @return a byte array of JPEG image data.
 	 * @throws IOException When an error occurs during resizing.
 	 */
-	public byte[] createAvatar(byte[] unsafeImageBytes) throws IOException {
-		return this.resizeImage(
-				unsafeImageBytes,
-				ImageFormat.JPG,
-				AVATAR_WIDTH, AVATAR_HEIGHT, true);
+	public byte[] createAvatar(InputStream unsafeImage) throws IOException {
+		return this.resizeImage(unsafeImage, AVATAR);
 	}
 
 	/**
-	 * Resize the image such that either the width or the height matches the max width or height.
-	 * Also removes all EXIF data and rotates/flips the image according to it's EXIF orientation.
-	 * The output is specified by the outputFormat parameter.
+	 * Resize the image such that it fits the given rendition, e.g.
+	 * {@link RenditionSpec#submission(ImageFormat)}. Also removes all EXIF data and rotates/flips
+	 * the image according to it's EXIF orientation.
 	 *
-	 * @param unsafeImageBytes  The image, as a byte array.
-	 * @param outputFormat      The output format of the resize action.
-	 * @param maxWidth          The maximum width of the image.
-	 * @param maxHeight         The maximum height of the image.
-	 * @param enlargeWhenNeeded Whether the resize action should enlarge the image when needed. If
-	 *                          false, the image will not resize the image to the given maximum
-	 *                          width and height.
+	 * @param unsafeImageBytes The image, as a byte array.
+	 * @param rendition        The rendition to create.
 	 * @return The resized image.
 	 * @throws IOException When no readers are available, or an error occurs during converting the
 	 *                     file.
 	 */
-	public byte[] resizeImage(
-			byte[] unsafeImageBytes,
-			ImageFormat outputFormat,
-			int maxWidth, int maxHeight,
-			boolean enlargeWhenNeeded) throws IOException {
-		final ImageReader imageReader = createImageReader(unsafeImageBytes);
+	public byte[] resizeImage(byte[] unsafeImageBytes, RenditionSpec rendition)
+			throws IOException {
+		return createRendition(decodeImage(unsafeImageBytes, rendition), rendition);
+	}
+
+	/**
+	 * Resize the image read from the given stream such that it fits the given rendition, like
+	 * {@link #resizeImage(byte[], RenditionSpec)}. See
+	 * {@link #decodeImage(InputStream, RenditionSpec...)} on how the stream is read.
+	 *
+	 * @param unsafeImage The image, unsanitized.
+	 * @param rendition   The rendition to create.
+	 * @return The resized image.
+	 * @throws IOException When no readers are available, or an error occurs during converting the
+	 *                     file.
+	 */
+	public byte[] resizeImage(InputStream unsafeImage, RenditionSpec rendition)
+			throws IOException {
+		return createRendition(decodeImage(unsafeImage, rendition), rendition);
+	}
+
+	/**
+	 * Decodes the given image and creates a single rendition of it, as displayed with the given
+	 * rotation. The dimensions of the rendition apply to the rotated image.
+	 *
+	 * @param image     The image, as a byte array.
+	 * @param rotation  The rotation with which the image is displayed.
+	 * @param rendition The rendition to create.
+	 * @return The encoded rendition.
+	 * @throws IOException When the image can not be decoded or the rendition can not be encoded.
+	 */
+	public byte[] createRendition(byte[] image, RotationState rotation, RenditionSpec rendition)
+			throws IOException {
+		// The image is decoded before it is rotated, so subsampling has to use the rotated box.
+		RenditionSpec decoded = rotation.isFlipXY() ? rendition.transpose() : rendition;
+		return createRendition(transformImage(decodeImage(image, decoded), rotation), rendition);
+	}
+
+	/**
+	 * Reads the dimensions of an image from its header, without decoding the image itself. Like
+	 * {@link #decodeImage(byte[], RenditionSpec...)}, the EXIF orientation is taken into account.
+	 *
+	 * @param inputStream The image.
+	 * @return A pair of integers, representing width and height.
+	 * @throws IOException When no readers are available, or the header can not be read.
+	 */
+	public Pair<Integer, Integer> readDimensions(InputStream inputStream) throws IOException {
+		try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream)) {
+			final ImageReader imageReader = createImageReader(imageInputStream);
+			try {
+				final boolean swapAxes = swapsAxes(retrieveExifOrientation(imageReader));
+				final int width = imageReader.getWidth(0);
+				final int height = imageReader.getHeight(0);
+				return swapAxes ? new Pair<>(height, width) : new Pair<>(width, height);
+			} finally {
+				imageReader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Decodes the given image once, such that multiple renditions can be created from it using
+	 * {@link #createRenditions(SourceImage, RenditionSpec...)}, without encoding and decoding the
+	 * image again in between. The image is rotated and flipped according to its EXIF orientation.
+	 * <p>
+	 * When the image is much larger than all given renditions, it is subsampled while it is
+	 * decoded, see {@link #calculateSubsampling(int, int, int, int)}. Renditions which are not
+	 * given here should therefore not be created from the decoded image.
+	 * <p>
+	 * Images with more pixels than sketchlab.image-processing.max-pixels are rejected before any
+	 * pixels are decoded.
+	 *
+	 * @param unsafeImageBytes The image, as a byte array.
+	 * @param renditions       The renditions which will be created from the decoded image.
+	 * @return The decoded image.
+	 * @throws IOException                  When no readers are available, or the image can not be
+	 *                                      decoded.
+	 * @throws UnprocessableEntityException When the image has too many pixels.
+	 */
+	public SourceImage decodeImage(byte[] unsafeImageBytes, RenditionSpec... renditions)
+			throws IOException {
+		return decodeImage(createImageReader(unsafeImageBytes), renditions);
+	}
+
+	/**
+	 * Decodes the image read from the given stream, like
+	 * {@link #decodeImage(byte[], RenditionSpec...)}. Used for uploads, which are read from the
+	 * file they are spooled to instead of from memory. The part of the stream which has been read
+	 * is cached in a temporary file by {@link ImageIO}, such that the memory used only depends on
+	 * the size of the decoded image. The given stream is not closed.
+	 *
+	 * @param unsafeImage The image, unsanitized.
+	 * @param renditions  The renditions which will be created from the decoded image.
+	 * @return The decoded image.
+	 * @throws IOException                  When no readers are available, or the image can not be
+	 *                                      decoded.
+	 * @throws UnprocessableEntityException When the image has too many pixels.
+	 */
+	public SourceImage decodeImage(InputStream unsafeImage, RenditionSpec... renditions)
+			throws IOException {
+		try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(unsafeImage)) {
+			return decodeImage(createImageReader(imageInputStream), renditions);
+		}
+	}
 
-		final ImageReadParam readParameters = determineReadParameters(imageReader);
+	/**
+	 * Decodes the image read by the given reader, see
+	 * {@link #decodeImage(byte[], RenditionSpec...)}. Disposes the reader.
+	 *
+	 * @param imageReader The reader to use.
+	 * @param renditions  The renditions which will be created from the decoded image.
+	 * @return The decoded image.
+	 * @throws IOException When the image can not be decoded.
+	 */
+	private SourceImage decodeImage(ImageReader imageReader, RenditionSpec... renditions)
+			throws IOException {
 		final Orientation orientation = retrieveExifOrientation(imageReader);
+		final boolean swapAxes = swapsAxes(orientation);
+		final int width = swapAxes ? imageReader.getHeight(0) : imageReader.getWidth(0);
+		final int height = swapAxes ? imageReader.getWidth(0) : imageReader.getHeight(0);
+		if (exceedsPixelBudget(width, height)) {
+			imageReader.dispose();
+			throw pixelBudgetExceeded(width, height);
+		}
+
+		// Determine the dimensions of all renditions from the header, such that the image can be
+		// subsampled while it is decoded instead of decoding it at full resolution. The largest
+		// rendition determines how much it can be subsampled.
+		int subsampling = renditions.length > 0 ? Integer.MAX_VALUE : 1;
+		for (RenditionSpec rendition : renditions) {
+			Pair<Integer, Integer> dimensions = rendition.calculateDimensions(width, height);
+			subsampling = Math.min(subsampling, calculateSubsampling(
+					width, height, dimensions.getFirst(), dimensions.getSecond()));
+		}
+
+		final ImageReadParam readParameters = determineReadParameters(imageReader, subsampling);
 		final BufferedImage bufferedImage = imageReaderToBufferedImage(imageReader, readParameters);
-		Pair<Integer, Integer> dimensions = calculateDimensions(bufferedImage,
-				maxWidth, maxHeight, enlargeWhenNeeded);
-		final int newWidth = dimensions.getFirst();
-		final int newHeight = dimensions.getSecond();
-
-		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-		Thumbnails
-				.of(bufferedImage)
-				.useExifOrientation(true)
-				.size(newWidth, newHeight)
-				.addFilter(ExifFilterUtils.getFilterForOrientation(orientation))
+		return new SourceImage(
+				ExifFilterUtils.getFilterForOrientation(orientation).apply(bufferedImage),
+				width, height);
+	}
+
+	/**
+	 * Checks whether an image of the given dimensions has more pixels than may be decoded.
+	 *
+	 * @param width  The width of the image.
+	 * @param height The height of the image.
+	 * @return True if the image may not be decoded, false if it may.
+	 */
+	private boolean exceedsPixelBudget(int width, int height) {
+		return (long) width * height > maxPixels;
+	}
+
+	/**
+	 * Creates the exception thrown for images which exceed the pixel budget.
+	 *
+	 * @param width  The width of the image.
+	 * @param height The height of the image.
+	 * @return The exception to throw.
+	 */
+	private UnprocessableEntityException pixelBudgetExceeded(int width, int height) {
+		return new UnprocessableEntityException(String.format(
+				"Image of %dx%d pixels exceeds the maximum of %d pixels",
+				width, height, maxPixels));
+	}
+
+	/**
+	 * Creates the given renditions from a decoded image.
+	 *
+	 * @param image      The image, as returned by {@link #decodeImage(byte[], RenditionSpec...)}.
+	 * @param renditions The renditions to create.
+	 * @return The encoded renditions, in the order they were given.
+	 * @throws IOException When a rendition can not be encoded.
+	 */
+	public List<byte[]> createRenditions(SourceImage image, RenditionSpec... renditions)
+			throws IOException {
+		List<byte[]> result = new ArrayList<>(renditions.length);
+		for (RenditionSpec rendition : renditions) {
+			result.add(createRendition(image, rendition));
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a single rendition from a decoded image.
+	 *
+	 * @param image     The image, as returned by {@link #decodeImage(byte[], RenditionSpec...)}.
+	 * @param rendition The rendition to create.
+	 * @return The encoded rendition.
+	 * @throws IOException When the rendition can not be encoded.
+	 */
+	public byte[] createRendition(SourceImage image, RenditionSpec rendition)
+			throws IOException {
+		Pair<Integer, Integer> dimensions =
+				rendition.calculateDimensions(image.getWidth(), image.getHeight());
+
+		BufferedImage resized = Thumbnails
+				.of(image.getImage())
+				.forceSize(dimensions.getFirst(), dimensions.getSecond())
 				.imageType(BufferedImage.TYPE_INT_RGB)
 				.rendering(Rendering.QUALITY)
-				.outputQuality(1.0)
-				.outputFormat(outputFormat.format)
-				.toOutputStream(outputStream);
-		return outputStream.toByteArray();
+				.asBufferedImage();
+		return encodeImage(resized, rendition.getFormat(), getProfile(rendition.getPurpose()));
+	}
+
+	/**
+	 * Combines the given thumbnails into a single sprite image, such that a page of thumbnails
+	 * can be retrieved at once. Every thumbnail gets a cell of {@link #THUMBNAIL_WIDTH} by
+	 * {@link #THUMBNAIL_HEIGHT} pixels, filled from left to right and top to bottom, in which it
+	 * is centered. Cells are not completely covered by thumbnails of another aspect ratio, the
+	 * remainder has the color of the thumbnail placeholder.
+	 *
+	 * @param thumbnails The thumbnails, in the order of their cells.
+	 * @param columns    The amount of cells per row.
+	 * @return The sprite, encoded like a thumbnail.
+	 * @throws IOException When a thumbnail can not be decoded, or the sprite can not be encoded.
+	 */
+	public byte[] createSprite(List<byte[]> thumbnails, int columns) throws IOException {
+		int rows = (thumbnails.size() + columns - 1) / columns;
+		BufferedImage sprite = new BufferedImage(columns * THUMBNAIL_WIDTH,
+				Math.max(rows, 1) * THUMBNAIL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = sprite.createGraphics();
+		try {
+			graphics.setColor(PLACEHOLDER_COLOR);
+			graphics.fillRect(0, 0, sprite.getWidth(), sprite.getHeight());
+			for (int i = 0; i < thumbnails.size(); i++) {
+				SourceImage image = decodeImage(thumbnails.get(i), THUMBNAIL);
+				Pair<Integer, Integer> dimensions =
+						THUMBNAIL.calculateDimensions(image.getWidth(), image.getHeight());
+				BufferedImage tile = Thumbnails
+						.of(image.getImage())
+						.forceSize(dimensions.getFirst(), dimensions.getSecond())
+						.imageType(BufferedImage.TYPE_INT_RGB)
+						.rendering(Rendering.QUALITY)
+						.asBufferedImage();
+				int x = (i % columns) * THUMBNAIL_WIDTH;
+				int y = (i / columns) * THUMBNAIL_HEIGHT;
+				graphics.drawImage(tile,
+						x + (THUMBNAIL_WIDTH - tile.getWidth()) / 2,
+						y + (THUMBNAIL_HEIGHT - tile.getHeight()) / 2,
+						null);
+			}
+		} finally {
+			graphics.dispose();
+		}
+		return encodeImage(sprite, THUMBNAIL_TYPE, getProfile(Purpose.THUMBNAIL));
+	}
+
+	/**
+	 * Returns the highest level of the tile pyramid of an image of the given dimensions, at which
+	 * the image has its original size. Like Deep Zoom, every level is half as large as the next
+	 * one, rounded up, and level 0 is a single pixel.
+	 *
+	 * @param width  The width of the image.
+	 * @param height The height of the image.
+	 * @return The highest level.
+	 */
+	public static int getMaxTileLevel(int width, int height) {
+		return 32 - Integer.numberOfLeadingZeros(Math.max(Math.max(width, height), 1) - 1);
+	}
+
+	/**
+	 * Returns the dimensions of an image of the given dimensions at the given level of its tile
+	 * pyramid, see {@link #getMaxTileLevel(int, int)}.
+	 *
+	 * @param width  The width of the image.
+	 * @param height The height of the image.
+	 * @param level  The level, at most the highest level.
+	 * @return A pair of integers, representing width and height.
+	 */
+	public static Pair<Integer, Integer> getTileLevelDimensions(int width, int height, int level) {
+		int scale = getMaxTileLevel(width, height) - level;
+		return new Pair<>(
+				(int) (((long) width + (1L << scale) - 1) >> scale),
+				(int) (((long) height + (1L << scale) - 1) >> scale));
+	}
+
+	/**
+	 * Creates a tile of the tile pyramid of the given image. Tiles are {@link #TILE_SIZE} pixels
+	 * wide and high, except for the tiles at the right and bottom edges of a level, and do not
+	 * overlap. Only the region of the image covered by the tile is decoded, subsampled when the
+	 * level is smaller than the image.
+	 *
+	 * @param image  The image, which must have been decoded before, as a byte array.
+	 * @param level  The level of the tile, see {@link #getMaxTileLevel(int, int)}.
+	 * @param column The column of the tile, counted from the left.
+	 * @param row    The row of the tile, counted from the top.
+	 * @param format The format to encode the tile in.
+	 * @return The encoded tile.
+	 * @throws IOException              When the image can not be decoded, or the tile can not be
+	 *                                  encoded.
+	 * @throws IllegalArgumentException When the image has no such tile.
+	 */
+	public byte[] createTile(byte[] image, int level, int column, int row, ImageFormat format)
+			throws IOException {
+		return createTile(createImageReader(image), level, column, row, format);
+	}
+
+	/**
+	 * Creates a tile of the tile pyramid of the image in the given file, like
+	 * {@link #createTile(byte[], int, int, int, ImageFormat)}. The file is read randomly, so the
+	 * image is never read into memory as a whole.
+	 *
+	 * @param image  The file of the image, which must have been decoded before.
+	 * @param level  The level of the tile, see {@link #getMaxTileLevel(int, int)}.
+	 * @param column The column of the tile, counted from the left.
+	 * @param row    The row of the tile, counted from the top.
+	 * @param format The format to encode the tile in.
+	 * @return The encoded tile.
+	 * @throws IOException              When the image can not be decoded, or the tile can not be
+	 *                                  encoded.
+	 * @throws IllegalArgumentException When the image has no such tile.
+	 */
+	public byte[] createTile(Path image, int level, int column, int row, ImageFormat format)
+			throws IOException {
+		try (ImageInputStream imageInputStream = new FileImageInputStream(image.toFile())) {
+			return createTile(createImageReader(imageInputStream), level, column, row, format);
+		}
+	}
+
+	/**
+	 * Creates a tile of the tile pyramid of the image read by the given reader, see
+	 * {@link #createTile(byte[], int, int, int, ImageFormat)}. Disposes the reader.
+	 *
+	 * @param imageReader The reader to use.
+	 * @param level       The level of the tile.
+	 * @param column      The column of the tile.
+	 * @param row         The row of the tile.
+	 * @param format      The format to encode the tile in.
+	 * @return The encoded tile.
+	 * @throws IOException When the image can not be decoded, or the tile can not be encoded.
+	 */
+	private byte[] createTile(
+			ImageReader imageReader, int level, int column, int row, ImageFormat format)
+			throws IOException {
+		int width;
+		int height;
+		try {
+			width = imageReader.getWidth(0);
+			height = imageReader.getHeight(0);
+		} catch (IOException | RuntimeException e) {
+			imageReader.dispose();
+			throw e;
+		}
+
+		int maxLevel = getMaxTileLevel(width, height);
+		if (level < 0 || level > maxLevel) {
+			imageReader.dispose();
+			throw new IllegalArgumentException("No such level: " + level);
+		}
+		Pair<Integer, Integer> levelDimensions = getTileLevelDimensions(width, height, level);
+		int x = column * TILE_SIZE;
+		int y = row * TILE_SIZE;
+		if (column < 0 || row < 0
+				|| x >= levelDimensions.getFirst() || y >= levelDimensions.getSecond()) {
+			imageReader.dispose();
+			throw new IllegalArgumentException("No such tile: " + column + ", " + row);
+		}
+		int tileWidth = Math.min(TILE_SIZE, levelDimensions.getFirst() - x);
+		int tileHeight = Math.min(TILE_SIZE, levelDimensions.getSecond() - y);
+
+		// The region of the image covered by the tile, in pixels of the image itself.
+		int scale = 1 << (maxLevel - level);
+		Rectangle region = new Rectangle(x * scale, y * scale,
+				Math.min(tileWidth * scale, width - x * scale),
+				Math.min(tileHeight * scale, height - y * scale));
+		ImageReadParam readParameters = determineReadParameters(imageReader, calculateSubsampling(
+				region.width, region.height, tileWidth, tileHeight));
+		readParameters.setSourceRegion(region);
+		BufferedImage pixels = imageReaderToBufferedImage(imageReader, readParameters);
+
+		BufferedImage tile = Thumbnails
+				.of(pixels)
+				.forceSize(tileWidth, tileHeight)
+				.imageType(BufferedImage.TYPE_INT_RGB)
+				.rendering(Rendering.QUALITY)
+				.asBufferedImage();
+		return encodeImage(tile, format, getProfile(Purpose.RESPONSIVE));
+	}
+
+	/**
+	 * Calculates the perceptual hash of a decoded image, which is about the same for images which
+	 * look the same even when they are encoded differently, e.g. resized or recompressed. The
+	 * image is scaled down to 32 by 32 pixels, of which the lowest 8 by 8 frequencies of the
+	 * luminance are determined. Every bit of the hash tells whether a frequency is above the
+	 * median, see {@link #getPerceptualDistance(long, long)} to compare hashes.
+	 *
+	 * @param image The image, as returned by {@link #decodeImage(byte[], RenditionSpec...)}.
+	 * @return The perceptual hash.
+	 * @throws IOException When the image can not be scaled down.
+	 */
+	public long createPerceptualHash(SourceImage image) throws IOException {
+		BufferedImage scaled = Thumbnails
+				.of(image.getImage())
+				.forceSize(PERCEPTUAL_HASH_SIZE, PERCEPTUAL_HASH_SIZE)
+				.imageType(BufferedImage.TYPE_INT_RGB)
+				.rendering(Rendering.QUALITY)
+				.asBufferedImage();
+		double[][] luminance = new double[PERCEPTUAL_HASH_SIZE][PERCEPTUAL_HASH_SIZE];
+		for (int y = 0; y < PERCEPTUAL_HASH_SIZE; y++) {
+			for (int x = 0; x < PERCEPTUAL_HASH_SIZE; x++) {
+				int rgb = scaled.getRGB(x, y);
+				luminance[y][x] = 0.299 * ((rgb >> 16) & 0xFF)
+						+ 0.587 * ((rgb >> 8) & 0xFF)
+						+ 0.114 * (rgb & 0xFF);
+			}
+		}
+
+		// Two dimensional DCT of the lowest frequencies, as rows followed by columns.
+		double[][] rows = new double[PERCEPTUAL_HASH_SIZE][PERCEPTUAL_HASH_FREQUENCIES];
+		for (int y = 0; y < PERCEPTUAL_HASH_SIZE; y++) {
+			for (int u = 0; u < PERCEPTUAL_HASH_FREQUENCIES; u++) {
+				for (int x = 0; x < PERCEPTUAL_HASH_SIZE; x++) {
+					rows[y][u] += luminance[y][x] * PERCEPTUAL_HASH_COSINES[u][x];
+				}
+			}
+		}
+		double[] frequencies =
+				new double[PERCEPTUAL_HASH_FREQUENCIES * PERCEPTUAL_HASH_FREQUENCIES];
+		for (int v = 0; v < PERCEPTUAL_HASH_FREQUENCIES; v++) {
+			for (int u = 0; u < PERCEPTUAL_HASH_FREQUENCIES; u++) {
+				for (int y = 0; y < PERCEPTUAL_HASH_SIZE; y++) {
+					frequencies[v * PERCEPTUAL_HASH_FREQUENCIES + u] +=
+							rows[y][u] * PERCEPTUAL_HASH_COSINES[v][y];
+				}
+			}
+		}
+
+		// The first frequency is the mean brightness, which would dominate the median.
+		double[] sorted = Arrays.copyOfRange(frequencies, 1, frequencies.length);
+		Arrays.sort(sorted);
+		double median = sorted[sorted.length / 2];
+		long hash = 0;
+		for (double frequency : frequencies) {
+			hash = (hash << 1) | (frequency > median ? 1 : 0);
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the amount of bits in which two perceptual hashes differ. Images with a distance of
+	 * at most {@link #MAX_PERCEPTUAL_DISTANCE} are considered the same.
+	 *
+	 * @param first  The first hash, as returned by {@link #createPerceptualHash(SourceImage)}.
+	 * @param second The second hash.
+	 * @return The distance between the hashes, between 0 and 64.
+	 */
+	public static int getPerceptualDistance(long first, long second) {
+		return Long.bitCount(first ^ second);
+	}
+
+	/**
+	 * Creates the cosines of the DCT used for perceptual hashes, by frequency and position.
+	 *
+	 * @return The cosines.
+	 */
+	private static double[][] createCosines() {
+		double[][] cosines = new double[PERCEPTUAL_HASH_FREQUENCIES][PERCEPTUAL_HASH_SIZE];
+		for (int u = 0; u < PERCEPTUAL_HASH_FREQUENCIES; u++) {
+			for (int x = 0; x < PERCEPTUAL_HASH_SIZE; x++) {
+				cosines[u][x] = Math.cos((2 * x + 1) * u * Math.PI / (2 * PERCEPTUAL_HASH_SIZE));
+			}
+		}
+		return cosines;
+	}
+
+	/**
+	 * Encodes an image in the given format using the given encoder profile.
+	 *
+	 * @param image   The image to encode.
+	 * @param format  The format to encode the image in.
+	 * @param profile The settings of the encoder.
+	 * @return The encoded image.
+	 * @throws IOException When no writer supports the format, or the image can not be encoded.
+	 */
+	private static byte[] encodeImage(BufferedImage image, ImageFormat format, Profile profile)
+			throws IOException {
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByMIMEType(format.getMimeType());
+		if (!writers.hasNext()) {
+			throw new IOException("No writer available for " + format);
+		}
+		ImageWriter writer = writers.next();
+		try {
+			ImageWriteParam parameters = writer.getDefaultWriteParam();
+			if (parameters.canWriteCompressed()) {
+				parameters.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				if (parameters.getCompressionTypes() != null) {
+					// The first compression type is the lossy one for JPEG.
+					parameters.setCompressionType(parameters.getCompressionTypes()[0]);
+				}
+				if (!parameters.isCompressionLossless()) {
+					parameters.setCompressionQuality(profile.getQuality());
+				}
+			}
+			if (profile.isProgressive() && parameters.canWriteProgressive()) {
+				parameters.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+			}
+			if (parameters instanceof JPEGImageWriteParam) {
+				((JPEGImageWriteParam) parameters)
+						.setOptimizeHuffmanTables(profile.isOptimizeHuffman());
+			}
+			IIOMetadata metadata = profile.isChromaSubsampling()
+					? null
+					: createFullChromaMetadata(writer, image, parameters);
+
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			try (ImageOutputStream imageOutputStream =
+					ImageIO.createImageOutputStream(outputStream)) {
+				writer.setOutput(imageOutputStream);
+				writer.write(null, new IIOImage(image, null, metadata), parameters);
+			}
+			return outputStream.toByteArray();
+		} finally {
+			writer.dispose();
+		}
+	}
+
+	/**
+	 * Creates the metadata of a JPEG image which stores its color at full resolution, as the JPEG
+	 * writer subsamples the color of RGB images by default.
+	 *
+	 * @param writer     The writer which writes the image.
+	 * @param image      The image to write.
+	 * @param parameters The parameters the image is written with.
+	 * @return The metadata, or null if the writer does not write JPEG images.
+	 * @throws IOException When the metadata can not be modified.
+	 */
+	private static IIOMetadata createFullChromaMetadata(
+			ImageWriter writer, BufferedImage image, ImageWriteParam parameters)
+			throws IOException {
+		IIOMetadata metadata =
+				writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), parameters);
+		if (metadata == null || !JPEG_METADATA_FORMAT.equals(
+				metadata.getNativeMetadataFormatName())) {
+			return null;
+		}
+		Node tree = metadata.getAsTree(JPEG_METADATA_FORMAT);
+		NodeList components = ((Element) tree).getElementsByTagName("componentSpec");
+		for (int i = 0; i < components.getLength(); i++) {
+			Element component = (Element) components.item(i);
+			component.setAttribute("HsamplingFactor", "1");
+			component.setAttribute("VsamplingFactor", "1");
+		}
+		metadata.setFromTree(JPEG_METADATA_FORMAT, tree);
+		return metadata;
+	}
+
+	/**
+	 * Returns the configured encoder profile for renditions of the given purpose.
+	 *
+	 * @param purpose The purpose of the rendition.
+	 * @return The {@link Profile}.
+	 */
+	private Profile getProfile(Purpose purpose) {
+		switch (purpose) {
+			case THUMBNAIL:
+				return encoder.getThumbnail();
+			case AVATAR:
+				return encoder.getAvatar();
+			case SUBMISSION:
+				return encoder.getSubmission();
+			case RESPONSIVE:
+				return encoder.getResponsive();
+			default:
+				return encoder.getOriginal();
+		}
 	}
 
 	/**
@@ -173,25 +837,31 @@ public class ImageService {
 	 *
 	 * @param unsafeImageBytes The byte array to convert.
 	 * @return An {@link ImageReader} instance.
-	 * @throws IOException When a problem is encountered while reading the byte array.
-	 */
-	private static ImageReader createImageReader(byte[] unsafeImageBytes) throws IOException {
-		try (final InputStream inputStream = new ByteArrayInputStream(unsafeImageBytes)) {
-			// Try to find an image reader which can read the given image.
-			final ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream);
-			final Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
-			if (!readers.hasNext()) {
-				throw new IllegalArgumentException("No suitable readers for this image");
-			}
+	 */
+	private static ImageReader createImageReader(byte[] unsafeImageBytes) {
+		return createImageReader(new ByteArrayImageInputStream(unsafeImageBytes));
+	}
 
-			// It is possible we found multiple readers, however they will all produce the same
-			// result. Therefore, just pick the first one.
-			final ImageReader reader = readers.next();
+	/**
+	 * Creates an {@link ImageReader} reading from the given {@link ImageInputStream}.
+	 *
+	 * @param imageInputStream The stream to read.
+	 * @return An {@link ImageReader} instance.
+	 */
+	private static ImageReader createImageReader(ImageInputStream imageInputStream) {
+		// Try to find an image reader which can read the given image.
+		final Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
+		if (!readers.hasNext()) {
+			throw new IllegalArgumentException("No suitable readers for this image");
+		}
 
-			reader.setInput(imageInputStream);
+		// It is possible we found multiple readers, however they will all produce the same
+		// result. Therefore, just pick the first one.
+		final ImageReader reader = readers.next();
 
-			return reader;
-		}
+		reader.setInput(imageInputStream);
+
+		return reader;
 	}
 
 	/**
@@ -221,6 +891,46 @@ public class ImageService {
 		return param;
 	}
 
+	/**
+	 * Determines the read parameters for the given {@link ImageReader} like
+	 * {@link #determineReadParameters(ImageReader)}, additionally subsampling the image while it
+	 * is decoded. This way, the memory and time needed to decode an image scale with the size it
+	 * is resized to, instead of with the size of the upload.
+	 *
+	 * @param reader      The reader to determine the parameters for.
+	 * @param subsampling The subsampling factor, see
+	 *                    {@link #calculateSubsampling(int, int, int, int)}.
+	 * @return An {@link ImageReadParam} instance.
+	 */
+	private static ImageReadParam determineReadParameters(ImageReader reader, int subsampling) {
+		final ImageReadParam param = determineReadParameters(reader);
+		if (subsampling > 1) {
+			param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+		}
+		return param;
+	}
+
+	/**
+	 * Calculates the largest subsampling factor with which an image of the given source
+	 * dimensions can be decoded, while still being at least {@link #MIN_OVERSAMPLING} times as
+	 * large as the given target dimensions in both directions.
+	 *
+	 * @param sourceWidth  The width of the image.
+	 * @param sourceHeight The height of the image.
+	 * @param targetWidth  The width the image will be resized to.
+	 * @param targetHeight The height the image will be resized to.
+	 * @return The subsampling factor, 1 when the image should not be subsampled.
+	 */
+	static int calculateSubsampling(
+			int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+		if (targetWidth <= 0 || targetHeight <= 0) {
+			return 1;
+		}
+		return Math.max(1, Math.min(
+				sourceWidth / (MIN_OVERSAMPLING * targetWidth),
+				sourceHeight / (MIN_OVERSAMPLING * targetHeight)));
+	}
+
 	/**
 	 * Parse EXIF information for the given {@link ImageReader} and return the set orientation.
 	 * When no such EXIF data is present, return the default orientation (1/TOP_LEFT)
@@ -238,24 +948,54 @@ public class ImageService {
 	}
 
 	/**
-	 * Calculates new dimensions for the given {@link BufferedImage} based on the given maximum
+	 * Reads the EXIF orientation of the given image, without decoding the image itself.
+	 *
+	 * @param unsafeImageBytes The image, as a byte array.
+	 * @return The orientation, 1/TOP_LEFT when not present.
+	 * @throws IOException When the image can not be read.
+	 */
+	private static Orientation readExifOrientation(byte[] unsafeImageBytes) throws IOException {
+		final ImageReader imageReader = createImageReader(unsafeImageBytes);
+		try {
+			return retrieveExifOrientation(imageReader);
+		} finally {
+			imageReader.dispose();
+		}
+	}
+
+	/**
+	 * Checks whether the given EXIF orientation swaps the width and height of an image.
+	 *
+	 * @param orientation The orientation, may be null.
+	 * @return True if the image is rotated by 90 degrees, false if not.
+	 */
+	private static boolean swapsAxes(Orientation orientation) {
+		return orientation == Orientation.LEFT_TOP
+				|| orientation == Orientation.RIGHT_TOP
+				|| orientation == Orientation.RIGHT_BOTTOM
+				|| orientation == Orientation.LEFT_BOTTOM;
+	}
+
+	/**
+	 * Calculates new dimensions for an image of the given dimensions based on the given maximum
 	 * width and -height. When enlargeWhenNeeded is false, will not create dimensions larger
 	 * than the already present width and height. When set to true, will also enlarge the image.
 	 * Will always take the original aspectratio into account.
 	 *
-	 * @param in                The {@link BufferedImage} to determine new dimensions for.
+	 * @param width             The original width of the image.
+	 * @param height            The original height of the image.
 	 * @param maxWidth          The new maximum width
 	 * @param maxHeight         The new maximum height
 	 * @param enlargeWhenNeeded True when the new dimensions may be larger than the original
 	 *                          dimensions. False if the new dimensions should be smaller.
 	 * @return A pair of integers, representing width and height.
 	 */
-	private static Pair<Integer, Integer> calculateDimensions(BufferedImage in,
-															  int maxWidth, int maxHeight,
-															  boolean enlargeWhenNeeded) {
+	static Pair<Integer, Integer> calculateDimensions(int width, int height,
+													  int maxWidth, int maxHeight,
+													  boolean enlargeWhenNeeded) {
 		//Start with the original width and height
-		int newWidth = in.getWidth();
-		int newHeight = in.getHeight();
+		int newWidth = width;
+		int newHeight = height;
 		//Only resize when either the image should be enlarged or when the image is too big.
 		if (enlargeWhenNeeded || newWidth > maxWidth || newHeight > maxHeight) {
 			double outAspect = 1.0 * maxWidth / maxHeight;
@@ -272,32 +1012,201 @@ public class ImageService {
 	}
 
 	/**
-	 * Transforms an image based on the given {@link Transformation} value.
+	 * Rotates and flips an image such that it ends up in the given {@link RotationState}. JPEG
+	 * images are transformed losslessly using {@link LosslessJpegTransform} when possible, all
+	 * other images are decoded, transformed and encoded again.
 	 *
-	 * @param image          The image to transform.
-	 * @param transformation The transformation to perform.
-	 * @param outputFormat   The output format for the transformed image.
+	 * @param image        The image, in its original state.
+	 * @param rotation     The state to bring the image in.
+	 * @param outputFormat The output format for the transformed image.
 	 * @return The transformed image.
 	 * @throws IOException When the given image can not be read.
 	 */
-	public byte[] transformImage(byte[] image, Transformation transformation, String outputFormat)
+	public byte[] transformImage(byte[] image, RotationState rotation, ImageFormat outputFormat)
 			throws IOException {
-		final ImageReader reader = createImageReader(image);
-		final ImageReadParam parameters = determineReadParameters(reader);
-		final BufferedImage bufferedImage = imageReaderToBufferedImage(reader, parameters);
+		if (outputFormat == ImageFormat.JPG) {
+			// The EXIF orientation is removed from the transformed image, so it is applied first.
+			RotationState state = RotationState.ofOrientation(readExifOrientation(image));
+			for (Transformation transformation : rotation.getTransformations()) {
+				state = state.transform(transformation);
+			}
+			byte[] transformed = LosslessJpegTransform.transform(image, state.getTransformations());
+			if (transformed != null) {
+				return transformed;
+			}
+		}
+		return transformPixels(image, rotation, outputFormat);
+	}
 
-		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+	/**
+	 * Rotates and flips an image like {@link #transformImage(byte[], RotationState, ImageFormat)},
+	 * by decoding the image, transforming its pixels and encoding it again.
+	 *
+	 * @param image        The image, in its original state.
+	 * @param rotation     The state to bring the image in.
+	 * @param outputFormat The output format for the transformed image.
+	 * @return The transformed image.
+	 * @throws IOException When the given image can not be read.
+	 */
+	byte[] transformPixels(byte[] image, RotationState rotation, ImageFormat outputFormat)
+			throws IOException {
+		RenditionSpec original = RenditionSpec.original(outputFormat);
+		return createRendition(transformImage(decodeImage(image, original), rotation), original);
+	}
 
-		Thumbnails
-				.of(bufferedImage)
-				.addFilter(transformation.filter)
-				.scale(1.0)
-				.rendering(Rendering.QUALITY)
-				.outputQuality(1.0)
-				.outputFormat(outputFormat)
-				.toOutputStream(outputStream);
+	/**
+	 * Rotates and flips a decoded image such that it ends up in the given {@link RotationState}.
+	 *
+	 * @param image    The image, in its original state.
+	 * @param rotation The state to bring the image in.
+	 * @return The transformed image.
+	 */
+	public SourceImage transformImage(SourceImage image, RotationState rotation) {
+		SourceImage transformed = image;
+		for (Transformation transformation : rotation.getTransformations()) {
+			transformed = transformImage(transformed, transformation);
+		}
+		return transformed;
+	}
+
+	/**
+	 * Transforms a decoded image based on the given {@link Transformation} value.
+	 *
+	 * @param image          The image to transform.
+	 * @param transformation The transformation to perform.
+	 * @return The transformed image.
+	 */
+	public SourceImage transformImage(SourceImage image, Transformation transformation) {
+		BufferedImage transformed = transformation.getFilter().apply(image.getImage());
+		boolean rotated = transformation == Transformation.ROTATE_CLOCKWISE
+				|| transformation == Transformation.ROTATE_COUNTERCLOCKWISE;
+		return rotated
+				? new SourceImage(transformed, image.getHeight(), image.getWidth())
+				: new SourceImage(transformed, image.getWidth(), image.getHeight());
+	}
+
+	/**
+	 * An image decoded by {@link #decodeImage(byte[], RenditionSpec...)}. As the image may have
+	 * been subsampled while decoding, the dimensions of the original image are kept as well, such
+	 * that renditions get the exact same dimensions regardless of subsampling.
+	 *
+	 * @author Jelle Stege
+	 */
+	@AllArgsConstructor
+	@Getter
+	public static final class SourceImage {
+		/**
+		 * The decoded pixels, possibly subsampled.
+		 */
+		private final BufferedImage image;
+		/**
+		 * The width of the original image.
+		 */
+		private final int width;
+		/**
+		 * The height of the original image.
+		 */
+		private final int height;
+	}
+
+	/**
+	 * Describes a rendition of an image: the box it is resized to and the format it is encoded in.
+	 *
+	 * @author Jelle Stege
+	 */
+	@AllArgsConstructor
+	@Getter
+	public static final class RenditionSpec {
+		/**
+		 * The maximum width of the rendition.
+		 */
+		private final int maxWidth;
+		/**
+		 * The maximum height of the rendition.
+		 */
+		private final int maxHeight;
+		/**
+		 * Whether images smaller than the maximum dimensions are enlarged.
+		 */
+		private final boolean enlargeWhenNeeded;
+		/**
+		 * The format the rendition is encoded in.
+		 */
+		private final ImageFormat format;
+		/**
+		 * What the rendition is used for, which determines the settings it is encoded with.
+		 */
+		private final Purpose purpose;
+
+		/**
+		 * Returns the rendition of an image stored for a submission, which has the given format.
+		 *
+		 * @param format The format of the image.
+		 * @return The {@link RenditionSpec}.
+		 */
+		public static RenditionSpec submission(ImageFormat format) {
+			return new RenditionSpec(MAX_SUBMISSION_WIDTH, MAX_SUBMISSION_HEIGHT, false, format,
+					Purpose.SUBMISSION);
+		}
+
+		/**
+		 * Returns the rendition of the given width, which is used to serve images on smaller
+		 * screens. Images which are narrower already keep their dimensions.
+		 *
+		 * @param width  The width of the rendition.
+		 * @param format The format of the image.
+		 * @return The {@link RenditionSpec}.
+		 */
+		public static RenditionSpec width(int width, ImageFormat format) {
+			return new RenditionSpec(width, Integer.MAX_VALUE, false, format, Purpose.RESPONSIVE);
+		}
+
+		/**
+		 * Returns the rendition which keeps the dimensions of the image.
+		 *
+		 * @param format The format to encode the image in.
+		 * @return The {@link RenditionSpec}.
+		 */
+		public static RenditionSpec original(ImageFormat format) {
+			return new RenditionSpec(Integer.MAX_VALUE, Integer.MAX_VALUE, false, format,
+					Purpose.ORIGINAL);
+		}
+
+		/**
+		 * Calculates the dimensions of this rendition for an image of the given dimensions.
+		 *
+		 * @param width  The width of the image.
+		 * @param height The height of the image.
+		 * @return A pair of integers, representing width and height.
+		 */
+		Pair<Integer, Integer> calculateDimensions(int width, int height) {
+			return ImageService.calculateDimensions(
+					width, height, maxWidth, maxHeight, enlargeWhenNeeded);
+		}
+
+		/**
+		 * Returns this rendition with its maximum width and height swapped, which is the box an
+		 * image has to fit in before it is rotated by 90 degrees.
+		 *
+		 * @return The transposed {@link RenditionSpec}.
+		 */
+		RenditionSpec transpose() {
+			return new RenditionSpec(maxHeight, maxWidth, enlargeWhenNeeded, format, purpose);
+		}
+	}
 
-		return outputStream.toByteArray();
+	/**
+	 * What a rendition is used for. Each purpose has its own encoder profile in the
+	 * sketchlab.encoder properties, see {@link SketchlabPropertiesMapper.Encoder}.
+	 *
+	 * @author Jelle Stege
+	 */
+	public enum Purpose {
+		THUMBNAIL,
+		AVATAR,
+		SUBMISSION,
+		RESPONSIVE,
+		ORIGINAL
 	}
 
 	/**
@@ -364,10 +1273,26 @@ public class ImageService {
 		ROT270(false, true, true),
 		ROT270_FLIPPED(false, false, true);
 
+		/**
+		 * The shortest sequence of transformations leading from {@link #ROT0} to every state.
+		 */
+		private static final Map<RotationState, List<Transformation>> TRANSFORMATIONS =
+				findTransformations();
+
 		private final boolean invertX;
 		private final boolean invertY;
 		private final boolean flipXY;
 
+		/**
+		 * Returns the transformations which bring an image in its original state, i.e.
+		 * {@link #ROT0}, into this state.
+		 *
+		 * @return The transformations to apply in order.
+		 */
+		public List<Transformation> getTransformations() {
+			return TRANSFORMATIONS.get(this);
+		}
+
 		/**
 		 * Transform a rotation based on the given transformation.
 		 *
@@ -397,6 +1322,37 @@ public class ImageService {
 			throw new IllegalStateException("Moved through entire state space, impossible.");
 		}
 
+		/**
+		 * Returns the {@link RotationState} an image ends up in when the given EXIF orientation is
+		 * applied to it, see {@link ExifFilterUtils#getFilterForOrientation(Orientation)}.
+		 *
+		 * @param orientation The EXIF orientation, may be null.
+		 * @return The corresponding {@link RotationState}.
+		 */
+		public static RotationState ofOrientation(Orientation orientation) {
+			if (orientation == null) {
+				return ROT0;
+			}
+			switch (orientation) {
+				case TOP_RIGHT:
+					return ROT0_FLIPPED;
+				case BOTTOM_RIGHT:
+					return ROT180;
+				case BOTTOM_LEFT:
+					return ROT180_FLIPPED;
+				case LEFT_TOP:
+					return ROT270_FLIPPED;
+				case RIGHT_TOP:
+					return ROT90;
+				case RIGHT_BOTTOM:
+					return ROT90_FLIPPED;
+				case LEFT_BOTTOM:
+					return ROT270;
+				default:
+					return ROT0;
+			}
+		}
+
 		/**
 		 * Returns a {@link RotationState} based on the given state.
 		 *
@@ -420,5 +1376,31 @@ public class ImageService {
 				}
 			}
 		}
+
+		/**
+		 * Finds the shortest sequence of transformations leading to every state, by searching
+		 * breadth first from {@link #ROT0}.
+		 *
+		 * @return The transformations per state.
+		 */
+		private static Map<RotationState, List<Transformation>> findTransformations() {
+			Map<RotationState, List<Transformation>> found = new EnumMap<>(RotationState.class);
+			Deque<RotationState> queue = new ArrayDeque<>();
+			found.put(ROT0, Collections.emptyList());
+			queue.add(ROT0);
+			while (!queue.isEmpty()) {
+				RotationState state = queue.remove();
+				for (Transformation transformation : Transformation.values()) {
+					RotationState next = state.transform(transformation);
+					if (!found.containsKey(next)) {
+						List<Transformation> path = new ArrayList<>(found.get(state));
+						path.add(transformation);
+						found.put(next, Collections.unmodifiableList(path));
+						queue.add(next);
+					}
+				}
+			}
+			return found;
+		}
 	}
 }
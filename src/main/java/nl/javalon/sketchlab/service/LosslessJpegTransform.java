@@ -0,0 +1,1075 @@
+package nl.javalon.sketchlab.service;
+
+import nl.javalon.sketchlab.service.ImageService.Transformation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rotates and flips JPEG images without decoding them to pixels, like jpegtran does. Instead of
+ * decoding, transforming and encoding the pixels, which is slow and loses quality every time, the
+ * quantized DCT coefficients of the image are rearranged: flipping mirrors the blocks and negates
+ * their odd frequencies, rotating additionally transposes the blocks and quantization tables. The
+ * result is encoded with optimized Huffman tables, such that its size stays close to that of the
+ * original.
+ * <p>
+ * Only baseline JPEG images consisting of a single scan are supported. Moreover, an image can only
+ * be mirrored along an axis when its size in that direction is a multiple of the MCU size, as the
+ * partial MCU at the right or bottom edge would otherwise end up at the left or top edge. Other
+ * images have to be transformed using their pixels instead.
+ * <p>
+ * The APP1 segments of the image, containing its EXIF and XMP metadata, are removed, as the
+ * orientation stored in them no longer applies to the transformed image. All other application
+ * segments and comments are kept.
+ *
+ * @author Jelle Stege
+ */
+final class LosslessJpegTransform {
+	private static final int SOF0 = 0xFFC0;
+	private static final int SOF1 = 0xFFC1;
+	private static final int DHT = 0xFFC4;
+	private static final int RST0 = 0xFFD0;
+	private static final int RST7 = 0xFFD7;
+	private static final int SOI = 0xFFD8;
+	private static final int EOI = 0xFFD9;
+	private static final int SOS = 0xFFDA;
+	private static final int DQT = 0xFFDB;
+	private static final int DRI = 0xFFDD;
+	private static final int APP0 = 0xFFE0;
+	private static final int APP1 = 0xFFE1;
+	private static final int APP15 = 0xFFEF;
+	private static final int COM = 0xFFFE;
+
+	/**
+	 * The index in a block in natural order of each coefficient in zigzag order.
+	 */
+	private static final int[] ZIGZAG = {
+			0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+			12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+			35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+			58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+	};
+
+	private final byte[] data;
+	private final List<Transformation> transformations;
+
+	/**
+	 * The application segments and comments to copy to the transformed image, including markers.
+	 */
+	private final List<byte[]> segments = new ArrayList<>();
+	/**
+	 * The quantization tables in natural order, null when not defined.
+	 */
+	private final int[][] quantizationTables = new int[4][];
+	private final int[] quantizationPrecisions = new int[4];
+	private final HuffmanDecoder[] dcDecoders = new HuffmanDecoder[4];
+	private final HuffmanDecoder[] acDecoders = new HuffmanDecoder[4];
+
+	private int frameMarker;
+	private int width;
+	private int height;
+	private int maxHorizontalSampling;
+	private int maxVerticalSampling;
+	private int restartInterval;
+	private Component[] components;
+
+	// State of the entropy decoder.
+	private int position;
+	private long bitBuffer;
+	private int bitCount;
+	private boolean markerReached;
+
+	// State of the entropy encoder, the output is null while counting symbol frequencies only.
+	private ByteArrayOutputStream output;
+
+	private LosslessJpegTransform(byte[] data, List<Transformation> transformations) {
+		this.data = data;
+		this.transformations = transformations;
+	}
+
+	/**
+	 * Applies the given transformations to the given JPEG image, without decoding it to pixels.
+	 *
+	 * @param jpeg            The JPEG image.
+	 * @param transformations The transformations to apply in order.
+	 * @return The transformed JPEG image, or null when the image can not be transformed losslessly,
+	 * for instance because it is progressive, malformed or its size is not a multiple of the MCU
+	 * size along a mirrored axis.
+	 */
+	static byte[] transform(byte[] jpeg, List<Transformation> transformations) {
+		LosslessJpegTransform transform = new LosslessJpegTransform(jpeg, transformations);
+		try {
+			if (!transform.read()) {
+				return null;
+			}
+		} catch (IOException e) {
+			return null;
+		}
+		for (Transformation transformation : transformations) {
+			transform.apply(transformation);
+		}
+		return transform.write();
+	}
+
+	/**
+	 * Checks whether the given transformations can be applied to the image without ending up
+	 * with a partial MCU at the left or top edge.
+	 *
+	 * @return True if all transformations can be applied losslessly, false if not.
+	 */
+	private boolean isAligned() {
+		int currentWidth = width;
+		int currentHeight = height;
+		int mcuWidth = 8 * maxHorizontalSampling;
+		int mcuHeight = 8 * maxVerticalSampling;
+		for (Transformation transformation : transformations) {
+			boolean rotate = transformation == Transformation.ROTATE_CLOCKWISE
+					|| transformation == Transformation.ROTATE_COUNTERCLOCKWISE;
+			if (rotate) {
+				int swap = currentWidth;
+				currentWidth = currentHeight;
+				currentHeight = swap;
+				swap = mcuWidth;
+				mcuWidth = mcuHeight;
+				mcuHeight = swap;
+			}
+			boolean flipsX = transformation == Transformation.ROTATE_CLOCKWISE
+					|| transformation == Transformation.FLIP_HORIZONTAL;
+			if (flipsX && currentWidth % mcuWidth != 0) {
+				return false;
+			}
+			if (!flipsX && currentHeight % mcuHeight != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parses the image and decodes its coefficients.
+	 *
+	 * @return True if the image has been decoded, false if it is not supported.
+	 * @throws IOException When the image is malformed.
+	 */
+	private boolean read() throws IOException {
+		if (readShort(0) != SOI) {
+			return false;
+		}
+		int offset = 2;
+		boolean scanned = false;
+		while (true) {
+			if (readByte(offset) != 0xFF) {
+				throw new IOException("Expected a marker at offset " + offset);
+			}
+			while (readByte(offset) == 0xFF) {
+				offset++;
+			}
+			int marker = 0xFF00 | readByte(offset++);
+			if (marker == EOI) {
+				return scanned;
+			}
+
+			int start = offset + 2;
+			int end = offset + readShort(offset);
+			if (end > data.length || end < start) {
+				throw new EOFException("Segment exceeds the image");
+			}
+			if (marker == SOF0 || marker == SOF1) {
+				if (components != null || !readFrame(marker, start)) {
+					return false;
+				}
+			} else if (marker == DHT) {
+				readHuffmanTables(start, end);
+			} else if (marker == DQT) {
+				readQuantizationTables(start, end);
+			} else if (marker == DRI) {
+				restartInterval = readShort(start);
+			} else if (marker == SOS) {
+				if (scanned || components == null || !readScanHeader(start) || !isAligned()) {
+					return false;
+				}
+				end = decodeScan(end);
+				scanned = true;
+			} else if (marker == COM || (marker >= APP0 && marker <= APP15)) {
+				if (marker != APP1) {
+					segments.add(Arrays.copyOfRange(data, offset - 2, end));
+				}
+			} else {
+				// Progressive, lossless or arithmetic coded images, or unknown markers.
+				return false;
+			}
+			offset = end;
+		}
+	}
+
+	/**
+	 * Parses a baseline or extended sequential frame header.
+	 *
+	 * @param marker The marker of the frame header.
+	 * @param offset The offset of the frame header, after its length.
+	 * @return True if the frame is supported, false if not.
+	 * @throws IOException When the frame header is malformed.
+	 */
+	private boolean readFrame(int marker, int offset) throws IOException {
+		if (readByte(offset) != 8) {
+			return false;
+		}
+		frameMarker = marker;
+		height = readShort(offset + 1);
+		width = readShort(offset + 3);
+		int count = readByte(offset + 5);
+		if (width == 0 || height == 0 || count < 1 || count > 4) {
+			return false;
+		}
+
+		components = new Component[count];
+		maxHorizontalSampling = 1;
+		maxVerticalSampling = 1;
+		for (int i = 0; i < count; i++) {
+			int componentOffset = offset + 6 + 3 * i;
+			Component component = new Component();
+			component.id = readByte(componentOffset);
+			component.horizontalSampling = readByte(componentOffset + 1) >> 4;
+			component.verticalSampling = readByte(componentOffset + 1) & 0x0F;
+			component.quantizationTable = readByte(componentOffset + 2);
+			if (component.horizontalSampling < 1 || component.horizontalSampling > 4
+					|| component.verticalSampling < 1 || component.verticalSampling > 4
+					|| component.quantizationTable > 3) {
+				return false;
+			}
+			if (count == 1) {
+				// A single component is never interleaved, so its MCU is a single block.
+				component.horizontalSampling = 1;
+				component.verticalSampling = 1;
+			}
+			maxHorizontalSampling = Math.max(maxHorizontalSampling, component.horizontalSampling);
+			maxVerticalSampling = Math.max(maxVerticalSampling, component.verticalSampling);
+			components[i] = component;
+		}
+
+		int mcusWide = ceilDivide(width, 8 * maxHorizontalSampling);
+		int mcusHigh = ceilDivide(height, 8 * maxVerticalSampling);
+		for (Component component : components) {
+			component.blocksWide = mcusWide * component.horizontalSampling;
+			component.blocksHigh = mcusHigh * component.verticalSampling;
+			component.coefficients = new short[component.blocksWide * component.blocksHigh * 64];
+		}
+		return true;
+	}
+
+	/**
+	 * Parses a segment defining Huffman tables.
+	 *
+	 * @param offset The offset of the tables, after the length of the segment.
+	 * @param end    The end of the segment.
+	 * @throws IOException When the tables are malformed.
+	 */
+	private void readHuffmanTables(int offset, int end) throws IOException {
+		while (offset < end) {
+			int tableClass = readByte(offset) >> 4;
+			int id = readByte(offset) & 0x0F;
+			if (tableClass > 1 || id > 3) {
+				throw new IOException("Invalid Huffman table " + tableClass + "/" + id);
+			}
+			int[] counts = new int[17];
+			int total = 0;
+			for (int length = 1; length <= 16; length++) {
+				counts[length] = readByte(offset + length);
+				total += counts[length];
+			}
+			int[] symbols = new int[total];
+			for (int i = 0; i < total; i++) {
+				symbols[i] = readByte(offset + 17 + i);
+			}
+			HuffmanDecoder decoder = new HuffmanDecoder(counts, symbols);
+			if (tableClass == 0) {
+				dcDecoders[id] = decoder;
+			} else {
+				acDecoders[id] = decoder;
+			}
+			offset += 17 + total;
+		}
+	}
+
+	/**
+	 * Parses a segment defining quantization tables.
+	 *
+	 * @param offset The offset of the tables, after the length of the segment.
+	 * @param end    The end of the segment.
+	 * @throws IOException When the tables are malformed.
+	 */
+	private void readQuantizationTables(int offset, int end) throws IOException {
+		while (offset < end) {
+			int precision = readByte(offset) >> 4;
+			int id = readByte(offset) & 0x0F;
+			if (precision > 1 || id > 3) {
+				throw new IOException("Invalid quantization table " + precision + "/" + id);
+			}
+			int[] table = new int[64];
+			for (int k = 0; k < 64; k++) {
+				table[ZIGZAG[k]] = precision == 0
+						? readByte(offset + 1 + k)
+						: readShort(offset + 1 + 2 * k);
+			}
+			quantizationTables[id] = table;
+			quantizationPrecisions[id] = precision;
+			offset += 1 + 64 * (precision + 1);
+		}
+	}
+
+	/**
+	 * Parses a scan header. Only scans containing all components of the image in frame order,
+	 * with the full spectrum and no successive approximation, are supported.
+	 *
+	 * @param offset The offset of the scan header, after its length.
+	 * @return True if the scan is supported, false if not.
+	 * @throws IOException When the scan header is malformed.
+	 */
+	private boolean readScanHeader(int offset) throws IOException {
+		if (readByte(offset) != components.length) {
+			return false;
+		}
+		for (int i = 0; i < components.length; i++) {
+			Component component = components[i];
+			int componentOffset = offset + 1 + 2 * i;
+			int dcTable = readByte(componentOffset + 1) >> 4;
+			int acTable = readByte(componentOffset + 1) & 0x0F;
+			if (readByte(componentOffset) != component.id || dcTable > 3 || acTable > 3
+					|| dcDecoders[dcTable] == null || acDecoders[acTable] == null
+					|| quantizationTables[component.quantizationTable] == null) {
+				return false;
+			}
+			component.dcDecoder = dcDecoders[dcTable];
+			component.acDecoder = acDecoders[acTable];
+		}
+		int spectralOffset = offset + 1 + 2 * components.length;
+		return readByte(spectralOffset) == 0
+				&& readByte(spectralOffset + 1) == 63
+				&& readByte(spectralOffset + 2) == 0;
+	}
+
+	/**
+	 * Decodes the coefficients of all blocks in the scan.
+	 *
+	 * @param offset The offset of the entropy coded data.
+	 * @return The offset of the first marker after the entropy coded data.
+	 * @throws IOException When the entropy coded data is malformed.
+	 */
+	private int decodeScan(int offset) throws IOException {
+		position = offset;
+		int mcusWide = ceilDivide(width, 8 * maxHorizontalSampling);
+		int mcusHigh = ceilDivide(height, 8 * maxVerticalSampling);
+		int mcu = 0;
+		for (int mcuY = 0; mcuY < mcusHigh; mcuY++) {
+			for (int mcuX = 0; mcuX < mcusWide; mcuX++) {
+				if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+					restart();
+				}
+				for (Component component : components) {
+					for (int y = 0; y < component.verticalSampling; y++) {
+						int blockY = mcuY * component.verticalSampling + y;
+						for (int x = 0; x < component.horizontalSampling; x++) {
+							int blockX = mcuX * component.horizontalSampling + x;
+							decodeBlock(component, blockY * component.blocksWide + blockX);
+						}
+					}
+				}
+				mcu++;
+			}
+		}
+
+		// Skip the padding bits of the last byte, up to the next marker.
+		while (readByte(position) != 0xFF || readByte(position + 1) == 0
+				|| isRestartMarker(0xFF00 | readByte(position + 1))) {
+			position++;
+		}
+		return position;
+	}
+
+	/**
+	 * Decodes the coefficients of a single block.
+	 *
+	 * @param component The component the block belongs to.
+	 * @param block     The index of the block in the component.
+	 * @throws IOException When the entropy coded data is malformed.
+	 */
+	private void decodeBlock(Component component, int block) throws IOException {
+		short[] coefficients = component.coefficients;
+		int offset = block * 64;
+
+		int size = component.dcDecoder.decode(this);
+		component.predictor += extend(readBits(size), size);
+		coefficients[offset] = (short) component.predictor;
+
+		for (int k = 1; k < 64; k++) {
+			int symbol = component.acDecoder.decode(this);
+			int run = symbol >> 4;
+			size = symbol & 0x0F;
+			if (size == 0) {
+				if (run != 15) {
+					// End of block, the remaining coefficients are zero.
+					break;
+				}
+				k += 15;
+			} else {
+				k += run;
+				if (k > 63) {
+					throw new IOException("Coefficient out of range");
+				}
+				coefficients[offset + ZIGZAG[k]] = (short) extend(readBits(size), size);
+			}
+		}
+	}
+
+	/**
+	 * Processes a restart marker, which resets the entropy decoder.
+	 *
+	 * @throws IOException When the restart marker is missing.
+	 */
+	private void restart() throws IOException {
+		while (readByte(position) != 0xFF || readByte(position + 1) == 0) {
+			position++;
+		}
+		if (!isRestartMarker(0xFF00 | readByte(position + 1))) {
+			throw new IOException("Expected a restart marker at offset " + position);
+		}
+		position += 2;
+		bitBuffer = 0;
+		bitCount = 0;
+		markerReached = false;
+		for (Component component : components) {
+			component.predictor = 0;
+		}
+	}
+
+	/**
+	 * Makes sure at least 57 bits are buffered. Once a marker is reached, zeros are buffered.
+	 */
+	private void fillBitBuffer() {
+		while (bitCount <= 56) {
+			int value = 0;
+			if (!markerReached && position < data.length) {
+				value = data[position] & 0xFF;
+				if (value != 0xFF) {
+					position++;
+				} else if (position + 1 < data.length && data[position + 1] == 0) {
+					// A stuffed zero byte following an actual 0xFF byte.
+					position += 2;
+				} else {
+					markerReached = true;
+					value = 0;
+				}
+			}
+			bitBuffer |= (long) value << (56 - bitCount);
+			bitCount += 8;
+		}
+	}
+
+	/**
+	 * Returns the next bits of the entropy coded data, without consuming them.
+	 *
+	 * @param count The amount of bits, between 1 and 32.
+	 * @return The bits.
+	 */
+	private int peekBits(int count) {
+		fillBitBuffer();
+		return (int) (bitBuffer >>> (64 - count));
+	}
+
+	/**
+	 * Consumes the given amount of bits, which must have been peeked.
+	 *
+	 * @param count The amount of bits.
+	 */
+	private void skipBits(int count) {
+		bitBuffer <<= count;
+		bitCount -= count;
+	}
+
+	/**
+	 * Consumes the next bits of the entropy coded data.
+	 *
+	 * @param count The amount of bits, between 0 and 16.
+	 * @return The bits.
+	 */
+	private int readBits(int count) {
+		if (count == 0) {
+			return 0;
+		}
+		int bits = peekBits(count);
+		skipBits(count);
+		return bits;
+	}
+
+	/**
+	 * Applies a single transformation to the decoded coefficients.
+	 *
+	 * @param transformation The transformation.
+	 */
+	private void apply(Transformation transformation) {
+		switch (transformation) {
+			case ROTATE_CLOCKWISE:
+				transpose();
+				flipHorizontal();
+				break;
+			case ROTATE_COUNTERCLOCKWISE:
+				transpose();
+				flipVertical();
+				break;
+			case FLIP_HORIZONTAL:
+				flipHorizontal();
+				break;
+			case FLIP_VERTICAL:
+				flipVertical();
+				break;
+		}
+	}
+
+	/**
+	 * Mirrors the image horizontally, by mirroring the order of the blocks in every row and
+	 * negating the coefficients of odd horizontal frequencies.
+	 */
+	private void flipHorizontal() {
+		for (Component component : components) {
+			short[] coefficients = component.coefficients;
+			short[] flipped = new short[coefficients.length];
+			for (int blockY = 0; blockY < component.blocksHigh; blockY++) {
+				for (int blockX = 0; blockX < component.blocksWide; blockX++) {
+					int source = (blockY * component.blocksWide + blockX) * 64;
+					int target = (blockY * component.blocksWide
+							+ component.blocksWide - 1 - blockX) * 64;
+					for (int i = 0; i < 64; i++) {
+						flipped[target + i] = (i & 1) == 0
+								? coefficients[source + i]
+								: (short) -coefficients[source + i];
+					}
+				}
+			}
+			component.coefficients = flipped;
+		}
+	}
+
+	/**
+	 * Mirrors the image vertically, by mirroring the order of the rows of blocks and negating the
+	 * coefficients of odd vertical frequencies.
+	 */
+	private void flipVertical() {
+		for (Component component : components) {
+			short[] coefficients = component.coefficients;
+			short[] flipped = new short[coefficients.length];
+			for (int blockY = 0; blockY < component.blocksHigh; blockY++) {
+				for (int blockX = 0; blockX < component.blocksWide; blockX++) {
+					int source = (blockY * component.blocksWide + blockX) * 64;
+					int target = ((component.blocksHigh - 1 - blockY) * component.blocksWide
+							+ blockX) * 64;
+					for (int i = 0; i < 64; i++) {
+						flipped[target + i] = (i & 8) == 0
+								? coefficients[source + i]
+								: (short) -coefficients[source + i];
+					}
+				}
+			}
+			component.coefficients = flipped;
+		}
+	}
+
+	/**
+	 * Mirrors the image along its main diagonal, by transposing the grid of blocks, every block
+	 * and the quantization tables, and swapping the sampling factors.
+	 */
+	private void transpose() {
+		for (Component component : components) {
+			short[] coefficients = component.coefficients;
+			short[] transposed = new short[coefficients.length];
+			for (int blockY = 0; blockY < component.blocksHigh; blockY++) {
+				for (int blockX = 0; blockX < component.blocksWide; blockX++) {
+					int source = (blockY * component.blocksWide + blockX) * 64;
+					int target = (blockX * component.blocksHigh + blockY) * 64;
+					for (int i = 0; i < 64; i++) {
+						transposed[target + (i & 7) * 8 + (i >> 3)] = coefficients[source + i];
+					}
+				}
+			}
+			component.coefficients = transposed;
+
+			int blocksWide = component.blocksWide;
+			component.blocksWide = component.blocksHigh;
+			component.blocksHigh = blocksWide;
+			int horizontalSampling = component.horizontalSampling;
+			component.horizontalSampling = component.verticalSampling;
+			component.verticalSampling = horizontalSampling;
+		}
+
+		for (int[] table : quantizationTables) {
+			if (table != null) {
+				for (int i = 0; i < 64; i++) {
+					int j = (i & 7) * 8 + (i >> 3);
+					if (i < j) {
+						int swap = table[i];
+						table[i] = table[j];
+						table[j] = swap;
+					}
+				}
+			}
+		}
+
+		int swap = width;
+		width = height;
+		height = swap;
+		swap = maxHorizontalSampling;
+		maxHorizontalSampling = maxVerticalSampling;
+		maxVerticalSampling = swap;
+	}
+
+	/**
+	 * Encodes the transformed image. The first component uses the first pair of Huffman tables,
+	 * all other components share the second pair, like the tables suggested by the standard.
+	 *
+	 * @return The encoded image.
+	 */
+	private byte[] write() {
+		HuffmanEncoder[] dcEncoders = {new HuffmanEncoder(), new HuffmanEncoder()};
+		HuffmanEncoder[] acEncoders = {new HuffmanEncoder(), new HuffmanEncoder()};
+		for (int i = 0; i < components.length; i++) {
+			components[i].dcEncoder = dcEncoders[Math.min(i, 1)];
+			components[i].acEncoder = acEncoders[Math.min(i, 1)];
+		}
+		int tables = Math.min(components.length, 2);
+
+		// Count the symbols first, such that optimal Huffman tables can be generated.
+		output = null;
+		encodeScan();
+		for (int i = 0; i < tables; i++) {
+			dcEncoders[i].generateCodes();
+			acEncoders[i].generateCodes();
+		}
+
+		output = new ByteArrayOutputStream(data.length);
+		writeShort(SOI);
+		for (byte[] segment : segments) {
+			output.write(segment, 0, segment.length);
+		}
+
+		for (int id = 0; id < quantizationTables.length; id++) {
+			int[] table = quantizationTables[id];
+			if (table != null) {
+				int precision = quantizationPrecisions[id];
+				writeShort(DQT);
+				writeShort(3 + 64 * (precision + 1));
+				output.write(precision << 4 | id);
+				for (int k = 0; k < 64; k++) {
+					if (precision == 0) {
+						output.write(table[ZIGZAG[k]]);
+					} else {
+						writeShort(table[ZIGZAG[k]]);
+					}
+				}
+			}
+		}
+
+		writeShort(frameMarker);
+		writeShort(8 + 3 * components.length);
+		output.write(8);
+		writeShort(height);
+		writeShort(width);
+		output.write(components.length);
+		for (Component component : components) {
+			output.write(component.id);
+			output.write(component.horizontalSampling << 4 | component.verticalSampling);
+			output.write(component.quantizationTable);
+		}
+
+		for (int i = 0; i < tables; i++) {
+			dcEncoders[i].writeTable(this, i);
+			acEncoders[i].writeTable(this, 0x10 | i);
+		}
+
+		writeShort(SOS);
+		writeShort(6 + 2 * components.length);
+		output.write(components.length);
+		for (int i = 0; i < components.length; i++) {
+			output.write(components[i].id);
+			output.write(Math.min(i, 1) << 4 | Math.min(i, 1));
+		}
+		output.write(0);
+		output.write(63);
+		output.write(0);
+
+		bitBuffer = 0;
+		bitCount = 0;
+		encodeScan();
+		if (bitCount > 0) {
+			// Pad the last byte with ones.
+			writeBits((1 << (8 - bitCount)) - 1, 8 - bitCount);
+		}
+		writeShort(EOI);
+		return output.toByteArray();
+	}
+
+	/**
+	 * Encodes the coefficients of all blocks in a single interleaved scan, or counts the symbols
+	 * that would be encoded when there is no output yet.
+	 */
+	private void encodeScan() {
+		int mcusWide = ceilDivide(width, 8 * maxHorizontalSampling);
+		int mcusHigh = ceilDivide(height, 8 * maxVerticalSampling);
+		for (Component component : components) {
+			component.predictor = 0;
+		}
+		for (int mcuY = 0; mcuY < mcusHigh; mcuY++) {
+			for (int mcuX = 0; mcuX < mcusWide; mcuX++) {
+				for (Component component : components) {
+					for (int y = 0; y < component.verticalSampling; y++) {
+						int blockY = mcuY * component.verticalSampling + y;
+						for (int x = 0; x < component.horizontalSampling; x++) {
+							int blockX = mcuX * component.horizontalSampling + x;
+							encodeBlock(component, blockY * component.blocksWide + blockX);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Encodes the coefficients of a single block.
+	 *
+	 * @param component The component the block belongs to.
+	 * @param block     The index of the block in the component.
+	 */
+	private void encodeBlock(Component component, int block) {
+		short[] coefficients = component.coefficients;
+		int offset = block * 64;
+
+		int difference = coefficients[offset] - component.predictor;
+		component.predictor = coefficients[offset];
+		int size = sizeOf(difference);
+		writeSymbol(component.dcEncoder, size);
+		writeBits(difference < 0 ? difference - 1 : difference, size);
+
+		int run = 0;
+		for (int k = 1; k < 64; k++) {
+			int coefficient = coefficients[offset + ZIGZAG[k]];
+			if (coefficient == 0) {
+				run++;
+				continue;
+			}
+			while (run > 15) {
+				writeSymbol(component.acEncoder, 0xF0);
+				run -= 16;
+			}
+			size = sizeOf(coefficient);
+			writeSymbol(component.acEncoder, run << 4 | size);
+			writeBits(coefficient < 0 ? coefficient - 1 : coefficient, size);
+			run = 0;
+		}
+		if (run > 0) {
+			writeSymbol(component.acEncoder, 0x00);
+		}
+	}
+
+	/**
+	 * Writes the code of the given symbol, or counts the symbol when there is no output yet.
+	 *
+	 * @param encoder The Huffman table to encode the symbol with.
+	 * @param symbol  The symbol.
+	 */
+	private void writeSymbol(HuffmanEncoder encoder, int symbol) {
+		if (output == null) {
+			encoder.frequencies[symbol]++;
+		} else {
+			writeBits(encoder.codes[symbol], encoder.lengths[symbol]);
+		}
+	}
+
+	/**
+	 * Writes the lowest bits of the given value to the entropy coded data, stuffing a zero byte
+	 * after every 0xFF byte. Does nothing when there is no output yet.
+	 *
+	 * @param value The value to write.
+	 * @param count The amount of bits to write, between 0 and 16.
+	 */
+	private void writeBits(int value, int count) {
+		if (output == null) {
+			return;
+		}
+		bitBuffer = bitBuffer << count | (value & ((1 << count) - 1));
+		bitCount += count;
+		while (bitCount >= 8) {
+			int value8 = (int) (bitBuffer >> (bitCount - 8)) & 0xFF;
+			output.write(value8);
+			if (value8 == 0xFF) {
+				output.write(0);
+			}
+			bitCount -= 8;
+		}
+	}
+
+	/**
+	 * Writes a big endian 16 bit value.
+	 *
+	 * @param value The value.
+	 */
+	private void writeShort(int value) {
+		output.write(value >> 8);
+		output.write(value & 0xFF);
+	}
+
+	/**
+	 * Reads a byte of the image.
+	 *
+	 * @param offset The offset of the byte.
+	 * @return The unsigned value of the byte.
+	 * @throws EOFException When the offset is beyond the end of the image.
+	 */
+	private int readByte(int offset) throws EOFException {
+		if (offset >= data.length) {
+			throw new EOFException("Unexpected end of image");
+		}
+		return data[offset] & 0xFF;
+	}
+
+	/**
+	 * Reads a big endian 16 bit value of the image.
+	 *
+	 * @param offset The offset of the value.
+	 * @return The unsigned value.
+	 * @throws EOFException When the offset is beyond the end of the image.
+	 */
+	private int readShort(int offset) throws EOFException {
+		return readByte(offset) << 8 | readByte(offset + 1);
+	}
+
+	private static boolean isRestartMarker(int marker) {
+		return marker >= RST0 && marker <= RST7;
+	}
+
+	private static int ceilDivide(int dividend, int divisor) {
+		return (dividend + divisor - 1) / divisor;
+	}
+
+	/**
+	 * Returns the amount of bits needed to encode the magnitude of the given value.
+	 */
+	private static int sizeOf(int value) {
+		return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+	}
+
+	/**
+	 * Converts the given bits, as encoded in the entropy coded data, to a signed value.
+	 */
+	private static int extend(int bits, int size) {
+		return size == 0 || bits >= 1 << (size - 1) ? bits : bits - (1 << size) + 1;
+	}
+
+	/**
+	 * A color component of the image, with its decoded coefficients.
+	 */
+	private static final class Component {
+		private int id;
+		private int horizontalSampling;
+		private int verticalSampling;
+		private int quantizationTable;
+		private int blocksWide;
+		private int blocksHigh;
+		/**
+		 * The coefficients of all blocks, row by row, each block in natural order.
+		 */
+		private short[] coefficients;
+		private int predictor;
+		private HuffmanDecoder dcDecoder;
+		private HuffmanDecoder acDecoder;
+		private HuffmanEncoder dcEncoder;
+		private HuffmanEncoder acEncoder;
+	}
+
+	/**
+	 * Decodes symbols using a Huffman table, looking up codes of up to 8 bits at once.
+	 */
+	private static final class HuffmanDecoder {
+		private static final int LOOKUP_BITS = 8;
+
+		/**
+		 * The largest code of every length, -1 when there are no codes of that length.
+		 */
+		private final int[] maxCodes = new int[17];
+		/**
+		 * The index of the symbol of a code of every length, minus the code.
+		 */
+		private final int[] symbolOffsets = new int[17];
+		/**
+		 * The length and symbol of every short code, shifted to the left, 0 for longer codes.
+		 */
+		private final int[] lookup = new int[1 << LOOKUP_BITS];
+		private final int[] symbols;
+
+		private HuffmanDecoder(int[] counts, int[] symbols) {
+			this.symbols = symbols;
+			int code = 0;
+			int index = 0;
+			for (int length = 1; length <= 16; length++) {
+				symbolOffsets[length] = index - code;
+				for (int i = 0; i < counts[length]; i++, code++, index++) {
+					if (length <= LOOKUP_BITS) {
+						int shift = LOOKUP_BITS - length;
+						for (int suffix = 0; suffix < 1 << shift; suffix++) {
+							lookup[code << shift | suffix] = length << 8 | symbols[index];
+						}
+					}
+				}
+				maxCodes[length] = counts[length] > 0 ? code - 1 : -1;
+				code <<= 1;
+			}
+		}
+
+		private int decode(LosslessJpegTransform reader) throws IOException {
+			int entry = lookup[reader.peekBits(LOOKUP_BITS)];
+			if (entry != 0) {
+				reader.skipBits(entry >> 8);
+				return entry & 0xFF;
+			}
+			int bits = reader.peekBits(16);
+			for (int length = LOOKUP_BITS + 1; length <= 16; length++) {
+				int code = bits >>> (16 - length);
+				if (code <= maxCodes[length]) {
+					int index = code + symbolOffsets[length];
+					if (index < 0 || index >= symbols.length) {
+						break;
+					}
+					reader.skipBits(length);
+					return symbols[index];
+				}
+			}
+			throw new IOException("Invalid Huffman code");
+		}
+	}
+
+	/**
+	 * Encodes symbols using a Huffman table generated from the frequencies of the symbols, as
+	 * described in section K.2 of the JPEG standard.
+	 */
+	private static final class HuffmanEncoder {
+		private final int[] frequencies = new int[256];
+		private final int[] codes = new int[256];
+		private final int[] lengths = new int[256];
+		private final int[] counts = new int[17];
+		private int[] symbols;
+
+		/**
+		 * Generates the codes of all symbols which occurred, limited to 16 bits.
+		 */
+		private void generateCodes() {
+			// One extra symbol with the lowest frequency reserves the code of only ones.
+			long[] frequency = new long[257];
+			for (int i = 0; i < 256; i++) {
+				frequency[i] = frequencies[i];
+			}
+			frequency[256] = 1;
+			int[] codeSizes = new int[257];
+			int[] others = new int[257];
+			Arrays.fill(others, -1);
+
+			while (true) {
+				int first = -1;
+				int second = -1;
+				for (int i = 0; i < 257; i++) {
+					if (frequency[i] == 0) {
+						continue;
+					}
+					if (first < 0 || frequency[i] <= frequency[first]) {
+						second = first;
+						first = i;
+					} else if (second < 0 || frequency[i] <= frequency[second]) {
+						second = i;
+					}
+				}
+				if (second < 0) {
+					break;
+				}
+
+				frequency[first] += frequency[second];
+				frequency[second] = 0;
+				codeSizes[first]++;
+				while (others[first] >= 0) {
+					first = others[first];
+					codeSizes[first]++;
+				}
+				others[first] = second;
+				codeSizes[second]++;
+				while (others[second] >= 0) {
+					second = others[second];
+					codeSizes[second]++;
+				}
+			}
+
+			int[] sizes = new int[33];
+			for (int codeSize : codeSizes) {
+				if (codeSize > 0) {
+					sizes[codeSize]++;
+				}
+			}
+			// Limit the code lengths to 16 bits.
+			for (int i = 32; i > 16; i--) {
+				while (sizes[i] > 0) {
+					int j = i - 2;
+					while (sizes[j] == 0) {
+						j--;
+					}
+					sizes[i] -= 2;
+					sizes[i - 1]++;
+					sizes[j + 1] += 2;
+					sizes[j]--;
+				}
+			}
+			// Remove the reserved code, which is one of the longest.
+			int longest = 16;
+			while (sizes[longest] == 0) {
+				longest--;
+			}
+			sizes[longest]--;
+			System.arraycopy(sizes, 0, counts, 0, 17);
+
+			List<Integer> sorted = new ArrayList<>();
+			for (int length = 1; length <= 32; length++) {
+				for (int symbol = 0; symbol < 256; symbol++) {
+					if (codeSizes[symbol] == length) {
+						sorted.add(symbol);
+					}
+				}
+			}
+			symbols = sorted.stream().mapToInt(Integer::intValue).toArray();
+
+			int code = 0;
+			int index = 0;
+			for (int length = 1; length <= 16; length++) {
+				for (int i = 0; i < counts[length]; i++, code++, index++) {
+					codes[symbols[index]] = code;
+					lengths[symbols[index]] = length;
+				}
+				code <<= 1;
+			}
+		}
+
+		/**
+		 * Writes the segment defining this table.
+		 *
+		 * @param transform The transform writing the image.
+		 * @param id        The class and id of the table.
+		 */
+		private void writeTable(LosslessJpegTransform transform, int id) {
+			transform.writeShort(DHT);
+			transform.writeShort(3 + 16 + symbols.length);
+			transform.output.write(id);
+			for (int length = 1; length <= 16; length++) {
+				transform.output.write(counts[length]);
+			}
+			for (int symbol : symbols) {
+				transform.output.write(symbol);
+			}
+		}
+	}
+}
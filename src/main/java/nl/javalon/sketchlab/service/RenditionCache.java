@@ -0,0 +1,344 @@
+package nl.javalon.sketchlab.service;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+import nl.javalon.sketchlab.utils.Pair;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Caches renditions of images, like rotated images, on the local file system. Renditions are
+ * derived from a blob and identified by a key which changes whenever the rendition would change,
+ * e.g. the hash of the blob combined with the rotation and width applied to it. Entries
+ * are therefore never invalidated, a changed image simply results in a new key.
+ * <p>
+ * Like the {@link FileSystemBlobStore}, entries are sharded over two levels of directories and
+ * written to a temporary file first, so readers never observe partially written renditions.
+ * <p>
+ * The total size of the cache is limited by sketchlab.storage.rendition-cache-max-size. An index
+ * of all entries in access order is kept in memory, and when the cache grows beyond its limit
+ * the least recently used entries are evicted. The modification time of an entry is updated
+ * whenever it is used, such that the index can be restored in the right order after a restart.
+ * <p>
+ * Renditions which are being read using {@link #read(String, RenditionGenerator,
+ * RenditionReader)} are pinned and never evicted until the reader returns. Files which are handed
+ * out by {@link #get(String, RenditionGenerator)} may be evicted at any time instead.
+ *
+ * @author Jelle Stege
+ */
+@Log
+@Service
+public class RenditionCache implements PublicMetrics {
+	private static final String METRIC_PREFIX = "rendition.cache.";
+	private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{4}[0-9A-Za-z_.-]*");
+	private static final String TEMP_DIRECTORY = "tmp";
+
+	@Getter
+	private final Path root;
+	private final Path temp;
+	@Getter
+	private final long maxSize;
+
+	/**
+	 * The size of every cached rendition by its key, from least to most recently used. Guarded by
+	 * itself, as is {@link #size}.
+	 */
+	private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+	private long size;
+	/**
+	 * The amount of readers of every pinned rendition by its key. Guarded by {@link #index}.
+	 */
+	private final Map<String, Integer> pins = new HashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Instantiates the {@link RenditionCache} using the directory and size configured in the
+	 * sketchlab.storage.rendition-cache-directory and rendition-cache-max-size properties.
+	 *
+	 * @param properties The application properties.
+	 * @throws IOException When the cache directory could not be created or read.
+	 */
+	@Autowired
+	public RenditionCache(SketchlabPropertiesMapper properties) throws IOException {
+		this(Paths.get(properties.getStorage().getRenditionCacheDirectory()),
+				properties.getStorage().getRenditionCacheMaxSize());
+	}
+
+	/**
+	 * Instantiates the {@link RenditionCache} using the given directory, without limiting its
+	 * size.
+	 *
+	 * @param root The directory to cache renditions in. Created when it does not exist.
+	 * @throws IOException When the cache directory could not be created or read.
+	 */
+	public RenditionCache(@NonNull Path root) throws IOException {
+		this(root, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Instantiates the {@link RenditionCache} using the given directory. Renditions cached in it
+	 * before are indexed, from least to most recently modified.
+	 *
+	 * @param root    The directory to cache renditions in. Created when it does not exist.
+	 * @param maxSize The maximum total size of the cached renditions, in bytes.
+	 * @throws IOException When the cache directory could not be created or read.
+	 */
+	public RenditionCache(@NonNull Path root, long maxSize) throws IOException {
+		this.root = root.toAbsolutePath();
+		this.temp = this.root.resolve(TEMP_DIRECTORY);
+		this.maxSize = maxSize;
+		Files.createDirectories(this.temp);
+		restoreIndex();
+		log.info("Caching renditions in " + this.root + ", " + index.size() + " renditions of "
+				+ size + " bytes cached");
+	}
+
+	/**
+	 * Returns the file containing the rendition with the given key. When the rendition is not
+	 * cached yet, it is created using the given generator and stored first, which may evict the
+	 * least recently used renditions.
+	 *
+	 * @param key       The key of the rendition. Starts with the hash of the blob it is derived
+	 *                  from.
+	 * @param generator Creates the rendition when it is not cached.
+	 * @return The path of the cached rendition.
+	 * @throws IOException When the rendition could not be generated or stored.
+	 */
+	public Path get(@NonNull String key, @NonNull RenditionGenerator generator)
+			throws IOException {
+		Path target = getPath(key);
+		boolean cached;
+		synchronized (index) {
+			cached = index.get(key) != null;
+		}
+		if (cached && Files.exists(target)) {
+			hits.incrementAndGet();
+			touch(target);
+			return target;
+		}
+		misses.incrementAndGet();
+
+		byte[] data = generator.generate();
+		Files.createDirectories(target.getParent());
+		Path tempFile = Files.createTempFile(temp, key, ".tmp");
+		try {
+			Files.write(tempFile, data);
+			Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (FileAlreadyExistsException e) {
+			// Generated concurrently, both renditions are the same.
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+		add(key, data.length);
+		return target;
+	}
+
+	/**
+	 * Reads the rendition with the given key, like {@link #get(String, RenditionGenerator)}. The
+	 * rendition is pinned while the reader is running, such that it can not be evicted before the
+	 * reader is done with the file.
+	 *
+	 * @param key       The key of the rendition. Starts with the hash of the blob it is derived
+	 *                  from.
+	 * @param generator Creates the rendition when it is not cached.
+	 * @param reader    Reads the file of the cached rendition.
+	 * @param <T>       The type of the result of the reader.
+	 * @return The result of the reader.
+	 * @throws IOException When the rendition could not be generated, stored or read.
+	 */
+	public <T> T read(
+			@NonNull String key, @NonNull RenditionGenerator generator,
+			@NonNull RenditionReader<T> reader) throws IOException {
+		synchronized (index) {
+			pins.merge(key, 1, Integer::sum);
+		}
+		try {
+			return reader.read(get(key, generator));
+		} finally {
+			synchronized (index) {
+				pins.computeIfPresent(key, (pinned, readers) -> readers > 1 ? readers - 1 : null);
+			}
+		}
+	}
+
+	/**
+	 * Returns the amount of renditions in the cache.
+	 *
+	 * @return The amount of cached renditions.
+	 */
+	public int getEntries() {
+		synchronized (index) {
+			return index.size();
+		}
+	}
+
+	/**
+	 * Returns the total size of the renditions in the cache.
+	 *
+	 * @return The size in bytes.
+	 */
+	public long getSize() {
+		synchronized (index) {
+			return size;
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		return Arrays.asList(
+				new Metric<>(METRIC_PREFIX + "entries", getEntries()),
+				new Metric<>(METRIC_PREFIX + "size", getSize()),
+				new Metric<>(METRIC_PREFIX + "max.size", maxSize),
+				new Metric<>(METRIC_PREFIX + "hits", hits.get()),
+				new Metric<>(METRIC_PREFIX + "misses", misses.get()),
+				new Metric<>(METRIC_PREFIX + "evictions", evictions.get()));
+	}
+
+	/**
+	 * Returns the location of the rendition with the given key. The rendition does not
+	 * necessarily exist.
+	 *
+	 * @param key The key of the rendition.
+	 * @return The path of the rendition.
+	 */
+	private Path getPath(String key) {
+		if (!KEY_PATTERN.matcher(key).matches()) {
+			throw new IllegalArgumentException("Not a valid rendition key: " + key);
+		}
+		return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+	}
+
+	/**
+	 * Adds a stored rendition to the index, and evicts the least recently used renditions other
+	 * than the added one and the pinned ones while the cache is too large.
+	 *
+	 * @param key  The key of the rendition.
+	 * @param size The size of the rendition in bytes.
+	 */
+	private void add(String key, long size) {
+		List<String> evicted = new ArrayList<>();
+		synchronized (index) {
+			Long previous = index.put(key, size);
+			this.size += size - (previous == null ? 0 : previous);
+
+			Iterator<Map.Entry<String, Long>> entries = index.entrySet().iterator();
+			while (this.size > maxSize && entries.hasNext()) {
+				Map.Entry<String, Long> entry = entries.next();
+				if (!entry.getKey().equals(key) && !pins.containsKey(entry.getKey())) {
+					this.size -= entry.getValue();
+					evicted.add(entry.getKey());
+					entries.remove();
+				}
+			}
+		}
+
+		// Files are deleted one at a time, such that the lock is not held while evicting a lot of
+		// renditions. A rendition which was pinned or stored again in the meantime is kept.
+		for (String evictedKey : evicted) {
+			evictions.incrementAndGet();
+			synchronized (index) {
+				if (index.containsKey(evictedKey) || pins.containsKey(evictedKey)) {
+					continue;
+				}
+				try {
+					Files.deleteIfExists(getPath(evictedKey));
+				} catch (IOException e) {
+					log.log(Level.WARNING, "Could not evict rendition " + evictedKey, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Marks the given rendition as used now, such that its position in the index is restored
+	 * after a restart.
+	 *
+	 * @param path The path of the rendition.
+	 */
+	private static void touch(Path path) {
+		try {
+			Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// Evicted concurrently, or not writable. Only affects the order after a restart.
+		}
+	}
+
+	/**
+	 * Indexes the renditions stored in the cache directory, from least to most recently
+	 * modified, and evicts renditions when the cache is larger than allowed. Temporary files left
+	 * behind by writes which were interrupted are deleted.
+	 *
+	 * @throws IOException When the cache directory could not be read.
+	 */
+	private void restoreIndex() throws IOException {
+		List<Path> files;
+		try (Stream<Path> paths = Files.walk(root)) {
+			files = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+		}
+
+		List<Pair<String, BasicFileAttributes>> renditions = new ArrayList<>();
+		for (Path file : files) {
+			String key = file.getFileName().toString();
+			if (file.startsWith(temp)) {
+				Files.deleteIfExists(file);
+			} else if (KEY_PATTERN.matcher(key).matches() && file.equals(getPath(key))) {
+				renditions.add(
+						new Pair<>(key, Files.readAttributes(file, BasicFileAttributes.class)));
+			}
+		}
+		renditions.sort(
+				Comparator.comparing(rendition -> rendition.getSecond().lastModifiedTime()));
+
+		for (Pair<String, BasicFileAttributes> rendition : renditions) {
+			add(rendition.getFirst(), rendition.getSecond().size());
+		}
+	}
+
+	/**
+	 * Creates a rendition which is not cached yet.
+	 */
+	@FunctionalInterface
+	public interface RenditionGenerator {
+		/**
+		 * Creates the rendition.
+		 *
+		 * @return The encoded rendition.
+		 * @throws IOException When the rendition could not be created.
+		 */
+		byte[] generate() throws IOException;
+	}
+
+	/**
+	 * Reads the file of a cached rendition.
+	 *
+	 * @param <T> The type of the result.
+	 */
+	@FunctionalInterface
+	public interface RenditionReader<T> {
+		/**
+		 * Reads the rendition.
+		 *
+		 * @param file The file of the rendition.
+		 * @return The result of reading the rendition.
+		 * @throws IOException When the rendition could not be read.
+		 */
+		T read(Path file) throws IOException;
+	}
+}
@@ -0,0 +1,450 @@
+package nl.javalon.sketchlab.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.java.Log;
+import nl.javalon.sketchlab.dao.BlobTable;
+import nl.javalon.sketchlab.dao.BlobTableDao;
+import nl.javalon.sketchlab.dao.ExampleSubmissionFileDetailsDao;
+import nl.javalon.sketchlab.dao.ExampleSubmissionThumbnailDetailsDao;
+import nl.javalon.sketchlab.dao.RenditionRegenerationDetailsDao;
+import nl.javalon.sketchlab.dao.SubmissionFileDetailsDao;
+import nl.javalon.sketchlab.dao.SubmissionThumbnailDetailsDao;
+import nl.javalon.sketchlab.entity.tables.pojos.ExampleSubmissionFile;
+import nl.javalon.sketchlab.entity.tables.pojos.ExampleSubmissionThumbnail;
+import nl.javalon.sketchlab.entity.tables.pojos.RenditionRegeneration;
+import nl.javalon.sketchlab.entity.tables.pojos.SubmissionFile;
+import nl.javalon.sketchlab.entity.tables.pojos.SubmissionThumbnail;
+import nl.javalon.sketchlab.exception.EntityExistsException;
+import nl.javalon.sketchlab.exception.ServiceUnavailableException;
+import nl.javalon.sketchlab.service.ImageProcessingService.ImageTask;
+import nl.javalon.sketchlab.service.ImageService.RotationState;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * Regenerates the renditions of all stored images, e.g. after the size or encoder settings of
+ * thumbnails changed. The job is started by a teacher and runs on a single background thread,
+ * which walks through every {@link Target} in key order using keyset paging. The renditions of a
+ * batch of images are generated concurrently on the pool of the {@link ImageProcessingService},
+ * after which the key of the last image is stored as checkpoint. An interrupted job therefore
+ * resumes after the last completed batch when the application starts again.
+ * <p>
+ * To not slow down uploads, batches are small and separated by a pause, and a batch is only
+ * started when no uploads are waiting for the image processing pool, see
+ * sketchlab.renditions.regeneration.
+ *
+ * @author Jelle Stege
+ */
+@Log
+@Service
+public class RenditionRegenerationService {
+	private final RenditionRegenerationDetailsDao regenerationDao;
+	private final BlobTableDao blobTableDao;
+	private final SubmissionFileDetailsDao submissionFileDao;
+	private final SubmissionThumbnailDetailsDao submissionThumbnailDao;
+	private final ExampleSubmissionFileDetailsDao exampleSubmissionFileDao;
+	private final ExampleSubmissionThumbnailDetailsDao exampleSubmissionThumbnailDao;
+	private final ImageService imageService;
+	private final ImageProcessingService imageProcessingService;
+	private final TransactionTemplate transactionTemplate;
+	private final SketchlabPropertiesMapper.Renditions.Regeneration config;
+	private final ExecutorService worker;
+
+	/**
+	 * Incremented whenever a job is started or cancelled, such that a running job notices it has
+	 * been cancelled. Guarded by this service.
+	 */
+	private int generation;
+
+	/**
+	 * The tables of which the renditions can be regenerated, in the order in which they are
+	 * regenerated. Avatars are not regenerated, as their original upload is not kept: re-encoding
+	 * an avatar from itself would lose quality on every regeneration.
+	 */
+	@Getter
+	@AllArgsConstructor
+	public enum Target {
+		/**
+		 * The thumbnails of submissions, generated from the submission file with its rotation.
+		 */
+		SUBMISSION_THUMBNAILS(BlobTable.SUBMISSION_THUMBNAILS),
+		/**
+		 * The thumbnails of example submissions, generated from the example submission file.
+		 */
+		EXAMPLE_SUBMISSION_THUMBNAILS(BlobTable.EXAMPLE_SUBMISSION_THUMBNAILS);
+
+		private final BlobTable<?> blobTable;
+	}
+
+	/**
+	 * Instantiates the {@link RenditionRegenerationService} using the
+	 * sketchlab.renditions.regeneration properties.
+	 *
+	 * @param regenerationDao               The DAO of the progress of the regeneration.
+	 * @param blobTableDao                  The DAO to page through the image tables.
+	 * @param submissionFileDao             The DAO to read submission files from.
+	 * @param submissionThumbnailDao        The DAO to store submission thumbnails in.
+	 * @param exampleSubmissionFileDao      The DAO to read example submission files from.
+	 * @param exampleSubmissionThumbnailDao The DAO to store example submission thumbnails in.
+	 * @param imageService                  The service generating the renditions.
+	 * @param imageProcessingService        The pool on which the renditions are generated.
+	 * @param transactionManager            The transaction manager used to start a job.
+	 * @param properties                    The application properties.
+	 */
+	@Autowired
+	public RenditionRegenerationService(
+			RenditionRegenerationDetailsDao regenerationDao,
+			BlobTableDao blobTableDao,
+			SubmissionFileDetailsDao submissionFileDao,
+			SubmissionThumbnailDetailsDao submissionThumbnailDao,
+			ExampleSubmissionFileDetailsDao exampleSubmissionFileDao,
+			ExampleSubmissionThumbnailDetailsDao exampleSubmissionThumbnailDao,
+			ImageService imageService,
+			ImageProcessingService imageProcessingService,
+			PlatformTransactionManager transactionManager,
+			SketchlabPropertiesMapper properties) {
+		this.regenerationDao = regenerationDao;
+		this.blobTableDao = blobTableDao;
+		this.submissionFileDao = submissionFileDao;
+		this.submissionThumbnailDao = submissionThumbnailDao;
+		this.exampleSubmissionFileDao = exampleSubmissionFileDao;
+		this.exampleSubmissionThumbnailDao = exampleSubmissionThumbnailDao;
+		this.imageService = imageService;
+		this.imageProcessingService = imageProcessingService;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.config = properties.getRenditions().getRegeneration();
+
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("regeneration-");
+		threadFactory.setDaemon(true);
+		this.worker = Executors.newSingleThreadExecutor(threadFactory);
+	}
+
+	/**
+	 * Resumes an unfinished job once the application is ready.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public synchronized void resume() {
+		if (!regenerationDao.fetchUnfinished().isEmpty()) {
+			log.info("Resuming the regeneration of renditions");
+			int current = generation;
+			worker.execute(() -> regenerate(current));
+		}
+	}
+
+	/**
+	 * Stops the job once the application shuts down. It is resumed on the next start.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		worker.shutdownNow();
+	}
+
+	/**
+	 * Starts regenerating the renditions of all targets from their first image.
+	 *
+	 * @return The progress of the started job.
+	 * @throws EntityExistsException When a job is running already.
+	 */
+	public synchronized List<RenditionRegeneration> start() {
+		if (!regenerationDao.fetchUnfinished().isEmpty()) {
+			throw new EntityExistsException("Renditions are being regenerated already");
+		}
+		transactionTemplate.execute(status -> {
+			for (Target target : Target.values()) {
+				regenerationDao.start(target.name(), blobTableDao.count(target.getBlobTable()));
+			}
+			return null;
+		});
+
+		int current = ++generation;
+		worker.execute(() -> regenerate(current));
+		return getProgress();
+	}
+
+	/**
+	 * Cancels the running job, if any. Renditions regenerated so far are kept.
+	 *
+	 * @return True if a job was cancelled, false if no job was running.
+	 */
+	public synchronized boolean cancel() {
+		generation++;
+		return regenerationDao.deleteUnfinished() > 0;
+	}
+
+	/**
+	 * Returns the progress of the running job, or of the last job when none is running.
+	 *
+	 * @return The progress per target, in the order in which they are regenerated.
+	 */
+	public List<RenditionRegeneration> getProgress() {
+		return regenerationDao.findAll().stream()
+				.sorted(Comparator.comparing(progress -> Target.valueOf(progress.getTarget())))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Regenerates all targets which have not been finished yet. Runs on the worker thread only.
+	 *
+	 * @param generation The generation of the job, see {@link #generation}.
+	 */
+	private void regenerate(int generation) {
+		try {
+			Map<String, RenditionRegeneration> unfinished = regenerationDao.fetchUnfinished()
+					.stream()
+					.collect(Collectors.toMap(RenditionRegeneration::getTarget, p -> p));
+			for (Target target : Target.values()) {
+				RenditionRegeneration progress = unfinished.get(target.name());
+				if (progress != null
+						&& !regenerate(target, target.getBlobTable(), progress, generation)) {
+					log.info("Cancelled the regeneration of renditions");
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			log.log(Level.SEVERE, "Could not regenerate renditions", e);
+		}
+	}
+
+	/**
+	 * Regenerates the images of the given target in batches, starting after the checkpoint.
+	 *
+	 * @param target     The target to regenerate.
+	 * @param blobTable  The table of the target.
+	 * @param progress   The progress of the target so far.
+	 * @param generation The generation of the job, see {@link #generation}.
+	 * @param <K>        The type of the primary key of the table.
+	 * @return True if the target has been finished, false if the job was cancelled.
+	 * @throws InterruptedException When the worker was interrupted while pausing.
+	 */
+	private <K> boolean regenerate(
+			Target target, BlobTable<K> blobTable, RenditionRegeneration progress, int generation)
+			throws InterruptedException {
+		K lastKey = progress.getLastKey() != null
+				? blobTable.getKey().getDataType().convert(progress.getLastKey())
+				: null;
+		while (true) {
+			throttle();
+			List<K> keys = blobTableDao.fetchKeysAfter(blobTable, lastKey, config.getBatchSize());
+			if (keys.isEmpty()) {
+				break;
+			}
+
+			int failed = 0;
+			String lastError = null;
+			List<Future<byte[]>> renditions = new ArrayList<>();
+			List<String> sourceVersions = new ArrayList<>();
+			try {
+				for (K key : keys) {
+					Future<byte[]> rendition = null;
+					String sourceVersion = null;
+					try {
+						Source source = prepare(target, key);
+						if (source != null) {
+							rendition = imageProcessingService.submit(source.getTask());
+							sourceVersion = source.getVersion();
+						}
+					} catch (IOException e) {
+						log.log(Level.WARNING, "Could not read " + target + " of " + key, e);
+						failed++;
+						lastError = key + ": " + e;
+					}
+					renditions.add(rendition);
+					sourceVersions.add(sourceVersion);
+				}
+			} catch (ServiceUnavailableException e) {
+				// The pool became busy after all, the whole batch is retried after a pause.
+				renditions.stream().filter(Objects::nonNull).forEach(f -> f.cancel(false));
+				continue;
+			}
+
+			for (int i = 0; i < keys.size(); i++) {
+				if (renditions.get(i) == null) {
+					continue;
+				}
+				try {
+					store(target, keys.get(i), sourceVersions.get(i),
+							ImageProcessingService.await(renditions.get(i)));
+				} catch (IOException | RuntimeException e) {
+					log.log(Level.WARNING,
+							"Could not regenerate " + target + " of " + keys.get(i), e);
+					failed++;
+					lastError = keys.get(i) + ": " + e;
+				}
+			}
+
+			lastKey = keys.get(keys.size() - 1);
+			synchronized (this) {
+				if (generation != this.generation) {
+					return false;
+				}
+				regenerationDao.saveCheckpoint(
+						target.name(), lastKey.toString(), keys.size(), failed, lastError);
+			}
+		}
+
+		synchronized (this) {
+			if (generation != this.generation) {
+				return false;
+			}
+			regenerationDao.markFinished(target.name());
+		}
+		log.info("Regenerated all " + target);
+		return true;
+	}
+
+	/**
+	 * Waits before the next batch, until no uploads are waiting for the image processing pool.
+	 *
+	 * @throws InterruptedException When the worker was interrupted while waiting.
+	 */
+	private void throttle() throws InterruptedException {
+		do {
+			Thread.sleep(config.getPause());
+		} while (imageProcessingService.getQueueSize() > 0);
+	}
+
+	/**
+	 * Reads the source of the rendition of the given image and prepares the task generating it.
+	 *
+	 * @param target The target the image belongs to.
+	 * @param key    The key of the image.
+	 * @return The source of the rendition, or null if the image no longer exists.
+	 * @throws IOException When the source could not be read.
+	 */
+	private Source prepare(Target target, Object key) throws IOException {
+		switch (target) {
+			case SUBMISSION_THUMBNAILS:
+				SubmissionFile file = submissionFileDao.findMetadataBySubmissionId((Integer) key);
+				if (file == null) {
+					return null;
+				}
+				byte[] data = submissionFileDao.fetchData(file);
+				RotationState rotation = RotationState.valueOf(file.getRotation());
+				return new Source(
+						() -> imageService.createThumbnail(data, rotation), getVersion(file));
+			case EXAMPLE_SUBMISSION_THUMBNAILS:
+				ExampleSubmissionFile exampleFile =
+						exampleSubmissionFileDao.findMetadataByExampleSubmissionId((Integer) key);
+				if (exampleFile == null) {
+					return null;
+				}
+				byte[] exampleData = exampleSubmissionFileDao.fetchData(exampleFile);
+				return new Source(() -> imageService.createThumbnail(exampleData),
+						getVersion(exampleFile));
+			default:
+				throw new IllegalArgumentException("Unknown target " + target);
+		}
+	}
+
+	/**
+	 * Replaces the rendition of the given image by the regenerated one.
+	 *
+	 * @param target        The target the image belongs to.
+	 * @param key           The key of the image.
+	 * @param sourceVersion The version of the source the rendition was generated from, see
+	 *                      {@link Source#getVersion()}.
+	 * @param rendition     The regenerated rendition.
+	 * @throws IOException When the rendition could not be stored.
+	 */
+	private void store(Target target, Object key, String sourceVersion, byte[] rendition)
+			throws IOException {
+		switch (target) {
+			case SUBMISSION_THUMBNAILS:
+				transactionTemplate.execute(status -> {
+					// Locking the file keeps it from being rotated until the thumbnail is stored.
+					// A file which has been rotated or replaced in the meantime has a new thumbnail
+					// queued already, which would be overwritten by one of the old file.
+					SubmissionFile file = submissionFileDao
+							.findMetadataBySubmissionIdForUpdate((Integer) key);
+					SubmissionThumbnail thumbnail =
+							submissionThumbnailDao.findMetadataBySubmissionId((Integer) key);
+					if (file == null || thumbnail == null
+							|| !getVersion(file).equals(sourceVersion)) {
+						return null;
+					}
+					try {
+						submissionThumbnailDao.update(thumbnail, rendition);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					return null;
+				});
+				break;
+			case EXAMPLE_SUBMISSION_THUMBNAILS:
+				transactionTemplate.execute(status -> {
+					// Rotating an example replaces its file and thumbnail, see above.
+					ExampleSubmissionFile file = exampleSubmissionFileDao
+							.findMetadataByExampleSubmissionIdForUpdate((Integer) key);
+					ExampleSubmissionThumbnail thumbnail = exampleSubmissionThumbnailDao
+							.findMetadataByExampleSubmissionId((Integer) key);
+					if (file == null || thumbnail == null
+							|| !getVersion(file).equals(sourceVersion)) {
+						return null;
+					}
+					try {
+						exampleSubmissionThumbnailDao.update(thumbnail, rendition);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					return null;
+				});
+				break;
+		}
+	}
+
+	/**
+	 * Returns the version of the given submission file, which changes when it is rotated or
+	 * replaced.
+	 *
+	 * @param file The submission file.
+	 * @return The version of the submission file.
+	 */
+	private static String getVersion(SubmissionFile file) {
+		return file.getBlobHash() + "-" + file.getRotation();
+	}
+
+	/**
+	 * Returns the version of the given example submission file, which changes when it is rotated.
+	 *
+	 * @param file The example submission file.
+	 * @return The version of the example submission file.
+	 */
+	private static String getVersion(ExampleSubmissionFile file) {
+		return String.valueOf(file.getBlobHash());
+	}
+
+	/**
+	 * The source of a rendition which is being regenerated.
+	 */
+	@Getter
+	@AllArgsConstructor
+	private static class Source {
+		/**
+		 * The task generating the rendition.
+		 */
+		private final ImageTask<byte[]> task;
+
+		/**
+		 * The version of the source, which has to be unchanged when the rendition is stored.
+		 */
+		private final String version;
+	}
+}
@@ -0,0 +1,259 @@
+package nl.javalon.sketchlab.service;
+
+import lombok.extern.java.Log;
+import nl.javalon.sketchlab.dao.RenditionJobDetailsDao;
+import nl.javalon.sketchlab.dao.SubmissionFileDetailsDao;
+import nl.javalon.sketchlab.dao.SubmissionThumbnailDetailsDao;
+import nl.javalon.sketchlab.entity.tables.pojos.RenditionJob;
+import nl.javalon.sketchlab.entity.tables.pojos.SubmissionFile;
+import nl.javalon.sketchlab.entity.tables.pojos.SubmissionThumbnail;
+import nl.javalon.sketchlab.exception.ServiceUnavailableException;
+import nl.javalon.sketchlab.service.ImageService.RotationState;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Generates renditions of uploaded images, like thumbnails, in the background. Renditions are
+ * requested by adding a job to the rendition_job table, which a single worker thread processes
+ * in order, while the images themselves are processed on the {@link ImageProcessingService}
+ * pool. The worker is woken up as soon as the transaction adding a job commits, and additionally
+ * polls the table periodically, such that jobs left behind by a restart, a failed attempt or a
+ * busy pool are picked up as well.
+ *
+ * @author Jelle Stege
+ */
+@Log
+@Service
+public class RenditionService {
+	/**
+	 * The amount of seconds after which clients should request a pending rendition again.
+	 */
+	public static final int RETRY_AFTER = 2;
+
+	/**
+	 * Jobs which failed this many times are no longer retried.
+	 */
+	private static final int MAX_ATTEMPTS = 3;
+	private static final int BATCH_SIZE = 10;
+	private static final long POLL_INTERVAL_SECONDS = 30;
+
+	private final RenditionJobDetailsDao renditionJobDao;
+	private final SubmissionFileDetailsDao submissionFileDao;
+	private final SubmissionThumbnailDetailsDao submissionThumbnailDao;
+	private final ImageService imageService;
+	private final ImageProcessingService imageProcessingService;
+	private final TransactionTemplate transactionTemplate;
+	private final ScheduledExecutorService worker;
+
+	/**
+	 * The renditions which can be generated.
+	 */
+	public enum Rendition {
+		/**
+		 * The thumbnail of a submission, see {@link ImageService#createThumbnail(byte[])}.
+		 */
+		THUMBNAIL
+	}
+
+	/**
+	 * Instantiates the {@link RenditionService}.
+	 *
+	 * @param renditionJobDao        The DAO of the rendition jobs.
+	 * @param submissionFileDao      The DAO to read submission files from.
+	 * @param submissionThumbnailDao The DAO to store submission thumbnails in.
+	 * @param imageService           The service generating the renditions.
+	 * @param imageProcessingService The pool on which the renditions are generated.
+	 * @param transactionManager     The transaction manager used to store renditions.
+	 */
+	@Autowired
+	public RenditionService(
+			RenditionJobDetailsDao renditionJobDao,
+			SubmissionFileDetailsDao submissionFileDao,
+			SubmissionThumbnailDetailsDao submissionThumbnailDao,
+			ImageService imageService,
+			ImageProcessingService imageProcessingService,
+			PlatformTransactionManager transactionManager) {
+		this.renditionJobDao = renditionJobDao;
+		this.submissionFileDao = submissionFileDao;
+		this.submissionThumbnailDao = submissionThumbnailDao;
+		this.imageService = imageService;
+		this.imageProcessingService = imageProcessingService;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("rendition-");
+		threadFactory.setDaemon(true);
+		this.worker = Executors.newSingleThreadScheduledExecutor(threadFactory);
+	}
+
+	/**
+	 * Starts the worker once the application is ready, resuming all jobs still pending.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		worker.scheduleWithFixedDelay(
+				this::processPendingJobs, 0, POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops the worker once the application shuts down. Unfinished jobs are resumed on the next
+	 * start.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		worker.shutdownNow();
+	}
+
+	/**
+	 * Requests the given rendition of the given submission to be generated. The worker starts
+	 * generating it once the current transaction, if any, has been committed. If the rendition is
+	 * already being generated, or has been given up, it is generated again, as its source may
+	 * have changed.
+	 *
+	 * @param submissionId The ID of the submission.
+	 * @param rendition    The rendition to generate.
+	 */
+	public void enqueue(int submissionId, Rendition rendition) {
+		renditionJobDao.enqueue(submissionId, rendition.name());
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(
+					new TransactionSynchronizationAdapter() {
+						@Override
+						public void afterCommit() {
+							wakeUp();
+						}
+					});
+		} else {
+			wakeUp();
+		}
+	}
+
+	/**
+	 * Checks whether the given rendition of the given submission is still being generated.
+	 *
+	 * @param submissionId The ID of the submission.
+	 * @param rendition    The rendition.
+	 * @return True if the rendition is not available yet, but will be, false if not. Renditions
+	 * which could not be generated are not pending.
+	 */
+	public boolean isPending(int submissionId, Rendition rendition) {
+		return renditionJobDao.isPending(submissionId, rendition.name(), MAX_ATTEMPTS);
+	}
+
+	/**
+	 * Lets the worker process the pending jobs now, instead of on its next poll.
+	 */
+	private void wakeUp() {
+		if (!worker.isShutdown()) {
+			worker.execute(this::processPendingJobs);
+		}
+	}
+
+	/**
+	 * Processes all pending jobs. Runs on the worker thread only, so jobs are never processed
+	 * concurrently.
+	 */
+	private void processPendingJobs() {
+		try {
+			List<RenditionJob> jobs;
+			do {
+				jobs = renditionJobDao.fetchPending(MAX_ATTEMPTS, BATCH_SIZE);
+				jobs.forEach(this::process);
+			} while (jobs.size() == BATCH_SIZE);
+		} catch (ServiceUnavailableException e) {
+			// The pool is busy, the remaining jobs are processed on the next poll.
+			log.fine("Postponed rendition jobs: " + e.getMessage());
+		} catch (RuntimeException e) {
+			// Never let an exception escape, as that would cancel the periodic polling.
+			log.log(Level.SEVERE, "Could not process rendition jobs", e);
+		}
+	}
+
+	/**
+	 * Generates the rendition of the given job and removes the job. Failures are registered on the
+	 * job, such that it is retried a few times. A job which has been restarted while it was being
+	 * processed is kept, such that it is processed again.
+	 *
+	 * @param job The job to process.
+	 * @throws ServiceUnavailableException When the image processing pool is too busy, in which
+	 *                                     case the job is left as it is.
+	 */
+	private void process(RenditionJob job) {
+		try {
+			switch (Rendition.valueOf(job.getRendition())) {
+				case THUMBNAIL:
+					generateThumbnail(job);
+					break;
+			}
+		} catch (ServiceUnavailableException e) {
+			throw e;
+		} catch (IOException | RuntimeException e) {
+			log.log(Level.WARNING, "Could not generate " + job.getRendition()
+					+ " of submission " + job.getSubmissionId(), e);
+			renditionJobDao.markFailed(job, e.toString());
+			if (job.getAttempts() + 1 >= MAX_ATTEMPTS) {
+				log.severe("Gave up generating " + job.getRendition()
+						+ " of submission " + job.getSubmissionId());
+			}
+		}
+	}
+
+	/**
+	 * Generates the thumbnail of the submission of the given job. The rotation of the submission
+	 * file is applied to the thumbnail itself. The thumbnail is generated on the image processing
+	 * pool outside of a transaction, only storing it and removing the job are done atomically. If
+	 * the job has been restarted in the meantime, e.g. because the submission was rotated, the
+	 * thumbnail is discarded instead.
+	 *
+	 * @param job The job to process.
+	 * @throws IOException                 When the submission file could not be read or resized.
+	 * @throws ServiceUnavailableException When the image processing pool is too busy.
+	 */
+	private void generateThumbnail(RenditionJob job) throws IOException {
+		int submissionId = job.getSubmissionId();
+		SubmissionFile file = submissionFileDao.findMetadataBySubmissionId(submissionId);
+		if (file == null) {
+			renditionJobDao.deleteIfUnchanged(job);
+			return;
+		}
+		byte[] data = submissionFileDao.fetchData(file);
+		RotationState rotation = RotationState.valueOf(file.getRotation());
+		byte[] thumbnail = ImageProcessingService.await(imageProcessingService.submit(
+				() -> imageService.createThumbnail(data, rotation)));
+
+		transactionTemplate.execute(status -> {
+			if (!renditionJobDao.deleteIfUnchanged(job)) {
+				return null;
+			}
+			try {
+				SubmissionThumbnail existing =
+						submissionThumbnailDao.findMetadataBySubmissionId(submissionId);
+				if (existing != null) {
+					submissionThumbnailDao.update(existing, thumbnail);
+				} else {
+					SubmissionThumbnail created = new SubmissionThumbnail();
+					created.setSubmissionId(submissionId);
+					submissionThumbnailDao.insert(created, thumbnail);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return null;
+		});
+	}
+}
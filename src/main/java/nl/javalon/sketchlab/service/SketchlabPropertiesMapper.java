@@ -1,12 +1,16 @@
 package nl.javalon.sketchlab.service;
 
+import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.ToString;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Service;
 
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -30,6 +34,11 @@ public class SketchlabPropertiesMapper {
 	private Tomcat tomcat = new Tomcat();
 	private Email email = new Email();
 	private InternalUser internalUser;
+	private Storage storage = new Storage();
+	private ImageProcessing imageProcessing = new ImageProcessing();
+	private Renditions renditions = new Renditions();
+	private Encoder encoder = new Encoder();
+	private Pagination pagination = new Pagination();
 
 	/**
 	 * Properties for the email aspect.
@@ -116,4 +125,219 @@ public class SketchlabPropertiesMapper {
 			private List<String> blockedDomains = new ArrayList<>();
 		}
 	}
+
+	/**
+	 * Properties for the storage of images and other binary data.
+	 */
+	@Getter
+	@Setter
+	@ToString
+	public static class Storage {
+		/**
+		 * The directory in which the blob store keeps its files. This directory should be part of
+		 * the backups, as the database only contains references to these files.
+		 */
+		private String directory = "blobs";
+		/**
+		 * The directory in which renditions of images, e.g. rotated images, are cached. This
+		 * directory does not need to be part of the backups, its contents are regenerated on
+		 * demand. Defaults to the renditions subdirectory of the blob store directory.
+		 */
+		private String renditionCacheDirectory;
+		/**
+		 * The maximum total size of the cached renditions in bytes. The least recently used
+		 * renditions are removed when the cache grows beyond it. Defaults to 2 GiB.
+		 */
+		private long renditionCacheMaxSize = 2L * 1024 * 1024 * 1024;
+		private Migration migration = new Migration();
+
+		/**
+		 * Returns the directory in which renditions are cached, resolving the default against the
+		 * blob store directory rather than the working directory.
+		 *
+		 * @return The configured directory, or the renditions subdirectory of the blob store
+		 * directory if none is configured.
+		 */
+		public String getRenditionCacheDirectory() {
+			return renditionCacheDirectory != null
+					? renditionCacheDirectory
+					: Paths.get(directory).resolve("renditions").toString();
+		}
+
+		/**
+		 * Properties for the job which moves image data from the database to the blob store.
+		 */
+		@Getter
+		@Setter
+		@ToString
+		public static class Migration {
+			/**
+			 * Whether image data still stored in the database should be moved to the blob store.
+			 */
+			private boolean enabled = true;
+			/**
+			 * The amount of rows per table moved in a single transaction.
+			 */
+			private int batchSize = 50;
+		}
+	}
+
+	/**
+	 * Properties for the worker pool which resizes and transforms uploaded images.
+	 */
+	@Getter
+	@Setter
+	@ToString
+	public static class ImageProcessing {
+		/**
+		 * The amount of images processed concurrently. Defaults to the amount of processors.
+		 */
+		private int poolSize = Runtime.getRuntime().availableProcessors();
+		/**
+		 * The amount of images which may wait for a worker. Requests arriving when the queue is
+		 * full are rejected immediately.
+		 */
+		private int queueCapacity = 32;
+		/**
+		 * The amount of images a single user may have waiting or being processed at once.
+		 */
+		private int perUserLimit = 2;
+		/**
+		 * The amount of images which may be waiting or being processed at once for tasks which
+		 * are not run for a request, like those of scheduled jobs. These do not count towards the
+		 * limit of the anonymous user.
+		 */
+		private int systemLimit = 2;
+		/**
+		 * The amount of seconds after which a rejected client should try again.
+		 */
+		private int retryAfter = 5;
+		/**
+		 * The maximum amount of pixels of an image which is decoded. Uploads of larger images are
+		 * rejected after reading their header, as a small file can declare dimensions which take
+		 * gigabytes to decode. Defaults to 50 megapixels, more than most cameras produce.
+		 */
+		private long maxPixels = 50_000_000L;
+	}
+
+	/**
+	 * Properties for the renditions in which submissions and task page images are served.
+	 */
+	@Getter
+	@Setter
+	@ToString
+	public static class Renditions {
+		/**
+		 * The widths to which images can be resized when requested with a width, such that
+		 * clients can pick the one fitting their screen. Requested widths are rounded up to one of
+		 * these, which limits the amount of renditions stored per image.
+		 */
+		private List<Integer> widths = new ArrayList<>(Arrays.asList(320, 640, 1024, 2048));
+		private Regeneration regeneration = new Regeneration();
+
+		/**
+		 * Properties for the job which regenerates the renditions of all stored images, see
+		 * {@link RenditionRegenerationService}.
+		 */
+		@Getter
+		@Setter
+		@ToString
+		public static class Regeneration {
+			/**
+			 * The amount of images regenerated concurrently on the image processing pool. Kept
+			 * below its pool size, such that uploads can still be processed.
+			 */
+			private int batchSize = 2;
+			/**
+			 * The amount of milliseconds to wait between two batches, and before retrying a batch
+			 * while uploads are waiting for the image processing pool.
+			 */
+			private long pause = 500;
+		}
+	}
+
+	/**
+	 * Properties for counting the total amount of items of paginated lists, see
+	 * {@link nl.javalon.sketchlab.dao.CountCache}.
+	 */
+	@Getter
+	@Setter
+	@ToString
+	public static class Pagination {
+		/**
+		 * The amount of milliseconds a counted total is reused for the same list. Inserting or
+		 * soft-deleting a submission, changing a subgroup enrollment and deleting a user, task,
+		 * chapter group, chapter or subgroup discard the totals of submission lists immediately.
+		 */
+		private long countCacheTtl = 30_000;
+		/**
+		 * When running on PostgreSQL, totals which the query planner estimates to be larger than
+		 * this amount are not counted, but returned as an estimate. Disabled when 0.
+		 */
+		private int estimateThreshold = 0;
+	}
+
+	/**
+	 * Properties for encoding resized and transformed images, with a profile per purpose of the
+	 * image, see {@link ImageService.Purpose}. The defaults were chosen by measuring the size and
+	 * structural similarity of the demo images, see EncoderProfileBenchmark in the tests.
+	 */
+	@Getter
+	@Setter
+	@ToString
+	public static class Encoder {
+		/**
+		 * Thumbnails shown in overviews, which are small and shown many at once.
+		 */
+		private Profile thumbnail = new Profile(0.85f, true, true, true);
+		/**
+		 * Avatars of users.
+		 */
+		private Profile avatar = new Profile(0.85f, true, true, true);
+		/**
+		 * Uploaded submissions and task page images, which are stored at their maximum size. These
+		 * are encoded as baseline JPEG, such that they can be rotated losslessly.
+		 */
+		private Profile submission = new Profile(0.9f, true, false, true);
+		/**
+		 * Renditions in one of the configured widths, see {@link Renditions#widths}.
+		 */
+		private Profile responsive = new Profile(0.85f, true, true, true);
+		/**
+		 * Images which keep their dimensions, e.g. task examples and rotated images which could not
+		 * be rotated losslessly.
+		 */
+		private Profile original = new Profile(0.9f, true, false, true);
+
+		/**
+		 * Settings of the encoder. Settings which do not apply to the format of an image, like the
+		 * chroma subsampling of a PNG image, are ignored.
+		 */
+		@Getter
+		@Setter
+		@ToString
+		@NoArgsConstructor
+		@AllArgsConstructor
+		public static class Profile {
+			/**
+			 * The compression quality of lossy formats, between 0 and 1.
+			 */
+			private float quality = 0.85f;
+			/**
+			 * Whether JPEG images store their color at half the resolution in both directions
+			 * (4:2:0), rather than at full resolution (4:4:4).
+			 */
+			private boolean chromaSubsampling = true;
+			/**
+			 * Whether images are encoded progressively, such that browsers can show a coarse
+			 * version of the image while it is loading.
+			 */
+			private boolean progressive;
+			/**
+			 * Whether JPEG images are encoded with Huffman tables computed for the image itself,
+			 * rather than the standard tables. This takes an extra pass over the image.
+			 */
+			private boolean optimizeHuffman = true;
+		}
+	}
 }
@@ -0,0 +1,13 @@
+-- Store the amount of votes and annotations of a submission, instead of counting them for every
+-- submission in a list. The counters are maintained by VoteDetailsDao and AnnotationDetailsDao,
+-- in the same transaction as the vote or annotation itself.
+ALTER TABLE "submission" ADD COLUMN "vote_count" INTEGER NOT NULL DEFAULT 0;
+ALTER TABLE "submission" ADD COLUMN "annotation_count" INTEGER NOT NULL DEFAULT 0;
+
+UPDATE submission SET
+  vote_count = (SELECT COUNT(*) FROM vote WHERE vote.submission_id = submission.id),
+  annotation_count = (SELECT COUNT(*) FROM annotation WHERE annotation.submission_id = submission.id);
+
+-- Lists ordered by best work and votes (SubmissionOrdering.BEST) scan this index instead of
+-- sorting all submissions of the chapter group.
+CREATE INDEX submission_best ON submission(chapter_group_id, best_work, vote_count);
@@ -0,0 +1,21 @@
+-- Secondary indexes for the predicates of the most frequent queries. Primary keys and unique
+-- constraints are indexed already, foreign keys are not. QueryPlanTest checks the plans of these
+-- queries against a seeded PostgreSQL database.
+
+-- Submissions of a chapter group, by task and/or user (SubmissionDetailsDao).
+CREATE INDEX submission_group_task_user ON submission(chapter_group_id, task_id, user_id);
+
+-- Votes and annotations of a user, e.g. when deleting the user, and annotations of a submission.
+CREATE INDEX vote_user ON vote(user_id);
+CREATE INDEX annotation_submission ON annotation(submission_id);
+
+-- Notifications of a user (NotificationDetailsDao.getNotificationsForUser).
+CREATE INDEX notification_user ON notification(user_id);
+
+-- Questions of a chapter group and of a user (QuestionDetailsDao).
+CREATE INDEX question_chapter_group ON question(chapter_group_id);
+CREATE INDEX question_user ON question(user_id);
+
+-- Enrollments of a user (SecurityService.hasPermissionToChapter) and the subgroups of a user.
+CREATE INDEX enrollment_user ON enrollment(user_id);
+CREATE INDEX subgroup_enrollment_user ON subgroup_enrollment(user_id);
@@ -0,0 +1,4 @@
+-- Requesting a rendition which already has a job (e.g. rotating a submission while its thumbnail
+-- is being generated) increments the generation of the job. The worker only removes a job if its
+-- generation did not change while generating, such that the rendition is generated again.
+ALTER TABLE "rendition_job" ADD COLUMN "generation" INTEGER NOT NULL DEFAULT 0;
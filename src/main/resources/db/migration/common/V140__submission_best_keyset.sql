@@ -0,0 +1,7 @@
+-- Galleries ordered by best work and votes (SubmissionOrdering.BEST) are ordered by the ID of the
+-- submission last, see SubmissionDetailsDao.getKeysetOrdering. Replace the index of
+-- V110__submission_counters.sql by one in the same order, such that a page is read from the index
+-- instead of sorting all best works and votes of the gallery. On PostgreSQL, V141 replaces this
+-- index by a partial one.
+DROP INDEX submission_best;
+CREATE INDEX submission_best ON submission(chapter_group_id, best_work DESC, vote_count DESC, id DESC);
@@ -0,0 +1,3 @@
+-- Avatars are no longer regenerated (see RenditionRegenerationService.Target), so remove their
+-- progress, which would otherwise keep an unfinished regeneration from completing.
+DELETE FROM rendition_regeneration WHERE target = 'USER_AVATARS';
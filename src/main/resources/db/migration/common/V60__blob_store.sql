@@ -0,0 +1,26 @@
+-- Move image data out of the database and into the content-addressed blob store. Rows with a
+-- blob_hash keep their data in the blob store, rows without one still carry it inline until the
+-- blob migration job has moved it out. The data columns therefore become nullable.
+ALTER TABLE "submission_file" ADD COLUMN "blob_hash" VARCHAR(64) DEFAULT NULL;
+ALTER TABLE "submission_file" ADD COLUMN "blob_size" INTEGER DEFAULT NULL;
+ALTER TABLE "submission_file" ALTER COLUMN "data" DROP NOT NULL;
+
+ALTER TABLE "submission_thumbnail" ADD COLUMN "blob_hash" VARCHAR(64) DEFAULT NULL;
+ALTER TABLE "submission_thumbnail" ADD COLUMN "blob_size" INTEGER DEFAULT NULL;
+ALTER TABLE "submission_thumbnail" ALTER COLUMN "data" DROP NOT NULL;
+
+ALTER TABLE "example_submission_file" ADD COLUMN "blob_hash" VARCHAR(64) DEFAULT NULL;
+ALTER TABLE "example_submission_file" ADD COLUMN "blob_size" INTEGER DEFAULT NULL;
+ALTER TABLE "example_submission_file" ALTER COLUMN "data" DROP NOT NULL;
+
+ALTER TABLE "example_submission_thumbnail" ADD COLUMN "blob_hash" VARCHAR(64) DEFAULT NULL;
+ALTER TABLE "example_submission_thumbnail" ADD COLUMN "blob_size" INTEGER DEFAULT NULL;
+ALTER TABLE "example_submission_thumbnail" ALTER COLUMN "data" DROP NOT NULL;
+
+ALTER TABLE "task_page_image" ADD COLUMN "blob_hash" VARCHAR(64) DEFAULT NULL;
+ALTER TABLE "task_page_image" ADD COLUMN "blob_size" INTEGER DEFAULT NULL;
+ALTER TABLE "task_page_image" ALTER COLUMN "data" DROP NOT NULL;
+
+ALTER TABLE "user_avatar" ADD COLUMN "blob_hash" VARCHAR(64) DEFAULT NULL;
+ALTER TABLE "user_avatar" ADD COLUMN "blob_size" INTEGER DEFAULT NULL;
+ALTER TABLE "user_avatar" ALTER COLUMN "image" DROP NOT NULL;
@@ -0,0 +1,12 @@
+-- Renditions of uploaded images (e.g. thumbnails) are generated in the background. Every rendition
+-- which still has to be generated has a job in this table, such that pending work survives a
+-- restart of the application.
+CREATE TABLE rendition_job (
+  id SERIAL PRIMARY KEY,
+  submission_id INTEGER NOT NULL REFERENCES submission(id) ON DELETE CASCADE,
+  rendition VARCHAR(32) NOT NULL, -- see RenditionService.Rendition
+  created TIMESTAMP NOT NULL,
+  attempts INTEGER NOT NULL DEFAULT 0, -- failed attempts, jobs are given up after a few failures
+  last_error VARCHAR(1000) DEFAULT NULL,
+  UNIQUE (submission_id, rendition)
+);
@@ -0,0 +1,5 @@
+-- Store the rotation of images as metadata instead of re-encoding the image on every rotation.
+-- Contains the name of an ImageService.RotationState, which is applied when the image is served.
+ALTER TABLE "submission_file" ADD COLUMN "rotation" VARCHAR(16) NOT NULL DEFAULT 'ROT0';
+ALTER TABLE "task_page_image" ADD COLUMN "rotation" VARCHAR(16) NOT NULL DEFAULT 'ROT0';
+ALTER TABLE "user_avatar" ADD COLUMN "rotation" VARCHAR(16) NOT NULL DEFAULT 'ROT0';
@@ -0,0 +1,17 @@
+-- Detect submissions which are uploaded more than once. The source_hash is the SHA-256 hash of the
+-- uploaded file before it was resized, such that an identical upload can reuse the stored image
+-- instead of being processed again. The perceptual_hash (see ImageService.createPerceptualHash)
+-- also matches uploads of the same image which are encoded differently.
+ALTER TABLE "submission_file" ADD COLUMN "source_hash" VARCHAR(64) DEFAULT NULL;
+ALTER TABLE "submission_file" ADD COLUMN "perceptual_hash" BIGINT DEFAULT NULL;
+
+-- The earlier submission this submission is possibly a duplicate of, shown to teachers.
+ALTER TABLE "submission_file"
+  ADD COLUMN duplicate_of INTEGER DEFAULT NULL;
+
+ALTER TABLE "submission_file"
+  ADD CONSTRAINT fk_submission_file_duplicate_of
+    FOREIGN KEY (duplicate_of) REFERENCES submission(id)
+    ON DELETE SET NULL;
+
+CREATE INDEX submission_file_source_hash ON submission_file(source_hash);
@@ -0,0 +1,14 @@
+-- Progress of the job which regenerates the renditions of all stored images, e.g. after the size
+-- or encoder settings of thumbnails changed. Every table of which the renditions are regenerated
+-- has a row, containing the key of the last regenerated row as checkpoint, such that the job
+-- resumes where it left off after a restart.
+CREATE TABLE rendition_regeneration (
+  target VARCHAR(32) PRIMARY KEY, -- see RenditionRegenerationService.Target
+  last_key VARCHAR(64) DEFAULT NULL, -- null until the first batch has been regenerated
+  total INTEGER NOT NULL,
+  processed INTEGER NOT NULL DEFAULT 0,
+  failed INTEGER NOT NULL DEFAULT 0,
+  started TIMESTAMP NOT NULL,
+  finished TIMESTAMP DEFAULT NULL,
+  last_error VARCHAR(1000) DEFAULT NULL
+);
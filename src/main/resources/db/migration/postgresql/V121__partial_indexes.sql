@@ -0,0 +1,12 @@
+-- Partial indexes, which H2 does not support, covering only the submissions which are not
+-- soft-deleted. Almost every list of submissions leaves out soft-deleted ones.
+
+-- Galleries ordered by date (SubmissionOrdering.NEW), in the same order as the keyset ordering of
+-- SubmissionDetailsDao, such that a page is read from the index instead of sorting the gallery.
+CREATE INDEX submission_new ON submission(chapter_group_id, created_at DESC, id DESC)
+  WHERE NOT soft_deleted;
+
+-- Best work across all chapter groups (SubmissionDetailsDao.fetchBestWork and inBestWork).
+CREATE INDEX submission_best_work ON submission(vote_count DESC)
+  WHERE best_work AND NOT soft_deleted;
+
@@ -0,0 +1,5 @@
+-- Like submission_new (V121__partial_indexes.sql), only cover the submissions which are not
+-- soft-deleted in the index of galleries ordered by best work and votes.
+DROP INDEX submission_best;
+CREATE INDEX submission_best ON submission(chapter_group_id, best_work DESC, vote_count DESC, id DESC)
+  WHERE NOT soft_deleted;
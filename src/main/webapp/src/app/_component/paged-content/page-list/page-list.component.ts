@@ -38,6 +38,14 @@ export class PageListComponent<T> implements OnInit {
 		return Math.ceil((this.page.totalSize / this.page.pageSize));
 	}
 
+	/**
+	 * Whether the total amount of pages is an estimate, which the server returns for large lists.
+	 * @returns {boolean}
+	 */
+	get approximate(): boolean {
+		return this.page.totalSizeExact === false;
+	}
+
 	/**
 	 * The current page number
 	 * @returns {number}
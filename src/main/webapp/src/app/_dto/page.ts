@@ -6,6 +6,9 @@ export interface Page<T> {
 	offset: number;
 	pageSize: number;
 	totalSize: number;
+	totalSizeExact: boolean;
+	cursor?: string;
+	nextCursor?: string;
 	pageNumber: number;
 	hasNext: boolean;
 	hasPrevious: boolean;
@@ -12,6 +12,9 @@ export interface Submission {
 	votes: number;
 	annotations: number;
 	userHasVoted: boolean;
+	fileVersion?: string;
+	thumbnailVersion?: string;
+	duplicateOf?: number;
 }
 
 export interface SubmissionDetails extends Submission {
@@ -38,6 +38,7 @@ export interface TaskPage {
 export interface TaskPageImage {
 	id: number;
 	mimeType: string;
+	version?: string;
 }
 
 export interface TaskExample {
@@ -46,6 +47,8 @@ export interface TaskExample {
 	user: User;
 	comment: string;
 	createdAt: number;
+	fileVersion?: string;
+	thumbnailVersion?: string;
 }
 
 
@@ -16,7 +16,8 @@ export class BestWorkService implements SubmissionFileInformation {
 	 * @returns {string}
 	 */
 	getThumbnailUrl(submission: SubmissionDetails) {
-		return `${this.config.apiUrl}/best-work/submissions/${submission.id}/thumbnail`
+		const version = submission.thumbnailVersion ? `?v=${submission.thumbnailVersion}` : '';
+		return `${this.config.apiUrl}/best-work/submissions/${submission.id}/thumbnail${version}`
 	}
 
 	/**
@@ -61,7 +61,8 @@ export class SubmissionService implements SubmissionFileInformation {
 	 * @returns {string}
 	 */
 	public getThumbnailUrl(submission: SubmissionDetails): string {
-		return `${this.config.apiUrl}/chapters/${submission.task.chapterId}/groups/${submission.chapterGroupId}/submissions/${submission.id}/thumbnail`;
+		const version = submission.thumbnailVersion ? `?v=${submission.thumbnailVersion}` : '';
+		return `${this.config.apiUrl}/chapters/${submission.task.chapterId}/groups/${submission.chapterGroupId}/submissions/${submission.id}/thumbnail${version}`;
 	}
 
 	/**
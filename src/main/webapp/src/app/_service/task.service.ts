@@ -85,7 +85,8 @@ export class TaskService {
 	 * @returns {string}
 	 */
 	getTaskExampleFileUrl(chapterId: number, taskExample: TaskExample): string {
-		return `${this.config.apiUrl}/chapters/${chapterId}/tasks/${taskExample.taskId}/examples/${taskExample.id}/file`;
+		const version = taskExample.fileVersion ? `?v=${taskExample.fileVersion}` : '';
+		return `${this.config.apiUrl}/chapters/${chapterId}/tasks/${taskExample.taskId}/examples/${taskExample.id}/file${version}`;
 	}
 
 	/**
@@ -95,7 +96,8 @@ export class TaskService {
 	 * @returns {string}
 	 */
 	getTaskExampleThumbnailUrl(chapterId: number, taskExample: TaskExample): string {
-		return `${this.config.apiUrl}/chapters/${chapterId}/tasks/${taskExample.taskId}/examples/${taskExample.id}/thumbnail`;
+		const version = taskExample.thumbnailVersion ? `?v=${taskExample.thumbnailVersion}` : '';
+		return `${this.config.apiUrl}/chapters/${chapterId}/tasks/${taskExample.taskId}/examples/${taskExample.id}/thumbnail${version}`;
 	}
 
 	/**
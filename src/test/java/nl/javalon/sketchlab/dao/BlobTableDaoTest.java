@@ -0,0 +1,83 @@
+package nl.javalon.sketchlab.dao;
+
+import static nl.javalon.sketchlab.entity.Tables.*;
+
+import nl.javalon.sketchlab.entity.tables.pojos.UserAvatar;
+import nl.javalon.sketchlab.security.UserRole;
+import nl.javalon.sketchlab.service.FileSystemBlobStore;
+import org.flywaydb.core.Flyway;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.UUID;
+
+/**
+ * @author Jelle Stege
+ */
+public class BlobTableDaoTest {
+	private static final String URL =
+			"jdbc:h2:mem:blob-table-dao;MODE=PostgreSQL;database_to_upper=false";
+	private static final byte[] INLINE = "inline".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] STORED = "stored".getBytes(StandardCharsets.UTF_8);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Connection connection;
+	private FileSystemBlobStore blobStore;
+	private BlobTableDao blobTableDao;
+	private UUID userId;
+
+	@Before
+	public void setUp() throws Exception {
+		// Keeps the in-memory database alive until the test has finished.
+		connection = DriverManager.getConnection(URL, "sa", "");
+		Flyway flyway = new Flyway();
+		flyway.setDataSource(URL, "sa", "");
+		flyway.setLocations("classpath:db/migration/common");
+		flyway.migrate();
+
+		DSLContext sql = DSL.using(connection, SQLDialect.H2);
+		blobStore = new FileSystemBlobStore(folder.getRoot().toPath());
+		blobTableDao = new BlobTableDao(sql, blobStore);
+
+		userId = UUID.randomUUID();
+		sql.insertInto(USER, USER.ID, USER.FIRST_NAME, USER.EMAIL, USER.ROLE)
+				.values(userId, "User", "user@example.com", UserRole.STUDENT.toString())
+				.execute();
+		sql.insertInto(USER_AVATAR, USER_AVATAR.USER_ID, USER_AVATAR.IMAGE)
+				.values(userId, INLINE)
+				.execute();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		connection.close();
+	}
+
+	@Test
+	public void testStoreAndFetchData() throws Exception {
+		UserAvatar avatar = new UserAvatar();
+		avatar.setUserId(userId);
+		avatar.setImage(INLINE);
+		Assert.assertArrayEquals(INLINE, blobTableDao.fetchData(BlobTable.USER_AVATARS, avatar));
+
+		// Only the POJO is changed, the data is read from the blob store through its hash.
+		blobTableDao.storeData(BlobTable.USER_AVATARS, avatar, STORED);
+		Assert.assertEquals(blobStore.put(STORED), avatar.getBlobHash());
+		Assert.assertEquals(STORED.length, (int) avatar.getBlobSize());
+		Assert.assertNull(avatar.getImage());
+		Assert.assertEquals(userId, avatar.getUserId());
+		Assert.assertArrayEquals(STORED, blobTableDao.fetchData(BlobTable.USER_AVATARS, avatar));
+	}
+}
@@ -0,0 +1,75 @@
+package nl.javalon.sketchlab.dao;
+
+import org.jooq.DSLContext;
+import org.jooq.Record1;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.Select;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Jelle Stege
+ */
+public class CountCacheTest {
+	private static final String REGION = "submission";
+
+	private int executions;
+	private DSLContext sql;
+
+	@Before
+	public void setUp() {
+		DSLContext create = DSL.using(SQLDialect.H2);
+		sql = DSL.using(new MockConnection(ctx -> {
+			executions++;
+			Result<Record1<Integer>> result = create.newResult(DSL.count());
+			result.add(create.newRecord(DSL.count()).values(42));
+			return new MockResult[]{new MockResult(1, result)};
+		}), SQLDialect.H2);
+	}
+
+	@Test
+	public void testCountIsCached() {
+		CountCache cache = new CountCache(sql, 60_000, 0);
+		CountCache.Count count = cache.count(REGION, countQuery(1));
+		Assert.assertEquals(42, count.getValue());
+		Assert.assertTrue(count.isExact());
+		cache.count(REGION, countQuery(1));
+		Assert.assertEquals(1, executions);
+
+		// Other parameters are counted separately.
+		cache.count(REGION, countQuery(2));
+		Assert.assertEquals(2, executions);
+	}
+
+	@Test
+	public void testInvalidate() {
+		CountCache cache = new CountCache(sql, 60_000, 0);
+		cache.count(REGION, countQuery(1));
+		cache.invalidate("task");
+		cache.count(REGION, countQuery(1));
+		Assert.assertEquals(1, executions);
+
+		cache.invalidate(REGION);
+		cache.count(REGION, countQuery(1));
+		Assert.assertEquals(2, executions);
+	}
+
+	@Test
+	public void testExpiry() {
+		CountCache cache = new CountCache(sql, 0, 0);
+		cache.count(REGION, countQuery(1));
+		cache.count(REGION, countQuery(1));
+		Assert.assertEquals(2, executions);
+	}
+
+	private Select<Record1<Integer>> countQuery(int chapterGroupId) {
+		return sql.selectCount()
+				.from(DSL.table("submission"))
+				.where(DSL.field("chapter_group_id").eq(chapterGroupId));
+	}
+}
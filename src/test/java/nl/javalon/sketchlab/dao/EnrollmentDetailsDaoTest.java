@@ -0,0 +1,111 @@
+package nl.javalon.sketchlab.dao;
+
+import static nl.javalon.sketchlab.entity.Tables.*;
+
+import nl.javalon.sketchlab.dto.chapter.EnrollmentDetailsDto;
+import nl.javalon.sketchlab.dto.user.UserDetailsDto;
+import nl.javalon.sketchlab.security.UserRole;
+import org.flywaydb.core.Flyway;
+import org.jooq.Configuration;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
+import org.jooq.impl.DefaultExecuteListenerProvider;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * @author Jelle Stege
+ */
+public class EnrollmentDetailsDaoTest {
+	private static final String URL =
+			"jdbc:h2:mem:enrollment-dao;MODE=PostgreSQL;database_to_upper=false";
+	private static final int CHAPTER_GROUP_ID = 1;
+	private static final int ASSISTANTS = 3;
+
+	private final QueryCounter queries = new QueryCounter();
+	private Connection connection;
+	private EnrollmentDetailsDao enrollmentDao;
+
+	@Before
+	public void setUp() throws SQLException {
+		// Keeps the in-memory database alive until the test has finished.
+		connection = DriverManager.getConnection(URL, "sa", "");
+		Flyway flyway = new Flyway();
+		flyway.setDataSource(URL, "sa", "");
+		flyway.setLocations("classpath:db/migration/common");
+		flyway.migrate();
+
+		Configuration configuration = new DefaultConfiguration()
+				.set(connection)
+				.set(SQLDialect.H2)
+				.set(new DefaultExecuteListenerProvider(queries));
+		DSLContext sql = DSL.using(configuration);
+		enrollmentDao = new EnrollmentDetailsDao(configuration, sql);
+
+		sql.insertInto(CHAPTER, CHAPTER.ID, CHAPTER.LABEL).values(1, "Chapter").execute();
+		sql.insertInto(CHAPTER_GROUP,
+				CHAPTER_GROUP.ID, CHAPTER_GROUP.CHAPTER_ID, CHAPTER_GROUP.NAME)
+				.values(CHAPTER_GROUP_ID, 1, "Group")
+				.execute();
+		for (int i = 0; i <= ASSISTANTS; i++) {
+			UUID userId = UUID.randomUUID();
+			sql.insertInto(USER, USER.ID, USER.FIRST_NAME, USER.EMAIL, USER.ROLE)
+					.values(userId, "User " + i, "user" + i + "@example.com",
+							UserRole.STUDENT.toString())
+					.execute();
+			sql.insertInto(UTWENTE_USER, UTWENTE_USER.UTWENTE_ID, UTWENTE_USER.USER_ID,
+					UTWENTE_USER.ACTIVE, UTWENTE_USER.CREATED, UTWENTE_USER.MODIFIED)
+					.values("s" + i, userId, true, now(), now())
+					.execute();
+			// The first user is a regular student.
+			sql.insertInto(ENROLLMENT, ENROLLMENT.CHAPTER_GROUP_ID, ENROLLMENT.USER_ID,
+					ENROLLMENT.ASSISTANT)
+					.values(CHAPTER_GROUP_ID, userId, i > 0)
+					.execute();
+		}
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		connection.close();
+	}
+
+	@Test
+	public void testFetchAssistantsById() {
+		List<EnrollmentDetailsDto> assistants = queries.assertAtMost(1,
+				() -> enrollmentDao.fetchAssistantsById(CHAPTER_GROUP_ID, true));
+		Assert.assertEquals(ASSISTANTS, assistants.size());
+		for (EnrollmentDetailsDto assistant : assistants) {
+			UserDetailsDto user = (UserDetailsDto) assistant.getUser();
+			Assert.assertEquals(assistant.getUserId(), user.getId());
+			Assert.assertEquals(CHAPTER_GROUP_ID, (int) assistant.getChapterGroup().getId());
+			Assert.assertEquals("s" + user.getFirstName().substring(5), user.getFriendlyId());
+			Assert.assertTrue(user.getTa());
+		}
+	}
+
+	@Test
+	public void testFetchAssistantsByIdWithoutFriendlyId() {
+		List<EnrollmentDetailsDto> assistants = queries.assertAtMost(1,
+				() -> enrollmentDao.fetchAssistantsById(CHAPTER_GROUP_ID, false));
+		Assert.assertEquals(ASSISTANTS, assistants.size());
+		for (EnrollmentDetailsDto assistant : assistants) {
+			Assert.assertNull(((UserDetailsDto) assistant.getUser()).getFriendlyId());
+		}
+	}
+
+	private static Timestamp now() {
+		return new Timestamp(System.currentTimeMillis());
+	}
+}
@@ -0,0 +1,43 @@
+package nl.javalon.sketchlab.dao;
+
+import org.jooq.ExecuteContext;
+import org.jooq.impl.DefaultExecuteListener;
+import org.junit.Assert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Counts the statements executed through a jOOQ configuration, to assert that a DAO method does
+ * not issue a query per row of its result. Register it as an execute listener of the
+ * configuration of the DAO under test, e.g. using a
+ * {@link org.jooq.impl.DefaultExecuteListenerProvider}.
+ *
+ * @author Jelle Stege
+ */
+public class QueryCounter extends DefaultExecuteListener {
+	private final List<String> statements = new ArrayList<>();
+
+	@Override
+	public void executeStart(ExecuteContext ctx) {
+		statements.add(ctx.sql() != null ? ctx.sql() : Arrays.toString(ctx.batchSQL()));
+	}
+
+	/**
+	 * Runs the given call and fails if it executes more than the given amount of statements.
+	 *
+	 * @param max  The maximum amount of statements the call may execute.
+	 * @param call The call to run, usually a single DAO method.
+	 * @param <T>  The type of the result of the call.
+	 * @return The result of the call.
+	 */
+	public <T> T assertAtMost(int max, Supplier<T> call) {
+		statements.clear();
+		T result = call.get();
+		Assert.assertTrue(String.format("Expected at most %d statements, but %d were executed:\n%s",
+				max, statements.size(), String.join("\n", statements)), statements.size() <= max);
+		return result;
+	}
+}
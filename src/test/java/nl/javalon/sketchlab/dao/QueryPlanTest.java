@@ -0,0 +1,249 @@
+package nl.javalon.sketchlab.dao;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.javalon.sketchlab.dto.page.Page;
+import nl.javalon.sketchlab.dto.page.PageParameters;
+import nl.javalon.sketchlab.dto.task.submission.SubmissionDetailsDto;
+import nl.javalon.sketchlab.dto.task.submission.SubmissionOrdering;
+import org.flywaydb.core.Flyway;
+import org.jooq.Configuration;
+import org.jooq.DSLContext;
+import org.jooq.ExecuteContext;
+import org.jooq.SQLDialect;
+import org.jooq.Select;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
+import org.jooq.impl.DefaultExecuteListener;
+import org.jooq.impl.DefaultExecuteListenerProvider;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.UUID;
+
+/**
+ * Checks the query plans of the most frequent DAO queries against a seeded PostgreSQL database,
+ * failing on sequential scans of tables with more than a threshold of rows, which point to a
+ * missing index. H2 plans differently, so this only runs if SKETCHLAB_QUERY_PLAN_URL contains the
+ * JDBC URL of a PostgreSQL database, with the credentials in SKETCHLAB_QUERY_PLAN_USER and
+ * SKETCHLAB_QUERY_PLAN_PASSWORD. The database is migrated, while the seeded data is rolled back
+ * afterwards. The threshold can be set with SKETCHLAB_QUERY_PLAN_MAX_ROWS.
+ *
+ * @author Jelle Stege
+ */
+public class QueryPlanTest {
+	private static final int DEFAULT_MAX_ROWS = 1000;
+
+	// See query-plan-seed.sql
+	private static final int CHAPTER_ID = 1000001;
+	private static final int CHAPTER_GROUP_ID = 1000001;
+	private static final int TASK_ID = 1000001;
+	private static final int SUBGROUP_ID = 1000001;
+	private static final int SUBMISSION_ID = 1000090;
+	private static final UUID TEACHER_ID = seededUser(1);
+	private static final UUID STUDENT_ID = seededUser(100);
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final Map<String, Long> tableSizes = new HashMap<>();
+	private final List<String> sequentialScans = new ArrayList<>();
+	private long maxRows;
+	private Connection connection;
+
+	private SubmissionDetailsDao submissionDao;
+	private AnnotationDetailsDao annotationDao;
+	private NotificationDetailsDao notificationDao;
+	private EnrollmentDetailsDao enrollmentDao;
+	private QuestionDetailsDao questionDao;
+
+	@Before
+	public void setUp() throws Exception {
+		String url = System.getenv("SKETCHLAB_QUERY_PLAN_URL");
+		Assume.assumeNotNull(url);
+		String user = System.getenv("SKETCHLAB_QUERY_PLAN_USER");
+		String password = System.getenv("SKETCHLAB_QUERY_PLAN_PASSWORD");
+		String configuredMaxRows = System.getenv("SKETCHLAB_QUERY_PLAN_MAX_ROWS");
+		maxRows = configuredMaxRows == null ? DEFAULT_MAX_ROWS : Long.parseLong(configuredMaxRows);
+
+		Flyway flyway = new Flyway();
+		flyway.setDataSource(url, user, password);
+		flyway.setLocations("classpath:db/migration/common", "classpath:db/migration/postgresql");
+		flyway.migrate();
+
+		connection = DriverManager.getConnection(url, user, password);
+		connection.setAutoCommit(false);
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(readSeed());
+		}
+
+		Configuration configuration = new DefaultConfiguration()
+				.set(connection)
+				.set(SQLDialect.POSTGRES_9_5)
+				.set(new DefaultExecuteListenerProvider(new ExplainListener()));
+		DSLContext sql = DSL.using(configuration);
+		UserDetailsDao userDao = new UserDetailsDao(configuration, sql);
+		// Count every total, such that the count queries are explained as well.
+		submissionDao = new SubmissionDetailsDao(configuration, sql, new CountCache(sql, 0, 0));
+		annotationDao = new AnnotationDetailsDao(configuration, sql);
+		enrollmentDao = new EnrollmentDetailsDao(configuration, sql);
+		notificationDao = new NotificationDetailsDao(configuration, sql, enrollmentDao, userDao);
+		questionDao = new QuestionDetailsDao(
+				configuration, sql, new AnswerDetailsDao(configuration, sql));
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		if (connection != null) {
+			connection.rollback();
+			connection.close();
+		}
+	}
+
+	@Test
+	public void testSubmissionGalleries() {
+		for (SubmissionOrdering ordering : SubmissionOrdering.values()) {
+			PageParameters offset = PageParameters.of(30, 15);
+			PageParameters firstPage = PageParameters.of(0, 15, "", true);
+			submissionDao.fetchByChapterGroup(CHAPTER_GROUP_ID, STUDENT_ID, ordering, offset);
+			Page<SubmissionDetailsDto> page = submissionDao.fetchByChapterGroup(
+					CHAPTER_GROUP_ID, STUDENT_ID, ordering, firstPage);
+			submissionDao.fetchByChapterGroup(CHAPTER_GROUP_ID, STUDENT_ID, ordering,
+					PageParameters.of(0, 15, page.getNextCursor(), false));
+			submissionDao.fetchByChapterGroupAndTask(
+					CHAPTER_GROUP_ID, TASK_ID, STUDENT_ID, ordering, offset);
+			submissionDao.fetchByChapterGroupAndSubGroup(
+					CHAPTER_GROUP_ID, SUBGROUP_ID, STUDENT_ID, ordering, firstPage);
+			submissionDao.fetchByEnrollment(
+					CHAPTER_GROUP_ID, STUDENT_ID, TEACHER_ID, ordering, true, offset);
+			submissionDao.fetchByChapterGroupAndTaskAndUser(
+					CHAPTER_GROUP_ID, TASK_ID, STUDENT_ID, STUDENT_ID, ordering, offset);
+		}
+		submissionDao.findByChapterGroupAndSubmissionId(
+				CHAPTER_ID, CHAPTER_GROUP_ID, SUBMISSION_ID, STUDENT_ID, false);
+		submissionDao.fetchBestWork(STUDENT_ID, 10);
+		submissionDao.inBestWork(SUBMISSION_ID, 10);
+		assertNoSequentialScans();
+	}
+
+	@Test
+	public void testAnnotations() {
+		annotationDao.fetchBySubmissionIdAndChapterGroupId(
+				SUBMISSION_ID, CHAPTER_GROUP_ID, CHAPTER_ID, false);
+		assertNoSequentialScans();
+	}
+
+	@Test
+	public void testNotifications() {
+		notificationDao.getNotificationsForUser(STUDENT_ID);
+		assertNoSequentialScans();
+	}
+
+	@Test
+	public void testPermissions() {
+		enrollmentDao.findById(CHAPTER_GROUP_ID, STUDENT_ID);
+		enrollmentDao.fetchByUserAndChapterId(STUDENT_ID, CHAPTER_ID);
+		assertNoSequentialScans();
+	}
+
+	@Test
+	public void testQuestions() {
+		questionDao.fetchByChapterIdAndChapterGroupId(CHAPTER_ID, CHAPTER_GROUP_ID);
+		questionDao.fetchForUserId(STUDENT_ID);
+		assertNoSequentialScans();
+	}
+
+	private void assertNoSequentialScans() {
+		Assert.assertTrue(String.join("\n\n", sequentialScans), sequentialScans.isEmpty());
+	}
+
+	/**
+	 * Collects the sequential scans of tables with more than the maximum amount of rows in the
+	 * given node of a query plan and its children.
+	 */
+	private void collectSequentialScans(JsonNode plan, String query) throws SQLException {
+		if ("Seq Scan".equals(plan.path("Node Type").asText())) {
+			String table = plan.path("Relation Name").asText();
+			long rows = getTableSize(table);
+			if (rows > maxRows) {
+				sequentialScans.add(String.format(
+						"Sequential scan of %s (%d rows) in: %s", table, rows, query));
+			}
+		}
+		for (JsonNode child : plan.path("Plans")) {
+			collectSequentialScans(child, query);
+		}
+	}
+
+	private long getTableSize(String table) throws SQLException {
+		Long size = tableSizes.get(table);
+		if (size == null) {
+			try (Statement statement = connection.createStatement();
+				 ResultSet result = statement.executeQuery(
+						 "SELECT COUNT(*) FROM \"" + table.replace("\"", "\"\"") + "\"")) {
+				result.next();
+				size = result.getLong(1);
+			}
+			tableSizes.put(table, size);
+		}
+		return size;
+	}
+
+	private static String readSeed() throws IOException {
+		try (InputStream seed = QueryPlanTest.class.getResourceAsStream("/db/query-plan-seed.sql");
+			 Scanner scanner = new Scanner(seed, StandardCharsets.UTF_8.name())) {
+			return scanner.useDelimiter("\\A").next();
+		}
+	}
+
+	/**
+	 * Returns the ID of a seeded user, which is the MD5 hash of its name like in the seed.
+	 */
+	private static UUID seededUser(int index) {
+		try {
+			ByteBuffer hash = ByteBuffer.wrap(MessageDigest.getInstance("MD5")
+					.digest(("user" + index).getBytes(StandardCharsets.UTF_8)));
+			return new UUID(hash.getLong(), hash.getLong());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Runs EXPLAIN for every select query before it is executed.
+	 */
+	private class ExplainListener extends DefaultExecuteListener {
+		@Override
+		public void executeStart(ExecuteContext ctx) {
+			if (!(ctx.query() instanceof Select)) {
+				return;
+			}
+			String query = DSL.using(ctx.configuration()).renderInlined(ctx.query());
+			try (Statement statement = connection.createStatement();
+				 ResultSet plan = statement.executeQuery("EXPLAIN (FORMAT JSON) " + query)) {
+				plan.next();
+				JsonNode root = objectMapper.readTree(plan.getString(1));
+				collectSequentialScans(root.path(0).path("Plan"), query);
+			} catch (SQLException | IOException e) {
+				throw new IllegalStateException("Could not explain " + query, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package nl.javalon.sketchlab.dao;
+
+import static nl.javalon.sketchlab.entity.Tables.*;
+
+import nl.javalon.sketchlab.dto.task.TaskTrack;
+import nl.javalon.sketchlab.entity.tables.pojos.RenditionJob;
+import nl.javalon.sketchlab.security.UserRole;
+import org.flywaydb.core.Flyway;
+import org.jooq.Configuration;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * @author Jelle Stege
+ */
+public class RenditionJobDetailsDaoTest {
+	private static final String URL =
+			"jdbc:h2:mem:rendition-job-dao;MODE=PostgreSQL;database_to_upper=false";
+	private static final String RENDITION = "THUMBNAIL";
+	private static final int MAX_ATTEMPTS = 3;
+
+	private Connection connection;
+	private RenditionJobDetailsDao renditionJobDao;
+	private int submissionId;
+
+	@Before
+	public void setUp() throws SQLException {
+		// Keeps the in-memory database alive until the test has finished.
+		connection = DriverManager.getConnection(URL, "sa", "");
+		Flyway flyway = new Flyway();
+		flyway.setDataSource(URL, "sa", "");
+		flyway.setLocations("classpath:db/migration/common");
+		flyway.migrate();
+
+		Configuration configuration = new DefaultConfiguration()
+				.set(connection)
+				.set(SQLDialect.H2);
+		DSLContext sql = DSL.using(configuration);
+		renditionJobDao = new RenditionJobDetailsDao(configuration, sql);
+
+		UUID userId = UUID.randomUUID();
+		sql.insertInto(USER, USER.ID, USER.FIRST_NAME, USER.EMAIL, USER.ROLE)
+				.values(userId, "User", "user@example.com", UserRole.STUDENT.toString())
+				.execute();
+		sql.insertInto(CHAPTER, CHAPTER.ID, CHAPTER.LABEL).values(1, "Chapter").execute();
+		sql.insertInto(CHAPTER_GROUP,
+				CHAPTER_GROUP.ID, CHAPTER_GROUP.CHAPTER_ID, CHAPTER_GROUP.NAME)
+				.values(1, 1, "Group")
+				.execute();
+		sql.insertInto(TASK, TASK.ID, TASK.NAME, TASK.TRACK, TASK.CHAPTER_ID, TASK.AUTHOR_ID,
+				TASK.SLOT)
+				.values(1, "Task", TaskTrack.BASICS.toString(), 1, userId, 0)
+				.execute();
+		sql.insertInto(ENROLLMENT, ENROLLMENT.CHAPTER_GROUP_ID, ENROLLMENT.USER_ID)
+				.values(1, userId)
+				.execute();
+		submissionId = sql.insertInto(SUBMISSION,
+				SUBMISSION.TASK_ID, SUBMISSION.CHAPTER_GROUP_ID, SUBMISSION.USER_ID)
+				.values(1, 1, userId)
+				.returning(SUBMISSION.ID)
+				.fetchOne()
+				.getId();
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		connection.close();
+	}
+
+	@Test
+	public void testEnqueueRestartsJob() {
+		renditionJobDao.enqueue(submissionId, RENDITION);
+		RenditionJob job = fetchJob();
+		renditionJobDao.markFailed(job, "error");
+		Assert.assertEquals(1, (int) fetchJob().getAttempts());
+
+		renditionJobDao.enqueue(submissionId, RENDITION);
+		RenditionJob restarted = fetchJob();
+		Assert.assertEquals(job.getId(), restarted.getId());
+		Assert.assertEquals(job.getGeneration() + 1, (int) restarted.getGeneration());
+		Assert.assertEquals(0, (int) restarted.getAttempts());
+		Assert.assertNull(restarted.getLastError());
+	}
+
+	@Test
+	public void testStaleJob() {
+		renditionJobDao.enqueue(submissionId, RENDITION);
+		RenditionJob stale = fetchJob();
+		// Restarted while a worker was generating the rendition of the stale job.
+		renditionJobDao.enqueue(submissionId, RENDITION);
+
+		Assert.assertFalse(renditionJobDao.deleteIfUnchanged(stale));
+		renditionJobDao.markFailed(stale, "error");
+		RenditionJob job = fetchJob();
+		Assert.assertEquals(0, (int) job.getAttempts());
+		Assert.assertNull(job.getLastError());
+
+		Assert.assertTrue(renditionJobDao.deleteIfUnchanged(job));
+		Assert.assertTrue(renditionJobDao.fetchPending(MAX_ATTEMPTS, 10).isEmpty());
+	}
+
+	@Test
+	public void testGivenUp() {
+		renditionJobDao.enqueue(submissionId, RENDITION);
+		for (int i = 0; i < MAX_ATTEMPTS; i++) {
+			Assert.assertTrue(renditionJobDao.isPending(submissionId, RENDITION, MAX_ATTEMPTS));
+			renditionJobDao.markFailed(fetchJob(), "error");
+		}
+		Assert.assertFalse(renditionJobDao.isPending(submissionId, RENDITION, MAX_ATTEMPTS));
+		Assert.assertTrue(renditionJobDao.fetchPending(MAX_ATTEMPTS, 10).isEmpty());
+	}
+
+	private RenditionJob fetchJob() {
+		List<RenditionJob> jobs = renditionJobDao.findAll();
+		Assert.assertEquals(1, jobs.size());
+		return jobs.get(0);
+	}
+}
@@ -0,0 +1,188 @@
+package nl.javalon.sketchlab.dao;
+
+import static nl.javalon.sketchlab.entity.Tables.*;
+
+import nl.javalon.sketchlab.dto.task.TaskTrack;
+import nl.javalon.sketchlab.entity.tables.pojos.Annotation;
+import nl.javalon.sketchlab.entity.tables.pojos.Vote;
+import nl.javalon.sketchlab.security.UserRole;
+import org.flywaydb.core.Flyway;
+import org.jooq.Configuration;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.UUID;
+
+/**
+ * Checks that the vote and annotation counts stored on submissions are maintained by the DAOs
+ * which change votes and annotations.
+ *
+ * @author Jelle Stege
+ */
+public class SubmissionCountersTest {
+	private static final String URL =
+			"jdbc:h2:mem:submission-counters;MODE=PostgreSQL;database_to_upper=false";
+	private static final int CHAPTER_GROUP_ID = 1;
+	private static final int TASK_ID = 1;
+
+	private Connection connection;
+	private DSLContext sql;
+	private VoteDetailsDao voteDao;
+	private AnnotationDetailsDao annotationDao;
+	private SubmissionDetailsDao submissionDao;
+
+	private UUID author;
+	private UUID voter;
+	private UUID otherVoter;
+	private int submissionId;
+	private int otherSubmissionId;
+
+	@Before
+	public void setUp() throws SQLException {
+		// Keeps the in-memory database alive until the test has finished.
+		connection = DriverManager.getConnection(URL, "sa", "");
+		Flyway flyway = new Flyway();
+		flyway.setDataSource(URL, "sa", "");
+		flyway.setLocations("classpath:db/migration/common");
+		flyway.migrate();
+
+		Configuration configuration = new DefaultConfiguration()
+				.set(connection)
+				.set(SQLDialect.H2);
+		sql = DSL.using(configuration);
+		voteDao = new VoteDetailsDao(configuration, sql);
+		annotationDao = new AnnotationDetailsDao(configuration, sql);
+		submissionDao = new SubmissionDetailsDao(
+				configuration, sql, new CountCache(sql, 60_000, 1000));
+
+		author = insertUser("author");
+		voter = insertUser("voter");
+		otherVoter = insertUser("other");
+		sql.insertInto(CHAPTER, CHAPTER.ID, CHAPTER.LABEL).values(1, "Chapter").execute();
+		sql.insertInto(CHAPTER_GROUP,
+				CHAPTER_GROUP.ID, CHAPTER_GROUP.CHAPTER_ID, CHAPTER_GROUP.NAME)
+				.values(CHAPTER_GROUP_ID, 1, "Group")
+				.execute();
+		sql.insertInto(TASK, TASK.ID, TASK.NAME, TASK.TRACK, TASK.CHAPTER_ID, TASK.AUTHOR_ID,
+				TASK.SLOT)
+				.values(TASK_ID, "Task", TaskTrack.BASICS.toString(), 1, author, 0)
+				.execute();
+		for (UUID userId : new UUID[]{author, voter, otherVoter}) {
+			sql.insertInto(ENROLLMENT, ENROLLMENT.CHAPTER_GROUP_ID, ENROLLMENT.USER_ID)
+					.values(CHAPTER_GROUP_ID, userId)
+					.execute();
+		}
+		submissionId = insertSubmission();
+		otherSubmissionId = insertSubmission();
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		connection.close();
+	}
+
+	@Test
+	public void testVote() {
+		Assert.assertTrue(voteDao.insertOrDoNothing(vote(submissionId, voter)));
+		Assert.assertFalse(voteDao.insertOrDoNothing(vote(submissionId, voter)));
+		Assert.assertEquals(1, getVoteCount(submissionId));
+		Assert.assertEquals(0, getVoteCount(otherSubmissionId));
+
+		Assert.assertTrue(voteDao.insertOrDoNothing(vote(submissionId, otherVoter)));
+		Assert.assertEquals(2, getVoteCount(submissionId));
+	}
+
+	@Test
+	public void testUnvote() {
+		voteDao.insertOrDoNothing(vote(submissionId, voter));
+		voteDao.insertOrDoNothing(vote(submissionId, otherVoter));
+
+		Assert.assertTrue(voteDao.delete(submissionId, voter));
+		Assert.assertEquals(1, getVoteCount(submissionId));
+		// Deleting a vote which does not exist leaves the count alone.
+		Assert.assertFalse(voteDao.delete(submissionId, voter));
+		Assert.assertEquals(1, getVoteCount(submissionId));
+	}
+
+	@Test
+	public void testAnnotate() {
+		annotationDao.insertAndGet(annotation(submissionId, voter));
+		annotationDao.insertAndGet(annotation(submissionId, voter));
+		Assert.assertEquals(2, getAnnotationCount(submissionId));
+		Assert.assertEquals(0, getAnnotationCount(otherSubmissionId));
+	}
+
+	@Test
+	public void testDeleteUser() {
+		voteDao.insertOrDoNothing(vote(submissionId, voter));
+		voteDao.insertOrDoNothing(vote(submissionId, otherVoter));
+		voteDao.insertOrDoNothing(vote(otherSubmissionId, voter));
+		annotationDao.insertAndGet(annotation(submissionId, voter));
+		annotationDao.insertAndGet(annotation(otherSubmissionId, voter));
+		annotationDao.insertAndGet(annotation(otherSubmissionId, otherVoter));
+
+		// Like InternalUserDetailsDao.deleteUserById, which deletes the votes and annotations of
+		// the user through cascades.
+		submissionDao.subtractCountsOfUser(voter);
+		sql.deleteFrom(USER).where(USER.ID.eq(voter)).execute();
+
+		for (int id : new int[]{submissionId, otherSubmissionId}) {
+			Assert.assertEquals(sql.fetchCount(VOTE, VOTE.SUBMISSION_ID.eq(id)),
+					getVoteCount(id));
+			Assert.assertEquals(sql.fetchCount(ANNOTATION, ANNOTATION.SUBMISSION_ID.eq(id)),
+					getAnnotationCount(id));
+		}
+		Assert.assertEquals(1, getVoteCount(submissionId));
+		Assert.assertEquals(1, getAnnotationCount(otherSubmissionId));
+	}
+
+	private UUID insertUser(String name) {
+		UUID userId = UUID.randomUUID();
+		sql.insertInto(USER, USER.ID, USER.FIRST_NAME, USER.EMAIL, USER.ROLE)
+				.values(userId, name, name + "@example.com", UserRole.STUDENT.toString())
+				.execute();
+		return userId;
+	}
+
+	private int insertSubmission() {
+		return sql.insertInto(SUBMISSION,
+				SUBMISSION.TASK_ID, SUBMISSION.CHAPTER_GROUP_ID, SUBMISSION.USER_ID)
+				.values(TASK_ID, CHAPTER_GROUP_ID, author)
+				.returning(SUBMISSION.ID)
+				.fetchOne()
+				.getId();
+	}
+
+	private int getVoteCount(int id) {
+		return sql.fetchValue(SUBMISSION.VOTE_COUNT, SUBMISSION.ID.eq(id));
+	}
+
+	private int getAnnotationCount(int id) {
+		return sql.fetchValue(SUBMISSION.ANNOTATION_COUNT, SUBMISSION.ID.eq(id));
+	}
+
+	private static Vote vote(int submissionId, UUID userId) {
+		Vote vote = new Vote();
+		vote.setSubmissionId(submissionId);
+		vote.setUserId(userId);
+		return vote;
+	}
+
+	private static Annotation annotation(int submissionId, UUID userId) {
+		Annotation annotation = new Annotation();
+		annotation.setSubmissionId(submissionId);
+		annotation.setUserId(userId);
+		annotation.setComment("Comment");
+		annotation.setSoftDeleted(false);
+		return annotation;
+	}
+}
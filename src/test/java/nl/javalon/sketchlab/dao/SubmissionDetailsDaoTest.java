@@ -0,0 +1,163 @@
+package nl.javalon.sketchlab.dao;
+
+import static nl.javalon.sketchlab.entity.Tables.*;
+
+import nl.javalon.sketchlab.dto.page.Page;
+import nl.javalon.sketchlab.dto.page.PageParameters;
+import nl.javalon.sketchlab.dto.task.TaskTrack;
+import nl.javalon.sketchlab.dto.task.submission.SubmissionDetailsDto;
+import nl.javalon.sketchlab.dto.task.submission.SubmissionOrdering;
+import nl.javalon.sketchlab.security.UserRole;
+import org.flywaydb.core.Flyway;
+import org.jooq.Configuration;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Checks that paginating submissions by keyset returns the same submissions as paginating them
+ * by offset, also when many submissions have the same position in the ordering.
+ *
+ * @author Jelle Stege
+ */
+public class SubmissionDetailsDaoTest {
+	private static final String URL =
+			"jdbc:h2:mem:submission-details-dao;MODE=PostgreSQL;database_to_upper=false";
+	private static final int CHAPTER_GROUP_ID = 1;
+	private static final int SUBMISSIONS = 13;
+
+	private Connection connection;
+	private SubmissionDetailsDao submissionDao;
+	private UUID principalId;
+
+	@Before
+	public void setUp() throws SQLException {
+		// Keeps the in-memory database alive until the test has finished.
+		connection = DriverManager.getConnection(URL, "sa", "");
+		Flyway flyway = new Flyway();
+		flyway.setDataSource(URL, "sa", "");
+		flyway.setLocations("classpath:db/migration/common");
+		flyway.migrate();
+
+		Configuration configuration = new DefaultConfiguration()
+				.set(connection)
+				.set(SQLDialect.H2);
+		DSLContext sql = DSL.using(configuration);
+		submissionDao = new SubmissionDetailsDao(
+				configuration, sql, new CountCache(sql, 60_000, 1000));
+
+		UUID[] users = {UUID.randomUUID(), UUID.randomUUID()};
+		principalId = users[0];
+		sql.insertInto(CHAPTER, CHAPTER.ID, CHAPTER.LABEL).values(1, "Chapter").execute();
+		sql.insertInto(CHAPTER_GROUP,
+				CHAPTER_GROUP.ID, CHAPTER_GROUP.CHAPTER_ID, CHAPTER_GROUP.NAME)
+				.values(CHAPTER_GROUP_ID, 1, "Group")
+				.execute();
+		for (UUID userId : users) {
+			sql.insertInto(USER, USER.ID, USER.FIRST_NAME, USER.EMAIL, USER.ROLE)
+					.values(userId, "User", userId + "@example.com", UserRole.STUDENT.toString())
+					.execute();
+			sql.insertInto(ENROLLMENT, ENROLLMENT.CHAPTER_GROUP_ID, ENROLLMENT.USER_ID)
+					.values(CHAPTER_GROUP_ID, userId)
+					.execute();
+		}
+		// Two tasks share a slot, such that the TASK ordering falls back to their tracks.
+		sql.insertInto(TASK, TASK.ID, TASK.NAME, TASK.TRACK, TASK.CHAPTER_ID, TASK.AUTHOR_ID,
+				TASK.SLOT)
+				.values(1, "Task", TaskTrack.BASICS.toString(), 1, principalId, 0)
+				.values(2, "Task", TaskTrack.FORM.toString(), 1, principalId, 0)
+				.values(3, "Task", TaskTrack.IDEATION.toString(), 1, principalId, 1)
+				.execute();
+
+		// Submissions share their vote counts and creation times, such that only the ID of the
+		// submission breaks the ties.
+		long createdAt = System.currentTimeMillis() / 1000 * 1000;
+		for (int i = 0; i < SUBMISSIONS; i++) {
+			sql.insertInto(SUBMISSION,
+					SUBMISSION.TASK_ID,
+					SUBMISSION.CHAPTER_GROUP_ID,
+					SUBMISSION.USER_ID,
+					SUBMISSION.CREATED_AT,
+					SUBMISSION.BEST_WORK,
+					SUBMISSION.VOTE_COUNT)
+					.values(i % 3 + 1,
+							CHAPTER_GROUP_ID,
+							users[i % 2],
+							new Timestamp(createdAt + i / 4 * 1000),
+							i % 5 == 0,
+							i % 3)
+					.execute();
+		}
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		connection.close();
+	}
+
+	@Test
+	public void testSeekBest() {
+		assertSeekMatchesOffset(SubmissionOrdering.BEST);
+	}
+
+	@Test
+	public void testSeekNew() {
+		assertSeekMatchesOffset(SubmissionOrdering.NEW);
+	}
+
+	@Test
+	public void testSeekTask() {
+		assertSeekMatchesOffset(SubmissionOrdering.TASK);
+	}
+
+	/**
+	 * Pages through all submissions by keyset using several page sizes, and compares the
+	 * submissions with a single page of all submissions paginated by offset.
+	 *
+	 * @param ordering The ordering to paginate in.
+	 */
+	private void assertSeekMatchesOffset(SubmissionOrdering ordering) {
+		List<Integer> expected = getIds(submissionDao.fetchByChapterGroup(CHAPTER_GROUP_ID,
+				principalId, ordering, PageParameters.of(0, SUBMISSIONS + 1)));
+		Assert.assertEquals(SUBMISSIONS, expected.size());
+		Assert.assertEquals(SUBMISSIONS, new HashSet<>(expected).size());
+
+		for (int pageSize = 1; pageSize <= 5; pageSize++) {
+			List<Integer> actual = new ArrayList<>();
+			String cursor = "";
+			int pages = 0;
+			while (cursor != null) {
+				Page<SubmissionDetailsDto> page = submissionDao.fetchByChapterGroup(
+						CHAPTER_GROUP_ID, principalId, ordering,
+						PageParameters.of(0, pageSize, cursor, false));
+				Assert.assertEquals(actual.size(), page.getOffset());
+				actual.addAll(getIds(page));
+				cursor = page.getNextCursor();
+				Assert.assertEquals(cursor != null, page.hasNext());
+				Assert.assertTrue(++pages <= SUBMISSIONS);
+			}
+			Assert.assertEquals(ordering + " in pages of " + pageSize, expected, actual);
+		}
+	}
+
+	private static List<Integer> getIds(Page<SubmissionDetailsDto> page) {
+		return page.getContent().stream()
+				.map(SubmissionDetailsDto::getId)
+				.collect(Collectors.toList());
+	}
+}
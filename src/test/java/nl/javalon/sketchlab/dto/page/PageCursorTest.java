@@ -0,0 +1,32 @@
+package nl.javalon.sketchlab.dto.page;
+
+import nl.javalon.sketchlab.exception.MalformedRequestException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * @author Jelle Stege
+ */
+public class PageCursorTest {
+	@Test
+	public void testEncodeDecode() {
+		PageCursor cursor = new PageCursor(
+				15, Arrays.asList("5", "FORM", "2017-06-01 12:00:00.123", "42"));
+		PageCursor decoded = PageCursor.decode(cursor.encode());
+		Assert.assertEquals(15, decoded.getOffset());
+		Assert.assertEquals(cursor.getKeys(), decoded.getKeys());
+	}
+
+	@Test
+	public void testFirstPage() {
+		Assert.assertSame(PageCursor.FIRST, PageCursor.decode(""));
+		Assert.assertTrue(PageCursor.decode(PageCursor.FIRST.encode()).getKeys().isEmpty());
+	}
+
+	@Test(expected = MalformedRequestException.class)
+	public void testInvalidToken() {
+		PageCursor.decode("not a cursor");
+	}
+}
@@ -0,0 +1,107 @@
+package nl.javalon.sketchlab.service;
+
+import nl.javalon.sketchlab.service.ImageService.ImageFormat;
+import nl.javalon.sketchlab.service.ImageService.RenditionSpec;
+import nl.javalon.sketchlab.service.SketchlabPropertiesMapper.Encoder;
+import nl.javalon.sketchlab.service.SketchlabPropertiesMapper.Encoder.Profile;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares the renditions encoded with the configured encoder profiles to the ones encoded like
+ * before encoder profiles were introduced: baseline JPEG at the highest quality. Reports the size
+ * of both and the structural similarity of the tuned rendition to the old one. Not part of the
+ * tests, run the main method with the images to compare as arguments, or without arguments to use
+ * the demo images. Every rendition is encoded as JPEG, regardless of the format of the image.
+ *
+ * @author Jelle Stege
+ */
+public class EncoderProfileBenchmark {
+	private static final RenditionSpec[] RENDITIONS = {
+			ImageService.THUMBNAIL,
+			ImageService.AVATAR,
+			RenditionSpec.submission(ImageFormat.JPG),
+			RenditionSpec.width(1024, ImageFormat.JPG)
+	};
+
+	public static void main(String[] args) throws IOException {
+		List<Path> images;
+		if (args.length > 0) {
+			images = Stream.of(args).map(Paths::get).collect(Collectors.toList());
+		} else {
+			try (Stream<Path> files = Files.walk(Paths.get("demo_images"))) {
+				images = files
+						.filter(file -> file.toString().matches(".*\\.(jpg|png)"))
+						.filter(file -> !file.getFileName().toString().contains("thumbnail"))
+						.collect(Collectors.toList());
+			}
+		}
+
+		ImageService tuned = new ImageService(new SketchlabPropertiesMapper());
+		ImageService legacy = new ImageService(legacyProperties());
+		long[] legacyTotals = new long[RENDITIONS.length];
+		long[] tunedTotals = new long[RENDITIONS.length];
+		double[] minimumSimilarities = new double[RENDITIONS.length];
+		Arrays.fill(minimumSimilarities, 1);
+
+		System.out.printf("%-30s %-10s %10s %10s %7s %7s%n",
+				"image", "purpose", "legacy KB", "tuned KB", "ratio", "ssim");
+		for (Path image : images) {
+			byte[] data = Files.readAllBytes(image);
+			for (int i = 0; i < RENDITIONS.length; i++) {
+				byte[] legacyRendition = legacy.resizeImage(data, RENDITIONS[i]);
+				byte[] tunedRendition = tuned.resizeImage(data, RENDITIONS[i]);
+				double similarity = Ssim.compute(decode(legacyRendition), decode(tunedRendition));
+				legacyTotals[i] += legacyRendition.length;
+				tunedTotals[i] += tunedRendition.length;
+				minimumSimilarities[i] = Math.min(minimumSimilarities[i], similarity);
+				System.out.printf("%-30s %-10s %10d %10d %7.2f %7.4f%n",
+						image.getFileName(), RENDITIONS[i].getPurpose(),
+						legacyRendition.length / 1024, tunedRendition.length / 1024,
+						(double) tunedRendition.length / legacyRendition.length, similarity);
+			}
+		}
+
+		System.out.println();
+		System.out.printf("%-10s %10s %10s %7s %12s%n",
+				"purpose", "legacy KB", "tuned KB", "ratio", "minimum ssim");
+		for (int i = 0; i < RENDITIONS.length; i++) {
+			System.out.printf("%-10s %10d %10d %7.2f %12.4f%n",
+					RENDITIONS[i].getPurpose(), legacyTotals[i] / 1024, tunedTotals[i] / 1024,
+					(double) tunedTotals[i] / legacyTotals[i], minimumSimilarities[i]);
+		}
+	}
+
+	/**
+	 * Returns properties with which every rendition is encoded like before encoder profiles were
+	 * introduced.
+	 */
+	private static SketchlabPropertiesMapper legacyProperties() {
+		SketchlabPropertiesMapper properties = new SketchlabPropertiesMapper();
+		Encoder encoder = properties.getEncoder();
+		encoder.setThumbnail(legacyProfile());
+		encoder.setAvatar(legacyProfile());
+		encoder.setSubmission(legacyProfile());
+		encoder.setResponsive(legacyProfile());
+		encoder.setOriginal(legacyProfile());
+		return properties;
+	}
+
+	private static Profile legacyProfile() {
+		return new Profile(1.0f, true, false, false);
+	}
+
+	private static BufferedImage decode(byte[] data) throws IOException {
+		return ImageIO.read(new ByteArrayInputStream(data));
+	}
+}
@@ -0,0 +1,303 @@
+package nl.javalon.sketchlab.service;
+
+import nl.javalon.sketchlab.dao.BlobTable;
+import nl.javalon.sketchlab.dto.RenditionDto;
+import nl.javalon.sketchlab.dto.SpriteDto;
+import nl.javalon.sketchlab.dto.TilePyramidDto;
+import nl.javalon.sketchlab.exception.NoSuchEntityException;
+import nl.javalon.sketchlab.service.ImageService.RotationState;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.imageio.ImageIO;
+import javax.servlet.http.HttpServletResponse;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Jelle Stege
+ */
+public class FileServiceTest {
+	private static final byte[] DATA = "0123456789".getBytes(StandardCharsets.US_ASCII);
+	private static final String MIME_TYPE = "image/png";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FileSystemBlobStore blobStore;
+	private FileService fileService;
+	private ImageProcessingService imageProcessingService;
+	private String hash;
+	private MockHttpServletRequest request;
+	private MockHttpServletResponse response;
+
+	@Before
+	public void setUp() throws Exception {
+		blobStore = new FileSystemBlobStore(folder.newFolder().toPath());
+		RenditionCache renditionCache = new RenditionCache(folder.newFolder().toPath());
+		SketchlabPropertiesMapper properties = new SketchlabPropertiesMapper();
+		imageProcessingService = new ImageProcessingService(properties);
+		fileService = new FileService(blobStore, null, renditionCache,
+				new ImageService(properties), imageProcessingService, properties);
+		hash = blobStore.put(DATA);
+		request = new MockHttpServletRequest("GET", "/file");
+		response = new MockHttpServletResponse();
+	}
+
+	@After
+	public void tearDown() {
+		imageProcessingService.shutdown();
+	}
+
+	@Test
+	public void testWholeFile() throws Exception {
+		write();
+		Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		Assert.assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+		Assert.assertEquals(MIME_TYPE, response.getContentType());
+		Assert.assertArrayEquals(DATA, response.getContentAsByteArray());
+	}
+
+	@Test
+	public void testSingleRange() throws Exception {
+		request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+		write();
+		Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+		Assert.assertEquals("bytes 2-5/10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+		Assert.assertEquals(4, response.getContentLength());
+		Assert.assertEquals("2345", response.getContentAsString());
+	}
+
+	@Test
+	public void testOpenEndedRanges() throws Exception {
+		request.addHeader(HttpHeaders.RANGE, "bytes=7-");
+		write();
+		Assert.assertEquals("789", response.getContentAsString());
+
+		response = new MockHttpServletResponse();
+		request.removeHeader(HttpHeaders.RANGE);
+		request.addHeader(HttpHeaders.RANGE, "bytes=-4");
+		write();
+		Assert.assertEquals("bytes 6-9/10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+		Assert.assertEquals("6789", response.getContentAsString());
+	}
+
+	@Test
+	public void testMultipleRanges() throws Exception {
+		request.addHeader(HttpHeaders.RANGE, "bytes=0-1,8-,20-");
+		write();
+		Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+		Assert.assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="));
+
+		String body = response.getContentAsString();
+		Assert.assertEquals(body.length(), response.getContentLength());
+		Assert.assertTrue(body.contains("Content-Range: bytes 0-1/10\r\n\r\n01\r\n"));
+		Assert.assertTrue(body.contains("Content-Range: bytes 8-9/10\r\n\r\n89\r\n"));
+		Assert.assertFalse(body.contains("bytes 20"));
+	}
+
+	@Test
+	public void testUnsatisfiableRange() throws Exception {
+		request.addHeader(HttpHeaders.RANGE, "bytes=10-");
+		write();
+		Assert.assertEquals(
+				HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatus());
+		Assert.assertEquals("bytes */10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+		Assert.assertEquals(0, response.getContentAsByteArray().length);
+	}
+
+	@Test
+	public void testIfRange() throws Exception {
+		request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+		request.addHeader(HttpHeaders.IF_RANGE, "\"" + hash + "\"");
+		write();
+		Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+
+		response = new MockHttpServletResponse();
+		request.removeHeader(HttpHeaders.IF_RANGE);
+		request.addHeader(HttpHeaders.IF_RANGE, "\"outdated\"");
+		write();
+		Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		Assert.assertArrayEquals(DATA, response.getContentAsByteArray());
+	}
+
+	@Test
+	public void testNotModified() throws Exception {
+		request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"" + hash + "\"");
+		write();
+		Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+		Assert.assertEquals(0, response.getContentAsByteArray().length);
+	}
+
+	@Test
+	public void testRotation() throws Exception {
+		ByteArrayOutputStream image = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(4, 2, BufferedImage.TYPE_INT_RGB), "png", image);
+		String imageHash = blobStore.put(image.toByteArray());
+		String version = FileService.version(imageHash, RotationState.ROT90);
+		Assert.assertEquals(imageHash + "-ROT90", version);
+		Assert.assertEquals(imageHash, FileService.version(imageHash, RotationState.ROT0));
+
+		// The second request is served from the rendition cache.
+		for (int i = 0; i < 2; i++) {
+			response = new MockHttpServletResponse();
+			fileService.write(BlobTable.SUBMISSION_FILES, 1, imageHash, RotationState.ROT90,
+					MIME_TYPE, null, request, response);
+			Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+			Assert.assertEquals('"' + version + '"', response.getHeader(HttpHeaders.ETAG));
+
+			BufferedImage rotated =
+					ImageIO.read(new ByteArrayInputStream(response.getContentAsByteArray()));
+			Assert.assertEquals(2, rotated.getWidth());
+			Assert.assertEquals(4, rotated.getHeight());
+		}
+	}
+
+	@Test
+	public void testRenditionWidth() throws Exception {
+		Assert.assertEquals(Integer.valueOf(320), fileService.getRenditionWidth(1));
+		Assert.assertEquals(Integer.valueOf(640), fileService.getRenditionWidth(500));
+		Assert.assertEquals(Integer.valueOf(640), fileService.getRenditionWidth(640));
+		Assert.assertEquals(Integer.valueOf(2048), fileService.getRenditionWidth(5000));
+
+		ByteArrayOutputStream image = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(800, 400, BufferedImage.TYPE_INT_RGB), "png", image);
+		String imageHash = blobStore.put(image.toByteArray());
+		List<RenditionDto> renditions = fileService.getRenditions(
+				BlobTable.SUBMISSION_FILES, 1, imageHash, RotationState.ROT90);
+		Assert.assertEquals(Arrays.asList(new RenditionDto(320, 320, 640),
+				new RenditionDto(null, 400, 800)), renditions);
+
+		fileService.write(BlobTable.SUBMISSION_FILES, 1, imageHash, RotationState.ROT90, 300,
+				MIME_TYPE, null, request, response);
+		Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		Assert.assertEquals('"' + FileService.version(imageHash, RotationState.ROT90, 320) + '"',
+				response.getHeader(HttpHeaders.ETAG));
+		BufferedImage resized =
+				ImageIO.read(new ByteArrayInputStream(response.getContentAsByteArray()));
+		Assert.assertEquals(320, resized.getWidth());
+		Assert.assertEquals(640, resized.getHeight());
+	}
+
+	@Test
+	public void testSprite() throws Exception {
+		// A wide and a tall thumbnail, each centered in its own cell.
+		Map<Integer, String> thumbnails = new LinkedHashMap<>();
+		int[][] dimensions = {{500, 250}, {200, 375}};
+		for (int i = 0; i < dimensions.length; i++) {
+			ByteArrayOutputStream image = new ByteArrayOutputStream();
+			BufferedImage thumbnail = new BufferedImage(
+					dimensions[i][0], dimensions[i][1], BufferedImage.TYPE_INT_RGB);
+			Graphics2D graphics = thumbnail.createGraphics();
+			graphics.setColor(Color.BLACK);
+			graphics.fillRect(0, 0, thumbnail.getWidth(), thumbnail.getHeight());
+			graphics.dispose();
+			ImageIO.write(thumbnail, "png", image);
+			thumbnails.put(10 + i, blobStore.put(image.toByteArray()));
+		}
+
+		SpriteDto sprite = fileService.getSprite(BlobTable.SUBMISSION_THUMBNAILS, thumbnails);
+		Assert.assertEquals(1000, sprite.getWidth());
+		Assert.assertEquals(375, sprite.getHeight());
+		Assert.assertEquals(Arrays.asList(new SpriteDto.Tile(10, 0, 0, 500, 375),
+				new SpriteDto.Tile(11, 500, 0, 500, 375)), sprite.getTiles());
+
+		fileService.writeSprite(BlobTable.SUBMISSION_THUMBNAILS, thumbnails, sprite.getVersion(),
+				request, response);
+		Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		Assert.assertEquals('"' + sprite.getVersion() + '"', response.getHeader(HttpHeaders.ETAG));
+		Assert.assertTrue(response.getHeader(HttpHeaders.CACHE_CONTROL).contains("immutable"));
+		BufferedImage image =
+				ImageIO.read(new ByteArrayInputStream(response.getContentAsByteArray()));
+		Assert.assertEquals(1000, image.getWidth());
+		Assert.assertEquals(375, image.getHeight());
+		Assert.assertTrue(isDark(image.getRGB(250, 187)));
+		Assert.assertFalse(isDark(image.getRGB(250, 20)));
+		Assert.assertTrue(isDark(image.getRGB(750, 187)));
+		Assert.assertFalse(isDark(image.getRGB(520, 187)));
+
+		// Another order of the same thumbnails is another sprite.
+		List<String> reversed = new ArrayList<>(thumbnails.values());
+		Collections.reverse(reversed);
+		thumbnails.clear();
+		thumbnails.put(11, reversed.get(0));
+		thumbnails.put(10, reversed.get(1));
+		Assert.assertNotEquals(sprite.getVersion(),
+				fileService.getSprite(BlobTable.SUBMISSION_THUMBNAILS, thumbnails).getVersion());
+	}
+
+	@Test
+	public void testTiles() throws Exception {
+		ByteArrayOutputStream image = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(600, 300, BufferedImage.TYPE_INT_RGB), "png", image);
+		String imageHash = blobStore.put(image.toByteArray());
+
+		// Tiles are cut from the rotated image.
+		TilePyramidDto pyramid =
+				fileService.getTilePyramid(imageHash, RotationState.ROT90, MIME_TYPE);
+		Assert.assertEquals(FileService.version(imageHash, RotationState.ROT90),
+				pyramid.getVersion());
+		Assert.assertEquals(300, pyramid.getWidth());
+		Assert.assertEquals(600, pyramid.getHeight());
+		Assert.assertEquals(10, pyramid.getMaxLevel());
+		Assert.assertTrue(FileService.containsTile(pyramid, 10, 1, 2));
+		Assert.assertFalse(FileService.containsTile(pyramid, 10, 2, 1));
+		Assert.assertFalse(FileService.containsTile(pyramid, 9, 0, 3));
+		Assert.assertFalse(FileService.containsTile(pyramid, 11, 0, 0));
+
+		fileService.writeTile(imageHash, RotationState.ROT90, 10, 1, 2, MIME_TYPE,
+				pyramid.getVersion(), request, response);
+		Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		Assert.assertEquals('"' + pyramid.getVersion() + "-t10-1-2\"",
+				response.getHeader(HttpHeaders.ETAG));
+		Assert.assertTrue(response.getHeader(HttpHeaders.CACHE_CONTROL).contains("immutable"));
+		BufferedImage tile =
+				ImageIO.read(new ByteArrayInputStream(response.getContentAsByteArray()));
+		Assert.assertEquals(44, tile.getWidth());
+		Assert.assertEquals(88, tile.getHeight());
+
+		// Revalidating a tile does not read the image at all.
+		Files.delete(blobStore.getPath(imageHash));
+		request.addHeader(HttpHeaders.IF_NONE_MATCH, response.getHeader(HttpHeaders.ETAG));
+		response = new MockHttpServletResponse();
+		fileService.writeTile(imageHash, RotationState.ROT90, 10, 1, 2, MIME_TYPE,
+				pyramid.getVersion(), request, response);
+		Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+	}
+
+	@Test(expected = NoSuchEntityException.class)
+	public void testNoSuchTile() throws Exception {
+		ByteArrayOutputStream image = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(600, 300, BufferedImage.TYPE_INT_RGB), "png", image);
+		String imageHash = blobStore.put(image.toByteArray());
+		fileService.writeTile(imageHash, RotationState.ROT90, 10, 2, 1, MIME_TYPE,
+				null, request, response);
+	}
+
+	private static boolean isDark(int rgb) {
+		return (rgb & 0xFF) < 0x40;
+	}
+
+	private void write() throws Exception {
+		fileService.write(
+				BlobTable.SUBMISSION_FILES, 1, hash, MIME_TYPE, null, request, response);
+	}
+}
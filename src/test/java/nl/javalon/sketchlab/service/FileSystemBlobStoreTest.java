@@ -0,0 +1,89 @@
+package nl.javalon.sketchlab.service;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * @author Jelle Stege
+ */
+public class FileSystemBlobStoreTest {
+	private static final byte[] DATA = "sketchlab".getBytes(StandardCharsets.UTF_8);
+	private static final String DATA_HASH =
+			"c46dcf4ddcba79ebeabb5ea9cf55fa52d5a1274dd33d293bda7675bb916f2188";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FileSystemBlobStore store;
+
+	@Before
+	public void setUp() throws Exception {
+		store = new FileSystemBlobStore(folder.getRoot().toPath());
+	}
+
+	@Test
+	public void testPutAndGet() throws Exception {
+		String hash = store.put(DATA);
+		Assert.assertEquals(DATA_HASH, hash);
+		Assert.assertTrue(store.contains(hash));
+		Assert.assertArrayEquals(DATA, store.get(hash));
+	}
+
+	@Test
+	public void testShardedPath() throws Exception {
+		String hash = store.put(DATA);
+		Path path = store.getPath(hash);
+		Assert.assertEquals(hash, path.getFileName().toString());
+		Assert.assertEquals(hash.substring(2, 4), path.getParent().getFileName().toString());
+		Assert.assertEquals(
+				hash.substring(0, 2), path.getParent().getParent().getFileName().toString());
+		Assert.assertTrue(Files.isRegularFile(path));
+	}
+
+	@Test
+	public void testDeduplication() throws Exception {
+		String first = store.put(DATA);
+		String second = store.put(DATA.clone());
+		Assert.assertEquals(first, second);
+		Assert.assertNotEquals(first, store.put(new byte[]{1, 2, 3}));
+	}
+
+	@Test
+	public void testStreamHash() throws Exception {
+		Assert.assertEquals(DATA_HASH, FileSystemBlobStore.hash(new ByteArrayInputStream(DATA)));
+		byte[] large = new byte[100_000];
+		Arrays.fill(large, (byte) 7);
+		Assert.assertEquals(FileSystemBlobStore.hash(large),
+				FileSystemBlobStore.hash(new ByteArrayInputStream(large)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidHash() {
+		store.getPath("../../etc/passwd");
+	}
+
+	@Test
+	public void testRetain() throws Exception {
+		String referenced = store.put(DATA);
+		String unreferenced = store.put(new byte[]{1, 2, 3});
+
+		// Nothing is old enough to be removed yet.
+		Assert.assertEquals(0, store.retain(Collections.singleton(referenced), Instant.EPOCH));
+
+		Instant future = Instant.now().plusSeconds(60);
+		Assert.assertEquals(1, store.retain(Collections.singleton(referenced), future));
+		Assert.assertTrue(store.contains(referenced));
+		Assert.assertFalse(store.contains(unreferenced));
+	}
+}
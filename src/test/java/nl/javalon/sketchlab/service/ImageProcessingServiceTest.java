@@ -0,0 +1,171 @@
+package nl.javalon.sketchlab.service;
+
+import nl.javalon.sketchlab.entity.tables.pojos.User;
+import nl.javalon.sketchlab.exception.ServiceUnavailableException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Jelle Stege
+ */
+public class ImageProcessingServiceTest {
+	private final CountDownLatch started = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final ExecutorService requests = Executors.newCachedThreadPool();
+	private final User user = new User();
+	private ImageProcessingService service;
+
+	@Before
+	public void setUp() {
+		user.setId(UUID.randomUUID());
+		login();
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		requests.shutdownNow();
+		service.shutdown();
+		SecurityContextHolder.clearContext();
+	}
+
+	@Test
+	public void testExecute() throws Exception {
+		service = createService(1, 1, 1);
+		Assert.assertEquals("done", service.execute(() -> "done"));
+		// The user released its slot, so it may process another image.
+		Assert.assertEquals("again", service.execute(() -> "again"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testExceptionIsUnwrapped() throws Exception {
+		service = createService(1, 1, 1);
+		service.execute(() -> {
+			throw new IOException("Unreadable image");
+		});
+	}
+
+	@Test
+	public void testExecuteAsync() throws Exception {
+		service = createService(1, 1, 1);
+		CompletableFuture<String> future = service.executeAsync(() -> {
+			started.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			return "done";
+		});
+		Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+		Assert.assertFalse(future.isDone());
+
+		release.countDown();
+		Assert.assertEquals("done", ImageProcessingService.await(future));
+		// The slot is released once the task completed.
+		Assert.assertEquals("again", service.execute(() -> "again"));
+	}
+
+	@Test(expected = ServiceUnavailableException.class)
+	public void testPerUserLimit() throws Exception {
+		service = createService(2, 2, 1);
+		submitBlockingTask();
+		Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+		service.execute(() -> "rejected");
+	}
+
+	@Test
+	public void testQueueFull() throws Exception {
+		service = createService(1, 1, 10);
+		submitBlockingTask();
+		Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+		requests.submit(() -> {
+			login();
+			return service.execute(() -> "queued");
+		});
+		while (service.getQueueSize() == 0) {
+			Thread.sleep(10);
+		}
+
+		try {
+			service.execute(() -> "rejected");
+			Assert.fail("Expected the request to be rejected");
+		} catch (ServiceUnavailableException e) {
+			Assert.assertEquals(5, e.getRetryAfter());
+		}
+	}
+
+	@Test
+	public void testSystemLimit() throws Exception {
+		service = createService(2, 2, 1);
+		submitBlockingTask();
+		Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		// Tasks run without a logged in user do not share the limit of the user.
+		SecurityContextHolder.clearContext();
+		Assert.assertEquals("system", service.execute(() -> "system"));
+	}
+
+	@Test
+	public void testSubmitIsNotAccountedToUser() throws Exception {
+		service = createService(2, 2, 1);
+		Future<String> background = service.submit(() -> {
+			started.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			return "background";
+		});
+		Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+		// The background task does not use the slot of the user.
+		Assert.assertEquals("done", service.execute(() -> "done"));
+
+		release.countDown();
+		Assert.assertEquals("background", ImageProcessingService.await(background));
+	}
+
+	private void submitBlockingTask() {
+		requests.submit(() -> {
+			login();
+			return service.execute(() -> {
+				started.countDown();
+				try {
+					return release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			});
+		});
+	}
+
+	private void login() {
+		SecurityContextHolder.getContext()
+				.setAuthentication(new TestingAuthenticationToken(user, null));
+	}
+
+	private static ImageProcessingService createService(
+			int poolSize, int queueCapacity, int perUserLimit) {
+		SketchlabPropertiesMapper properties = new SketchlabPropertiesMapper();
+		properties.getImageProcessing().setPoolSize(poolSize);
+		properties.getImageProcessing().setQueueCapacity(queueCapacity);
+		properties.getImageProcessing().setPerUserLimit(perUserLimit);
+		properties.getImageProcessing().setSystemLimit(1);
+		return new ImageProcessingService(properties);
+	}
+}
@@ -102,4 +102,16 @@ public class ImageServiceRotationStateTest {
 		r = r.transform(Transformation.FLIP_VERTICAL);
 		Assert.assertEquals(ROT270, r);
 	}
+
+	@Test
+	public void testGetTransformations() {
+		Assert.assertTrue(ROT0.getTransformations().isEmpty());
+		for (RotationState state : RotationState.values()) {
+			RotationState r = ROT0;
+			for (Transformation transformation : state.getTransformations()) {
+				r = r.transform(transformation);
+			}
+			Assert.assertEquals(state, r);
+		}
+	}
 }
@@ -0,0 +1,329 @@
+package nl.javalon.sketchlab.service;
+
+import net.coobird.thumbnailator.Thumbnails;
+import net.coobird.thumbnailator.resizers.configurations.Rendering;
+import nl.javalon.sketchlab.exception.UnprocessableEntityException;
+import nl.javalon.sketchlab.service.ImageService.RenditionSpec;
+import nl.javalon.sketchlab.service.SketchlabPropertiesMapper.Encoder.Profile;
+import nl.javalon.sketchlab.utils.Pair;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * @author Jelle Stege
+ */
+public class ImageServiceTest {
+	/**
+	 * The images the application is demonstrated with, used as corpus of realistic uploads.
+	 */
+	private static final Path CORPUS = Paths.get("demo_images");
+
+	/**
+	 * The maximum mean difference per color channel between an image resized from a subsampled
+	 * decode and one resized from a full decode. Includes the loss of JPEG encoding.
+	 */
+	private static final double MAX_MEAN_DIFFERENCE = 5.0;
+
+	/**
+	 * The minimum structural similarity between a thumbnail encoded with the default encoder
+	 * profile and one encoded at the highest quality.
+	 */
+	private static final double MIN_SIMILARITY = 0.9;
+
+	private final ImageService imageService =
+			new ImageService(new SketchlabPropertiesMapper());
+
+	@Test
+	public void testCalculateSubsampling() {
+		Assert.assertEquals(4, ImageService.calculateSubsampling(4000, 3000, 500, 375));
+		Assert.assertEquals(3, ImageService.calculateSubsampling(3697, 3000, 462, 375));
+		Assert.assertEquals(1, ImageService.calculateSubsampling(3697, 3000, 2048, 1661));
+		Assert.assertEquals(1, ImageService.calculateSubsampling(512, 384, 500, 375));
+		Assert.assertEquals(1, ImageService.calculateSubsampling(100, 100, 500, 500));
+		// The smallest factor of both directions is used, such that neither gets too small.
+		Assert.assertEquals(2, ImageService.calculateSubsampling(8000, 1000, 500, 250));
+	}
+
+	@Test
+	public void testCorpus() throws IOException {
+		List<Path> images = corpus();
+		Assert.assertFalse(images.isEmpty());
+
+		for (Path image : images) {
+			byte[] data = Files.readAllBytes(image);
+			assertSimilar(image.toString(), data, imageService.createThumbnail(data),
+					ImageService.THUMBNAIL_WIDTH, ImageService.THUMBNAIL_HEIGHT);
+		}
+	}
+
+	@Test
+	public void testEncoderProfiles() throws IOException {
+		SketchlabPropertiesMapper legacy = new SketchlabPropertiesMapper();
+		legacy.getEncoder().setThumbnail(new Profile(1.0f, true, false, false));
+		ImageService legacyImageService = new ImageService(legacy);
+
+		for (Path image : corpus()) {
+			byte[] data = Files.readAllBytes(image);
+			byte[] expected = legacyImageService.createThumbnail(data);
+			byte[] actual = imageService.createThumbnail(data);
+			Assert.assertTrue(image.toString(), actual.length < expected.length);
+			double similarity = Ssim.compute(decode(expected), decode(actual));
+			Assert.assertTrue(image + " has a similarity of " + similarity,
+					similarity >= MIN_SIMILARITY);
+		}
+	}
+
+	@Test
+	public void testDecodeStream() throws IOException {
+		byte[] data = Files.readAllBytes(CORPUS.resolve("example_submissions/horse_proper.jpg"));
+		ImageService.SourceImage expected = imageService.decodeImage(data, ImageService.THUMBNAIL);
+		ImageService.SourceImage actual;
+		try (InputStream inputStream = new ByteArrayInputStream(data)) {
+			actual = imageService.decodeImage(inputStream, ImageService.THUMBNAIL);
+		}
+		Assert.assertEquals(expected.getWidth(), actual.getWidth());
+		Assert.assertEquals(expected.getHeight(), actual.getHeight());
+		Assert.assertEquals(expected.getImage().getWidth(), actual.getImage().getWidth());
+		Assert.assertEquals(expected.getImage().getHeight(), actual.getImage().getHeight());
+		for (int y = 0; y < expected.getImage().getHeight(); y++) {
+			for (int x = 0; x < expected.getImage().getWidth(); x++) {
+				Assert.assertEquals(
+						expected.getImage().getRGB(x, y), actual.getImage().getRGB(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void testPerceptualHash() throws IOException {
+		List<Path> images = corpus();
+		long[] hashes = new long[images.size()];
+		for (int i = 0; i < images.size(); i++) {
+			byte[] data = Files.readAllBytes(images.get(i));
+			hashes[i] = imageService.createPerceptualHash(imageService.decodeImage(data));
+
+			// The same image, resized and recompressed, has about the same hash.
+			byte[] resized = imageService.resizeImage(data, RenditionSpec.width(
+					decode(data).getWidth() / 3, ImageService.ImageFormat.JPG));
+			long resizedHash = imageService.createPerceptualHash(imageService.decodeImage(resized));
+			int distance = ImageService.getPerceptualDistance(hashes[i], resizedHash);
+			Assert.assertTrue(images.get(i) + " differs by " + distance,
+					distance <= ImageService.MAX_PERCEPTUAL_DISTANCE);
+		}
+
+		for (int i = 0; i < hashes.length; i++) {
+			for (int j = i + 1; j < hashes.length; j++) {
+				int distance = ImageService.getPerceptualDistance(hashes[i], hashes[j]);
+				Assert.assertTrue(
+						images.get(i) + " and " + images.get(j) + " differ by " + distance,
+						distance > ImageService.MAX_PERCEPTUAL_DISTANCE);
+			}
+		}
+	}
+
+	@Test
+	public void testTiles() throws IOException {
+		Assert.assertEquals(0, ImageService.getMaxTileLevel(1, 1));
+		Assert.assertEquals(11, ImageService.getMaxTileLevel(2048, 10));
+		Assert.assertEquals(12, ImageService.getMaxTileLevel(2049, 10));
+		Assert.assertEquals(new Pair<>(300, 150), ImageService.getTileLevelDimensions(600, 300, 9));
+		Assert.assertEquals(new Pair<>(1, 1), ImageService.getTileLevelDimensions(600, 300, 0));
+
+		// A white image with a red bottom right corner, which is exactly the last tile.
+		BufferedImage image = new BufferedImage(600, 300, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		graphics.setColor(Color.WHITE);
+		graphics.fillRect(0, 0, 600, 300);
+		graphics.setColor(Color.RED);
+		graphics.fillRect(512, 256, 88, 44);
+		graphics.dispose();
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", outputStream);
+		byte[] data = outputStream.toByteArray();
+
+		BufferedImage corner = decode(
+				imageService.createTile(data, 10, 2, 1, ImageService.ImageFormat.PNG));
+		Assert.assertEquals(88, corner.getWidth());
+		Assert.assertEquals(44, corner.getHeight());
+		Assert.assertEquals(Color.RED.getRGB(), corner.getRGB(40, 20));
+
+		BufferedImage first = decode(
+				imageService.createTile(data, 10, 0, 0, ImageService.ImageFormat.PNG));
+		Assert.assertEquals(256, first.getWidth());
+		Assert.assertEquals(256, first.getHeight());
+		Assert.assertEquals(Color.WHITE.getRGB(), first.getRGB(128, 128));
+
+		// One level lower, the image is half as large and fits in two tiles.
+		assertDimensions(
+				imageService.createTile(data, 9, 1, 0, ImageService.ImageFormat.JPG), 44, 150);
+		assertDimensions(
+				imageService.createTile(data, 0, 0, 0, ImageService.ImageFormat.JPG), 1, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingTile() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(600, 300, BufferedImage.TYPE_INT_RGB), "png", outputStream);
+		imageService.createTile(
+				outputStream.toByteArray(), 9, 2, 0, ImageService.ImageFormat.PNG);
+	}
+
+	@Test
+	public void testCheckDimensions() throws IOException {
+		byte[] data = Files.readAllBytes(CORPUS.resolve("submissions/cube.jpg"));
+		BufferedImage image = decode(data);
+		Pair<Integer, Integer> dimensions = imageService.checkDimensions(
+				new MockMultipartFile("file", "cube.jpg", "image/jpeg", data));
+		Assert.assertEquals(image.getWidth(), (int) dimensions.getFirst());
+		Assert.assertEquals(image.getHeight(), (int) dimensions.getSecond());
+	}
+
+	@Test(expected = UnprocessableEntityException.class)
+	public void testUploadPixelBudget() throws IOException {
+		imageService.checkDimensions(
+				new MockMultipartFile("file", "bomb.png", "image/png", createBomb()));
+	}
+
+	@Test(expected = UnprocessableEntityException.class)
+	public void testDecodePixelBudget() throws IOException {
+		imageService.decodeImage(createBomb(), ImageService.THUMBNAIL);
+	}
+
+	@Test
+	public void testLargeImage() throws IOException {
+		BufferedImage image = new BufferedImage(4000, 3000, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		graphics.setPaint(new GradientPaint(0, 0, Color.WHITE, 4000, 3000, Color.BLUE));
+		graphics.fillRect(0, 0, 4000, 3000);
+		graphics.setColor(Color.BLACK);
+		for (int x = 0; x < 4000; x += 100) {
+			graphics.fillRect(x, 0, 8, 3000);
+		}
+		graphics.dispose();
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", outputStream);
+		byte[] data = outputStream.toByteArray();
+
+		assertSimilar("synthetic", data, imageService.createThumbnail(data),
+				ImageService.THUMBNAIL_WIDTH, ImageService.THUMBNAIL_HEIGHT);
+	}
+
+	@Test
+	public void testRenditions() throws IOException {
+		byte[] data = Files.readAllBytes(CORPUS.resolve("example_submissions/horse_proper.jpg"));
+		RenditionSpec resized = RenditionSpec.submission(ImageService.ImageFormat.JPG);
+		ImageService.SourceImage image =
+				imageService.decodeImage(data, resized, ImageService.THUMBNAIL);
+		Assert.assertEquals(3697, image.getWidth());
+		Assert.assertEquals(3000, image.getHeight());
+
+		List<byte[]> renditions =
+				imageService.createRenditions(image, resized, ImageService.THUMBNAIL);
+		Assert.assertEquals(2, renditions.size());
+		assertDimensions(renditions.get(0), 2048, 1661);
+		assertDimensions(renditions.get(1), 500, 405);
+
+		ImageService.SourceImage rotated = imageService.transformImage(
+				image, ImageService.Transformation.ROTATE_CLOCKWISE);
+		Assert.assertEquals(3000, rotated.getWidth());
+		Assert.assertEquals(3697, rotated.getHeight());
+		assertDimensions(imageService.createRendition(rotated, resized), 1661, 2048);
+	}
+
+	private static List<Path> corpus() throws IOException {
+		try (Stream<Path> files = Files.walk(CORPUS)) {
+			return files
+					.filter(Files::isRegularFile)
+					.filter(file -> file.toString().matches(".*\\.(jpg|png)"))
+					.filter(file -> !file.getFileName().toString().contains("thumbnail"))
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Creates a PNG image of a single pixel, which declares to be 50000 by 50000 pixels in its
+	 * header. Decoding it would allocate gigabytes.
+	 */
+	private static byte[] createBomb() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB), "png", outputStream);
+		byte[] data = outputStream.toByteArray();
+
+		// The IHDR chunk follows the signature, its width and height are followed by its CRC.
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		buffer.putInt(16, 50000);
+		buffer.putInt(20, 50000);
+		CRC32 crc = new CRC32();
+		crc.update(data, 12, 17);
+		buffer.putInt(29, (int) crc.getValue());
+		return data;
+	}
+
+	private static BufferedImage decode(byte[] data) throws IOException {
+		return ImageIO.read(new ByteArrayInputStream(data));
+	}
+
+	private static void assertDimensions(byte[] data, int width, int height) throws IOException {
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+		Assert.assertEquals(width, image.getWidth());
+		Assert.assertEquals(height, image.getHeight());
+	}
+
+	/**
+	 * Asserts the given resized image has the same dimensions as, and barely differs from, the
+	 * given original image resized without subsampling.
+	 */
+	private static void assertSimilar(
+			String name, byte[] original, byte[] resized, int maxWidth, int maxHeight)
+			throws IOException {
+		BufferedImage source = ImageIO.read(new ByteArrayInputStream(original));
+		Pair<Integer, Integer> dimensions = ImageService.calculateDimensions(
+				source.getWidth(), source.getHeight(), maxWidth, maxHeight, true);
+		int width = dimensions.getFirst();
+		int height = dimensions.getSecond();
+		BufferedImage expected = Thumbnails
+				.of(source)
+				.forceSize(width, height)
+				.imageType(BufferedImage.TYPE_INT_RGB)
+				.rendering(Rendering.QUALITY)
+				.asBufferedImage();
+		BufferedImage actual = ImageIO.read(new ByteArrayInputStream(resized));
+
+		Assert.assertEquals(name, expected.getWidth(), actual.getWidth());
+		Assert.assertEquals(name, expected.getHeight(), actual.getHeight());
+
+		long difference = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int expectedRgb = expected.getRGB(x, y);
+				int actualRgb = actual.getRGB(x, y);
+				for (int shift = 0; shift < 24; shift += 8) {
+					difference += Math.abs(
+							((expectedRgb >> shift) & 0xFF) - ((actualRgb >> shift) & 0xFF));
+				}
+			}
+		}
+		double meanDifference = (double) difference / (width * height * 3);
+		Assert.assertTrue(name + " differs by " + meanDifference,
+				meanDifference <= MAX_MEAN_DIFFERENCE);
+	}
+}
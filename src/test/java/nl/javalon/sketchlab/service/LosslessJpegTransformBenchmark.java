@@ -0,0 +1,118 @@
+package nl.javalon.sketchlab.service;
+
+import nl.javalon.sketchlab.service.ImageService.ImageFormat;
+import nl.javalon.sketchlab.service.ImageService.RotationState;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares rotating JPEG images using {@link LosslessJpegTransform} with rotating them by
+ * transforming their pixels, by their duration, the size of the result and the difference with
+ * the original after rotating four times. Not part of the tests, run the main method with the
+ * images to compare as arguments, or without arguments to use the JPEG images of the demo images.
+ *
+ * @author Jelle Stege
+ */
+public class LosslessJpegTransformBenchmark {
+	private static final int WARMUP_ITERATIONS = 3;
+	private static final int ITERATIONS = 10;
+	private static final RotationState[] ROTATIONS =
+			{RotationState.ROT90, RotationState.ROT180, RotationState.ROT270};
+
+	private static final ImageService imageService =
+			new ImageService(new SketchlabPropertiesMapper());
+
+	public static void main(String[] args) throws IOException {
+		List<Path> images;
+		if (args.length > 0) {
+			images = Stream.of(args).map(Paths::get).collect(Collectors.toList());
+		} else {
+			try (Stream<Path> files = Files.walk(Paths.get("demo_images"))) {
+				images = files
+						.filter(file -> file.toString().endsWith(".jpg"))
+						.collect(Collectors.toList());
+			}
+		}
+
+		System.out.printf("%-40s %-6s %10s %11s %10s %11s %8s %8s%n", "image", "state",
+				"pixels ms", "lossless ms", "pixels KB", "lossless KB", "drift", "drift");
+		for (Path image : images) {
+			byte[] data = Files.readAllBytes(image);
+			for (RotationState rotation : ROTATIONS) {
+				byte[] pixels = imageService.transformPixels(data, rotation, ImageFormat.JPG);
+				double pixelsDuration = measure(
+						() -> imageService.transformPixels(data, rotation, ImageFormat.JPG));
+				byte[] lossless =
+						LosslessJpegTransform.transform(data, rotation.getTransformations());
+				if (lossless == null) {
+					System.out.printf("%-40s %-6s %10.1f %11s %10d %11s %8.2f %8s%n",
+							image.getFileName(), rotation, pixelsDuration, "n/a",
+							pixels.length / 1024, "n/a", drift(data, rotation, true), "n/a");
+					continue;
+				}
+				double losslessDuration = measure(
+						() -> LosslessJpegTransform.transform(data, rotation.getTransformations()));
+				System.out.printf("%-40s %-6s %10.1f %11.1f %10d %11d %8.2f %8.2f%n",
+						image.getFileName(), rotation, pixelsDuration, losslessDuration,
+						pixels.length / 1024, lossless.length / 1024,
+						drift(data, rotation, true), drift(data, rotation, false));
+			}
+		}
+	}
+
+	/**
+	 * Measures the mean duration of the given task in milliseconds, after warming up.
+	 */
+	private static double measure(Task task) throws IOException {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			task.run();
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			task.run();
+		}
+		return (System.nanoTime() - start) / 1e6 / ITERATIONS;
+	}
+
+	/**
+	 * Rotates the given image four times, which results in the original image again, and returns
+	 * the mean difference per color channel with the original image.
+	 */
+	private static double drift(byte[] data, RotationState rotation, boolean pixels)
+			throws IOException {
+		byte[] rotated = data;
+		for (int i = 0; i < 4; i++) {
+			rotated = pixels
+					? imageService.transformPixels(rotated, rotation, ImageFormat.JPG)
+					: LosslessJpegTransform.transform(rotated, rotation.getTransformations());
+		}
+		BufferedImage expected = ImageIO.read(new ByteArrayInputStream(data));
+		BufferedImage actual = ImageIO.read(new ByteArrayInputStream(rotated));
+		long difference = 0;
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				int expectedRgb = expected.getRGB(x, y);
+				int actualRgb = actual.getRGB(x, y);
+				for (int shift = 0; shift < 24; shift += 8) {
+					difference += Math.abs(
+							((expectedRgb >> shift) & 0xFF) - ((actualRgb >> shift) & 0xFF));
+				}
+			}
+		}
+		return (double) difference / (expected.getWidth() * expected.getHeight() * 3);
+	}
+
+	@FunctionalInterface
+	private interface Task {
+		byte[] run() throws IOException;
+	}
+}
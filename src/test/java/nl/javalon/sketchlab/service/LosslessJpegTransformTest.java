@@ -0,0 +1,165 @@
+package nl.javalon.sketchlab.service;
+
+import nl.javalon.sketchlab.service.ImageService.Transformation;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * @author Jelle Stege
+ */
+public class LosslessJpegTransformTest {
+	/**
+	 * The maximum mean difference per color channel between an image transformed losslessly and
+	 * one transformed using its pixels. The inverse DCT of decoders is not exactly symmetric, so
+	 * a transposed block may decode slightly differently.
+	 */
+	private static final double MAX_MEAN_DIFFERENCE = 0.5;
+
+	@Test
+	public void testTransformations() throws IOException {
+		for (int type : new int[]{BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY}) {
+			byte[] jpeg = createJpeg(160, 96, type, false);
+			BufferedImage original = decode(jpeg);
+			for (Transformation transformation : Transformation.values()) {
+				byte[] transformed = LosslessJpegTransform.transform(
+						jpeg, Collections.singletonList(transformation));
+				Assert.assertNotNull(transformation.name(), transformed);
+				assertSimilar(transformation.name(),
+						transform(original, transformation), decode(transformed));
+			}
+		}
+	}
+
+	@Test
+	public void testRepeatedRotations() throws IOException {
+		byte[] jpeg = LosslessJpegTransform.transform(
+				createJpeg(160, 96, BufferedImage.TYPE_INT_RGB, false), Collections.emptyList());
+		Assert.assertNotNull(jpeg);
+
+		// Rotating an image four times gives back the exact same image.
+		byte[] rotated = jpeg;
+		for (int i = 0; i < 4; i++) {
+			rotated = LosslessJpegTransform.transform(
+					rotated, Collections.singletonList(Transformation.ROTATE_CLOCKWISE));
+			Assert.assertNotNull(rotated);
+		}
+		Assert.assertArrayEquals(jpeg, rotated);
+	}
+
+	@Test
+	public void testUnsupported() throws IOException {
+		// The right and bottom edges consist of partial MCUs, which can not be mirrored.
+		byte[] unaligned = createJpeg(500, 375, BufferedImage.TYPE_INT_RGB, false);
+		for (Transformation transformation : Transformation.values()) {
+			Assert.assertNull(transformation.name(), LosslessJpegTransform.transform(
+					unaligned, Collections.singletonList(transformation)));
+		}
+
+		byte[] progressive = createJpeg(160, 96, BufferedImage.TYPE_INT_RGB, true);
+		Assert.assertNull(LosslessJpegTransform.transform(
+				progressive, Collections.singletonList(Transformation.FLIP_VERTICAL)));
+
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), "png", png);
+		Assert.assertNull(LosslessJpegTransform.transform(
+				png.toByteArray(), Collections.singletonList(Transformation.FLIP_VERTICAL)));
+	}
+
+	private static byte[] createJpeg(int width, int height, int type, boolean progressive)
+			throws IOException {
+		BufferedImage image = new BufferedImage(width, height, type);
+		Graphics2D graphics = image.createGraphics();
+		graphics.setPaint(new GradientPaint(0, 0, Color.RED, width, height, Color.BLUE));
+		graphics.fillRect(0, 0, width, height);
+		graphics.setColor(Color.GREEN);
+		graphics.fillOval(width / 8, height / 6, width / 3, height / 2);
+		graphics.setColor(Color.BLACK);
+		graphics.fillRect(0, 0, width / 10, height / 20);
+		graphics.dispose();
+
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+		ImageWriteParam parameters = writer.getDefaultWriteParam();
+		if (progressive) {
+			parameters.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+		}
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try (ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(outputStream)) {
+			writer.setOutput(imageOutputStream);
+			writer.write(null, new IIOImage(image, null, null), parameters);
+		} finally {
+			writer.dispose();
+		}
+		return outputStream.toByteArray();
+	}
+
+	private static BufferedImage decode(byte[] data) throws IOException {
+		return ImageIO.read(new ByteArrayInputStream(data));
+	}
+
+	/**
+	 * Transforms the pixels of the given image, as reference for the lossless transformation.
+	 */
+	private static BufferedImage transform(BufferedImage image, Transformation transformation) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		boolean rotate = transformation == Transformation.ROTATE_CLOCKWISE
+				|| transformation == Transformation.ROTATE_COUNTERCLOCKWISE;
+		BufferedImage transformed = new BufferedImage(
+				rotate ? height : width, rotate ? width : height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int rgb = image.getRGB(x, y);
+				switch (transformation) {
+					case ROTATE_CLOCKWISE:
+						transformed.setRGB(height - 1 - y, x, rgb);
+						break;
+					case ROTATE_COUNTERCLOCKWISE:
+						transformed.setRGB(y, width - 1 - x, rgb);
+						break;
+					case FLIP_HORIZONTAL:
+						transformed.setRGB(width - 1 - x, y, rgb);
+						break;
+					case FLIP_VERTICAL:
+						transformed.setRGB(x, height - 1 - y, rgb);
+						break;
+				}
+			}
+		}
+		return transformed;
+	}
+
+	private static void assertSimilar(String name, BufferedImage expected, BufferedImage actual) {
+		Assert.assertEquals(name, expected.getWidth(), actual.getWidth());
+		Assert.assertEquals(name, expected.getHeight(), actual.getHeight());
+
+		long difference = 0;
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				int expectedRgb = expected.getRGB(x, y);
+				int actualRgb = actual.getRGB(x, y);
+				for (int shift = 0; shift < 24; shift += 8) {
+					difference += Math.abs(
+							((expectedRgb >> shift) & 0xFF) - ((actualRgb >> shift) & 0xFF));
+				}
+			}
+		}
+		double meanDifference =
+				(double) difference / (expected.getWidth() * expected.getHeight() * 3);
+		Assert.assertTrue(name + " differs by " + meanDifference,
+				meanDifference <= MAX_MEAN_DIFFERENCE);
+	}
+}
@@ -0,0 +1,88 @@
+package nl.javalon.sketchlab.service;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * @author Jelle Stege
+ */
+public class RenditionCacheTest {
+	private static final byte[] DATA = new byte[10];
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testHit() throws Exception {
+		RenditionCache cache = new RenditionCache(folder.getRoot().toPath());
+		Path first = cache.get("abcd-ROT90", () -> DATA);
+		Path second = cache.get("abcd-ROT90", () -> {
+			throw new AssertionError("The rendition should be cached");
+		});
+		Assert.assertEquals(first, second);
+		Assert.assertArrayEquals(DATA, Files.readAllBytes(second));
+		Assert.assertEquals(1, cache.getEntries());
+		Assert.assertEquals(DATA.length, cache.getSize());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		RenditionCache cache = new RenditionCache(folder.getRoot().toPath(), 25);
+		Path first = cache.get("aaaa", () -> DATA);
+		Path second = cache.get("bbbb", () -> DATA);
+		// Using the first rendition makes the second one the least recently used.
+		cache.get("aaaa", () -> DATA);
+		Path third = cache.get("cccc", () -> DATA);
+
+		Assert.assertTrue(Files.exists(first));
+		Assert.assertFalse(Files.exists(second));
+		Assert.assertTrue(Files.exists(third));
+		Assert.assertEquals(2, cache.getEntries());
+		Assert.assertEquals(20, cache.getSize());
+	}
+
+	@Test
+	public void testPinned() throws Exception {
+		RenditionCache cache = new RenditionCache(folder.getRoot().toPath(), 15);
+		Path first = cache.get("aaaa", () -> DATA);
+		Path second = cache.read("aaaa", () -> DATA, file -> cache.get("bbbb", () -> DATA));
+
+		// The first rendition was pinned while the second one was added.
+		Assert.assertTrue(Files.exists(first));
+		Assert.assertTrue(Files.exists(second));
+		Assert.assertEquals(20, cache.getSize());
+
+		// Once the first rendition is not pinned anymore, it is evicted again.
+		Path third = cache.get("cccc", () -> DATA);
+		Assert.assertFalse(Files.exists(first));
+		Assert.assertFalse(Files.exists(second));
+		Assert.assertTrue(Files.exists(third));
+		Assert.assertEquals(1, cache.getEntries());
+	}
+
+	@Test
+	public void testRestore() throws Exception {
+		Path root = folder.getRoot().toPath();
+		RenditionCache cache = new RenditionCache(root);
+		Path first = cache.get("aaaa", () -> DATA);
+		Path second = cache.get("bbbb", () -> DATA);
+		Path third = cache.get("cccc", () -> DATA);
+		Files.setLastModifiedTime(first, FileTime.fromMillis(3000));
+		Files.setLastModifiedTime(second, FileTime.fromMillis(1000));
+		Files.setLastModifiedTime(third, FileTime.fromMillis(2000));
+
+		// The least recently modified rendition is evicted when the cache is restored smaller.
+		RenditionCache restored = new RenditionCache(root, 25);
+		Assert.assertEquals(2, restored.getEntries());
+		Assert.assertFalse(Files.exists(second));
+		Assert.assertEquals(first, restored.get("aaaa", () -> {
+			throw new AssertionError("The rendition should be cached");
+		}));
+	}
+}
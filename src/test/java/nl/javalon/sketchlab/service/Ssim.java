@@ -0,0 +1,78 @@
+package nl.javalon.sketchlab.service;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Computes the structural similarity (SSIM) of two images of the same dimensions, which
+ * approximates how similar they look better than the difference of their pixels. Only the luma is
+ * compared, in windows of 8 by 8 pixels which overlap by half.
+ *
+ * @author Jelle Stege
+ */
+final class Ssim {
+	private static final int WINDOW = 8;
+	private static final int STRIDE = WINDOW / 2;
+	private static final double C1 = (0.01 * 255) * (0.01 * 255);
+	private static final double C2 = (0.03 * 255) * (0.03 * 255);
+
+	private Ssim() {
+	}
+
+	/**
+	 * Computes the mean structural similarity of the given images.
+	 *
+	 * @param expected The reference image.
+	 * @param actual   The image to compare with the reference.
+	 * @return The similarity, 1 for identical images.
+	 */
+	static double compute(BufferedImage expected, BufferedImage actual) {
+		int width = expected.getWidth();
+		int height = expected.getHeight();
+		if (actual.getWidth() != width || actual.getHeight() != height) {
+			throw new IllegalArgumentException("The images differ in dimensions");
+		}
+		double[] x = luma(expected);
+		double[] y = luma(actual);
+
+		double total = 0;
+		int windows = 0;
+		for (int top = 0; top + WINDOW <= height; top += STRIDE) {
+			for (int left = 0; left + WINDOW <= width; left += STRIDE) {
+				double sumX = 0, sumY = 0, sumXX = 0, sumYY = 0, sumXY = 0;
+				for (int row = top; row < top + WINDOW; row++) {
+					for (int i = row * width + left; i < row * width + left + WINDOW; i++) {
+						sumX += x[i];
+						sumY += y[i];
+						sumXX += x[i] * x[i];
+						sumYY += y[i] * y[i];
+						sumXY += x[i] * y[i];
+					}
+				}
+				int n = WINDOW * WINDOW;
+				double meanX = sumX / n;
+				double meanY = sumY / n;
+				double varianceX = sumXX / n - meanX * meanX;
+				double varianceY = sumYY / n - meanY * meanY;
+				double covariance = sumXY / n - meanX * meanY;
+				total += (2 * meanX * meanY + C1) * (2 * covariance + C2)
+						/ ((meanX * meanX + meanY * meanY + C1) * (varianceX + varianceY + C2));
+				windows++;
+			}
+		}
+		return windows == 0 ? 1 : total / windows;
+	}
+
+	private static double[] luma(BufferedImage image) {
+		int width = image.getWidth();
+		double[] luma = new double[width * image.getHeight()];
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < width; x++) {
+				int rgb = image.getRGB(x, y);
+				luma[y * width + x] = 0.299 * ((rgb >> 16) & 0xFF)
+						+ 0.587 * ((rgb >> 8) & 0xFF)
+						+ 0.114 * (rgb & 0xFF);
+			}
+		}
+		return luma;
+	}
+}
@@ -0,0 +1,67 @@
+-- Seed data for QueryPlanTest, large enough that PostgreSQL only scans a table sequentially when
+-- there is no usable index. IDs start above 1000000 to stay clear of existing rows, and
+-- everything is rolled back after the test.
+--
+-- Users 1-10 are teachers, users 11-5000 students. Student i is enrolled in chapter groups
+-- i % 100 and (i + 37) % 100, and in subgroup (i % 100) + 100 * (i % 5) of the first one.
+-- Chapter group g belongs to chapter g % 20, task t to chapter t % 20.
+
+INSERT INTO "user"(id, first_name, role)
+  SELECT md5('user' || i)::uuid, 'User ' || i, CASE WHEN i <= 10 THEN 'TEACHER' ELSE 'STUDENT' END
+  FROM generate_series(1, 5000) i;
+
+INSERT INTO chapter(id, label)
+  SELECT 1000001 + i, 'Chapter ' || i
+  FROM generate_series(0, 19) i;
+
+INSERT INTO task(id, name, track, chapter_id, author_id, slot)
+  SELECT 1000001 + i, 'Task ' || i,
+    (ARRAY['BASICS', 'FORM', 'IDEATION', 'COMMUNICATION'])[1 + i % 4],
+    1000001 + i % 20, md5('user1')::uuid, i / 80
+  FROM generate_series(0, 399) i;
+
+INSERT INTO chapter_group(id, chapter_id, name)
+  SELECT 1000001 + i, 1000001 + i % 20, 'Chapter group ' || i
+  FROM generate_series(0, 99) i;
+
+INSERT INTO enrollment(chapter_group_id, user_id, assistant)
+  SELECT 1000001 + i % 100, md5('user' || i)::uuid, i % 50 = 0
+  FROM generate_series(11, 5000) i
+  UNION ALL
+  SELECT 1000001 + (i + 37) % 100, md5('user' || i)::uuid, FALSE
+  FROM generate_series(11, 5000) i;
+
+INSERT INTO chapter_subgroup(id, chapter_group_id, name)
+  SELECT 1000001 + i, 1000001 + i % 100, 'Subgroup ' || (1000001 + i)
+  FROM generate_series(0, 499) i;
+
+INSERT INTO subgroup_enrollment(chapter_subgroup_id, user_id)
+  SELECT 1000001 + i % 100 + 100 * (i % 5), md5('user' || i)::uuid
+  FROM generate_series(11, 5000) i;
+
+-- Submission i is made by student u = 11 + i % 4990 in its first chapter group, for one of the
+-- tasks of the chapter of that group.
+INSERT INTO submission(id, task_id, chapter_group_id, user_id, created_at, best_work, soft_deleted,
+    vote_count)
+  SELECT 1000001 + i, 1000001 + (u % 100) % 20 + 20 * (i % 20), 1000001 + u % 100,
+    md5('user' || u)::uuid, NOW() - i * INTERVAL '1 minute', i % 50 = 0, i % 30 = 0, 2
+  FROM (SELECT i, 11 + i % 4990 AS u FROM generate_series(0, 99999) i) s;
+
+INSERT INTO vote(submission_id, user_id)
+  SELECT 1000001 + i % 100000, md5('user' || (11 + (7 * i) % 4990))::uuid
+  FROM generate_series(0, 199999) i;
+
+INSERT INTO annotation(submission_id, user_id, comment)
+  SELECT 1000001 + (3 * i) % 100000, md5('user' || (1 + i % 10))::uuid, 'Annotation ' || i
+  FROM generate_series(0, 49999) i;
+
+INSERT INTO question(task_id, user_id, chapter_group_id, text)
+  SELECT 1000001 + (u % 100) % 20 + 20 * (i % 20), md5('user' || u)::uuid, 1000001 + u % 100,
+    'Question ' || i
+  FROM (SELECT i, 11 + i % 4990 AS u FROM generate_series(0, 19999) i) s;
+
+INSERT INTO notification(user_id, event_type, submission_id)
+  SELECT md5('user' || (11 + i % 4990))::uuid, 'SUBMISSION_BEST_WORK', 1000001 + i % 100000
+  FROM generate_series(0, 99999) i;
+
+ANALYZE;